@@ -14,6 +14,16 @@ import com.wheellog.shared.WearPages
 class AppConfig(var context: Context) {
     private val sharedPreferences: SharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
     private var specificPrefix: String = "default"
+
+    /**
+     * Prefix of the specific settings: the last connected wheel for the primary one,
+     * otherwise the MAC of the wheel the thread works for, see [WheelData.getInstance].
+     */
+    private val wheelPrefix: String
+        get() {
+            val wheel = WheelData.getInstance()
+            return if (wheel == null || wheel.isPrimary) specificPrefix else wheel.mac
+        }
     private val separator = ";"
 
     init {
@@ -97,6 +107,10 @@ class AppConfig(var context: Context) {
         get() = getValue(R.string.max_speed, 50)
         set(value) = setValue(R.string.max_speed, value)
 
+    var displayRate: Int
+        get() = getValue(R.string.display_rate, 0)
+        set(value) = setValue(R.string.display_rate, value)
+
     var currentOnDial: Boolean
         get() = getValue(R.string.current_on_dial, false)
         set(value) = setValue(R.string.current_on_dial, value)
@@ -153,6 +167,10 @@ class AppConfig(var context: Context) {
         get() = getValue(R.string.use_reconnect, false)
         set(value) = setValue(R.string.use_reconnect, value)
 
+    var reconnectMissedFrames: Int
+        get() = getValue(R.string.reconnect_missed_frames, LinkSupervisor.DEFAULT_MISSED_FRAMES)
+        set(value) = setValue(R.string.reconnect_missed_frames, value)
+
     var detectBatteryOptimization: Boolean
         get() = getValue(R.string.use_detect_battery_optimization, true)
         set(value) = setValue(R.string.use_detect_battery_optimization, value)
@@ -551,22 +569,33 @@ class AppConfig(var context: Context) {
 
     //region -=[ custom settings ]=-
     var passwordForWheel: String
-        get() = getValue("wheel_password_$specificPrefix", "")
-        set(value) {
-            var password = value
-            while (password.length < 6) {
-                password = "0$password"
-            }
-            setValue("wheel_password_$specificPrefix", password)
-        }
+        get() = passwordForWheel(wheelPrefix)
+        set(value) = setPasswordForWheel(wheelPrefix, value)
 
     var advDataForWheel: String
-        get() = getValue("wheel_adv_data_$specificPrefix", "")
-        set(value) = setValue("wheel_adv_data_$specificPrefix", value)
+        get() = advDataForWheel(wheelPrefix)
+        set(value) = setAdvDataForWheel(wheelPrefix, value)
+
+    /**
+     * Settings of a wheel by its MAC, for wheels connected next to the last connected one.
+     */
+    fun passwordForWheel(mac: String): String = getValue("wheel_password_$mac", "")
+
+    fun setPasswordForWheel(mac: String, value: String) {
+        var password = value
+        while (password.length < 6) {
+            password = "0$password"
+        }
+        setValue("wheel_password_$mac", password)
+    }
+
+    fun advDataForWheel(mac: String): String = getValue("wheel_adv_data_$mac", "")
+
+    fun setAdvDataForWheel(mac: String, value: String) = setValue("wheel_adv_data_$mac", value)
 
     var userDistance: Long
-        get() = getValue("user_distance_$specificPrefix", 0L)
-        set(value) = setValue("user_distance_$specificPrefix", value)
+        get() = getValue("user_distance_$wheelPrefix", 0L)
+        set(value) = setValue("user_distance_$wheelPrefix", value)
     //endregion
 
     var lastLocationLaltitude: Double
@@ -589,7 +618,7 @@ class AppConfig(var context: Context) {
     }
 
     private fun setSpecific(resId: Int, value: Any?) {
-        setValue(specificPrefix + "_" + context.getString(resId), value)
+        setValue(wheelPrefix + "_" + context.getString(resId), value)
     }
 
     fun setValue(resId: Int, value: Any?) {
@@ -609,7 +638,7 @@ class AppConfig(var context: Context) {
     }
 
     private fun <T : Any?> getSpecific(resId: Int, defaultValue: T): T {
-        return getValue(specificPrefix + "_" + context.getString(resId), defaultValue)
+        return getValue(wheelPrefix + "_" + context.getString(resId), defaultValue)
     }
 
     fun <T : Any?> getValue(resId: Int, defaultValue: T): T {
@@ -0,0 +1,100 @@
+package com.cooper.wheellog
+
+import timber.log.Timber
+
+/**
+ * Decides the connection priority of the BLE link: high while riding, balanced
+ * when the wheel is parked for a while. Keeps the negotiated MTU, the requested
+ * priority and the notification rate per wheel model.
+ */
+class BleLinkTuner {
+
+    enum class Priority {
+        Balanced,
+        High
+    }
+
+    data class LinkStats(
+        val mtu: Int,
+        val priority: Priority,
+        val notificationsPerSecond: Int
+    )
+
+    var mtu = DEFAULT_MTU
+        private set
+
+    var priority = Priority.Balanced
+        private set
+
+    /**
+     * Notifications received during the last full second.
+     */
+    var notificationsPerSecond = 0
+        private set
+
+    private var notificationCount = 0
+    private var rateStartTime = 0L
+    private var lastRidingTime = Long.MIN_VALUE / 2
+    private val stats = HashMap<String, LinkStats>()
+
+    fun onMtuChanged(mtu: Int, success: Boolean) {
+        this.mtu = if (success) mtu else DEFAULT_MTU
+        Timber.i("MTU %d, success %b", mtu, success)
+    }
+
+    /**
+     * @param speed wheel speed, km/h * 10.
+     * @return the priority to request or null if it should stay as it is.
+     */
+    fun onNotification(now: Long, speed: Int): Priority? {
+        notificationCount++
+        if (now - rateStartTime >= RATE_PERIOD) {
+            notificationsPerSecond = (notificationCount * RATE_PERIOD / maxOf(now - rateStartTime, 1)).toInt()
+            notificationCount = 0
+            rateStartTime = now
+        }
+        if (Math.abs(speed) >= RIDING_SPEED) {
+            lastRidingTime = now
+        }
+        val newPriority = if (now - lastRidingTime < PARKED_DELAY) Priority.High else Priority.Balanced
+        if (newPriority == priority) {
+            return null
+        }
+        priority = newPriority
+        return newPriority
+    }
+
+    /**
+     * Saves the current link parameters for the model, e.g. when the connection is closed.
+     */
+    fun record(model: String) {
+        if (model.isEmpty()) {
+            return
+        }
+        val linkStats = LinkStats(mtu, priority, notificationsPerSecond)
+        stats[model] = linkStats
+        Timber.i("Link of %s: %s", model, linkStats)
+    }
+
+    fun getStats(model: String): LinkStats? = stats[model]
+
+    /**
+     * Called on a new connection, the MTU has to be negotiated again.
+     */
+    fun reset() {
+        mtu = DEFAULT_MTU
+        priority = Priority.Balanced
+        notificationsPerSecond = 0
+        notificationCount = 0
+        rateStartTime = 0
+        lastRidingTime = Long.MIN_VALUE / 2
+    }
+
+    companion object {
+        const val DEFAULT_MTU = 23
+        const val MAX_MTU = 517
+        const val RIDING_SPEED = 30
+        const val PARKED_DELAY = 30_000L
+        private const val RATE_PERIOD = 1000L
+    }
+}
@@ -13,8 +13,12 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import com.cooper.wheellog.utils.*;
@@ -28,7 +32,7 @@ import timber.log.Timber;
  * Service for managing connection and data communication with a GATT server hosted on a
  * given Bluetooth LE device.
  */
-public class BluetoothLeService extends Service {
+public class BluetoothLeService extends Service implements GattLink {
 
     private BluetoothAdapter mBluetoothAdapter;
     private String mBluetoothDeviceAddress;
@@ -54,21 +58,53 @@ public class BluetoothLeService extends Service {
     private final String wakeLogTag = "WhellLog:WakeLockTag";
     private final IBinder mBinder = new LocalBinder();
 
+    private final Handler writeHandler = new Handler(Looper.getMainLooper());
+    private final Runnable writeTimer = () -> getWriteQueue().onTimer();
+    private final GattWriteQueue writeQueue = new GattWriteQueue(
+            delay -> {
+                writeHandler.removeCallbacks(writeTimer);
+                writeHandler.postDelayed(writeTimer, delay);
+            },
+            SystemClock::uptimeMillis);
+    // the MTU request of the app, onMtuChanged completes only this one
+    private volatile GattWriteQueue.Operation mtuRequest;
+    private final BleLinkTuner linkTuner = new BleLinkTuner();
+    private volatile GattEndpoint mEndpoint;
+    private static final long STALL_CHECK_PERIOD = 500;
+    private final LinkSupervisor linkSupervisor = new LinkSupervisor();
+    private final Runnable reconnectRunnable = this::reconnect;
+    private long lastRssiRequest;
+
     public void startReconnectTimer() {
         if (reconnectTimer != null) {
             stopReconnectTimer();
         }
         reconnectTimer = new Timer();
-        WheelData wd = WheelData.getInstance();
-        int magicPeriod = 15_000;
         reconnectTimer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                if (mConnectionState == STATE_CONNECTED && wd.getLastLifeData() > 0 && ((System.currentTimeMillis() -  wd.getLastLifeData()) / 1000 > magicPeriod)) {
+                if (mConnectionState == STATE_CONNECTED
+                        && linkSupervisor.isStalled(SystemClock.elapsedRealtime(), WheelLog.AppConfig.getReconnectMissedFrames())) {
+                    Timber.i("No data for %d ms", linkSupervisor.stallTimeout(WheelLog.AppConfig.getReconnectMissedFrames()));
+                    linkSupervisor.onLinkLost();
                     toggleReconnectToWheel();
+                } else if (mConnectionState == STATE_CONNECTED) {
+                    requestRssi();
                 }
             }
-        }, magicPeriod, magicPeriod);
+        }, STALL_CHECK_PERIOD, STALL_CHECK_PERIOD);
+    }
+
+    private void requestRssi() {
+        long now = SystemClock.elapsedRealtime();
+        BluetoothGatt gatt = mBluetoothGatt;
+        if (gatt == null || now - lastRssiRequest < LinkDiagnostics.RSSI_INTERVAL) {
+            return;
+        }
+        lastRssiRequest = now;
+        if (!gatt.readRemoteRssi()) {
+            Timber.i("RSSI request failed");
+        }
     }
 
     public void stopReconnectTimer() {
@@ -112,7 +148,10 @@ public class BluetoothLeService extends Service {
                 }
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 Timber.i("Disconnected from GATT server.");
+                writeQueue.clear();
+                mEndpoint = null;
                 if (mConnectionState == STATE_CONNECTED) {
+                    linkTuner.record(WheelData.getPrimary().getModel());
                     mDisconnectTime = Calendar.getInstance().getTime();
                     if (connectionSound) {
                         SomeUtil.playSound(getApplicationContext(), R.raw.sound_disconnect);
@@ -128,21 +167,27 @@ public class BluetoothLeService extends Service {
                 if (!disconnectRequested &&
                         mBluetoothGatt != null && mBluetoothGatt.getDevice() != null) {
                     Timber.i("Trying to reconnect");
-                    switch (WheelData.getInstance().getWheelType()) {
-                        case INMOTION:
-                            InMotionAdapter.stopTimer();
-                        case INMOTION_V2:
-                            InmotionAdapterV2.stopTimer();
-                        case NINEBOT_Z:
-                            NinebotZAdapter.getInstance().resetConnection();
-                        case NINEBOT:
-                            NinebotAdapter.getInstance().resetConnection();
-                    }
-                    if (!autoConnect) {
-                        autoConnect = true;
-                        mBluetoothGatt.close();
-                        mBluetoothGatt = mBluetoothGatt.getDevice().connectGatt(BluetoothLeService.this, autoConnect, mGattCallback);
+                    WheelData previous = WheelData.bind(WheelData.getPrimary());
+                    try {
+                        switch (WheelData.getPrimary().getWheelType()) {
+                            case INMOTION:
+                                InMotionAdapter.stopTimer();
+                            case INMOTION_V2:
+                                InmotionAdapterV2.stopTimer();
+                            case NINEBOT_Z:
+                                NinebotZAdapter.getInstance().resetConnection();
+                            case NINEBOT:
+                                NinebotAdapter.getInstance().resetConnection();
+                        }
+                    } finally {
+                        WheelData.bind(previous);
                     }
+                    linkSupervisor.onLinkLost();
+                    mBluetoothGatt.close();
+                    long delay = linkSupervisor.nextReconnectDelay();
+                    Timber.i("Reconnect in %d ms, attempt %d", delay, linkSupervisor.getAttempts());
+                    writeHandler.removeCallbacks(reconnectRunnable);
+                    writeHandler.postDelayed(reconnectRunnable, delay);
                     broadcastConnectionUpdate(STATE_CONNECTING, true);
                 } else {
                     Timber.i("Disconnected");
@@ -159,9 +204,18 @@ public class BluetoothLeService extends Service {
             Timber.i("onServicesDiscovered called");
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Timber.i("onServicesDiscovered called, status == BluetoothGatt.GATT_SUCCESS");
-                boolean recognisedWheel = WheelData.getInstance().detectWheel(mBluetoothDeviceAddress);
-                WheelData.getInstance().setConnected(recognisedWheel);
+                linkTuner.reset();
+                requestMtu();
+                boolean recognisedWheel;
+                WheelData previous = WheelData.bind(WheelData.getPrimary());
+                try {
+                    recognisedWheel = WheelData.getPrimary().detectWheel(mBluetoothDeviceAddress, getApplicationContext());
+                } finally {
+                    WheelData.bind(previous);
+                }
+                WheelData.getPrimary().setConnected(recognisedWheel);
                 if (recognisedWheel) {
+                    mEndpoint = GattEndpoint.resolve(gatt, WheelData.getPrimary().getWheelType(), WheelData.getPrimary().getProtoVer());
                     sendBroadcast(new Intent(Constants.ACTION_WHEEL_TYPE_RECOGNIZED));
                     mConnectionState = STATE_CONNECTED;
                     broadcastConnectionUpdate(mConnectionState);
@@ -176,14 +230,14 @@ public class BluetoothLeService extends Service {
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicRead(gatt, characteristic, status);
-            Timber.i("onCharacteristicRead called %s", characteristic.getUuid().toString());
+            Timber.i("onCharacteristicRead called %s", characteristic.getUuid());
             readData(characteristic, status);
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
             super.onCharacteristicChanged(gatt, characteristic);
-            Timber.i("onCharacteristicChanged called %s", characteristic.getUuid().toString());
+            Timber.i("onCharacteristicChanged called %s", characteristic.getUuid());
             readData(characteristic, BluetoothGatt.GATT_SUCCESS);
         }
 
@@ -191,6 +245,33 @@ public class BluetoothLeService extends Service {
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             super.onDescriptorWrite(gatt, descriptor, status);
             Timber.i("onDescriptorWrite %d", status);
+            writeQueue.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            writeQueue.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            super.onReadRemoteRssi(gatt, rssi, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                WheelData.getPrimary().getDiagnostics().onRssi(rssi);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            linkTuner.onMtuChanged(mtu, status == BluetoothGatt.GATT_SUCCESS);
+            // the default MTU is fine too, no need to retry. The system or the wheel may change
+            // the MTU by itself, that does not complete another write
+            GattWriteQueue.Operation request = mtuRequest;
+            if (request != null) {
+                writeQueue.onWriteComplete(request, true);
+            }
         }
     };
 
@@ -206,58 +287,79 @@ public class BluetoothLeService extends Service {
             }
             if (fileUtilRawData.isNull()) {
                 String fileNameForRawData = "RAW_" + sdf.format(new Date()) + ".csv";
-                fileUtilRawData.prepareFile(fileNameForRawData, WheelData.getInstance().getMac());
+                fileUtilRawData.prepareFile(fileNameForRawData, WheelData.getPrimary().getMac());
             }
             fileUtilRawData.writeLine(String.format(Locale.US, "%s,%s",
                     sdf2.format(System.currentTimeMillis()),
                     StringUtil.toHexStringRaw(characteristic.getValue())));
-        } else if (fileUtilRawData != null && !fileUtilRawData.isNull()) {
-            fileUtilRawData.close();
-        }
-
-        WheelData wd = WheelData.getInstance();
-        byte[] value = characteristic.getValue();
-        switch (wd.getWheelType()) {
-            case KINGSONG:
-                if (characteristic.getUuid().toString().equals(Constants.KINGSONG_READ_CHARACTER_UUID)) {
-                    wd.decodeResponse(value, getApplicationContext());
-                    if (WheelData.getInstance().getName().isEmpty()) {
-                        KingsongAdapter.getInstance().requestNameData();
-                    } else if (WheelData.getInstance().getSerial().isEmpty()) {
-                        KingsongAdapter.getInstance().requestSerialData();
-                    }
-                }
-                break;
-            case GOTWAY:
-            case GOTWAY_VIRTUAL:
-            case VETERAN:
-                WheelData.getInstance().decodeResponse(value, getApplicationContext());
-                break;
-            case INMOTION:
-                if (characteristic.getUuid().toString().equals(Constants.INMOTION_READ_CHARACTER_UUID)) {
-                    wd.decodeResponse(value, getApplicationContext());
-                }
-                break;
-            case INMOTION_V2:
-                if (characteristic.getUuid().toString().equals(Constants.INMOTION_V2_READ_CHARACTER_UUID)) {
-                    wd.decodeResponse(value, getApplicationContext());
-                }
-                break;
-            case NINEBOT_Z:
-                Timber.i("Ninebot Z reading");
-                if (characteristic.getUuid().toString().equals(Constants.NINEBOT_Z_READ_CHARACTER_UUID)) {
-                    wd.decodeResponse(value, getApplicationContext());
-                }
-                break;
-            case NINEBOT:
-                Timber.i("Ninebot reading");
-                if (characteristic.getUuid().toString().equals(Constants.NINEBOT_READ_CHARACTER_UUID) ||
-                        characteristic.getUuid().toString().equals(Constants.NINEBOT_Z_READ_CHARACTER_UUID)) { // in case of S2 or Mini
-                    Timber.i("Ninebot read cont");
-                    wd.decodeResponse(value, getApplicationContext());
-                }
-                break;
+        } else {
+            closeRawData();
+        }
+
+        WheelData wd = WheelData.getPrimary();
+        BluetoothGatt gatt = mBluetoothGatt;
+        GattEndpoint endpoint = gatt != null ? getEndpoint(gatt) : mEndpoint;
+        if (endpoint == null || !endpoint.isReadCharacteristic(characteristic)) {
+            return;
+        }
+        // adapters see the primary wheel while the user may look at another one
+        WheelData previous = WheelData.bind(wd);
+        try {
+            wd.decodeResponse(characteristic.getValue(), getApplicationContext());
+            wd.requestIdentity();
+        } finally {
+            WheelData.bind(previous);
+        }
+
+        linkSupervisor.onFrame(SystemClock.elapsedRealtime(), wd.getMac());
+        BleLinkTuner.Priority priority = linkTuner.onNotification(SystemClock.uptimeMillis(), wd.getSpeed());
+        if (priority != null) {
+            requestConnectionPriority(priority);
+        }
+    }
+
+    /**
+     * Closes the RAW capture and stores the link diagnostics next to it,
+     * so a capture can be exported together with the link quality it was recorded with.
+     */
+    private void closeRawData() {
+        if (fileUtilRawData == null || fileUtilRawData.isNull()) {
+            return;
+        }
+        fileUtilRawData.close();
+        String report = WheelData.getPrimary().getDiagnostics().report();
+        if (report.isEmpty()) {
+            return;
+        }
+        FileUtil diagnostics = new FileUtil(getApplicationContext());
+        String fileName = fileUtilRawData.fileName.replace(".csv", "_diagnostics.txt");
+        if (diagnostics.prepareFile(fileName, WheelData.getPrimary().getMac())) {
+            diagnostics.writeLine(report);
+            diagnostics.close();
+        }
+    }
+
+    private void requestMtu() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
         }
+        mtuRequest = new GattWriteQueue.Operation(GattWriteQueue.Lane.Command) {
+            @Override
+            public boolean write() {
+                return mBluetoothGatt != null && mBluetoothGatt.requestMtu(BleLinkTuner.MAX_MTU);
+            }
+        };
+        writeQueue.enqueue(mtuRequest);
+    }
+
+    private void requestConnectionPriority(BleLinkTuner.Priority priority) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || mBluetoothGatt == null) {
+            return;
+        }
+        boolean success = mBluetoothGatt.requestConnectionPriority(priority == BleLinkTuner.Priority.High
+                ? BluetoothGatt.CONNECTION_PRIORITY_HIGH
+                : BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+        Timber.i("Connection priority %s, success %b", priority, success);
     }
 
     private void broadcastConnectionUpdate(int connectionState) {
@@ -305,9 +407,7 @@ public class BluetoothLeService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
-        if (fileUtilRawData != null) {
-            fileUtilRawData.close();
-        }
+        closeRawData();
         stopBeepTimer();
         if (mBluetoothGatt != null && mConnectionState != STATE_DISCONNECTED) {
             mBluetoothGatt.disconnect();
@@ -346,6 +446,8 @@ public class BluetoothLeService extends Service {
     public boolean connect() {
         disconnectRequested = false;
         autoConnect = false;
+        writeHandler.removeCallbacks(reconnectRunnable);
+        linkSupervisor.reset();
         mDisconnectTime = null;
 
         if (mBluetoothAdapter == null || mBluetoothDeviceAddress == null || mBluetoothDeviceAddress.isEmpty()) {
@@ -356,7 +458,7 @@ public class BluetoothLeService extends Service {
         if (mBluetoothGatt != null && mBluetoothGatt.getDevice().getAddress().equals(mBluetoothDeviceAddress)) {
             Timber.i("Trying to use an existing mBluetoothGatt for connection.");
             if (mBluetoothGatt.connect()) {
-                WheelData.getInstance().setBtName(mBluetoothGatt.getDevice().getName());
+                WheelData.getPrimary().setBtName(mBluetoothGatt.getDevice().getName());
                 mConnectionState = STATE_CONNECTING;
                 broadcastConnectionUpdate(mConnectionState);
                 return true;
@@ -385,6 +487,7 @@ public class BluetoothLeService extends Service {
      */
     public void disconnect() {
         disconnectRequested = true;
+        writeHandler.removeCallbacks(reconnectRunnable);
         if (mBluetoothAdapter == null || mBluetoothGatt == null) {
             Timber.i("BluetoothAdapter not initialized");
             return;
@@ -400,6 +503,8 @@ public class BluetoothLeService extends Service {
      * released properly.
      */
     public void close() {
+        writeQueue.clear();
+        mEndpoint = null;
         if (mBluetoothGatt == null) {
             return;
         }
@@ -416,6 +521,20 @@ public class BluetoothLeService extends Service {
         }
     }
 
+    private void reconnect() {
+        BluetoothGatt gatt = mBluetoothGatt;
+        if (disconnectRequested || gatt == null || gatt.getDevice() == null) {
+            return;
+        }
+        autoConnect = !linkSupervisor.useDirectConnect();
+        Timber.i("Reconnecting, autoConnect = %b", autoConnect);
+        mBluetoothGatt = gatt.getDevice().connectGatt(this, autoConnect, mGattCallback);
+    }
+
+    public LinkSupervisor getLinkSupervisor() {
+        return linkSupervisor;
+    }
+
     private void toggleReconnectToWheel() {
         if (mConnectionState == STATE_CONNECTED) {
             Timber.wtf("Trying to reconnect");
@@ -428,6 +547,7 @@ public class BluetoothLeService extends Service {
         }
     }
 
+    @Override
     public void setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enabled) {
         Timber.i("Set characteristic start");
         if (mBluetoothAdapter == null || mBluetoothGatt == null) {
@@ -438,137 +558,65 @@ public class BluetoothLeService extends Service {
         Timber.i("Set characteristic %b", success);
     }
 
-    public synchronized boolean writeBluetoothGattCharacteristic(byte[] cmd) {
+    public boolean writeBluetoothGattCharacteristic(byte[] cmd) {
+        return writeBluetoothGattCharacteristic(cmd, GattWriteQueue.Lane.Command);
+    }
+
+    @Override
+    public boolean writeBluetoothGattCharacteristic(byte[] cmd, GattWriteQueue.Lane lane) {
         if (this.mBluetoothGatt == null || cmd == null) {
             return false;
         }
-        StringBuilder stringBuilder = new StringBuilder(cmd.length);
-        for (byte aData : cmd) {
-            stringBuilder.append(String.format(Locale.US, "%02X", aData));
+        int chunkSize = GattEndpoint.chunkSizeOf(WheelData.getPrimary().getWheelType(), cmd.length);
+        return writeQueue.enqueue(new CharacteristicWrite(this::writeChunk, cmd, chunkSize, lane));
+    }
+
+    private boolean writeChunk(byte[] data, int offset, int length) {
+        BluetoothGatt gatt = this.mBluetoothGatt;
+        if (gatt == null) {
+            return false;
         }
-        Timber.i("Transmitted: %s", stringBuilder.toString());
-        try {
-            switch (WheelData.getInstance().getWheelType()) {
-                case KINGSONG:
-                    BluetoothGattService ks_service = this.mBluetoothGatt.getService(UUID.fromString(Constants.KINGSONG_SERVICE_UUID));
-                    if (ks_service == null) {
-                        Timber.i("writeBluetoothGattCharacteristic service == null");
-                        return false;
-                    }
-                    BluetoothGattCharacteristic ks_characteristic = ks_service.getCharacteristic(UUID.fromString(Constants.KINGSONG_READ_CHARACTER_UUID));
-                    if (ks_characteristic == null) {
-                        Timber.i("writeBluetoothGattCharacteristic characteristic == null");
-                        return false;
-                    }
-                    ks_characteristic.setValue(cmd);
-                    Timber.i("writeBluetoothGattCharacteristic writeType = %d", ks_characteristic.getWriteType());
-                    ks_characteristic.setWriteType(1);
-                    return this.mBluetoothGatt.writeCharacteristic(ks_characteristic);
-                case GOTWAY:
-                case GOTWAY_VIRTUAL:
-                case VETERAN:
-                    BluetoothGattService gw_service = this.mBluetoothGatt.getService(UUID.fromString(Constants.GOTWAY_SERVICE_UUID));
-                    if (gw_service == null) {
-                        Timber.i("writeBluetoothGattCharacteristic service == null");
-                        return false;
-                    }
-                    BluetoothGattCharacteristic characteristic = gw_service.getCharacteristic(UUID.fromString(Constants.GOTWAY_READ_CHARACTER_UUID));
-                    if (characteristic == null) {
-                        Timber.i("writeBluetoothGattCharacteristic characteristic == null");
-                        return false;
-                    }
-                    characteristic.setValue(cmd);
-                    Timber.i("writeBluetoothGattCharacteristic writeType = %d", characteristic.getWriteType());
-                    return this.mBluetoothGatt.writeCharacteristic(characteristic);
-                case NINEBOT:
-                    if (WheelData.getInstance().getProtoVer().compareTo("") == 0) {
-                        BluetoothGattService nb_service = this.mBluetoothGatt.getService(UUID.fromString(Constants.NINEBOT_SERVICE_UUID));
-                        if (nb_service == null) {
-                            Timber.i("writeBluetoothGattCharacteristic service == null");
-                            return false;
-                        }
-                        BluetoothGattCharacteristic nb_characteristic = nb_service.getCharacteristic(UUID.fromString(Constants.NINEBOT_WRITE_CHARACTER_UUID));
-                        if (nb_characteristic == null) {
-                            Timber.i("writeBluetoothGattCharacteristic characteristic == null");
-                            return false;
-                        }
-                        nb_characteristic.setValue(cmd);
-                        Timber.i("writeBluetoothGattCharacteristic writeType = %d", nb_characteristic.getWriteType());
-                        return this.mBluetoothGatt.writeCharacteristic(nb_characteristic);
-                    } // if S2 or Mini, then pass to Ninebot_Z case
-                    Timber.i("Passing to NZ");
-                case NINEBOT_Z:
-                    BluetoothGattService nz_service = this.mBluetoothGatt.getService(UUID.fromString(Constants.NINEBOT_Z_SERVICE_UUID));
-                    if (nz_service == null) {
-                        Timber.i("writeBluetoothGattCharacteristic service == null");
-                        return false;
-                    }
-                    BluetoothGattCharacteristic nz_characteristic = nz_service.getCharacteristic(UUID.fromString(Constants.NINEBOT_Z_WRITE_CHARACTER_UUID));
-                    if (nz_characteristic == null) {
-                        Timber.i("writeBluetoothGattCharacteristic characteristic == null");
-                        return false;
-                    }
-                    nz_characteristic.setValue(cmd);
-                    Timber.i("writeBluetoothGattCharacteristic writeType = %d", nz_characteristic.getWriteType());
-                    return this.mBluetoothGatt.writeCharacteristic(nz_characteristic);
-                case INMOTION:
-                    BluetoothGattService im_service = this.mBluetoothGatt.getService(UUID.fromString(Constants.INMOTION_WRITE_SERVICE_UUID));
-                    if (im_service == null) {
-                        Timber.i("writeBluetoothGattCharacteristic service == null");
-                        return false;
-                    }
-                    BluetoothGattCharacteristic im_characteristic = im_service.getCharacteristic(UUID.fromString(Constants.INMOTION_WRITE_CHARACTER_UUID));
-                    if (im_characteristic == null) {
-                        Timber.i("writeBluetoothGattCharacteristic characteristic == null");
-                        return false;
-                    }
-                    byte[] buf = new byte[20];
-                    int i2 = cmd.length / 20;
-                    int i3 = cmd.length - (i2 * 20);
-                    for (int i4 = 0; i4 < i2; i4++) {
-                        System.arraycopy(cmd, i4 * 20, buf, 0, 20);
-                        im_characteristic.setValue(buf);
-                        if (!this.mBluetoothGatt.writeCharacteristic(im_characteristic))
-                            return false;
-                        try {
-                            Thread.sleep(20);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    if (i3 > 0) {
-                        System.arraycopy(cmd, i2 * 20, buf, 0, i3);
-                        im_characteristic.setValue(buf);
-                        if (!this.mBluetoothGatt.writeCharacteristic(im_characteristic))
-                            return false;
-                    }
-                    Timber.i("writeBluetoothGattCharacteristic writeType = %d", im_characteristic.getWriteType());
-                    return true;
-                case INMOTION_V2:
-                    BluetoothGattService inv2_service = this.mBluetoothGatt.getService(UUID.fromString(Constants.INMOTION_V2_SERVICE_UUID));
-                    if (inv2_service == null) {
-                        Timber.i("writeBluetoothGattCharacteristic service == null");
-                        return false;
-                    }
-                    BluetoothGattCharacteristic inv2_characteristic = inv2_service.getCharacteristic(UUID.fromString(Constants.INMOTION_V2_WRITE_CHARACTER_UUID));
-                    if (inv2_characteristic == null) {
-                        Timber.i("writeBluetoothGattCharacteristic characteristic == null");
-                        return false;
-                    }
-                    inv2_characteristic.setValue(cmd);
-                    Timber.i("writeBluetoothGattCharacteristic writeType = %d", inv2_characteristic.getWriteType());
-                    return this.mBluetoothGatt.writeCharacteristic(inv2_characteristic);
+        GattEndpoint endpoint = getEndpoint(gatt);
+        // the dump is only built when there is a log to write it to
+        if (offset == 0 && Timber.treeCount() > 0) {
+            StringBuilder stringBuilder = new StringBuilder(data.length * 2);
+            for (byte aData : data) {
+                stringBuilder.append(String.format(Locale.US, "%02X", aData));
             }
-        } catch (NullPointerException e) {
-            // sometimes mBluetoothGatt is null... If the user starts to connect and disconnect quickly
-            Timber.i("writeBluetoothGattCharacteristic throws NullPointerException: %s", e.getMessage());
+            Timber.i("Transmitted: %s", stringBuilder.toString());
+        }
+        if (endpoint.getWriteCharacteristic() == null) {
+            Timber.i("writeBluetoothGattCharacteristic characteristic == null");
+            return false;
         }
-        return false;
+        return endpoint.write(gatt, data, offset, length);
     }
 
+    /**
+     * Endpoint of the connected wheel, resolved again only when the wheel type changes.
+     * An endpoint without characteristics is kept too, until the services are discovered again.
+     */
+    private GattEndpoint getEndpoint(BluetoothGatt gatt) {
+        WheelData wd = WheelData.getPrimary();
+        GattEndpoint endpoint = mEndpoint;
+        if (endpoint == null || !endpoint.isFor(wd.getWheelType(), wd.getProtoVer())) {
+            endpoint = GattEndpoint.resolve(gatt, wd.getWheelType(), wd.getProtoVer());
+            mEndpoint = endpoint;
+        }
+        return endpoint;
+    }
+
+    @Override
     public void writeBluetoothGattDescriptor(BluetoothGattDescriptor descriptor) {
-        boolean success = mBluetoothGatt.writeDescriptor(descriptor);
-        Timber.i("Write descriptor %b", success);
+        writeQueue.enqueue(new DescriptorWrite(() -> mBluetoothGatt, descriptor));
+    }
+
+    public GattWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    public BleLinkTuner getLinkTuner() {
+        return linkTuner;
     }
 
     public Date getDisconnectTime() {
@@ -581,16 +629,19 @@ public class BluetoothLeService extends Service {
      *
      * @return A {@code List} of supported services.
      */
+    @Override
     public List<BluetoothGattService> getSupportedGattServices() {
         if (mBluetoothGatt == null) return null;
 
         return mBluetoothGatt.getServices();
     }
 
+    @Override
     public BluetoothGattService getGattService(UUID service_id) {
         return mBluetoothGatt.getService(service_id);
     }
 
+    @Override
     public String getBluetoothDeviceAddress() {
         return mBluetoothDeviceAddress;
     }
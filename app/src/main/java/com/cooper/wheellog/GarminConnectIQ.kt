@@ -1,11 +1,14 @@
 package com.cooper.wheellog
 
 import android.app.Service
+import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
+import android.content.IntentFilter
 import android.os.IBinder
 import android.widget.Toast
 import com.cooper.wheellog.utils.Constants
+import com.cooper.wheellog.utils.FormatBuffer
 import com.cooper.wheellog.utils.SomeUtil.Companion.playBeep
 import com.garmin.android.connectiq.ConnectIQ.*
 import com.garmin.android.connectiq.IQApp
@@ -14,10 +17,12 @@ import com.garmin.android.connectiq.IQDevice.IQDeviceStatus
 import com.garmin.android.connectiq.exception.InvalidStateException
 import com.garmin.android.connectiq.exception.ServiceUnavailableException
 import fi.iki.elonen.NanoHTTPD
-import org.json.JSONObject
 import timber.log.Timber
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.TimeUnit
+import kotlin.math.abs
+import kotlin.math.roundToLong
 
 class GarminConnectIQ : Service(), IQApplicationInfoListener, IQDeviceEventListener, IQApplicationEventListener, ConnectIQListener {
     private var keepAliveTimer: Timer? = null
@@ -27,6 +32,11 @@ class GarminConnectIQ : Service(), IQApplicationInfoListener, IQDeviceEventListe
     private var mApp: IQApp? = null
     private var mWebServer: GarminConnectIQWebServer? = null
     private var useBeta = WheelLog.AppConfig.useGarminBetaCompanion
+    private val mBroadcastReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            mWebServer?.onDataChanged()
+        }
+    }
 
     override fun onBind(intent: Intent): IBinder? {
         Timber.i("onBind")
@@ -200,6 +210,10 @@ class GarminConnectIQ : Service(), IQApplicationInfoListener, IQDeviceEventListe
         if (mWebServer != null) return
         try {
             mWebServer = GarminConnectIQWebServer(applicationContext)
+            val intentFilter = IntentFilter()
+            intentFilter.addAction(Constants.ACTION_WHEEL_DATA_AVAILABLE)
+            intentFilter.addAction(Constants.ACTION_BLUETOOTH_CONNECTION_STATE)
+            registerReceiver(mBroadcastReceiver, intentFilter)
             Timber.d("port is: ${mWebServer!!.listeningPort}")
             try {
                 mConnectIQ.sendMessage(mDevice, mApp, mWebServer!!.listeningPort) { _: IQDevice?, _: IQApp?, status: IQMessageStatus ->
@@ -220,6 +234,9 @@ class GarminConnectIQ : Service(), IQApplicationInfoListener, IQDeviceEventListe
 
     private fun stopWebServer() {
         Timber.d("stopWebServer")
+        if (mWebServer != null) {
+            unregisterReceiver(mBroadcastReceiver)
+        }
         mWebServer?.stop()
         mWebServer = null
     }
@@ -234,63 +251,237 @@ class GarminConnectIQ : Service(), IQApplicationInfoListener, IQDeviceEventListe
     }
 }
 
+/**
+ * Data endpoints support long polling: a response has an ETag of the version of its body,
+ * a request with the current version in If-None-Match is held until the body changes
+ * (or "wait" ms) and answered with 304 if it has not.
+ * A body is serialized once per wheel data and shared by all requests, its version only
+ * changes with its text.
+ */
 internal class GarminConnectIQWebServer(context: Context) : NanoHTTPD("127.0.0.1", 0) {
     private var applicationContext: Context
+    private val dataLock = Object()
+    private var dataVersion = 0L
+    private var stopped = false
+    private val tagPrefix = "\"" + System.nanoTime().toString(16) + "-"
+    private val mainSnapshot = Snapshot { buildMain(it) }
+    private val detailsSnapshot = Snapshot { buildDetails(it) }
 
     init {
         start(SOCKET_READ_TIMEOUT, false)
         applicationContext = context
     }
 
+    private class Body(val eTag: String, val text: String)
+
+    private inner class Snapshot(private val build: (FormatBuffer) -> Unit) {
+        private val buffer = FormatBuffer(512)
+        private var builtFor = -1L
+        private var version = 0L
+        private var latest = Body(eTag(0), "")
+
+        /**
+         * Latest body, built again if the wheel data changed since [dataVersion].
+         */
+        @Synchronized
+        fun get(dataVersion: Long): Body {
+            if (dataVersion > builtFor) {
+                builtFor = dataVersion
+                build(buffer.clear())
+                if (!buffer.contentEquals(latest.text)) {
+                    version++
+                    latest = Body(eTag(version), buffer.toString())
+                }
+            }
+            return latest
+        }
+    }
+
+    /**
+     * Called for every new wheel data, held requests check if their body changed.
+     */
+    fun onDataChanged() {
+        synchronized(dataLock) {
+            dataVersion++
+            dataLock.notifyAll()
+        }
+    }
+
+    override fun stop() {
+        synchronized(dataLock) {
+            stopped = true
+            dataLock.notifyAll()
+        }
+        super.stop()
+    }
+
+    private fun eTag(version: Long): String {
+        return tagPrefix + version + "\""
+    }
+
+    private fun currentDataVersion(): Long {
+        synchronized(dataLock) {
+            return dataVersion
+        }
+    }
+
+    /**
+     * @return body to send or null if the client already has the latest one.
+     */
+    private fun awaitChange(session: IHTTPSession, snapshot: Snapshot): Body? {
+        val known = session.headers["if-none-match"]
+        var seen = currentDataVersion()
+        val body = snapshot.get(seen)
+        if (body.eTag != known) {
+            return body
+        }
+        val wait = session.parameters["wait"]?.firstOrNull()?.toLongOrNull() ?: LONG_POLL_TIMEOUT
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait.coerceIn(0, LONG_POLL_TIMEOUT))
+        while (true) {
+            synchronized(dataLock) {
+                while (dataVersion == seen) {
+                    val remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())
+                    if (remaining <= 0 || stopped) {
+                        return null
+                    }
+                    dataLock.wait(remaining)
+                }
+                seen = dataVersion
+            }
+            // the body is built outside of the lock, new data is not held up by it
+            val changed = snapshot.get(seen)
+            if (changed.eTag != known) {
+                return changed
+            }
+        }
+    }
+
+    private fun serveSnapshot(session: IHTTPSession, snapshot: Snapshot): Response {
+        val body = awaitChange(session, snapshot)
+        val response = if (body == null) {
+            newFixedLengthResponse(Response.Status.NOT_MODIFIED, "application/json", "")
+        } else {
+            newFixedLengthResponse(Response.Status.OK, "application/json", body.text) // Send data
+        }
+        response.addHeader("ETag", body?.eTag ?: session.headers["if-none-match"])
+        return response
+    }
+
     private fun playHorn() {
         playBeep(applicationContext, WheelLog.AppConfig.hornMode == 1, false)
     }
 
-    override fun serve(session: IHTTPSession): Response {
+    private fun buildMain(out: FormatBuffer) {
+        val wd = WheelData.getInstance()
+        val ac = WheelLog.AppConfig
+        out.append('{')
+        out.name("speed").append('"').appendTenths((wd.speedDouble * 10).toInt()).append('"')
+        out.name("topSpeed").append('"').appendTenths(wd.topSpeed / 10).append('"')
+        out.name("speedLimit").append(ac.maxSpeed)
+        out.name("useMph").append(ac.useMph)
+        out.name("battery").append(wd.batteryLevel)
+        out.name("temp").append(wd.temperature)
+        out.name("pwm").append('"').append(wd.calculatedPwm, 0, 2).append('"')
+        out.name("maxPwm").append('"').append(wd.maxPwm, 0, 2).append('"')
+        out.name("connectedToWheel").append(wd.isConnected)
+        out.name("wheelModel").appendQuoted(wd.model)
+        out.append('}')
+    }
+
+    private fun buildDetails(out: FormatBuffer) {
         val wd = WheelData.getInstance()
         val ac = WheelLog.AppConfig
-      
+        out.append('{')
+        out.name("useMph").append(ac.useMph)
+        out.name("avgRidingSpeed").append(wd.averageSpeedDouble.toInt())
+        out.name("avgSpeed").append(wd.averageRidingSpeedDouble.toInt())
+        out.name("topSpeed").append('"').appendTenths(wd.topSpeed / 10).append('"')
+        out.name("voltage").append('"').appendDecimal(wd.voltageDouble, true).append('"')
+        out.name("maxVoltage").append('"').appendDecimal(wd.maxVoltageForWheel, true).append('"')
+        out.name("battery").append(wd.batteryLevel)
+        out.name("ridingTime").append('"').appendTime(wd.ridingTime).append('"')
+        out.name("distance").append(wd.distance)
+        out.name("pwm").append('"').append(wd.calculatedPwm, 0, 2).append('"')
+        out.name("maxPwm").append('"').append(wd.maxPwm, 0, 2).append('"')
+        out.name("torque").appendDecimal(wd.torque, false)
+        out.name("power").appendDecimal(wd.powerDouble, false)
+        out.name("maxPower").appendDecimal(wd.maxPowerDouble, false)
+
+        out.name("connectedToWheel").append(wd.isConnected)
+        out.append('}')
+    }
+
+    // JSON as JSONObject wrote it, without its garbage
+
+    private fun FormatBuffer.name(name: String): FormatBuffer {
+        if (chars[length - 1] != '{') {
+            append(',')
+        }
+        return append('"').append(name).append('"').append(':')
+    }
+
+    private fun FormatBuffer.append(value: Boolean): FormatBuffer {
+        return append(if (value) "true" else "false")
+    }
+
+    /**
+     * [tenths] as the text of the Float it was divided into before, like 12.3.
+     */
+    private fun FormatBuffer.appendTenths(tenths: Int): FormatBuffer {
+        if (tenths < 0) {
+            append('-')
+        }
+        val value = abs(tenths)
+        return append(value / 10).append('.').append(value % 10)
+    }
+
+    /**
+     * [value] rounded to hundredths without trailing zeros, as Double.toString writes them.
+     * A [text] keeps one decimal of an integer, a JSON number has none.
+     */
+    private fun FormatBuffer.appendDecimal(value: Double, text: Boolean): FormatBuffer {
+        val hundredths = (value * 100).roundToLong()
+        if (hundredths < 0) {
+            append('-')
+        }
+        val abs = abs(hundredths)
+        append(abs / 100)
+        val fraction = (abs % 100).toInt()
+        return when {
+            fraction % 10 != 0 -> append('.').append(fraction, 2)
+            fraction != 0 || text -> append('.').append(fraction / 10)
+            else -> this
+        }
+    }
+
+    private fun FormatBuffer.appendQuoted(value: String): FormatBuffer {
+        append('"')
+        for (c in value) {
+            when (c) {
+                '"', '\\', '/' -> append('\\').append(c)
+                '\t' -> append("\\t")
+                '\b' -> append("\\b")
+                '\n' -> append("\\n")
+                '\r' -> append("\\r")
+                '\u000C' -> append("\\f")
+                else -> if (c < ' ') {
+                    append("\\u00").append(HEX[c.code shr 4]).append(HEX[c.code and 0xF])
+                } else {
+                    append(c)
+                }
+            }
+        }
+        return append('"')
+    }
+
+    override fun serve(session: IHTTPSession): Response {
+        val wd = WheelData.getInstance()
+
         return when (session.method) {
             Method.GET -> {
                 when (session.uri) {
-                    "/data/main" -> {
-                        val message = JSONObject()
-                        message.put("speed", if (wd.speedDouble.toString().length > 3) {
-                            ((wd.speedDouble * 10).toInt().toFloat() / 10).toString()
-                        } else wd.speedDouble.toString())
-                        message.put("topSpeed", ((wd.topSpeed / 10).toFloat() / 10).toString())
-                        message.put("speedLimit", ac.maxSpeed)
-                        message.put("useMph", ac.useMph)
-                        message.put("battery", wd.batteryLevel)
-                        message.put("temp", wd.temperature)
-                        message.put("pwm", String.format("%02.0f", wd.calculatedPwm))
-                        message.put("maxPwm", String.format("%02.0f", wd.maxPwm))
-                        message.put("connectedToWheel", wd.isConnected)
-                        message.put("wheelModel", wd.model)
-
-                        return newFixedLengthResponse(Response.Status.OK, "application/json", message.toString()) // Send data
-                    }
-                    "/data/details" -> {
-                        val message = JSONObject()
-                        message.put("useMph", ac.useMph)
-                        message.put("avgRidingSpeed", wd.averageSpeedDouble.toInt())
-                        message.put("avgSpeed", wd.averageRidingSpeedDouble.toInt())
-                        message.put("topSpeed", ((wd.topSpeed / 10).toFloat() / 10).toString())
-                        message.put("voltage", wd.voltageDouble.toString())
-                        message.put("maxVoltage", wd.maxVoltageForWheel.toString())
-                        message.put("battery", wd.batteryLevel)
-                        message.put("ridingTime", wd.ridingTimeString)
-                        message.put("distance", wd.distance)
-                        message.put("pwm", String.format("%02.0f", wd.calculatedPwm))
-                        message.put("maxPwm", String.format("%02.0f", wd.maxPwm))
-                        message.put("torque", wd.torque)
-                        message.put("power", wd.powerDouble)
-                        message.put("maxPower", wd.maxPowerDouble)
-
-                        message.put("connectedToWheel", wd.isConnected)
-
-                        return newFixedLengthResponse(Response.Status.OK, "application/json", message.toString()) // Send data
-                    }
+                    "/data/main" -> serveSnapshot(session, mainSnapshot)
+                    "/data/details" -> serveSnapshot(session, detailsSnapshot)
                     "/data/alarms" -> {
                         val message = "${wd.alarm}"
                         newFixedLengthResponse(Response.Status.OK, "application/json", message) // Send data
@@ -323,4 +514,9 @@ internal class GarminConnectIQWebServer(context: Context) : NanoHTTPD("127.0.0.1
             }
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        const val LONG_POLL_TIMEOUT = 3000L
+        private const val HEX = "0123456789abcdef"
+    }
+}
@@ -0,0 +1,135 @@
+package com.cooper.wheellog
+
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCharacteristic
+import com.cooper.wheellog.utils.Constants
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import timber.log.Timber
+import java.util.*
+
+/**
+ * Characteristics of a connected wheel, resolved once after the wheel was detected,
+ * so writes and notifications don't look up services and parse UUIDs every time.
+ */
+class GattEndpoint private constructor(
+    val wheelType: WHEEL_TYPE,
+    val protoVer: String,
+    val writeCharacteristic: BluetoothGattCharacteristic?,
+    private val writeType: Int,
+    private val readUuids: Array<UUID>?
+) {
+    // chunks are always 20 bytes long, as InMotion V1 wheels expect
+    private val chunk = if (wheelType == WHEEL_TYPE.INMOTION) ByteArray(INMOTION_CHUNK_SIZE) else null
+
+    fun isFor(wheelType: WHEEL_TYPE, protoVer: String): Boolean {
+        return this.wheelType == wheelType && this.protoVer == protoVer
+    }
+
+    /**
+     * @return true if notifications of the characteristic are wheel data.
+     */
+    fun isReadCharacteristic(characteristic: BluetoothGattCharacteristic): Boolean {
+        val uuids = readUuids ?: return true
+        val uuid = characteristic.uuid
+        for (readUuid in uuids) {
+            if (readUuid == uuid) {
+                return true
+            }
+        }
+        return false
+    }
+
+    fun write(gatt: BluetoothGatt, value: ByteArray): Boolean {
+        val characteristic = writeCharacteristic ?: return false
+        characteristic.setValue(value)
+        if (writeType != KEEP_WRITE_TYPE) {
+            characteristic.writeType = writeType
+        }
+        return gatt.writeCharacteristic(characteristic)
+    }
+
+    /**
+     * Writes [length] bytes of [data] from [offset], one chunk of a [CharacteristicWrite].
+     */
+    fun write(gatt: BluetoothGatt, data: ByteArray, offset: Int, length: Int): Boolean {
+        val value = when {
+            chunk != null -> {
+                if (offset == 0) {
+                    chunk.fill(0)
+                }
+                System.arraycopy(data, offset, chunk, 0, length)
+                chunk
+            }
+            offset == 0 && length == data.size -> data
+            else -> data.copyOfRange(offset, offset + length)
+        }
+        return write(gatt, value)
+    }
+
+    private class Layout(
+        service: String,
+        write: String,
+        val writeType: Int,
+        vararg read: String
+    ) {
+        val service: UUID = UUID.fromString(service)
+        val write: UUID = UUID.fromString(write)
+        val read: Array<UUID>? = if (read.isEmpty()) null else Array(read.size) { UUID.fromString(read[it]) }
+    }
+
+    companion object {
+        private const val KEEP_WRITE_TYPE = -1
+        private const val INMOTION_CHUNK_SIZE = 20
+
+        private val kingsong = Layout(Constants.KINGSONG_SERVICE_UUID, Constants.KINGSONG_READ_CHARACTER_UUID,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, Constants.KINGSONG_READ_CHARACTER_UUID)
+        // Gotway and Veteran decode notifications of any characteristic
+        private val gotway = Layout(Constants.GOTWAY_SERVICE_UUID, Constants.GOTWAY_READ_CHARACTER_UUID,
+                KEEP_WRITE_TYPE)
+        private val ninebot = Layout(Constants.NINEBOT_SERVICE_UUID, Constants.NINEBOT_WRITE_CHARACTER_UUID,
+                KEEP_WRITE_TYPE, Constants.NINEBOT_READ_CHARACTER_UUID, Constants.NINEBOT_Z_READ_CHARACTER_UUID)
+        // S2 or Mini
+        private val ninebotWithZProtocol = Layout(Constants.NINEBOT_Z_SERVICE_UUID, Constants.NINEBOT_Z_WRITE_CHARACTER_UUID,
+                KEEP_WRITE_TYPE, Constants.NINEBOT_READ_CHARACTER_UUID, Constants.NINEBOT_Z_READ_CHARACTER_UUID)
+        private val ninebotZ = Layout(Constants.NINEBOT_Z_SERVICE_UUID, Constants.NINEBOT_Z_WRITE_CHARACTER_UUID,
+                KEEP_WRITE_TYPE, Constants.NINEBOT_Z_READ_CHARACTER_UUID)
+        private val inmotion = Layout(Constants.INMOTION_WRITE_SERVICE_UUID, Constants.INMOTION_WRITE_CHARACTER_UUID,
+                KEEP_WRITE_TYPE, Constants.INMOTION_READ_CHARACTER_UUID)
+        private val inmotionV2 = Layout(Constants.INMOTION_V2_SERVICE_UUID, Constants.INMOTION_V2_WRITE_CHARACTER_UUID,
+                KEEP_WRITE_TYPE, Constants.INMOTION_V2_READ_CHARACTER_UUID)
+
+        private fun layoutOf(wheelType: WHEEL_TYPE, protoVer: String): Layout? {
+            return when (wheelType) {
+                WHEEL_TYPE.KINGSONG -> kingsong
+                WHEEL_TYPE.GOTWAY, WHEEL_TYPE.GOTWAY_VIRTUAL, WHEEL_TYPE.VETERAN -> gotway
+                WHEEL_TYPE.NINEBOT -> if (protoVer.isEmpty()) ninebot else ninebotWithZProtocol
+                WHEEL_TYPE.NINEBOT_Z -> ninebotZ
+                WHEEL_TYPE.INMOTION -> inmotion
+                WHEEL_TYPE.INMOTION_V2 -> inmotionV2
+                else -> null
+            }
+        }
+
+        /**
+         * Size of the chunks a command of [length] bytes is written in.
+         */
+        @JvmStatic
+        fun chunkSizeOf(wheelType: WHEEL_TYPE, length: Int): Int {
+            return if (wheelType == WHEEL_TYPE.INMOTION) INMOTION_CHUNK_SIZE else length
+        }
+
+        @JvmStatic
+        fun resolve(gatt: BluetoothGatt, wheelType: WHEEL_TYPE, protoVer: String): GattEndpoint {
+            val layout = layoutOf(wheelType, protoVer)
+                    ?: return GattEndpoint(wheelType, protoVer, null, KEEP_WRITE_TYPE, emptyArray())
+            val service = gatt.getService(layout.service)
+            val characteristic = service?.getCharacteristic(layout.write)
+            if (service == null) {
+                Timber.i("GattEndpoint service == null")
+            } else if (characteristic == null) {
+                Timber.i("GattEndpoint characteristic == null")
+            }
+            return GattEndpoint(wheelType, protoVer, characteristic, layout.writeType, layout.read)
+        }
+    }
+}
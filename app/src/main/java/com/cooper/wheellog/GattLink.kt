@@ -0,0 +1,30 @@
+package com.cooper.wheellog
+
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattDescriptor
+import android.bluetooth.BluetoothGattService
+import java.util.*
+
+/**
+ * GATT connection of one wheel. [WheelData] subscribes to the wheel data and sends
+ * its commands through it, [BluetoothLeService] is the link of the primary wheel
+ * and [SessionLink] the link of every other connected wheel.
+ */
+interface GattLink {
+    val bluetoothDeviceAddress: String?
+
+    val supportedGattServices: List<BluetoothGattService>?
+
+    fun getGattService(serviceId: UUID): BluetoothGattService?
+
+    fun setCharacteristicNotification(characteristic: BluetoothGattCharacteristic?, enabled: Boolean)
+
+    fun writeBluetoothGattDescriptor(descriptor: BluetoothGattDescriptor)
+
+    /**
+     * Queues the command, it is written after the previous GATT operations are complete.
+     *
+     * @return false if there is no connection or the queue is full.
+     */
+    fun writeBluetoothGattCharacteristic(cmd: ByteArray?, lane: GattWriteQueue.Lane): Boolean
+}
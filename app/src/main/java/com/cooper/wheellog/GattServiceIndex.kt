@@ -0,0 +1,118 @@
+package com.cooper.wheellog
+
+import android.bluetooth.BluetoothGattService
+import android.content.Context
+import com.cooper.wheellog.utils.StringUtil
+import org.json.JSONArray
+import java.util.*
+
+/**
+ * Wheel detection table built once from R.raw.bluetooth_services.
+ * Known wheels are indexed by a hash of their services and characteristics,
+ * so the adapter of a connected wheel is found with a single lookup.
+ */
+class GattServiceIndex(json: String) {
+
+    private class Entry(val adapter: String, val services: Map<UUID, Set<UUID>>)
+
+    private val index = HashMap<Long, MutableList<Entry>>()
+
+    init {
+        val arr = JSONArray(json)
+        for (i in 0 until arr.length()) {
+            val obj = arr.getJSONObject(i)
+            val services = HashMap<UUID, Set<UUID>>()
+            for (key in obj.keys()) {
+                if (key == ADAPTER_KEY) {
+                    continue
+                }
+                val characteristics = obj.getJSONArray(key)
+                services[UUID.fromString(key)] = (0 until characteristics.length())
+                        .mapTo(HashSet()) { UUID.fromString(characteristics.getString(it)) }
+            }
+            // entries with the same services keep the order of the file, the first one wins
+            index.getOrPut(signature(services)) { ArrayList(1) }
+                    .add(Entry(obj.getString(ADAPTER_KEY), services))
+        }
+    }
+
+    /**
+     * @return adapter name from the table or null for an unknown wheel.
+     */
+    fun find(services: Map<UUID, Set<UUID>>): String? {
+        val candidates = index[signature(services)] ?: return null
+        return candidates.firstOrNull { it.services == services }?.adapter
+    }
+
+    fun find(services: List<BluetoothGattService>?): String? {
+        if (services == null) {
+            return null
+        }
+        val discovered = HashMap<UUID, Set<UUID>>(services.size * 2)
+        for (service in services) {
+            discovered[service.uuid] = service.characteristics.mapTo(HashSet()) { it.uuid }
+        }
+        return find(discovered)
+    }
+
+    companion object {
+        private const val ADAPTER_KEY = "adapter"
+
+        private val protoVerRules = listOf(
+                ProtoVerRule("S2", arrayOf("4e421300000000ec", "4e421302000000ea")),
+                ProtoVerRule("Mini", arrayOf("4e421400000000eb", "4e422000000000df", "4e422200000000dd", "4e4230cf"), "5600")
+        )
+
+        @Volatile
+        private var instance: GattServiceIndex? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): GattServiceIndex {
+            return instance ?: synchronized(this) {
+                instance ?: GattServiceIndex(StringUtil.getRawTextResource(context, R.raw.bluetooth_services))
+                        .also { instance = it }
+            }
+        }
+
+        /**
+         * Ninebot protocol version by the advertisement data, empty for other wheels.
+         */
+        @JvmStatic
+        fun protoVer(advData: String): String {
+            return protoVerRules.firstOrNull { it.matches(advData) }?.protoVer ?: ""
+        }
+
+        /**
+         * Order independent hash of services with their characteristics.
+         */
+        fun signature(services: Map<UUID, Collection<UUID>>): Long {
+            var hash = services.size.toLong()
+            for ((service, characteristics) in services) {
+                var serviceHash = mix(hashOf(service))
+                for (characteristic in characteristics) {
+                    serviceHash += mix(hashOf(characteristic))
+                }
+                hash += mix(serviceHash)
+            }
+            return hash
+        }
+
+        private fun hashOf(uuid: UUID): Long {
+            return uuid.mostSignificantBits * 31 + mix(uuid.leastSignificantBits)
+        }
+
+        // SplitMix64 finalizer
+        private fun mix(value: Long): Long {
+            var z = value + -0x61c8864680b583ebL
+            z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+            z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+            return z xor (z ushr 31)
+        }
+    }
+
+    private class ProtoVerRule(val protoVer: String, val advData: Array<String>, val prefix: String? = null) {
+        fun matches(data: String): Boolean {
+            return advData.contains(data) || (prefix != null && data.startsWith(prefix))
+        }
+    }
+}
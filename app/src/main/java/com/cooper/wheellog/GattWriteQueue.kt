@@ -0,0 +1,229 @@
+package com.cooper.wheellog
+
+import java.util.*
+
+/**
+ * Android allows only one GATT operation in flight, a write started while another
+ * one is pending fails. This queue starts the next write only after the write callback
+ * of the previous one (or its timeout).
+ *
+ * User commands go before polling requests; a polling request equal to one already
+ * waiting in the queue is dropped.
+ */
+class GattWriteQueue(private val scheduler: Scheduler, private val clock: Clock) {
+
+    enum class Lane {
+        Command,
+        Poll
+    }
+
+    fun interface Scheduler {
+        /**
+         * [onTimer] must be called after [delay] ms, replacing a previously scheduled call.
+         */
+        fun schedule(delay: Long)
+    }
+
+    fun interface Clock {
+        fun now(): Long
+    }
+
+    abstract class Operation(val lane: Lane) {
+        internal var attempts = 0
+
+        /**
+         * Starts the current GATT write.
+         * @return false if the write could not be started, e.g. the stack is busy.
+         */
+        abstract fun write(): Boolean
+
+        /**
+         * Moves to the next write of this operation after a successful one.
+         * @return false if the operation is complete.
+         */
+        open fun next(): Boolean = false
+
+        /**
+         * Polling operations which are the same as a waiting one are not queued.
+         */
+        open fun isSameAs(other: Operation): Boolean = false
+    }
+
+    private val lanes = Array(Lane.values().size) { ArrayDeque<Operation>() }
+    private var current: Operation? = null
+    private var writePending = false
+    private var writeStartTime = 0L
+
+    //region metrics
+    var maxDepth = 0
+        private set
+    var writes = 0L
+        private set
+    var retries = 0L
+        private set
+    var timeouts = 0L
+        private set
+    var dropped = 0L
+        private set
+    var coalesced = 0L
+        private set
+    var lastRtt = 0L
+        private set
+    var maxRtt = 0L
+        private set
+    /**
+     * Smoothed write round-trip time, ms.
+     */
+    var averageRtt = 0.0
+        private set
+
+    val depth: Int
+        @Synchronized get() = lanes.sumOf { it.size } + if (current != null) 1 else 0
+
+    @Synchronized
+    fun resetMetrics() {
+        maxDepth = depth
+        writes = 0
+        retries = 0
+        timeouts = 0
+        dropped = 0
+        coalesced = 0
+        lastRtt = 0
+        maxRtt = 0
+        averageRtt = 0.0
+    }
+    //endregion
+
+    /**
+     * @return false if the queue is full.
+     */
+    @Synchronized
+    fun enqueue(operation: Operation): Boolean {
+        val lane = lanes[operation.lane.ordinal]
+        if (operation.lane == Lane.Poll && lane.any { it.isSameAs(operation) }) {
+            coalesced++
+            return true
+        }
+        if (lane.size >= MAX_LANE_SIZE) {
+            dropped++
+            return false
+        }
+        lane.add(operation)
+        maxDepth = maxOf(maxDepth, depth)
+        if (current == null) {
+            startNext()
+        }
+        return true
+    }
+
+    /**
+     * Called from BluetoothGattCallback.onCharacteristicWrite / onDescriptorWrite.
+     */
+    @Synchronized
+    fun onWriteComplete(success: Boolean) {
+        val operation = current
+        if (operation == null || !writePending) {
+            return
+        }
+        writePending = false
+        val rtt = clock.now() - writeStartTime
+        lastRtt = rtt
+        maxRtt = maxOf(maxRtt, rtt)
+        averageRtt = if (writes == 0L) rtt.toDouble() else averageRtt * (1 - RTT_SMOOTHING) + rtt * RTT_SMOOTHING
+        if (!success) {
+            retryOrDrop(operation)
+            return
+        }
+        writes++
+        if (operation.next()) {
+            operation.attempts = 0
+            writeCurrent(operation)
+        } else {
+            startNext()
+        }
+    }
+
+    /**
+     * Completes the write in flight only if it is [operation], for callbacks which also come
+     * without a request of the app, like onMtuChanged.
+     */
+    @Synchronized
+    fun onWriteComplete(operation: Operation, success: Boolean) {
+        if (current === operation) {
+            onWriteComplete(success)
+        }
+    }
+
+    /**
+     * Handles write timeouts and retries of writes that could not be started.
+     */
+    @Synchronized
+    fun onTimer() {
+        val operation = current ?: return
+        if (!writePending) {
+            writeCurrent(operation)
+            return
+        }
+        val elapsed = clock.now() - writeStartTime
+        if (elapsed >= WRITE_TIMEOUT) {
+            timeouts++
+            writePending = false
+            retryOrDrop(operation)
+        } else {
+            scheduler.schedule(WRITE_TIMEOUT - elapsed)
+        }
+    }
+
+    /**
+     * Drops everything, e.g. on disconnect.
+     */
+    @Synchronized
+    fun clear() {
+        lanes.forEach { it.clear() }
+        current = null
+        writePending = false
+    }
+
+    private fun startNext() {
+        current = null
+        for (lane in lanes) {
+            val operation = lane.poll() ?: continue
+            current = operation
+            writeCurrent(operation)
+            return
+        }
+    }
+
+    private fun writeCurrent(operation: Operation) {
+        operation.attempts++
+        if (operation.write()) {
+            writePending = true
+            writeStartTime = clock.now()
+            scheduler.schedule(WRITE_TIMEOUT)
+        } else if (operation.attempts < MAX_ATTEMPTS) {
+            retries++
+            scheduler.schedule(BUSY_RETRY_DELAY)
+        } else {
+            dropped++
+            startNext()
+        }
+    }
+
+    private fun retryOrDrop(operation: Operation) {
+        if (operation.attempts < MAX_ATTEMPTS) {
+            retries++
+            writeCurrent(operation)
+        } else {
+            dropped++
+            startNext()
+        }
+    }
+
+    companion object {
+        const val WRITE_TIMEOUT = 500L
+        const val BUSY_RETRY_DELAY = 20L
+        const val MAX_ATTEMPTS = 3
+        const val MAX_LANE_SIZE = 32
+        private const val RTT_SMOOTHING = 0.1
+    }
+}
@@ -0,0 +1,57 @@
+package com.cooper.wheellog
+
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattDescriptor
+import timber.log.Timber
+import kotlin.math.min
+
+/**
+ * Writes a command in chunks of [chunkSize] bytes, one GATT write per chunk.
+ */
+class CharacteristicWrite(
+    private val writer: ChunkWriter,
+    private val data: ByteArray,
+    chunkSize: Int,
+    lane: GattWriteQueue.Lane
+) : GattWriteQueue.Operation(lane) {
+
+    fun interface ChunkWriter {
+        fun writeChunk(data: ByteArray, offset: Int, length: Int): Boolean
+    }
+
+    private val chunkSize = chunkSize.coerceAtLeast(1)
+    private var offset = 0
+
+    override fun write(): Boolean {
+        return writer.writeChunk(data, offset, min(chunkSize, data.size - offset))
+    }
+
+    override fun next(): Boolean {
+        offset += chunkSize
+        return offset < data.size
+    }
+
+    override fun isSameAs(other: GattWriteQueue.Operation): Boolean {
+        return other is CharacteristicWrite && data.contentEquals(other.data)
+    }
+}
+
+/**
+ * Enables notifications of the wheel, queued as the writes are.
+ */
+class DescriptorWrite(
+    private val gatt: GattSource,
+    private val descriptor: BluetoothGattDescriptor
+) : GattWriteQueue.Operation(GattWriteQueue.Lane.Command) {
+
+    fun interface GattSource {
+        fun gatt(): BluetoothGatt?
+    }
+
+    override fun write(): Boolean {
+        val gatt = gatt.gatt() ?: return false
+        val success = gatt.writeDescriptor(descriptor)
+        Timber.i("Write descriptor %b", success)
+        return success
+    }
+}
@@ -10,6 +10,24 @@ public class GearSAPServiceProviderConnection extends SASocket {
     static int nextID = 1;
     public final static String TAG = "SAPServiceProvider";
     private GearService mParent;
+    // rate limit for this connection, the watch gets changed data at most 5 times a second
+    final static long MIN_SEND_INTERVAL = 200;
+    final static long KEEP_ALIVE_INTERVAL = 5000;
+    private long mLastSendTime = Long.MIN_VALUE / 2;
+    private int mSentVersion = -1;
+
+    long getLastSendTime() {
+        return mLastSendTime;
+    }
+
+    int getSentVersion() {
+        return mSentVersion;
+    }
+
+    void onSent(int version, long time) {
+        mSentVersion = version;
+        mLastSendTime = time;
+    }
 
     public void setParent(GearService gearService) {
         mParent = gearService;
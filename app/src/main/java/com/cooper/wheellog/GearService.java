@@ -2,21 +2,27 @@ package com.cooper.wheellog;
 
 import android.Manifest;
 import android.app.Notification;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.core.content.ContextCompat;
 
 import com.cooper.wheellog.utils.Constants;
+import com.cooper.wheellog.utils.FormatBuffer;
 import com.samsung.android.sdk.SsdkUnsupportedException;
 import com.samsung.android.sdk.accessory.SA;
 import com.samsung.android.sdk.accessory.SAAgent;
@@ -25,13 +31,8 @@ import com.samsung.android.sdk.accessory.SASocket;
 
 import java.io.IOException;
 import java.util.AbstractCollection;
-import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.Vector;
 
-import static java.lang.String.format;
-
 
 public class GearService extends SAAgent {
     GearBinder mBinder = new GearBinder();
@@ -40,7 +41,13 @@ public class GearService extends SAAgent {
     AbstractCollection<GearSAPServiceProviderConnection> mConnectionBag = new Vector<>();
     LocationManager mLocationManager;
     boolean mIsListening = false;
-    private Timer keepAliveTimer;
+    boolean mIsSubscribed = false;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mFlushPending = false;
+    private FormatBuffer mPayload = new FormatBuffer(512);
+    private FormatBuffer mScratch = new FormatBuffer(512);
+    private byte[] mPayloadBytes;
+    private int mPayloadVersion = 0;
     private Notification mNotification;
 
     public class GearBinder extends Binder {
@@ -55,7 +62,9 @@ public class GearService extends SAAgent {
         Log.d(TAG, "Service instantiated");
     }
 
-LocationListener locationListener = new LocationListener() {
+    private final GearLocationListener locationListener = new GearLocationListener();
+
+    private class GearLocationListener implements LocationListener {
 
     long mTime;
     float   mBearing, mSpeed;
@@ -65,19 +74,26 @@ LocationListener locationListener = new LocationListener() {
 
     @Override
     public  String toString() {
-        //In general this isn't how I would encode something in JSON, but the amount
-        //of data is small enough such that I've decided to use String.Format to
-        //produce what's needed.
-        return format(Locale.ROOT,"\"gpsEnabled\" :%b,"+
-                        "\"hasSpeed\":%b, \"gpsSpeed\":%1.2f, \"hasBearing\":%b, \"bearing\":%1.4f,"+
-                        "\"latitude\":%f, \"longitude\":%f,\"hasAltitude\":%b, \"altitude\":%1.3f",
-                bGpsEnabled,
-                bHasSpeed, mSpeed,
-                bHasBearing, mBearing,
-                mLatitude, mLongitude,
-                bHasAltitude, mAltitude
-        );
+        FormatBuffer buffer = new FormatBuffer();
+        appendTo(buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Same output as format(Locale.ROOT, "\"gpsEnabled\" :%b, ...) used before.
+     */
+    void appendTo(FormatBuffer buffer) {
+        buffer.append("\"gpsEnabled\" :").append(bGpsEnabled ? "true" : "false")
+                .append(",\"hasSpeed\":").append(bHasSpeed ? "true" : "false")
+                .append(", \"gpsSpeed\":").append(mSpeed, 2)
+                .append(", \"hasBearing\":").append(bHasBearing ? "true" : "false")
+                .append(", \"bearing\":").append(mBearing, 4)
+                .append(",\"latitude\":").append(mLatitude, 6)
+                .append(", \"longitude\":").append(mLongitude, 6)
+                .append(",\"hasAltitude\":").append(bHasAltitude ? "true" : "false")
+                .append(", \"altitude\":").append(mAltitude, 3);
     }
+
     @Override
     public void onLocationChanged(Location location) {
         if(bHasSpeed = location.hasSpeed())
@@ -91,7 +107,7 @@ LocationListener locationListener = new LocationListener() {
         mLatitude = location.getLatitude();
         mLongitude = location.getLongitude();
         mTime = location.getTime();
-//        transmitMessage(); Me lo he llevado a la rutina que se ejecuta de forma temporizada
+        updatePayload();
     }
     @Override
     public void onStatusChanged(String s, int i, Bundle bundle) {
@@ -100,13 +116,15 @@ LocationListener locationListener = new LocationListener() {
     @Override
     public void onProviderEnabled(String s) {
         bGpsEnabled = true;
+        updatePayload();
     }
 
     @Override
     public void onProviderDisabled(String s) {
         bGpsEnabled = false;
+        updatePayload();
     }
-};
+}
 
     public void transmitMessage(String sendingString) {
         byte[] sendingMessage = sendingString.getBytes();
@@ -122,49 +140,88 @@ LocationListener locationListener = new LocationListener() {
         }
     }
 
-    public void startKeepAliveTimer() { //Se le pueden pasar parámetros
-        TimerTask timerTask = new TimerTask() {
-            @Override
-            public void run() {
-                String message;
-                if (WheelData.getInstance()!=null) {
-                    message = String.format(Locale.ROOT, "{ \"speed\":%.2f," +
-                                    "\"voltage\":%.2f,\"current\":%.2f,\"power\":%.2f," +
-                                    "\"batteryLevel\":%d,\"distance\":%d,\"totalDistance\":%d,\"temperature\":%d," +
-                                    "\"temperature2\":%d," +
-                                    "\"angle\":%.2f,\"roll\":%.2f,\"isAlarmExecuting\":%d",
-//                        "\"mode\":%s,\"alert\":%s"+
-                            WheelData.getInstance().getSpeedDouble(),
-                            WheelData.getInstance().getVoltageDouble(),
-                            WheelData.getInstance().getCurrentDouble(),
-                            WheelData.getInstance().getPowerDouble(),
-                            WheelData.getInstance().getBatteryLevel(),
-                            WheelData.getInstance().getDistance(),
-                            WheelData.getInstance().getTotalDistance(),
-                            WheelData.getInstance().getTemperature(),
-                            WheelData.getInstance().getTemperature2(),
-                            WheelData.getInstance().getAngle(),
-                            WheelData.getInstance().getRoll(),
-                            WheelData.getInstance().getAlarm()
-//                        WheelData.getInstance().getModeStr(),
-//                        WheelData.getInstance().getAlert()
-                    );
-                } else {
-                    message = "{";
-                }
-                if(locationListener!=null) {
-                    if (WheelData.getInstance()!=null) {
-                    message = message + "," + getLocationMessage();
-                    } else{
-                    message = getLocationMessage();
-                    }
+    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updatePayload();
+        }
+    };
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushPending = false;
+            flushPayload();
+        }
+    };
+
+    /**
+     * Builds the message from one pass over WheelData. The message is only
+     * sent if it differs from the previous one.
+     * The format is the same as the one built with String.format before.
+     */
+    void updatePayload() {
+        WheelData wd = WheelData.getInstance();
+        FormatBuffer buffer = mScratch.clear();
+        if (wd != null) {
+            buffer.append("{ \"speed\":").append(wd.getSpeedDouble(), 2)
+                    .append(",\"voltage\":").append(wd.getVoltageDouble(), 2)
+                    .append(",\"current\":").append(wd.getCurrentDouble(), 2)
+                    .append(",\"power\":").append(wd.getPowerDouble(), 2)
+                    .append(",\"batteryLevel\":").append(wd.getBatteryLevel())
+                    .append(",\"distance\":").append(wd.getDistance())
+                    .append(",\"totalDistance\":").append(wd.getTotalDistance())
+                    .append(",\"temperature\":").append(wd.getTemperature())
+                    .append(",\"temperature2\":").append(wd.getTemperature2())
+                    .append(",\"angle\":").append(wd.getAngle(), 2)
+                    .append(",\"roll\":").append(wd.getRoll(), 2)
+                    .append(",\"isAlarmExecuting\":").append(wd.getAlarm())
+                    .append(',');
+        }
+        locationListener.appendTo(buffer);
+        buffer.append('}');
+        if (!buffer.contentEquals(mPayload)) {
+            mScratch = mPayload;
+            mPayload = buffer;
+            mPayloadBytes = buffer.toAsciiBytes();
+            mPayloadVersion++;
+        }
+        flushPayload();
+    }
+
+    /**
+     * Sends the current message to every connection that hasn't got it yet,
+     * at most once per {@link GearSAPServiceProviderConnection#MIN_SEND_INTERVAL}.
+     * Unchanged message is repeated only as a keep-alive.
+     */
+    void flushPayload() {
+        if (mPayloadBytes == null) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        long nextFlush = Long.MAX_VALUE;
+        for (GearSAPServiceProviderConnection connection : mConnectionBag) {
+            long sendTime = connection.getSentVersion() == mPayloadVersion
+                    ? connection.getLastSendTime() + GearSAPServiceProviderConnection.KEEP_ALIVE_INTERVAL
+                    : connection.getLastSendTime() + GearSAPServiceProviderConnection.MIN_SEND_INTERVAL;
+            if (sendTime <= now) {
+                try {
+                    connection.send(SAP_SERVICE_CHANNEL_ID, mPayloadBytes);
+                } catch (IOException exc) {
+                    //
                 }
-                message = message + "}";
-                transmitMessage(message);
+                connection.onSent(mPayloadVersion, now);
+                sendTime = now + GearSAPServiceProviderConnection.KEEP_ALIVE_INTERVAL;
             }
-        };
-        keepAliveTimer = new Timer();
-        keepAliveTimer.scheduleAtFixedRate(timerTask, 0, 200); //cada 500ms
+            nextFlush = Math.min(nextFlush, sendTime);
+        }
+        if (nextFlush != Long.MAX_VALUE) {
+            if (mFlushPending) {
+                mHandler.removeCallbacks(mFlushRunnable);
+            }
+            mFlushPending = true;
+            mHandler.postAtTime(mFlushRunnable, nextFlush);
+        }
     }
 
     public void removeConnection(GearSAPServiceProviderConnection connection) {
@@ -196,17 +253,28 @@ LocationListener locationListener = new LocationListener() {
                 mIsListening = true;
                 mLocationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 1000, 1, locationListener);
             }
-            startKeepAliveTimer(); //Location retreived each second, but data sent twice a second.
         }
+        if (!mIsSubscribed) {
+            mIsSubscribed = true;
+            IntentFilter intentFilter = new IntentFilter();
+            intentFilter.addAction(Constants.ACTION_WHEEL_DATA_AVAILABLE);
+            intentFilter.addAction(Constants.ACTION_BLUETOOTH_CONNECTION_STATE);
+            registerReceiver(mBroadcastReceiver, intentFilter);
+        }
+        updatePayload(); // data is sent when it changes, location comes each second
     }
 
     void stopSendingData() {
         if(mIsListening) {
             mLocationManager.removeUpdates(locationListener);
             mIsListening = false;
-            keepAliveTimer.cancel();
-            keepAliveTimer = null;
         }
+        if (mIsSubscribed) {
+            mIsSubscribed = false;
+            unregisterReceiver(mBroadcastReceiver);
+        }
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushPending = false;
     }
 
     void reevaluateNeedToSend() {
@@ -0,0 +1,161 @@
+package com.cooper.wheellog
+
+import java.util.*
+
+/**
+ * Link quality of a wheel: notifications, frames assembled by the adapter,
+ * frames rejected by the unpacker by reason, decode failures, intervals
+ * between frames and RSSI samples. Counters are kept per adapter.
+ */
+class LinkDiagnostics {
+
+    enum class Reject {
+        Header,
+        Footer,
+        Format,
+        Length,
+        Checksum
+    }
+
+    class Counters {
+        var notifications = 0L
+        var frames = 0L
+        var decodeFailures = 0L
+        val rejected = LongArray(Reject.values().size)
+
+        /**
+         * Counts of frame intervals, bucket i is below [INTERVAL_BUCKETS][i] ms, the last one is the rest.
+         */
+        val intervals = LongArray(INTERVAL_BUCKETS.size + 1)
+
+        fun rejected(reason: Reject): Long = rejected[reason.ordinal]
+
+        internal fun copy(): Counters {
+            val counters = Counters()
+            counters.notifications = notifications
+            counters.frames = frames
+            counters.decodeFailures = decodeFailures
+            rejected.copyInto(counters.rejected)
+            intervals.copyInto(counters.intervals)
+            return counters
+        }
+    }
+
+    private val counters = LinkedHashMap<String, Counters>()
+    private var current = Counters()
+    private var notificationTime = 0L
+    private var lastFrameTime = 0L
+
+    var rssi = 0
+        private set
+    var minRssi = 0
+        private set
+    var maxRssi = 0
+        private set
+    var rssiSamples = 0
+        private set
+    private var rssiSum = 0L
+
+    val averageRssi: Double
+        @Synchronized
+        get() = if (rssiSamples == 0) 0.0 else rssiSum.toDouble() / rssiSamples
+
+    /**
+     * Called for every notification before it is passed to the adapter.
+     */
+    @Synchronized
+    fun onNotification(adapter: String, now: Long) {
+        current = counters.getOrPut(adapter) { Counters() }
+        current.notifications++
+        notificationTime = now
+    }
+
+    @Synchronized
+    fun onFrame() {
+        current.frames++
+        if (lastFrameTime > 0) {
+            current.intervals[bucketOf(notificationTime - lastFrameTime)]++
+        }
+        lastFrameTime = notificationTime
+    }
+
+    @Synchronized
+    fun onRejected(reason: Reject) {
+        current.rejected[reason.ordinal]++
+    }
+
+    @Synchronized
+    fun onDecodeFailure() {
+        current.decodeFailures++
+    }
+
+    @Synchronized
+    fun onRssi(value: Int) {
+        rssi = value
+        if (rssiSamples == 0 || value < minRssi) minRssi = value
+        if (rssiSamples == 0 || value > maxRssi) maxRssi = value
+        rssiSum += value
+        rssiSamples++
+    }
+
+    @Synchronized
+    fun getCounters(adapter: String): Counters? = counters[adapter]?.copy()
+
+    @Synchronized
+    fun reset() {
+        counters.clear()
+        current = Counters()
+        notificationTime = 0
+        lastFrameTime = 0
+        rssi = 0
+        minRssi = 0
+        maxRssi = 0
+        rssiSamples = 0
+        rssiSum = 0
+    }
+
+    /**
+     * Plain text report for the diagnostics page and RAW capture export.
+     */
+    @Synchronized
+    fun report(): String {
+        val sb = StringBuilder()
+        for ((adapter, c) in counters) {
+            sb.append(adapter).append('\n')
+            sb.append("  notifications: ").append(c.notifications).append('\n')
+            sb.append("  frames: ").append(c.frames).append('\n')
+            for (reason in Reject.values()) {
+                sb.append("  rejected ").append(reason.name).append(": ")
+                        .append(c.rejected(reason)).append('\n')
+            }
+            sb.append("  decode failures: ").append(c.decodeFailures).append('\n')
+            sb.append("  frame intervals:")
+            for (i in c.intervals.indices) {
+                sb.append(if (i < INTERVAL_BUCKETS.size) " <" + INTERVAL_BUCKETS[i] else " more")
+                        .append(':').append(c.intervals[i])
+            }
+            sb.append('\n')
+        }
+        if (rssiSamples > 0) {
+            sb.append(String.format(Locale.US, "RSSI: %d dBm, min %d, max %d, avg %.1f, %d samples\n",
+                    rssi, minRssi, maxRssi, averageRssi, rssiSamples))
+        }
+        return sb.toString()
+    }
+
+    private fun bucketOf(time: Long): Int {
+        for (i in INTERVAL_BUCKETS.indices) {
+            if (time < INTERVAL_BUCKETS[i]) {
+                return i
+            }
+        }
+        return INTERVAL_BUCKETS.size
+    }
+
+    companion object {
+        const val RSSI_INTERVAL = 2_000L
+
+        @JvmField
+        val INTERVAL_BUCKETS = longArrayOf(25, 50, 100, 200, 500, 1_000, 2_000)
+    }
+}
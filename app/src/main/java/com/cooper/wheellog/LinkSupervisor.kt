@@ -0,0 +1,126 @@
+package com.cooper.wheellog
+
+import timber.log.Timber
+import java.util.*
+
+/**
+ * Watches the data flow of the connected wheel. The link is stalled when no data
+ * arrived for a number of usual frame periods. Reconnects are delayed with
+ * exponential backoff and jitter, first attempts use a direct connect.
+ * Time from the last frame before the link was lost to the first frame after
+ * it came back is kept as a histogram per wheel.
+ */
+class LinkSupervisor(private val random: Random = Random()) {
+
+    /**
+     * Smoothed interval between frames, ms, 0 until measured.
+     */
+    var framePeriod = 0.0
+        private set
+
+    var attempts = 0
+        private set
+
+    val isLinkLost: Boolean
+        get() = linkLost
+
+    private var lastFrameTime = 0L
+    private var linkLost = false
+    private val histograms = HashMap<String, IntArray>()
+
+    @Synchronized
+    fun onFrame(now: Long, wheel: String?) {
+        if (linkLost) {
+            if (lastFrameTime > 0) {
+                val recoverTime = now - lastFrameTime
+                histograms.getOrPut(wheel ?: "") { IntArray(RECOVER_BUCKETS.size + 1) }[bucketOf(recoverTime)]++
+                Timber.i("Link recovered in %d ms after %d attempts", recoverTime, attempts)
+            }
+            linkLost = false
+            attempts = 0
+        } else if (lastFrameTime > 0) {
+            val interval = now - lastFrameTime
+            if (interval < MAX_STALL_TIMEOUT) {
+                framePeriod = if (framePeriod == 0.0) interval.toDouble()
+                else framePeriod * (1 - SMOOTHING) + interval * SMOOTHING
+            }
+        }
+        lastFrameTime = now
+    }
+
+    fun stallTimeout(missedFrames: Int): Long {
+        if (framePeriod == 0.0) {
+            return MAX_STALL_TIMEOUT
+        }
+        return (framePeriod * missedFrames).toLong().coerceIn(MIN_STALL_TIMEOUT, MAX_STALL_TIMEOUT)
+    }
+
+    @Synchronized
+    fun isStalled(now: Long, missedFrames: Int): Boolean {
+        return !linkLost && lastFrameTime > 0 && now - lastFrameTime > stallTimeout(missedFrames)
+    }
+
+    /**
+     * Called on a stall or an unexpected disconnect.
+     */
+    @Synchronized
+    fun onLinkLost() {
+        linkLost = true
+    }
+
+    /**
+     * @return delay before the next reconnect attempt, ms.
+     */
+    @Synchronized
+    fun nextReconnectDelay(): Long {
+        val delay = (BASE_RECONNECT_DELAY shl minOf(attempts, 16)).coerceAtMost(MAX_RECONNECT_DELAY)
+        attempts++
+        return delay + (random.nextDouble() * delay * JITTER).toLong()
+    }
+
+    /**
+     * A direct connect is fast when the wheel is in range, later attempts
+     * leave it to the system background connect.
+     */
+    @Synchronized
+    fun useDirectConnect(): Boolean = attempts <= DIRECT_CONNECT_ATTEMPTS
+
+    /**
+     * Counts of recover times, bucket i is below [RECOVER_BUCKETS][i] ms, the last one is the rest.
+     */
+    @Synchronized
+    fun getHistogram(wheel: String): IntArray? = histograms[wheel]?.copyOf()
+
+    /**
+     * Called on a new connection by the user.
+     */
+    @Synchronized
+    fun reset() {
+        framePeriod = 0.0
+        attempts = 0
+        lastFrameTime = 0
+        linkLost = false
+    }
+
+    private fun bucketOf(time: Long): Int {
+        for (i in RECOVER_BUCKETS.indices) {
+            if (time < RECOVER_BUCKETS[i]) {
+                return i
+            }
+        }
+        return RECOVER_BUCKETS.size
+    }
+
+    companion object {
+        const val DEFAULT_MISSED_FRAMES = 10
+        const val MIN_STALL_TIMEOUT = 2_000L
+        const val MAX_STALL_TIMEOUT = 15_000L
+        const val BASE_RECONNECT_DELAY = 250L
+        const val MAX_RECONNECT_DELAY = 30_000L
+        const val DIRECT_CONNECT_ATTEMPTS = 3
+        private const val JITTER = 0.5
+        private const val SMOOTHING = 0.1
+        @JvmField
+        val RECOVER_BUCKETS = longArrayOf(1_000, 2_000, 5_000, 10_000, 30_000, 60_000)
+    }
+}
@@ -24,6 +24,7 @@ import com.cooper.wheellog.utils.PermissionsUtil;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
 
 import timber.log.Timber;
@@ -32,13 +33,17 @@ public class LoggingService extends Service
 {
     private static LoggingService instance = null;
     SimpleDateFormat sdf;
-    private Location mLocation;
+    private volatile Location mLocation;
     private Location mLastLocation;
     private double mLocationDistance;
     private LocationManager mLocationManager;
     private String mLocationProvider = LocationManager.NETWORK_PROVIDER;
     private boolean logLocationData = false;
     private FileUtil fileUtil;
+    // logs of the wheels connected next to the primary one, by MAC
+    private final HashMap<String, FileUtil> sessionFiles = new HashMap<>();
+    private String startTime;
+    private final WheelData.DataListener dataListener = this::onData;
 
     public static boolean isInstanceCreated() {
         return instance != null;
@@ -63,9 +68,6 @@ public class LoggingService extends Service
                         }
                     }
                     break;
-                case Constants.ACTION_WHEEL_DATA_AVAILABLE:
-                    updateFile();
-                    break;
             }
         }
     };
@@ -79,7 +81,8 @@ public class LoggingService extends Service
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
 
-        if (WheelData.getInstance() == null) {
+        WheelData wd = WheelData.getPrimary();
+        if (wd == null) {
             stopSelf();
             return START_NOT_STICKY; // kill itself without restart
         }
@@ -88,7 +91,6 @@ public class LoggingService extends Service
         fileUtil = new FileUtil(getApplicationContext());
 
         IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(Constants.ACTION_WHEEL_DATA_AVAILABLE);
         intentFilter.addAction(Constants.ACTION_BLUETOOTH_CONNECTION_STATE);
         registerReceiver(mBluetoothUpdateReceiver, intentFilter);
 
@@ -116,7 +118,8 @@ public class LoggingService extends Service
         sdf = new SimpleDateFormat("yyyy-MM-dd,HH:mm:ss.SSS", Locale.US);
 
         boolean writeToLastLog = false;
-        String mac = WheelData.getInstance().getMac();
+        // the ride log belongs to the primary wheel, whichever wheel is shown
+        String mac = wd.getMac();
         if (WheelLog.AppConfig.getContinueThisDayLog() &&
                 !WheelLog.AppConfig.getContinueThisDayLogMacException().equals(mac)) {
             FileUtil lastFileUtil = FileUtil.getLastLog(getApplicationContext());
@@ -132,19 +135,17 @@ public class LoggingService extends Service
             }
         }
 
+        startTime = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss", Locale.US).format(new Date());
         if (!writeToLastLog) {
-            SimpleDateFormat sdFormatter = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss", Locale.US);
-
-            String filename = sdFormatter.format(new Date()) + ".csv";
+            String filename = startTime + ".csv";
 
-            if (!fileUtil.prepareFile(filename, WheelData.getInstance().getMac())) {
+            if (!fileUtil.prepareFile(filename, mac)) {
                 stopSelf();
                 return START_STICKY;
             }
             WheelLog.AppConfig.setContinueThisDayLogMacException("");
         }
 
-        String locationHeaderString = "";
         if (logLocationData) {
             mLocationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
 
@@ -174,7 +175,6 @@ public class LoggingService extends Service
             }
 
             if (logLocationData) {
-                locationHeaderString = "latitude,longitude,gps_speed,gps_alt,gps_heading,gps_distance,";
                 mLocation = getLastBestLocation();
                 mLocationProvider = LocationManager.NETWORK_PROVIDER;
                 if (useGPS) {
@@ -186,8 +186,9 @@ public class LoggingService extends Service
         }
 
         if (!writeToLastLog) {
-            fileUtil.writeLine("date,time," + locationHeaderString + "speed,voltage,phase_current,current,power,torque,pwm,battery_level,distance,totaldistance,system_temp,temp2,tilt,roll,mode,alert");
+            fileUtil.writeLine(TripLog.header(logLocationData));
         }
+        WheelData.addDataListener(dataListener);
 
         Intent serviceIntent = new Intent(Constants.ACTION_LOGGING_SERVICE_TOGGLED);
         serviceIntent.putExtra(Constants.INTENT_EXTRA_LOGGING_FILE_LOCATION, fileUtil.getAbsolutePath());
@@ -207,15 +208,22 @@ public class LoggingService extends Service
     public void onDestroy() {
         String path = "";
         boolean isBusy = false;
+        WheelData.removeDataListener(dataListener);
 
         if (logLocationData && mLastLocation != null) {
             WheelLog.AppConfig.setLastLocationLaltitude(mLastLocation.getLatitude());
             WheelLog.AppConfig.setLastLocationLongitude(mLastLocation.getLongitude());
         }
 
-        if (fileUtil != null) {
-            path = fileUtil.getAbsolutePath();
-            fileUtil.close();
+        synchronized (this) {
+            if (fileUtil != null) {
+                path = fileUtil.getAbsolutePath();
+                fileUtil.close();
+            }
+            for (FileUtil sessionFile : sessionFiles.values()) {
+                sessionFile.close();
+            }
+            sessionFiles.clear();
         }
 
         Timber.wtf("DataLogger Stopping...");
@@ -277,7 +285,18 @@ public class LoggingService extends Service
                 Environment.MEDIA_MOUNTED_READ_ONLY.equals(state);
     }
 
-    private void updateFile() {
+    /**
+     * Called on the thread which decoded the data of the wheel.
+     */
+    private synchronized void onData(WheelData wd) {
+        if (wd == WheelData.getPrimary()) {
+            updateFile(wd);
+        } else {
+            updateSessionFile(wd);
+        }
+    }
+
+    private void updateFile(WheelData wd) {
         String LocationDataString = "";
         if (logLocationData) {
             String longitude = "";
@@ -305,27 +324,25 @@ public class LoggingService extends Service
                     mLocationDistance
             );
         }
-        WheelData wd = WheelData.getInstance();
-        fileUtil.writeLine(String.format(Locale.US, "%s,%s%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%d,%d,%d,%d,%.2f,%.2f,%s,%s",
-                sdf.format(WheelData.getInstance().getTimeStamp()),
-                LocationDataString,
-                wd.getSpeedDouble(),
-                wd.getVoltageDouble(),
-                wd.getPhaseCurrentDouble(),
-                wd.getCurrentDouble(),
-                wd.getPowerDouble(),
-                wd.getTorque(),
-                wd.getCalculatedPwm(),
-                wd.getBatteryLevel(),
-                wd.getDistance(),
-                wd.getTotalDistance(),
-                wd.getTemperature(),
-                wd.getTemperature2(),
-                wd.getAngle(),
-                wd.getRoll(),
-                wd.getModeStr(),
-                wd.getAlert()
-        ));
+        fileUtil.writeLine(TripLog.row(wd, sdf.format(wd.getTimeStamp()), LocationDataString));
+    }
+
+    /**
+     * Every other connected wheel is logged into its own file, without the location.
+     */
+    private void updateSessionFile(WheelData wd) {
+        String mac = wd.getMac();
+        FileUtil sessionFile = sessionFiles.get(mac);
+        if (sessionFile == null) {
+            sessionFile = new FileUtil(getApplicationContext());
+            // the name differs from the primary log, files are cached by name
+            String filename = startTime + "_" + mac.replace(':', '_') + ".csv";
+            if (sessionFile.prepareFile(filename, mac)) {
+                sessionFile.writeLine(TripLog.header(false));
+            }
+            sessionFiles.put(mac, sessionFile);
+        }
+        sessionFile.writeLine(TripLog.row(wd, sdf.format(wd.getTimeStamp()), ""));
     }
 
     // Define a listener that responds to location updates
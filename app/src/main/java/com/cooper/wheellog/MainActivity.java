@@ -15,6 +15,7 @@ import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.graphics.drawable.AnimationDrawable;
 import android.media.AudioManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.CountDownTimer;
@@ -43,8 +44,12 @@ import com.cooper.wheellog.utils.Constants.WHEEL_TYPE;
 import com.cooper.wheellog.utils.*;
 import com.google.android.material.snackbar.Snackbar;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
@@ -74,10 +79,14 @@ public class MainActivity extends AppCompatActivity {
     MenuItem miWatch;
     MenuItem miBand;
     MenuItem miLogging;
+    MenuItem miSession;
+    MenuItem miAddWheel;
+    MenuItem miReplay;
 
     private BluetoothAdapter mBluetoothAdapter;
     private String mDeviceAddress;
     private int mConnectionState = BluetoothLeService.STATE_DISCONNECTED;
+    private RawReplay replay;
     private boolean doubleBackToExitPressedOnce = false;
     private Snackbar snackbar;
     private final SimpleDateFormat timeFormatter = new SimpleDateFormat("HH:mm:ss ", Locale.US);
@@ -85,13 +94,15 @@ public class MainActivity extends AppCompatActivity {
     //endregion
 
     protected static final int RESULT_DEVICE_SCAN_REQUEST = 20;
+    protected static final int RESULT_SESSION_SCAN_REQUEST = 21;
+    protected static final int RESULT_REPLAY_REQUEST = 22;
     protected static final int RESULT_REQUEST_ENABLE_BT = 30;
     protected static final int ResultPrivatePolicy = 666;
 
     private static Boolean onDestroyProcess = false;
 
     private BluetoothLeService getBluetoothLeService() {
-        return WheelData.getInstance().getBluetoothLeService();
+        return WheelData.getPrimary().getBluetoothLeService();
     }
 
     private final ServiceConnection mBluetoothServiceConnection = new ServiceConnection() {
@@ -214,42 +225,49 @@ public class MainActivity extends AppCompatActivity {
                     int connectionState = intent.getIntExtra(Constants.INTENT_EXTRA_CONNECTION_STATE, BluetoothLeService.STATE_DISCONNECTED);
                     Timber.i("Bluetooth state = %d", connectionState);
                     setConnectionState(connectionState);
-                    WheelData.getInstance().setConnected(connectionState == BluetoothLeService.STATE_CONNECTED);
-                    switch (connectionState) {
-                        case BluetoothLeService.STATE_CONNECTED:
-                            if (!LoggingService.isInstanceCreated() &&
-                                    WheelLog.AppConfig.getAutoLog() &&
-                                    !WheelLog.AppConfig.getStartAutoLoggingWhenIsMoving()) {
-                                toggleLoggingService();
-                            }
-                            if (WheelData.getInstance().getWheelType() == WHEEL_TYPE.KINGSONG) {
-                                KingsongAdapter.getInstance().requestNameData();
-                            }
-                            if (WheelLog.AppConfig.getAutoWatch() && wearOs == null) {
-                                toggleWatch();
-                            }
-                            WheelLog.Notifications.setNotificationMessageId(R.string.connected);
-                            break;
-                        case BluetoothLeService.STATE_DISCONNECTED:
-                            switch (WheelData.getInstance().getWheelType()) {
-                                case INMOTION:
-                                    InMotionAdapter.newInstance();
-                                case INMOTION_V2:
-                                    InmotionAdapterV2.newInstance();
-                                case NINEBOT_Z:
-                                    NinebotZAdapter.newInstance();
-                                case NINEBOT:
-                                    NinebotAdapter.newInstance();
-                            }
-                            WheelLog.Notifications.setNotificationMessageId(R.string.disconnected);
-                            break;
-                        case BluetoothLeService.STATE_CONNECTING:
-                            if (intent.hasExtra(Constants.INTENT_EXTRA_BLE_AUTO_CONNECT)) {
-                                WheelLog.Notifications.setNotificationMessageId(R.string.searching);
-                            } else {
-                                WheelLog.Notifications.setNotificationMessageId(R.string.connecting);
-                            }
-                            break;
+                    // the service connects the primary wheel, the user may look at another one
+                    WheelData primary = WheelData.getPrimary();
+                    primary.setConnected(connectionState == BluetoothLeService.STATE_CONNECTED);
+                    WheelData previous = WheelData.bind(primary);
+                    try {
+                        switch (connectionState) {
+                            case BluetoothLeService.STATE_CONNECTED:
+                                if (!LoggingService.isInstanceCreated() &&
+                                        WheelLog.AppConfig.getAutoLog() &&
+                                        !WheelLog.AppConfig.getStartAutoLoggingWhenIsMoving()) {
+                                    toggleLoggingService();
+                                }
+                                if (primary.getWheelType() == WHEEL_TYPE.KINGSONG) {
+                                    KingsongAdapter.getInstance().requestNameData();
+                                }
+                                if (WheelLog.AppConfig.getAutoWatch() && wearOs == null) {
+                                    toggleWatch();
+                                }
+                                WheelLog.Notifications.setNotificationMessageId(R.string.connected);
+                                break;
+                            case BluetoothLeService.STATE_DISCONNECTED:
+                                switch (primary.getWheelType()) {
+                                    case INMOTION:
+                                        InMotionAdapter.newInstance();
+                                    case INMOTION_V2:
+                                        InmotionAdapterV2.newInstance();
+                                    case NINEBOT_Z:
+                                        NinebotZAdapter.newInstance();
+                                    case NINEBOT:
+                                        NinebotAdapter.newInstance();
+                                }
+                                WheelLog.Notifications.setNotificationMessageId(R.string.disconnected);
+                                break;
+                            case BluetoothLeService.STATE_CONNECTING:
+                                if (intent.hasExtra(Constants.INTENT_EXTRA_BLE_AUTO_CONNECT)) {
+                                    WheelLog.Notifications.setNotificationMessageId(R.string.searching);
+                                } else {
+                                    WheelLog.Notifications.setNotificationMessageId(R.string.connecting);
+                                }
+                                break;
+                        }
+                    } finally {
+                        WheelData.bind(previous);
                     }
                     WheelLog.Notifications.update();
                     break;
@@ -372,6 +390,11 @@ public class MainActivity extends AppCompatActivity {
             miWatch.setIcon(WheelLog.ThemeManager.getId(ThemeIconEnum.MenuWatchOff));
         }
 
+        miSession.setVisible(!WheelSessions.getSessions().isEmpty());
+        miAddWheel.setVisible(mConnectionState == BluetoothLeService.STATE_CONNECTED);
+        miReplay.setVisible(replay != null || mConnectionState == BluetoothLeService.STATE_DISCONNECTED);
+        miReplay.setTitle(replay != null ? R.string.stop_replay : R.string.replay_ride);
+
         if (LoggingService.isInstanceCreated()) {
             miLogging.setTitle(R.string.stop_data_service);
             miLogging.setIcon(WheelLog.ThemeManager.getId(ThemeIconEnum.MenuLogOn));
@@ -555,6 +578,9 @@ public class MainActivity extends AppCompatActivity {
         stopPebbleService();
         stopGarminConnectIQ();
         stopLoggingService();
+        if (replay != null) {
+            replay.stop();
+        }
         WheelData.getInstance().full_reset();
         if (getBluetoothLeService() != null) {
             unbindService(mBluetoothServiceConnection);
@@ -591,6 +617,9 @@ public class MainActivity extends AppCompatActivity {
         miWatch = mMenu.findItem(R.id.miWatch);
         miBand = mMenu.findItem(R.id.miBand);
         miLogging = mMenu.findItem(R.id.miLogging);
+        miSession = mMenu.findItem(R.id.miSession);
+        miAddWheel = mMenu.findItem(R.id.miAddWheel);
+        miReplay = mMenu.findItem(R.id.miReplay);
 
         // Themes
         if (WheelLog.AppConfig.getAppTheme() == R.style.AJDMTheme) {
@@ -652,6 +681,15 @@ public class MainActivity extends AppCompatActivity {
                     toggleLogging();
                 }
                 return true;
+            case R.id.miSession:
+                selectSession();
+                return true;
+            case R.id.miAddWheel:
+                MainActivityPermissionsDispatcher.startSessionScanActivityWithPermissionCheck(this);
+                return true;
+            case R.id.miReplay:
+                toggleReplay();
+                return true;
             case R.id.miWatch:
                 toggleWatch();
                 return true;
@@ -669,6 +707,37 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private void selectSession() {
+        final List<WheelSession> sessions = WheelSessions.getSessions();
+        String[] names = new String[sessions.size() + 1];
+        WheelData primary = WheelData.getPrimary();
+        names[0] = getString(R.string.primary_wheel, primary.getName().isEmpty() ? primary.getMac() : primary.getName());
+        for (int i = 0; i < sessions.size(); i++) {
+            names[i + 1] = sessions.get(i).getName();
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.select_wheel)
+                .setItems(names, (dialog, which) ->
+                        showSession(which == 0 ? null : sessions.get(which - 1).getMac()));
+        for (final WheelSession session : sessions) {
+            if (session.getData().isSelected()) {
+                builder.setNeutralButton(R.string.disconnect_shown_wheel, (dialog, which) -> {
+                    WheelSessions.close(session.getMac());
+                    showSession(null);
+                });
+            }
+        }
+        builder.show();
+    }
+
+    private void showSession(String mac) {
+        WheelSessions.select(mac);
+        pagerAdapter.configureSecondDisplay();
+        pagerAdapter.configureSmartBmsDisplay();
+        pagerAdapter.updateScreen(true);
+        setMenuIconStates();
+    }
+
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         switch (keyCode) {
             case KeyEvent.KEYCODE_MENU:
@@ -819,6 +888,58 @@ public class MainActivity extends AppCompatActivity {
         startActivityForResult(new Intent(MainActivity.this, ScanActivity.class), RESULT_DEVICE_SCAN_REQUEST);
     }
 
+    /**
+     * Connects another wheel next to the primary one.
+     */
+    @NeedsPermission(Manifest.permission.ACCESS_FINE_LOCATION)
+    void startSessionScanActivity() {
+        Intent intent = new Intent(MainActivity.this, ScanActivity.class);
+        intent.putExtra(ScanActivity.EXTRA_SESSION, true);
+        startActivityForResult(intent, RESULT_SESSION_SCAN_REQUEST);
+    }
+
+    private void toggleReplay() {
+        if (replay != null) {
+            replay.stop();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(Intent.createChooser(intent, getString(R.string.replay_ride)), RESULT_REPLAY_REQUEST);
+    }
+
+    /**
+     * Plays a RAW capture into the primary wheel as if the wheel was connected,
+     * in real time on a thread of its own.
+     */
+    private void startReplay(Uri uri) {
+        WheelData wd = WheelData.getPrimary();
+        wd.full_reset();
+        final RawReplay rawReplay = new RawReplay(getApplicationContext(), wd, () -> {
+            try {
+                InputStream input = getContentResolver().openInputStream(uri);
+                if (input != null) {
+                    return input;
+                }
+            } catch (FileNotFoundException e) {
+                Timber.e(e, "Unable to open %s", uri);
+            }
+            return new ByteArrayInputStream(new byte[0]);
+        });
+        replay = rawReplay;
+        setMenuIconStates();
+        new Thread(() -> {
+            RawReplay.Stats stats = rawReplay.play();
+            runOnUiThread(() -> {
+                replay = null;
+                setMenuIconStates();
+                Toast.makeText(MainActivity.this,
+                        getString(R.string.replay_finished, stats.getFrames()), Toast.LENGTH_LONG).show();
+            });
+        }, "RawReplay").start();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -852,6 +973,28 @@ public class MainActivity extends AppCompatActivity {
                     }
                 }
                 break;
+            case RESULT_SESSION_SCAN_REQUEST:
+                if (resultCode == RESULT_OK) {
+                    String mac = data.getStringExtra("MAC");
+                    Timber.i("Session wheel selected = %s", mac);
+                    if (mac == null || mac.equals(WheelData.getPrimary().getMac())) {
+                        break;
+                    }
+                    WheelSession session = WheelSessions.connect(mac, getApplicationContext());
+                    if (session == null) {
+                        Toast.makeText(this, R.string.session_connect_failed, Toast.LENGTH_LONG).show();
+                        break;
+                    }
+                    session.getData().setBtName(data.getStringExtra("NAME"));
+                    setMenuIconStates();
+                }
+                break;
+            case RESULT_REPLAY_REQUEST:
+                if (resultCode == RESULT_OK && data != null && data.getData() != null
+                        && replay == null && mConnectionState == BluetoothLeService.STATE_DISCONNECTED) {
+                    startReplay(data.getData());
+                }
+                break;
             case RESULT_REQUEST_ENABLE_BT:
                 if (mBluetoothAdapter.isEnabled())
                     startBluetoothService();
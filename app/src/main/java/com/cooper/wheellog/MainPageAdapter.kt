@@ -3,6 +3,9 @@ package com.cooper.wheellog
 import android.annotation.SuppressLint
 import android.content.SharedPreferences
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
 import android.view.*
 import android.widget.TextView
 import androidx.gridlayout.widget.GridLayout
@@ -12,10 +15,12 @@ import androidx.recyclerview.widget.RecyclerView
 import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
 import com.cooper.wheellog.utils.FileUtil
 import com.cooper.wheellog.utils.MathsUtil
+import com.cooper.wheellog.utils.SmartBms
 import com.cooper.wheellog.utils.SomeUtil.Companion.getColorEx
+import com.cooper.wheellog.utils.StringUtil.Companion.appendTemp
 import com.cooper.wheellog.utils.StringUtil.Companion.inArray
-import com.cooper.wheellog.utils.StringUtil.Companion.toTempString
 import com.cooper.wheellog.views.TripAdapter
+import com.cooper.wheellog.views.ViewBlockInfo
 import com.cooper.wheellog.views.WheelView
 import com.github.mikephil.charting.charts.LineChart
 import com.github.mikephil.charting.components.XAxis
@@ -38,6 +43,15 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
 
     private var listOfTrips: RecyclerView? = null
 
+    private val handler = Handler(Looper.getMainLooper())
+    private var updateInterval = getUpdateInterval()
+    private var lastUpdateTime = 0L
+    private var updatePending = false
+    private val delayedUpdate = Runnable {
+        updatePending = false
+        updateScreen(false)
+    }
+
     override fun onAttachedToRecyclerView(recyclerView: RecyclerView) {
         super.onAttachedToRecyclerView(recyclerView)
         val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(recyclerView.context)
@@ -46,6 +60,8 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
 
     override fun onDetachedFromRecyclerView(recyclerView: RecyclerView) {
         super.onDetachedFromRecyclerView(recyclerView)
+        handler.removeCallbacks(delayedUpdate)
+        updatePending = false
         val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(recyclerView.context)
         sharedPreferences.unregisterOnSharedPreferenceChangeListener(this)
     }
@@ -151,6 +167,22 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
         if (position == -1 || position >= pages.size) {
             return
         }
+        // data-only updates are limited to the display rate, the last one is delayed
+        if (!updateGraph) {
+            val wait = lastUpdateTime + updateInterval - SystemClock.uptimeMillis()
+            if (wait > 0) {
+                if (!updatePending) {
+                    updatePending = true
+                    handler.postDelayed(delayedUpdate, wait)
+                }
+                return
+            }
+        }
+        if (updatePending) {
+            updatePending = false
+            handler.removeCallbacks(delayedUpdate)
+        }
+        lastUpdateTime = SystemClock.uptimeMillis()
         val data = WheelData.getInstance()
         when (pages[position]) {
             R.layout.main_view_main -> {
@@ -160,7 +192,7 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
                     setBattery(data.batteryLevel)
                     setBatteryLowest(data.batteryLowestLevel)
                     setTemperature(data.temperature)
-                    setRideTime(data.ridingTimeString)
+                    setRidingTime(data.ridingTime)
                     setTopSpeed(data.topSpeedDouble)
                     setDistance(data.distanceDouble)
                     setTotalDistance(data.totalDistanceDouble)
@@ -170,9 +202,7 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
                     setMaxPwm(data.maxPwm)
                     setMaxTemperature(data.maxTemp)
                     setPwm(data.calculatedPwm)
-                    updateViewBlocksVisibility()
                     redrawTextBoxes()
-                    invalidate()
                 }
 
                 var profileName = WheelLog.AppConfig.profileName
@@ -182,55 +212,6 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
                 wheelView?.setWheelModel(profileName)
             }
             R.layout.main_view_params_list -> {
-                if (WheelLog.AppConfig.useMph) {
-                    updateFieldForSecondPage(R.string.speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.mph), MathsUtil.kmToMiles(WheelData.getInstance().speedDouble)))
-                    updateFieldForSecondPage(R.string.top_speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.mph), MathsUtil.kmToMiles(WheelData.getInstance().topSpeedDouble)))
-                    updateFieldForSecondPage(R.string.average_speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.mph), MathsUtil.kmToMiles(WheelData.getInstance().averageSpeedDouble)))
-                    updateFieldForSecondPage(R.string.average_riding_speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.mph), MathsUtil.kmToMiles(WheelData.getInstance().averageRidingSpeedDouble)))
-                    updateFieldForSecondPage(R.string.dynamic_speed_limit, String.format(Locale.US, "%.1f " + activity.getString(R.string.mph), MathsUtil.kmToMiles(WheelData.getInstance().speedLimit)))
-                    updateFieldForSecondPage(R.string.distance, String.format(Locale.US, "%.2f " + activity.getString(R.string.miles), MathsUtil.kmToMiles(WheelData.getInstance().distanceDouble)))
-                    updateFieldForSecondPage(R.string.wheel_distance, String.format(Locale.US, "%.2f " + activity.getString(R.string.miles), MathsUtil.kmToMiles(WheelData.getInstance().wheelDistanceDouble)))
-                    updateFieldForSecondPage(R.string.user_distance, String.format(Locale.US, "%.2f " + activity.getString(R.string.miles), MathsUtil.kmToMiles(WheelData.getInstance().userDistanceDouble)))
-                    updateFieldForSecondPage(R.string.total_distance, String.format(Locale.US, "%.2f " + activity.getString(R.string.miles), MathsUtil.kmToMiles(WheelData.getInstance().totalDistanceDouble)))
-                } else {
-                    updateFieldForSecondPage(R.string.speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.kmh), WheelData.getInstance().speedDouble))
-                    updateFieldForSecondPage(R.string.top_speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.kmh), WheelData.getInstance().topSpeedDouble))
-                    updateFieldForSecondPage(R.string.average_speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.kmh), WheelData.getInstance().averageSpeedDouble))
-                    updateFieldForSecondPage(R.string.average_riding_speed, String.format(Locale.US, "%.1f " + activity.getString(R.string.kmh), WheelData.getInstance().averageRidingSpeedDouble))
-                    updateFieldForSecondPage(R.string.dynamic_speed_limit, String.format(Locale.US, "%.1f " + activity.getString(R.string.kmh), WheelData.getInstance().speedLimit))
-                    updateFieldForSecondPage(R.string.distance, String.format(Locale.US, "%.3f " + activity.getString(R.string.km), WheelData.getInstance().distanceDouble))
-                    updateFieldForSecondPage(R.string.wheel_distance, String.format(Locale.US, "%.3f " + activity.getString(R.string.km), WheelData.getInstance().wheelDistanceDouble))
-                    updateFieldForSecondPage(R.string.user_distance, String.format(Locale.US, "%.3f " + activity.getString(R.string.km), WheelData.getInstance().userDistanceDouble))
-                    updateFieldForSecondPage(R.string.total_distance, String.format(Locale.US, "%.3f " + activity.getString(R.string.km), WheelData.getInstance().totalDistanceDouble))
-                }
-                updateFieldForSecondPage(R.string.voltage, String.format(Locale.US, "%.2f " + activity.getString(R.string.volt), WheelData.getInstance().voltageDouble))
-                updateFieldForSecondPage(R.string.voltage_sag, String.format(Locale.US, "%.2f " + activity.getString(R.string.volt), WheelData.getInstance().voltageSagDouble))
-
-                updateFieldForSecondPage(R.string.temperature, WheelData.getInstance().temperature.toTempString())
-                updateFieldForSecondPage(R.string.temperature2, WheelData.getInstance().temperature2.toTempString())
-                updateFieldForSecondPage(R.string.cpu_temp, WheelData.getInstance().cpuTemp.toTempString())
-                updateFieldForSecondPage(R.string.imu_temp, WheelData.getInstance().imuTemp.toTempString())
-
-                updateFieldForSecondPage(R.string.angle, String.format(Locale.US, "%.2f°", WheelData.getInstance().angle))
-                updateFieldForSecondPage(R.string.roll, String.format(Locale.US, "%.2f°", WheelData.getInstance().roll))
-                updateFieldForSecondPage(R.string.current, String.format(Locale.US, "%.2f " + activity.getString(R.string.amp), WheelData.getInstance().currentDouble))
-                updateFieldForSecondPage(R.string.dynamic_current_limit, String.format(Locale.US, "%.2f " + activity.getString(R.string.amp), WheelData.getInstance().currentLimit))
-                updateFieldForSecondPage(R.string.torque, String.format(Locale.US, "%.2f " + activity.getString(R.string.newton), WheelData.getInstance().torque))
-                updateFieldForSecondPage(R.string.power, String.format(Locale.US, "%.2f " + activity.getString(R.string.watt), WheelData.getInstance().powerDouble))
-                updateFieldForSecondPage(R.string.motor_power, String.format(Locale.US, "%.2f " + activity.getString(R.string.watt), WheelData.getInstance().motorPower))
-                updateFieldForSecondPage(R.string.battery, String.format(Locale.US, "%d%%", WheelData.getInstance().batteryLevel))
-                updateFieldForSecondPage(R.string.fan_status, if (WheelData.getInstance().fanStatus == 0) activity.getString(R.string.off) else activity.getString(R.string.on))
-                updateFieldForSecondPage(R.string.charging_status, if (WheelData.getInstance().chargingStatus == 0) activity.getString(R.string.discharging) else activity.getString(R.string.charging))
-                updateFieldForSecondPage(R.string.version, String.format(Locale.US, "%s", WheelData.getInstance().version))
-                updateFieldForSecondPage(R.string.output, String.format(Locale.US, "%d%%", WheelData.getInstance().output))
-                updateFieldForSecondPage(R.string.cpuload, String.format(Locale.US, "%d%%", WheelData.getInstance().cpuLoad))
-                updateFieldForSecondPage(R.string.name, WheelData.getInstance().name)
-                updateFieldForSecondPage(R.string.model, WheelData.getInstance().model)
-                updateFieldForSecondPage(R.string.serial_number, WheelData.getInstance().serial)
-                updateFieldForSecondPage(R.string.ride_time, WheelData.getInstance().rideTimeString)
-                updateFieldForSecondPage(R.string.riding_time, WheelData.getInstance().ridingTimeString)
-                updateFieldForSecondPage(R.string.mode, WheelData.getInstance().modeStr)
-                updateFieldForSecondPage(R.string.charging, WheelData.getInstance().chargeTime)
                 updateSecondPage()
             }
             R.layout.main_view_graph -> {
@@ -322,47 +303,18 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
                 updateFieldForSmartBmsPage(R.string.bmsMaxCell, String.format(Locale.US, "%.3f V", data.bms1.maxCell), String.format(Locale.US, "%.3f V", data.bms2.maxCell))
                 updateFieldForSmartBmsPage(R.string.bmsMinCell, String.format(Locale.US, "%.3f V", data.bms1.minCell), String.format(Locale.US, "%.3f V", data.bms2.minCell))
                 updateFieldForSmartBmsPage(R.string.bmsCellDiff, String.format(Locale.US, "%.3f V", data.bms1.cellDiff), String.format(Locale.US, "%.3f V", data.bms2.cellDiff))
-                var cells = ArrayList<Int>()
-                cells.add(R.string.bmsCell1)
-                cells.add(R.string.bmsCell2)
-                cells.add(R.string.bmsCell3)
-                cells.add(R.string.bmsCell4)
-                cells.add(R.string.bmsCell5)
-                cells.add(R.string.bmsCell6)
-                cells.add(R.string.bmsCell7)
-                cells.add(R.string.bmsCell8)
-                cells.add(R.string.bmsCell9)
-                cells.add(R.string.bmsCell10)
-                cells.add(R.string.bmsCell11)
-                cells.add(R.string.bmsCell12)
-                cells.add(R.string.bmsCell13)
-                cells.add(R.string.bmsCell14)
-                cells.add(R.string.bmsCell15)
-                cells.add(R.string.bmsCell16)
-                cells.add(R.string.bmsCell17)
-                cells.add(R.string.bmsCell18)
-                cells.add(R.string.bmsCell19)
-                cells.add(R.string.bmsCell20)
-                cells.add(R.string.bmsCell21)
-                cells.add(R.string.bmsCell22)
-                cells.add(R.string.bmsCell23)
-                cells.add(R.string.bmsCell24)
-                cells.add(R.string.bmsCell25)
-                cells.add(R.string.bmsCell26)
-                cells.add(R.string.bmsCell27)
-                cells.add(R.string.bmsCell28)
-                cells.add(R.string.bmsCell29)
-                cells.add(R.string.bmsCell30)
-                cells.add(R.string.bmsCell31)
-                cells.add(R.string.bmsCell32)
-                var balanceMap1 = data.bms1.balanceMap
-                var balanceMap2 = data.bms2.balanceMap
-                var index = 0
-                while (index < cells.size) {
-                    var bal1 = if (balanceMap1 shr index and 0x01 == 1) "[B]" else ""
-                    var bal2 = if (balanceMap2 shr index and 0x01 == 1) "[B]" else ""
-                    updateFieldForSmartBmsPage(cells[index], String.format(Locale.US, "%.3f V %s", data.bms1.cells[index], bal1), String.format(Locale.US, "%.3f V %s", data.bms2.cells[index], bal2))
-                    index += 1
+                // only the cells that changed are formatted again
+                val rebind = if (smartBmsRebind) -1 else 0
+                smartBmsRebind = false
+                val dirty1 = data.bms1.takeDirtyCells() or rebind
+                val dirty2 = data.bms2.takeDirtyCells() or rebind
+                for (index in smartBmsCells.indices) {
+                    if (dirty1 shr index and 0x01 == 1) {
+                        updateCellForSmartBmsPage(smartBms1PageValues, smartBmsCells[index], data.bms1, index)
+                    }
+                    if (dirty2 shr index and 0x01 == 1) {
+                        updateCellForSmartBmsPage(smartBms2PageValues, smartBmsCells[index], data.bms2, index)
+                    }
                 }
                 updateSmartBmsPage()
             }
@@ -397,51 +349,154 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
     }
 
     //region SecondPage
-    private val secondPageValues = LinkedHashMap<Int, String>()
+    private val secondPageValues = LinkedHashMap<Int, ViewBlockInfo>()
+    private val secondPageViews = ArrayList<TextView>()
+
+    private var useMph = WheelLog.AppConfig.useMph
+    private var useFahrenheit = WheelLog.AppConfig.useFahrenheit
+    private var speedUnit = ""
+    private var distanceUnit = ""
+
+    init {
+        updateUnits()
+    }
+
+    private fun updateUnits() {
+        useMph = WheelLog.AppConfig.useMph
+        useFahrenheit = WheelLog.AppConfig.useFahrenheit
+        speedUnit = activity.getString(if (useMph) R.string.mph else R.string.kmh)
+        distanceUnit = activity.getString(if (useMph) R.string.miles else R.string.km)
+    }
 
     private fun setupFieldForSecondPage(resId: Int) {
-        secondPageValues[resId] = ""
+        secondPageValues[resId] = createFieldForSecondPage(resId)
+    }
+
+    private fun speedField(resId: Int, value: ViewBlockInfo.ValueSource): ViewBlockInfo {
+        return ViewBlockInfo(activity.getString(resId), value, { b, v ->
+            b.append(if (useMph) MathsUtil.kmToMiles(v) else v, 1).append(' ').append(speedUnit)
+        })
+    }
+
+    private fun distanceField(resId: Int, value: ViewBlockInfo.ValueSource): ViewBlockInfo {
+        return ViewBlockInfo(activity.getString(resId), value, { b, v ->
+            if (useMph) {
+                b.append(MathsUtil.kmToMiles(v), 2)
+            } else {
+                b.append(v, 3)
+            }
+            b.append(' ').append(distanceUnit)
+        })
+    }
+
+    private fun tempField(resId: Int, value: ViewBlockInfo.ValueSource): ViewBlockInfo {
+        return ViewBlockInfo(activity.getString(resId), value, { b, v -> b.appendTemp(v.toInt(), useFahrenheit) })
+    }
+
+    private fun unitField(resId: Int, unitResId: Int, value: ViewBlockInfo.ValueSource): ViewBlockInfo {
+        val unit = activity.getString(unitResId)
+        return ViewBlockInfo(activity.getString(resId), value, { b, v -> b.append(v, 2).append(' ').append(unit) })
     }
 
-    private fun updateFieldForSecondPage(resId: Int, value: String) {
-        if (secondPageValues.containsKey(resId)) {
-            secondPageValues[resId] = value
+    private fun percentField(resId: Int, value: ViewBlockInfo.ValueSource): ViewBlockInfo {
+        return ViewBlockInfo(activity.getString(resId), value, { b, v -> b.append(v.toInt()).append('%') })
+    }
+
+    private fun timeField(resId: Int, value: ViewBlockInfo.ValueSource): ViewBlockInfo {
+        return ViewBlockInfo(activity.getString(resId), value, { b, v -> b.appendTime(v.toInt()) })
+    }
+
+    private fun textField(resId: Int, text: ViewBlockInfo.TextSource): ViewBlockInfo {
+        return ViewBlockInfo(activity.getString(resId), text)
+    }
+
+    private fun switchField(resId: Int, offResId: Int, onResId: Int, value: ViewBlockInfo.ValueSource): ViewBlockInfo {
+        val off = activity.getString(offResId)
+        val on = activity.getString(onResId)
+        return ViewBlockInfo(activity.getString(resId), value, { b, v -> b.append(if (v == 0.0) off else on) })
+    }
+
+    private fun createFieldForSecondPage(resId: Int): ViewBlockInfo {
+        val data = WheelData.getInstance()
+        return when (resId) {
+            R.string.speed -> speedField(resId) { data.speedDouble }
+            R.string.top_speed -> speedField(resId) { data.topSpeedDouble }
+            R.string.average_speed -> speedField(resId) { data.averageSpeedDouble }
+            R.string.average_riding_speed -> speedField(resId) { data.averageRidingSpeedDouble }
+            R.string.dynamic_speed_limit -> speedField(resId) { data.speedLimit }
+            R.string.distance -> distanceField(resId) { data.distanceDouble }
+            R.string.wheel_distance -> distanceField(resId) { data.wheelDistanceDouble }
+            R.string.user_distance -> distanceField(resId) { data.userDistanceDouble }
+            R.string.total_distance -> distanceField(resId) { data.totalDistanceDouble }
+            R.string.voltage -> unitField(resId, R.string.volt) { data.voltageDouble }
+            R.string.voltage_sag -> unitField(resId, R.string.volt) { data.voltageSagDouble }
+            R.string.temperature -> tempField(resId) { data.temperature.toDouble() }
+            R.string.temperature2 -> tempField(resId) { data.temperature2.toDouble() }
+            R.string.cpu_temp -> tempField(resId) { data.cpuTemp.toDouble() }
+            R.string.imu_temp -> tempField(resId) { data.imuTemp.toDouble() }
+            R.string.angle -> ViewBlockInfo(activity.getString(resId), { data.angle }, { b, v -> b.append(v, 2).append('°') })
+            R.string.roll -> ViewBlockInfo(activity.getString(resId), { data.roll }, { b, v -> b.append(v, 2).append('°') })
+            R.string.current -> unitField(resId, R.string.amp) { data.currentDouble }
+            R.string.dynamic_current_limit -> unitField(resId, R.string.amp) { data.currentLimit }
+            R.string.torque -> unitField(resId, R.string.newton) { data.torque }
+            R.string.power -> unitField(resId, R.string.watt) { data.powerDouble }
+            R.string.motor_power -> unitField(resId, R.string.watt) { data.motorPower }
+            R.string.battery -> percentField(resId) { data.batteryLevel.toDouble() }
+            R.string.output -> percentField(resId) { data.output.toDouble() }
+            R.string.cpuload -> percentField(resId) { data.cpuLoad.toDouble() }
+            R.string.fan_status -> switchField(resId, R.string.off, R.string.on) { data.fanStatus.toDouble() }
+            R.string.charging_status -> switchField(resId, R.string.discharging, R.string.charging) {
+                data.chargingStatus.toDouble()
+            }
+            R.string.ride_time -> timeField(resId) { data.totalRideTime.toDouble() }
+            R.string.riding_time -> timeField(resId) { data.ridingTime.toDouble() }
+            R.string.version -> textField(resId) { data.version }
+            R.string.name -> textField(resId) { data.name }
+            R.string.model -> textField(resId) { data.model }
+            R.string.serial_number -> textField(resId) { data.serial }
+            R.string.mode -> textField(resId) { data.modeStr }
+            R.string.charging -> textField(resId) { data.chargeTime }
+            else -> textField(resId) { "" }
         }
     }
 
     private fun createSecondPage() {
+        secondPageViews.clear()
         val layout = pagesView[R.layout.main_view_params_list]?.findViewById<GridLayout>(R.id.page_two_grid) ?: return
         layout.removeAllViews()
         val font = WheelLog.ThemeManager.getTypeface(activity)
-        for ((key, value) in secondPageValues) {
+        for (value in secondPageValues.values) {
             val headerText = (activity.layoutInflater.inflate(
                 R.layout.textview_title_template, layout, false
             ) as TextView).apply {
-                text = activity.getString(key)
+                text = value.title
                 typeface = font
             }
             val valueText = (activity.layoutInflater.inflate(
                 R.layout.textview_value_template, layout, false
             ) as TextView).apply {
-                text = value
                 typeface = font
             }
+            value.invalidate()
             layout.addView(headerText)
             layout.addView(valueText)
+            secondPageViews.add(valueText)
         }
     }
 
+    /**
+     * Only the TextViews whose source values have changed are touched.
+     */
     private fun updateSecondPage() {
-        val layout = pagesView[R.layout.main_view_params_list]?.findViewById<GridLayout>(R.id.page_two_grid) ?: return
-        val count = layout.childCount
-        if (secondPageValues.size * 2 != count) {
+        if (secondPageViews.size != secondPageValues.size) {
             return
         }
-        var index = 1
+        var index = 0
         for (value in secondPageValues.values) {
-            val valueText = layout.getChildAt(index) as TextView
-            valueText.text = value
-            index += 2
+            if (value.update()) {
+                secondPageViews[index].setText(value.text.chars, 0, value.text.length)
+            }
+            index++
         }
     }
     //endregion
@@ -607,6 +662,16 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
     //region SmartBMS page
     private val smartBms1PageValues = LinkedHashMap<Int, String>()
     private val smartBms2PageValues = LinkedHashMap<Int, String>()
+    private var smartBmsRebind = true
+    private val smartBmsCells = intArrayOf(
+            R.string.bmsCell1, R.string.bmsCell2, R.string.bmsCell3, R.string.bmsCell4,
+            R.string.bmsCell5, R.string.bmsCell6, R.string.bmsCell7, R.string.bmsCell8,
+            R.string.bmsCell9, R.string.bmsCell10, R.string.bmsCell11, R.string.bmsCell12,
+            R.string.bmsCell13, R.string.bmsCell14, R.string.bmsCell15, R.string.bmsCell16,
+            R.string.bmsCell17, R.string.bmsCell18, R.string.bmsCell19, R.string.bmsCell20,
+            R.string.bmsCell21, R.string.bmsCell22, R.string.bmsCell23, R.string.bmsCell24,
+            R.string.bmsCell25, R.string.bmsCell26, R.string.bmsCell27, R.string.bmsCell28,
+            R.string.bmsCell29, R.string.bmsCell30, R.string.bmsCell31, R.string.bmsCell32)
 
 
     private fun setupFieldForSmartBmsPage(resId: Int) {
@@ -621,6 +686,13 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
         }
     }
 
+    private fun updateCellForSmartBmsPage(values: LinkedHashMap<Int, String>, resId: Int, bms: SmartBms, index: Int) {
+        if (values.containsKey(resId)) {
+            val bal = if (bms.balanceMap shr index and 0x01 == 1) "[B]" else ""
+            values[resId] = String.format(Locale.US, "%.3f V (%+.3f) %s", bms.cells[index], bms.cellDrift(index), bal)
+        }
+    }
+
     private fun createSmartBmsPage() {
         val layout = pagesView[R.layout.main_view_smart_bms]?.findViewById<GridLayout>(R.id.page_smart_bms_grid) ?: return
         layout.removeAllViews()
@@ -694,13 +766,17 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
         var index = 3
         for (value in smartBms1PageValues.values) {
             val valueText = layout.getChildAt(index) as TextView
-            valueText.text = value
+            if (!valueText.text.contentEquals(value)) {
+                valueText.text = value
+            }
             index += 4
         }
         index = 5
         for (value in smartBms2PageValues.values) {
             val valueText = layout.getChildAt(index) as TextView
-            valueText.text = value
+            if (!valueText.text.contentEquals(value)) {
+                valueText.text = value
+            }
             index += 4
         }
     }
@@ -708,6 +784,7 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
     fun configureSmartBmsDisplay() {
         smartBms1PageValues.clear()
         smartBms2PageValues.clear()
+        smartBmsRebind = true
         when (WheelData.getInstance().wheelType) {
             WHEEL_TYPE.KINGSONG -> {
                 if (inArray(WheelData.getInstance().model, arrayOf("KS-S20", "KS-S22"))) {
@@ -819,6 +896,14 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
     //endregion
 
     override fun onSharedPreferenceChanged(sharedPreferences: SharedPreferences?, key: String?) {
+        // WheelView keeps a copy of its display settings and formatted texts
+        wheelView?.apply {
+            updateViewBlocksVisibility()
+            redrawTextBoxes()
+        }
+        updateUnits()
+        secondPageValues.values.forEach { it.invalidate() }
+        updateSecondPage()
         when (WheelLog.AppConfig.getResId(key)) {
             R.string.show_page_events -> if (WheelLog.AppConfig.pageEvents) {
                 addPage(R.layout.main_view_events)
@@ -832,6 +917,7 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
                 listOfTrips = null
             }
             R.string.view_blocks_string -> updateScreen(true)
+            R.string.display_rate -> updateInterval = getUpdateInterval()
             R.string.auto_upload_ec ->
                 GlobalScope.launch {
                     delay(500)
@@ -854,5 +940,14 @@ class MainPageAdapter(private var pages: MutableList<Int>, val activity: MainAct
         }
     }
 
+    private fun getUpdateInterval(): Long {
+        var rate = WheelLog.AppConfig.displayRate.toFloat()
+        if (rate <= 0) {
+            @Suppress("DEPRECATION")
+            rate = activity.windowManager.defaultDisplay.refreshRate
+        }
+        return if (rate > 0) (1000 / rate).toLong() else 0L
+    }
+
     class ViewHolder internal constructor(view: View) : RecyclerView.ViewHolder(view)
 }
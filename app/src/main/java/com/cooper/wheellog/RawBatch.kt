@@ -0,0 +1,159 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Decodes RAW captures again into trip logs with the current adapters, so a fixed decoder
+ * fixes the old trips too. Captures are decoded in parallel, each one into its own silent
+ * [WheelData] and so with its own adapters, and a row is written whenever a notification
+ * completed new data, as [LoggingService] does on a ride.
+ */
+class RawBatch(
+    private val context: Context,
+    private val threads: Int = Runtime.getRuntime().availableProcessors()
+) {
+
+    class Result(
+        val raw: File,
+        val trip: File,
+        val stats: RawReplay.Stats,
+        val rows: Long,
+        val error: Exception?
+    ) {
+        fun report(): String {
+            return if (error != null) {
+                "${raw.name}: failed, $error"
+            } else {
+                "${raw.name} -> ${trip.name}: $rows rows, ${stats.report()}"
+            }
+        }
+    }
+
+    /**
+     * Decodes [raws] into trips in [outputDir], [progress] is called on the decoding threads
+     * with every finished capture and the count of finished ones.
+     * @return results in the order of [raws]
+     */
+    fun run(
+        raws: List<File>,
+        outputDir: File,
+        progress: ((result: Result, done: Int, total: Int) -> Unit)? = null
+    ): List<Result> {
+        if (raws.isEmpty()) {
+            return emptyList()
+        }
+        val executor = Executors.newFixedThreadPool(threads.coerceIn(1, raws.size))
+        val done = AtomicInteger()
+        try {
+            val futures = raws.map { raw ->
+                executor.submit(Callable {
+                    val result = decode(raw, File(outputDir, tripNameOf(raw.name)))
+                    progress?.invoke(result, done.incrementAndGet(), raws.size)
+                    result
+                })
+            }
+            return futures.mapIndexed { i, future ->
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    val raw = raws[i]
+                    Result(raw, File(outputDir, tripNameOf(raw.name)), RawReplay.Stats(), 0,
+                            e.cause as? Exception ?: e)
+                }
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    /**
+     * Decodes one capture into [trip] on the calling thread.
+     */
+    fun decode(raw: File, trip: File): Result {
+        val wd = WheelData()
+        wd.setSilent(true)
+        val replay = RawReplay(context, wd, { raw.inputStream() })
+        replay.speed = 0.0
+        // the capture only has the time of day
+        val midnight = midnightOf(raw)
+        val sdf = SimpleDateFormat("yyyy-MM-dd,HH:mm:ss.SSS", Locale.US)
+        var rows = 0L
+        var error: Exception? = null
+        var stats = RawReplay.Stats()
+        try {
+            trip.bufferedWriter().use { out ->
+                out.write(TripLog.header(false) + "\r\n")
+                replay.onData = { time ->
+                    try {
+                        out.write(TripLog.row(wd, sdf.format(midnight + time), "") + "\r\n")
+                        rows++
+                    } catch (e: IOException) {
+                        error = e
+                        replay.stop()
+                    }
+                }
+                stats = replay.play()
+            }
+        } catch (e: IOException) {
+            error = e
+        }
+        val result = Result(raw, trip, stats, rows, error)
+        if (error != null) {
+            Timber.e(error, "Failed to decode %s", raw.name)
+        } else {
+            Timber.i("Batch: %s", result.report())
+        }
+        return result
+    }
+
+    companion object {
+        private const val RAW_PREFIX = "RAW_"
+
+        /**
+         * Trip of a capture is named as [LoggingService] names it, `RAW_2021_05_01_10_00_00.csv`
+         * gives `2021_05_01_10_00_00.csv`.
+         */
+        @JvmStatic
+        fun tripNameOf(rawName: String): String {
+            return if (rawName.startsWith(RAW_PREFIX)) {
+                rawName.substring(RAW_PREFIX.length)
+            } else {
+                rawName.removeSuffix(".csv") + "_trip.csv"
+            }
+        }
+
+        /**
+         * Midnight before the capture started, from the date in the name or else the date of the file.
+         */
+        private fun midnightOf(raw: File): Long {
+            val calendar = Calendar.getInstance()
+            calendar.timeInMillis = raw.lastModified()
+            if (raw.name.startsWith(RAW_PREFIX)) {
+                try {
+                    val date = SimpleDateFormat("yyyy_MM_dd", Locale.US).parse(
+                            raw.name.substring(RAW_PREFIX.length))
+                    if (date != null) {
+                        calendar.time = date
+                    }
+                } catch (e: ParseException) {
+                    Timber.w("No date in the name of %s", raw.name)
+                }
+            }
+            calendar.set(Calendar.HOUR_OF_DAY, 0)
+            calendar.set(Calendar.MINUTE, 0)
+            calendar.set(Calendar.SECOND, 0)
+            calendar.set(Calendar.MILLISECOND, 0)
+            return calendar.timeInMillis
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import timber.log.Timber
+import java.io.IOException
+import java.io.InputStream
+import java.util.*
+
+/**
+ * Plays a RAW capture of [BluetoothLeService] (`HH:mm:ss.SSS,hex` per notification) into [data]
+ * as if the wheel was connected: every notification goes through [WheelData.decodeResponse]
+ * to the adapter of the wheel type, so the UI, logging and alarms behave as in a live ride.
+ * The settings the capture reports are not stored, see [WheelData.isStoringSettings].
+ * [open] gives a new stream of the capture for every pass, the first pass builds a sparse
+ * index of stream positions so [seek] does not read the capture from the start.
+ */
+class RawReplay @JvmOverloads constructor(
+    private val context: Context,
+    private val data: WheelData,
+    private val open: () -> InputStream,
+    private val clock: () -> Long = { System.nanoTime() / 1_000_000 },
+    private val sleep: (Long) -> Unit = Thread::sleep
+) {
+
+    class Stats {
+        var frames = 0L
+        var bytes = 0L
+        var malformed = 0L
+        var decodeNanos = 0L
+        var elapsed = 0L
+
+        /**
+         * Frames decoded per second of decoding.
+         */
+        val throughput: Double
+            get() = if (decodeNanos == 0L) 0.0 else frames * 1e9 / decodeNanos
+
+        fun report(): String {
+            return String.format(Locale.US,
+                    "%d frames, %d bytes, %d malformed lines in %d ms, decoded at %.0f frames/s",
+                    frames, bytes, malformed, elapsed, throughput)
+        }
+    }
+
+    /**
+     * Playback speed, 1.0 is real time, 0 plays as fast as frames are decoded.
+     * May be changed while playing.
+     */
+    @Volatile
+    var speed = 1.0
+
+    /**
+     * Time of the last played frame from the start of the capture, ms.
+     */
+    @Volatile
+    var position = 0L
+        private set
+
+    /**
+     * Length of the capture, ms.
+     */
+    var duration = 0L
+        private set
+
+    var frameCount = 0L
+        private set
+
+    /**
+     * Wheel type guessed from the frame headers, used when [data] has no wheel type yet.
+     */
+    var wheelType = WHEEL_TYPE.Unknown
+        private set
+
+    /**
+     * Called on the playing thread when a frame completed new data, with the time of
+     * the frame from the midnight before the capture started, ms.
+     */
+    var onData: ((Long) -> Unit)? = null
+
+    @Volatile
+    private var stopped = false
+    private var indexed = false
+    private var startTime = 0L
+    private var indexTimes = LongArray(64)
+    private var indexPositions = LongArray(64)
+    private var indexSize = 0
+
+    /**
+     * Reads the capture once to find its length, wheel type and the positions to seek.
+     */
+    fun index(): RawReplay {
+        indexSize = 0
+        frameCount = 0
+        duration = 0
+        wheelType = WHEEL_TYPE.Unknown
+        try {
+            open().use { input ->
+                val reader = LineReader(input)
+                var first = true
+                var last = 0L
+                while (true) {
+                    val lineStart = reader.position
+                    if (!reader.next()) {
+                        break
+                    }
+                    val time = reader.time()
+                    if (time < 0) {
+                        continue
+                    }
+                    if (first) {
+                        startTime = time
+                        first = false
+                    }
+                    last = relativeTime(time, last)
+                    if (indexSize == 0 || last >= indexTimes[indexSize - 1] + INDEX_INTERVAL) {
+                        addIndex(last, lineStart)
+                    }
+                    if (wheelType == WHEEL_TYPE.Unknown && frameCount < DETECT_FRAMES) {
+                        val frame = reader.frame()
+                        if (frame != null) {
+                            wheelType = wheelTypeOf(frame)
+                        }
+                    }
+                    frameCount++
+                }
+                duration = last
+            }
+        } catch (e: IOException) {
+            Timber.e(e, "Failed to index RAW capture")
+        }
+        indexed = true
+        return this
+    }
+
+    /**
+     * Moves the playback to [time] ms from the start of the capture.
+     */
+    fun seek(time: Long) {
+        if (!indexed) {
+            index()
+        }
+        position = time.coerceIn(0, duration)
+    }
+
+    /**
+     * Plays from [position] to the end of the capture or until [stop], on the calling thread.
+     */
+    fun play(): Stats {
+        if (!indexed) {
+            index()
+        }
+        stopped = false
+        val stats = Stats()
+        if (indexSize == 0) {
+            return stats
+        }
+        if (data.wheelType == WHEEL_TYPE.Unknown && wheelType != WHEEL_TYPE.Unknown) {
+            data.wheelType = wheelType
+        }
+        val from = position
+        var entry = Arrays.binarySearch(indexTimes, 0, indexSize, from)
+        if (entry < 0) {
+            entry = maxOf(-entry - 2, 0)
+        }
+        val started = clock()
+        var anchorClock = started
+        var anchorTime = from
+        var anchorSpeed = speed
+        var last = indexTimes[entry]
+        val previous = WheelData.bind(data)
+        // the settings in the capture are not the ones of the wheel of the last MAC
+        data.setReplaying(true)
+        try {
+            open().use { input ->
+                skipFully(input, indexPositions[entry])
+                val reader = LineReader(input)
+                while (!stopped && reader.next()) {
+                    val time = reader.time()
+                    if (time < 0) {
+                        stats.malformed++
+                        continue
+                    }
+                    last = relativeTime(time, last)
+                    if (last < from) {
+                        continue
+                    }
+                    val frame = reader.frame()
+                    if (frame == null) {
+                        stats.malformed++
+                        continue
+                    }
+                    val speed = this.speed
+                    if (speed != anchorSpeed) {
+                        anchorClock = clock()
+                        anchorTime = position
+                        anchorSpeed = speed
+                    }
+                    if (speed > 0) {
+                        val wait = anchorClock + ((last - anchorTime) / speed).toLong() - clock()
+                        if (wait > 0) {
+                            try {
+                                sleep(wait)
+                            } catch (e: InterruptedException) {
+                                Thread.currentThread().interrupt()
+                                break
+                            }
+                        }
+                    }
+                    position = last
+                    val begin = System.nanoTime()
+                    val newData = data.decodeResponse(frame, context)
+                    stats.decodeNanos += System.nanoTime() - begin
+                    stats.frames++
+                    stats.bytes += frame.size
+                    if (newData) {
+                        onData?.invoke(startTime + last)
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            Timber.e(e, "Failed to replay RAW capture")
+        } finally {
+            data.setReplaying(false)
+            WheelData.bind(previous)
+        }
+        stats.elapsed = clock() - started
+        Timber.i("Replay: %s", stats.report())
+        return stats
+    }
+
+    fun stop() {
+        stopped = true
+    }
+
+    private fun addIndex(time: Long, position: Long) {
+        if (indexSize == indexTimes.size) {
+            indexTimes = indexTimes.copyOf(indexSize * 2)
+            indexPositions = indexPositions.copyOf(indexSize * 2)
+        }
+        indexTimes[indexSize] = time
+        indexPositions[indexSize] = position
+        indexSize++
+    }
+
+    // captures only have the time of day, a ride over midnight goes on into the next day
+    private fun relativeTime(time: Long, last: Long): Long {
+        var relative = time - startTime
+        while (relative < last - DAY / 2) {
+            relative += DAY
+        }
+        return relative
+    }
+
+    /**
+     * Lines of the capture read straight from the bytes, without strings.
+     */
+    private class LineReader(private val input: InputStream) {
+        private val buffer = ByteArray(64 * 1024)
+        private var pos = 0
+        private var limit = 0
+        private var line = ByteArray(256)
+        private var length = 0
+
+        /**
+         * Stream position of the next line.
+         */
+        var position = 0L
+            private set
+
+        fun next(): Boolean {
+            length = 0
+            var read = false
+            while (true) {
+                if (pos == limit) {
+                    limit = input.read(buffer)
+                    pos = 0
+                    if (limit <= 0) {
+                        limit = 0
+                        return read
+                    }
+                }
+                read = true
+                val c = buffer[pos++]
+                position++
+                if (c == '\n'.code.toByte()) {
+                    break
+                }
+                if (length == line.size) {
+                    line = line.copyOf(length * 2)
+                }
+                line[length++] = c
+            }
+            if (length > 0 && line[length - 1] == '\r'.code.toByte()) {
+                length--
+            }
+            return true
+        }
+
+        /**
+         * Time of day of the line, ms, or -1 if the line is not `HH:mm:ss.SSS,...`.
+         */
+        fun time(): Long {
+            if (length < 13 || line[2] != ':'.code.toByte() || line[5] != ':'.code.toByte()
+                    || line[8] != '.'.code.toByte() || line[12] != ','.code.toByte()) {
+                return -1
+            }
+            val hours = number(0, 2)
+            val minutes = number(3, 2)
+            val seconds = number(6, 2)
+            val millis = number(9, 3)
+            if (hours < 0 || minutes < 0 || seconds < 0 || millis < 0) {
+                return -1
+            }
+            return ((hours * 60L + minutes) * 60 + seconds) * 1000 + millis
+        }
+
+        /**
+         * Bytes of the line, or null if they are not hex.
+         */
+        fun frame(): ByteArray? {
+            val hexLength = length - 13
+            if (hexLength <= 0 || hexLength % 2 != 0) {
+                return null
+            }
+            val frame = ByteArray(hexLength / 2)
+            for (i in frame.indices) {
+                val high = nibble(line[13 + i * 2])
+                val low = nibble(line[14 + i * 2])
+                if (high < 0 || low < 0) {
+                    return null
+                }
+                frame[i] = ((high shl 4) or low).toByte()
+            }
+            return frame
+        }
+
+        private fun number(from: Int, digits: Int): Int {
+            var value = 0
+            for (i in from until from + digits) {
+                val digit = line[i] - '0'.code.toByte()
+                if (digit < 0 || digit > 9) {
+                    return -1
+                }
+                value = value * 10 + digit
+            }
+            return value
+        }
+
+        private fun nibble(c: Byte): Int {
+            return when (c.toInt().toChar()) {
+                in '0'..'9' -> c - '0'.code.toByte()
+                in 'a'..'f' -> c - 'a'.code.toByte() + 10
+                in 'A'..'F' -> c - 'A'.code.toByte() + 10
+                else -> -1
+            }
+        }
+    }
+
+    companion object {
+        private const val DAY = 24 * 60 * 60 * 1000L
+        private const val INDEX_INTERVAL = 5_000L
+        private const val DETECT_FRAMES = 50
+
+        private fun skipFully(input: InputStream, count: Long) {
+            var left = count
+            while (left > 0) {
+                val skipped = input.skip(left)
+                if (skipped <= 0) {
+                    if (input.read() < 0) {
+                        return
+                    }
+                    left--
+                } else {
+                    left -= skipped
+                }
+            }
+        }
+
+        /**
+         * Guesses the wheel type from the header of a frame, [WHEEL_TYPE.Unknown] if it is not
+         * a frame start or too short to tell.
+         */
+        @JvmStatic
+        fun wheelTypeOf(frame: ByteArray): WHEEL_TYPE {
+            if (frame.size < 3) {
+                return WHEEL_TYPE.Unknown
+            }
+            val b0 = frame[0].toInt() and 0xFF
+            val b1 = frame[1].toInt() and 0xFF
+            val b2 = frame[2].toInt() and 0xFF
+            return when {
+                b0 == 0x55 && b1 == 0xAA -> gotwayOrNinebotOf(frame)
+                b0 == 0xDC && b1 == 0x5A && b2 == 0x5C -> WHEEL_TYPE.VETERAN
+                b0 == 0xAA && b1 == 0x55 -> WHEEL_TYPE.KINGSONG
+                b0 == 0x5A && b1 == 0xA5 -> WHEEL_TYPE.NINEBOT_Z
+                b0 == 0xAA && b1 == 0xAA -> inmotionOf(frame)
+                else -> WHEEL_TYPE.Unknown
+            }
+        }
+
+        // Gotway frames have 0x18 at 19 and the 5A 5A 5A 5A footer after it,
+        // Ninebot frames are 55 AA, the length of the data and 6 more bytes
+        private fun gotwayOrNinebotOf(frame: ByteArray): WHEEL_TYPE {
+            if (frame.size >= 20 && frame[19] == 0x18.toByte()
+                    && (20 until minOf(frame.size, 24)).all { frame[it] == 0x5A.toByte() }) {
+                return WHEEL_TYPE.GOTWAY
+            }
+            if (frame.size == (frame[2].toInt() and 0xFF) + 6) {
+                return WHEEL_TYPE.NINEBOT
+            }
+            return WHEEL_TYPE.Unknown
+        }
+
+        // InMotion frames start with a CAN id ending with 0x0F, InMotion V2 ones with
+        // the flags 0x11 or 0x14. InMotion escapes AA, 55 and A5 with A5, so the id is
+        // read without the escapes.
+        private fun inmotionOf(frame: ByteArray): WHEEL_TYPE {
+            var count = 0
+            var id3 = -1
+            var i = 2
+            while (i < frame.size && count < 4) {
+                if (frame[i] == 0xA5.toByte() && i + 1 < frame.size) {
+                    i++
+                }
+                if (count == 3) {
+                    id3 = frame[i].toInt() and 0xFF
+                }
+                count++
+                i++
+            }
+            val flags = frame[2].toInt() and 0xFF
+            return when {
+                id3 < 0 -> WHEEL_TYPE.Unknown
+                id3 == 0x0F -> WHEEL_TYPE.INMOTION
+                flags == 0x11 || flags == 0x14 -> WHEEL_TYPE.INMOTION_V2
+                else -> WHEEL_TYPE.Unknown
+            }
+        }
+    }
+}
@@ -60,9 +60,8 @@ class ScanActivity: AppCompatActivity() {
                 mHandler.removeCallbacksAndMessages(null)
                 val intent = Intent()
                 intent.putExtra("MAC", deviceAddress)
-                WheelLog.AppConfig.lastMac = deviceAddress
+                select(deviceAddress, null)
                 setResult(RESULT_OK, intent)
-                WheelLog.AppConfig.passwordForWheel = ""
                 close()
             }
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
@@ -118,14 +117,26 @@ class ScanActivity: AppCompatActivity() {
         val intent = Intent()
         intent.putExtra("MAC", deviceAddress)
         intent.putExtra("NAME", deviceName)
-        WheelLog.AppConfig.lastMac = deviceAddress
-        WheelLog.AppConfig.advDataForWheel = advData
+        select(deviceAddress, advData)
         setResult(RESULT_OK, intent)
-        // Set password for inmotion
-        WheelLog.AppConfig.passwordForWheel = ""
         close()
     }
 
+    /**
+     * Stores the settings of the selected wheel, a wheel connected next to the primary one
+     * does not become the last connected wheel.
+     */
+    private fun select(deviceAddress: String, advData: String?) {
+        if (!intent.getBooleanExtra(EXTRA_SESSION, false)) {
+            WheelLog.AppConfig.lastMac = deviceAddress
+        }
+        if (advData != null) {
+            WheelLog.AppConfig.setAdvDataForWheel(deviceAddress, advData)
+        }
+        // Set password for inmotion
+        WheelLog.AppConfig.setPasswordForWheel(deviceAddress, "")
+    }
+
     // Device scan callback.
     private val mLeScanCallback = LeScanCallback { device, _, scanRecord ->
         val manufacturerData = findManufacturerData(scanRecord) // 4e421300000000ec
@@ -190,4 +201,11 @@ class ScanActivity: AppCompatActivity() {
             !TextUtils.isEmpty(locationProviders)
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        /**
+         * The selected wheel is connected next to the primary one.
+         */
+        const val EXTRA_SESSION = "session"
+    }
+}
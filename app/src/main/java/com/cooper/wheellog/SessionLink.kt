@@ -0,0 +1,164 @@
+package com.cooper.wheellog
+
+import android.bluetooth.*
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import timber.log.Timber
+import java.util.*
+
+/**
+ * GATT connection of a [WheelSession], a wheel connected next to the primary one of
+ * [BluetoothLeService]. Notifications go to the decode pool of the session, commands
+ * of its adapters are queued on its own write queue.
+ */
+class SessionLink(
+    private val session: WheelSession,
+    private val context: Context
+) : GattLink {
+    private val handler = Handler(Looper.getMainLooper())
+    private val writeTimer: Runnable = Runnable { writeQueue.onTimer() }
+    private val writeQueue: GattWriteQueue = GattWriteQueue({ delay ->
+        handler.removeCallbacks(writeTimer)
+        handler.postDelayed(writeTimer, delay)
+    }, { SystemClock.uptimeMillis() })
+    @Volatile
+    private var gatt: BluetoothGatt? = null
+    @Volatile
+    private var endpoint: GattEndpoint? = null
+    @Volatile
+    private var closed = false
+
+    override val bluetoothDeviceAddress: String
+        get() = session.mac
+
+    override val supportedGattServices: List<BluetoothGattService>?
+        get() = gatt?.services
+
+    fun connect(): Boolean {
+        val adapter = BluetoothLeService.getAdapter(context) ?: return false
+        val device = try {
+            adapter.getRemoteDevice(session.mac)
+        } catch (e: IllegalArgumentException) {
+            Timber.i("Session %s: invalid address", session.mac)
+            return false
+        }
+        Timber.i("Session %s: connecting", session.mac)
+        gatt = device.connectGatt(context, false, callback)
+        return gatt != null
+    }
+
+    fun close() {
+        closed = true
+        writeQueue.clear()
+        handler.removeCallbacks(writeTimer)
+        endpoint = null
+        gatt?.let {
+            it.disconnect()
+            it.close()
+        }
+        gatt = null
+    }
+
+    private val callback = object : BluetoothGattCallback() {
+        override fun onConnectionStateChange(gatt: BluetoothGatt, status: Int, newState: Int) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                Timber.i("Session %s: connected, discovering services %b", session.mac, gatt.discoverServices())
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                Timber.i("Session %s: disconnected", session.mac)
+                writeQueue.clear()
+                endpoint = null
+                session.data.setConnected(false)
+                // the system connects again as soon as the wheel is in range
+                if (!closed && !gatt.connect()) {
+                    Timber.i("Session %s: reconnect failed", session.mac)
+                }
+            }
+        }
+
+        override fun onServicesDiscovered(gatt: BluetoothGatt, status: Int) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Timber.i("Session %s: service discovery failed %d", session.mac, status)
+                return
+            }
+            val data = session.data
+            val previous = WheelData.bind(data)
+            val recognised = try {
+                data.detectWheel(session.mac, context)
+            } finally {
+                WheelData.bind(previous)
+            }
+            data.setConnected(recognised)
+            if (recognised) {
+                endpoint = GattEndpoint.resolve(gatt, data.wheelType, data.protoVer)
+            } else {
+                Timber.i("Session %s: unknown wheel", session.mac)
+                gatt.disconnect()
+            }
+        }
+
+        override fun onCharacteristicChanged(gatt: BluetoothGatt, characteristic: BluetoothGattCharacteristic) {
+            val endpoint = getEndpoint(gatt)
+            if (endpoint.isReadCharacteristic(characteristic)) {
+                // the value is reused by the stack, the frame is decoded later on the pool
+                session.submit(characteristic.value.clone())
+            }
+        }
+
+        override fun onCharacteristicWrite(gatt: BluetoothGatt, characteristic: BluetoothGattCharacteristic, status: Int) {
+            writeQueue.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS)
+        }
+
+        override fun onDescriptorWrite(gatt: BluetoothGatt, descriptor: BluetoothGattDescriptor, status: Int) {
+            writeQueue.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS)
+        }
+    }
+
+    /**
+     * Endpoint of the wheel, resolved again only when the wheel type changes.
+     */
+    private fun getEndpoint(gatt: BluetoothGatt): GattEndpoint {
+        val data = session.data
+        var endpoint = this.endpoint
+        if (endpoint == null || !endpoint.isFor(data.wheelType, data.protoVer)) {
+            endpoint = GattEndpoint.resolve(gatt, data.wheelType, data.protoVer)
+            this.endpoint = endpoint
+        }
+        return endpoint
+    }
+
+    private fun writeChunk(data: ByteArray, offset: Int, length: Int): Boolean {
+        val gatt = gatt ?: return false
+        val endpoint = getEndpoint(gatt)
+        if (endpoint.writeCharacteristic == null) {
+            Timber.i("Session %s: write characteristic == null", session.mac)
+            return false
+        }
+        return endpoint.write(gatt, data, offset, length)
+    }
+
+    override fun getGattService(serviceId: UUID): BluetoothGattService? {
+        return gatt?.getService(serviceId)
+    }
+
+    override fun setCharacteristicNotification(characteristic: BluetoothGattCharacteristic?, enabled: Boolean) {
+        val gatt = gatt
+        if (gatt == null || characteristic == null) {
+            return
+        }
+        Timber.i("Session %s: notifications %b", session.mac, gatt.setCharacteristicNotification(characteristic, enabled))
+    }
+
+    override fun writeBluetoothGattDescriptor(descriptor: BluetoothGattDescriptor) {
+        writeQueue.enqueue(DescriptorWrite({ gatt }, descriptor))
+    }
+
+    override fun writeBluetoothGattCharacteristic(cmd: ByteArray?, lane: GattWriteQueue.Lane): Boolean {
+        if (gatt == null || cmd == null) {
+            return false
+        }
+        val chunkSize = GattEndpoint.chunkSizeOf(session.data.wheelType, cmd.size)
+        return writeQueue.enqueue(CharacteristicWrite(this::writeChunk, cmd, chunkSize, lane))
+    }
+}
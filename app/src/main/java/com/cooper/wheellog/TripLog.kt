@@ -0,0 +1,44 @@
+package com.cooper.wheellog
+
+import java.util.*
+
+/**
+ * Columns of the trip logs, written live by [LoggingService] and from RAW captures by [RawBatch].
+ */
+object TripLog {
+    const val LOCATION_HEADER = "latitude,longitude,gps_speed,gps_alt,gps_heading,gps_distance,"
+    private const val DATA_HEADER = "speed,voltage,phase_current,current,power,torque,pwm,battery_level," +
+            "distance,totaldistance,system_temp,temp2,tilt,roll,mode,alert"
+
+    @JvmStatic
+    fun header(location: Boolean): String {
+        return "date,time," + (if (location) LOCATION_HEADER else "") + DATA_HEADER
+    }
+
+    /**
+     * Row of the current values of [wd], [dateTime] is `yyyy-MM-dd,HH:mm:ss.SSS`,
+     * [location] is empty or the location columns with a trailing comma.
+     */
+    @JvmStatic
+    fun row(wd: WheelData, dateTime: String, location: String): String {
+        return String.format(Locale.US, "%s,%s%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%d,%d,%d,%d,%d,%.2f,%.2f,%s,%s",
+                dateTime,
+                location,
+                wd.speedDouble,
+                wd.voltageDouble,
+                wd.phaseCurrentDouble,
+                wd.currentDouble,
+                wd.powerDouble,
+                wd.torque,
+                wd.calculatedPwm,
+                wd.batteryLevel,
+                wd.distance,
+                wd.totalDistance,
+                wd.temperature,
+                wd.temperature2,
+                wd.angle,
+                wd.roll,
+                wd.modeStr,
+                wd.alert)
+    }
+}
@@ -14,18 +14,16 @@ import com.cooper.wheellog.utils.*;
 import com.cooper.wheellog.utils.Constants.ALARM_TYPE;
 import com.cooper.wheellog.utils.Constants.WHEEL_TYPE;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import timber.log.Timber;
@@ -33,8 +31,14 @@ import timber.log.Timber;
 public class WheelData {
     private static final int TIME_BUFFER = 10;
     private static WheelData mInstance;
+    private static volatile WheelData mSelected;
+    private static final ThreadLocal<WheelData> mBound = new ThreadLocal<>();
+    private static final HashMap<Class<?>, BaseAdapter> mDetachedAdapters = new HashMap<>();
+    private final HashMap<Class<?>, BaseAdapter> mAdapters = new HashMap<>();
     private Timer ridingTimerControl;
     private BluetoothLeService mBluetoothLeService;
+    private GattLink mLink;
+    private static final List<DataListener> mDataListeners = new CopyOnWriteArrayList<>();
 
     private long graph_last_update_time;
     private static final int GRAPH_UPDATE_INTERVAL = 1000; // milliseconds
@@ -45,6 +49,7 @@ public class WheelData {
     // BMS
     private final SmartBms mSmartBms1 = new SmartBms();
     private final SmartBms mSmartBms2 = new SmartBms();
+    private final LinkDiagnostics mDiagnostics = new LinkDiagnostics();
     //all
     private int mSpeed;
     private double mTorque;
@@ -121,47 +126,147 @@ public class WheelData {
     private long timestamp_raw;
     private long timestamp_last;
     private long mLastLifeData = -1;
+    private boolean silent = false;
+    private volatile boolean replaying = false;
 
     AudioTrack audioTrack;
 
+    public interface AdapterFactory<T extends BaseAdapter> {
+        T create();
+    }
+
     public BaseAdapter getAdapter() {
         switch (mWheelType) {
             case GOTWAY_VIRTUAL:
-                return GotwayVirtualAdapter.getInstance();
+                return getAdapter(GotwayVirtualAdapter.class, GotwayVirtualAdapter::new);
             case GOTWAY:
-                return GotwayAdapter.getInstance();
+                return getAdapter(GotwayAdapter.class, GotwayAdapter::new);
             case VETERAN:
-                return VeteranAdapter.getInstance();
+                return getAdapter(VeteranAdapter.class, VeteranAdapter::new);
             case KINGSONG:
-                return KingsongAdapter.getInstance();
+                return getAdapter(KingsongAdapter.class, KingsongAdapter::new);
             case NINEBOT:
-                return NinebotAdapter.getInstance();
+                return getAdapter(NinebotAdapter.class, NinebotAdapter::new);
             case NINEBOT_Z:
-                return NinebotZAdapter.getInstance();
+                return getAdapter(NinebotZAdapter.class, NinebotZAdapter::new);
             case INMOTION:
-                return InMotionAdapter.getInstance();
+                return getAdapter(InMotionAdapter.class, InMotionAdapter::new);
             case INMOTION_V2:
-                return InmotionAdapterV2.getInstance();
+                return getAdapter(InmotionAdapterV2.class, InmotionAdapterV2::new);
             default:
                 return null;
         }
     }
 
+    /**
+     * Adapters keep protocol state, so every wheel has its own instances.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends BaseAdapter> T getAdapter(Class<T> type, AdapterFactory<T> factory) {
+        synchronized (mAdapters) {
+            BaseAdapter adapter = mAdapters.get(type);
+            if (adapter == null) {
+                adapter = factory.create();
+                mAdapters.put(type, adapter);
+            }
+            return (T) adapter;
+        }
+    }
+
+    /**
+     * @return the previous adapter of the type, null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends BaseAdapter> T replaceAdapter(Class<T> type, T adapter) {
+        synchronized (mAdapters) {
+            return (T) (adapter == null ? mAdapters.remove(type) : mAdapters.put(type, adapter));
+        }
+    }
+
+    /**
+     * Adapter of the current wheel, see {@link #getInstance()}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends BaseAdapter> T adapterOf(Class<T> type, AdapterFactory<T> factory) {
+        WheelData wd = getInstance();
+        if (wd != null) {
+            return wd.getAdapter(type, factory);
+        }
+        synchronized (mDetachedAdapters) {
+            BaseAdapter adapter = mDetachedAdapters.get(type);
+            if (adapter == null) {
+                adapter = factory.create();
+                mDetachedAdapters.put(type, adapter);
+            }
+            return (T) adapter;
+        }
+    }
+
+    public static <T extends BaseAdapter> T replaceAdapterOf(Class<T> type, T adapter) {
+        WheelData wd = getInstance();
+        if (wd != null) {
+            return wd.replaceAdapter(type, adapter);
+        }
+        synchronized (mDetachedAdapters) {
+            @SuppressWarnings("unchecked")
+            T previous = (T) (adapter == null ? mDetachedAdapters.remove(type) : mDetachedAdapters.put(type, adapter));
+            return previous;
+        }
+    }
+
     public BluetoothLeService getBluetoothLeService() {
         return mBluetoothLeService;
     }
 
+    /**
+     * Connection of this wheel, the service for the primary wheel.
+     */
+    GattLink getLink() {
+        return mLink != null ? mLink : mBluetoothLeService;
+    }
+
+    void setLink(GattLink link) {
+        mLink = link;
+    }
+
     public boolean bluetoothCmd(byte[] cmd) {
-        if (mBluetoothLeService == null) {
+        GattLink link = getLink();
+        if (link == null) {
             return false;
         }
-        return mBluetoothLeService.writeBluetoothGattCharacteristic(cmd);
+        return link.writeBluetoothGattCharacteristic(cmd, GattWriteQueue.Lane.Command);
+    }
+
+    /**
+     * Periodic data requests, they are sent after user commands and are not queued twice.
+     */
+    public boolean bluetoothPoll(byte[] cmd) {
+        GattLink link = getLink();
+        if (link == null) {
+            return false;
+        }
+        return link.writeBluetoothGattCharacteristic(cmd, GattWriteQueue.Lane.Poll);
     }
 
     public void setBluetoothLeService(BluetoothLeService value) {
         mBluetoothLeService = value;
     }
 
+    /**
+     * Receives the new data of every connected wheel, on the thread which decoded it.
+     */
+    public interface DataListener {
+        void onData(WheelData wheelData);
+    }
+
+    public static void addDataListener(DataListener listener) {
+        mDataListeners.add(listener);
+    }
+
+    public static void removeDataListener(DataListener listener) {
+        mDataListeners.remove(listener);
+    }
+
     void playBeep(ALARM_TYPE type) {
 
         if (WheelLog.AppConfig.getUseWheelBeepForAlarm() && mBluetoothLeService != null) {
@@ -204,12 +309,16 @@ public class WheelData {
             }
         }
 
-        mInstance.full_reset();
-        mInstance.prepareTone(mInstance.sfreq);
-        mInstance.startRidingTimerControl();
+        mInstance.start();
         //mInstance.startAlarmTest(); // test
     }
 
+    void start() {
+        full_reset();
+        prepareTone(sfreq);
+        startRidingTimerControl();
+    }
+
     private void prepareTone(int freq) {
 
         for (int i = 0; i < numSamples; ++i) {
@@ -263,8 +372,70 @@ public class WheelData {
     }
     /////
 
+    /**
+     * @return the wheel bound to the current thread by {@link #bind(WheelData)},
+     * otherwise the wheel shown to the user.
+     */
     public static WheelData getInstance() {
-        return mInstance;
+        WheelData bound = mBound.get();
+        if (bound != null) {
+            return bound;
+        }
+        WheelData selected = mSelected;
+        return selected != null ? selected : mInstance;
+    }
+
+    /**
+     * Wheel connected by {@link BluetoothLeService}.
+     */
+    public static WheelData getPrimary() {
+        return mInstance != null ? mInstance : getInstance();
+    }
+
+    /**
+     * Binds a wheel to the current thread, adapters decoding its data and sending
+     * its requests will see it as {@link #getInstance()}.
+     *
+     * @return the previously bound wheel to restore later, may be null.
+     */
+    public static WheelData bind(WheelData wheelData) {
+        WheelData previous = mBound.get();
+        if (wheelData == null) {
+            mBound.remove();
+        } else {
+            mBound.set(wheelData);
+        }
+        return previous;
+    }
+
+    /**
+     * Shows another wheel to the user, null for the primary one.
+     */
+    static void select(WheelData wheelData) {
+        mSelected = wheelData == mInstance ? null : wheelData;
+    }
+
+    /**
+     * True for the wheel connected by {@link BluetoothLeService}.
+     */
+    public boolean isPrimary() {
+        return this == mInstance;
+    }
+
+    public boolean isSelected() {
+        WheelData selected = mSelected;
+        return this == (selected != null ? selected : mInstance);
+    }
+
+    /**
+     * Stops timers and adapters of a wheel which is not used anymore.
+     */
+    void release() {
+        if (ridingTimerControl != null) {
+            ridingTimerControl.cancel();
+            ridingTimerControl = null;
+        }
+        full_reset();
     }
 
     public int getSpeed() {
@@ -622,7 +793,8 @@ public class WheelData {
     public void setWheelType(WHEEL_TYPE wheelType) {
         boolean isChanged = wheelType != mWheelType;
         mWheelType = wheelType;
-        if (isChanged) {
+        // silent wheels decode RAW captures, the screens follow only the connected wheel
+        if (isChanged && !silent && isSelected() && getBluetoothLeService() != null) {
             Context mContext = getBluetoothLeService().getApplicationContext();
             Intent intent = new Intent(Constants.ACTION_WHEEL_TYPE_CHANGED);
             mContext.sendBroadcast(intent);
@@ -648,7 +820,7 @@ public class WheelData {
     public void setModel(String model) {
         boolean isChanged = model != mModel;
         mModel = model;
-        if (isChanged) {
+        if (isChanged && !silent && getBluetoothLeService() != null) {
             Intent intent = new Intent(Constants.ACTION_WHEEL_MODEL_CHANGED);
             getBluetoothLeService().getApplicationContext().sendBroadcast(intent);
         }
@@ -769,6 +941,14 @@ public class WheelData {
         } else return 0.0;
     }
 
+    public int getTotalRideTime() {
+        return mRideTime + mLastRideTime;
+    }
+
+    public int getRidingTime() {
+        return mRidingTime;
+    }
+
     public String getRideTimeString() {
         int currentTime = mRideTime + mLastRideTime;
         long hours = TimeUnit.SECONDS.toHours(currentTime);
@@ -898,7 +1078,9 @@ public class WheelData {
         if (mUserDistance == 0 && mTotalDistance != 0) {
             mUserDistance = WheelLog.AppConfig.getUserDistance();
             if (mUserDistance == 0) {
-                WheelLog.AppConfig.setUserDistance(mTotalDistance);
+                if (isStoringSettings()) {
+                    WheelLog.AppConfig.setUserDistance(mTotalDistance);
+                }
                 mUserDistance = mTotalDistance;
             }
         }
@@ -906,9 +1088,33 @@ public class WheelData {
     }
 
     public String getMac() {
-        return getBluetoothLeService() != null
-                ? getBluetoothLeService().getBluetoothDeviceAddress()
-                : "default";
+        GattLink link = getLink();
+        String mac = link != null ? link.getBluetoothDeviceAddress() : null;
+        return mac != null ? mac : "default";
+    }
+
+    /**
+     * Decodes without alarms and without storing settings, for a wheel which is not ridden,
+     * like captures decoded again.
+     */
+    void setSilent(boolean value) {
+        silent = value;
+    }
+
+    /**
+     * Set by {@link RawReplay} while it plays a capture into the wheel.
+     */
+    void setReplaying(boolean value) {
+        replaying = value;
+    }
+
+    /**
+     * True if the settings the wheel reports are stored in {@link AppConfig}. A played capture
+     * has the settings of the wheel it was taken from, not of the one they would be stored for,
+     * and a silent wheel is not the wheel being ridden.
+     */
+    public boolean isStoringSettings() {
+        return !silent && !replaying;
     }
 
     public long getTimeStamp() {
@@ -944,6 +1150,10 @@ public class WheelData {
         return mTotalDistance;
     }
 
+    public LinkDiagnostics getDiagnostics() {
+        return mDiagnostics;
+    }
+
     public SmartBms getBms1() {
         return mSmartBms1;
     }
@@ -1225,20 +1435,36 @@ public class WheelData {
         }
     }
 
-    void decodeResponse(byte[] data, Context mContext) {
+    /**
+     * Decodes a notification of the wheel.
+     *
+     * @return true if the notification completed new data.
+     */
+    boolean decodeResponse(byte[] data, Context mContext) {
         timestamp_raw = System.currentTimeMillis();//new Date(); //sdf.format(new Date());
 
-        StringBuilder stringBuilder = new StringBuilder(data.length);
-        for (byte aData : data)
-            stringBuilder.append(String.format(Locale.US, "%02X", aData));
-        Timber.i("Received: %s", stringBuilder);
+        // the dump is only built when there is a log to write it to
+        if (Timber.treeCount() > 0) {
+            StringBuilder stringBuilder = new StringBuilder(data.length * 2);
+            for (byte aData : data)
+                stringBuilder.append(String.format(Locale.US, "%02X", aData));
+            Timber.i("Received: %s", stringBuilder);
+        }
         if (protoVer != "") {
             Timber.i("Decode, proto: %s", protoVer);
         }
-        boolean new_data = getAdapter().setContext(mContext).decode(data);
+        mDiagnostics.onNotification(mWheelType.name(), timestamp_raw);
+        boolean new_data;
+        try {
+            new_data = getAdapter().setContext(mContext).decode(data);
+        } catch (RuntimeException e) {
+            mDiagnostics.onDecodeFailure();
+            Timber.e(e, "Decode failed");
+            return false;
+        }
 
         if (!new_data)
-            return;
+            return false;
         mLastLifeData = System.currentTimeMillis();
         resetRideTime();
         updateRideTime();
@@ -1276,14 +1502,23 @@ public class WheelData {
             }
         }
 
-        if (WheelLog.AppConfig.getAlarmsEnabled())
+        if (!silent && WheelLog.AppConfig.getAlarmsEnabled())
             checkAlarmStatus(mContext);
 
         timestamp_last = timestamp_raw;
+        if (!silent) {
+            for (DataListener listener : mDataListeners) {
+                listener.onData(this);
+            }
+        }
+        if (!isSelected()) {
+            return true;
+        }
         intent.putExtra("Speed", mSpeed);
         mContext.sendBroadcast(intent);
 
         CheckMuteMusic();
+        return true;
     }
 
     public long getLastLifeData() {
@@ -1335,10 +1570,15 @@ public class WheelData {
     }
 
     void full_reset() {
-        if (mWheelType == WHEEL_TYPE.INMOTION) InMotionAdapter.stopTimer();
-        if (mWheelType == WHEEL_TYPE.INMOTION_V2) InmotionAdapterV2.stopTimer();
-        if (mWheelType == WHEEL_TYPE.NINEBOT_Z) NinebotZAdapter.stopTimer();
-        if (mWheelType == WHEEL_TYPE.NINEBOT) NinebotAdapter.stopTimer();
+        WheelData previous = bind(this);
+        try {
+            if (mWheelType == WHEEL_TYPE.INMOTION) InMotionAdapter.stopTimer();
+            if (mWheelType == WHEEL_TYPE.INMOTION_V2) InmotionAdapterV2.stopTimer();
+            if (mWheelType == WHEEL_TYPE.NINEBOT_Z) NinebotZAdapter.stopTimer();
+            if (mWheelType == WHEEL_TYPE.NINEBOT) NinebotAdapter.stopTimer();
+        } finally {
+            bind(previous);
+        }
         mWheelType = WHEEL_TYPE.Unknown;
         //mWheelType = WHEEL_TYPE.GOTWAY; //test
         xAxis.clear();
@@ -1395,72 +1635,36 @@ public class WheelData {
 
     }
 
-    boolean detectWheel(String deviceAddress) {
-        Context mContext = getBluetoothLeService().getApplicationContext();
-        WheelLog.AppConfig.setLastMac(deviceAddress);
-        String advData = WheelLog.AppConfig.getAdvDataForWheel();
-        String adapterName = "";
-        protoVer = "";
-        if (StringUtil.inArray(advData, new String[]{"4e421300000000ec", "4e421302000000ea",})) {
-            protoVer = "S2";
-        } else if (StringUtil.inArray(advData, new String[]{"4e421400000000eb", "4e422000000000df", "4e422200000000dd", "4e4230cf"}) || (advData.startsWith("5600"))) {
-            protoVer = "Mini";
+    /**
+     * Kingsong wheels send their name and serial number only on request.
+     */
+    void requestIdentity() {
+        if (mWheelType != WHEEL_TYPE.KINGSONG) {
+            return;
         }
-        Timber.i("ProtoVer %s, adv: %s", protoVer, advData );
-        boolean detected_wheel = false;
-        String text = StringUtil.Companion.getRawTextResource(mContext, R.raw.bluetooth_services);
-        try {
-            JSONArray arr = new JSONArray(text);
-            for (int i = 0; i < arr.length() && !detected_wheel; i++) {
-                JSONObject services = arr.getJSONObject(i);
-                if (services.length() - 1 != mBluetoothLeService.getSupportedGattServices().size()) {
-                    Timber.i("Services len not corresponds, go to the next");
-                    continue;
-                }
-                adapterName = services.getString("adapter");
-                Timber.i("Searching for %s", adapterName);
-                Iterator<String> iterator = services.keys();
-                // skip adapter key
-                iterator.next();
-                boolean go_next_adapter = false;
-                while (iterator.hasNext()) {
-                    String keyName = iterator.next();
-                    Timber.i("Key name %s", keyName);
-                    UUID s_uuid = UUID.fromString(keyName);
-                    BluetoothGattService service = mBluetoothLeService.getGattService(s_uuid);
-                    if (service == null) {
-                        Timber.i("No such service");
-                        go_next_adapter = true;
-                        break;
-                    }
+        if (mName.isEmpty()) {
+            KingsongAdapter.getInstance().requestNameData();
+        } else if (mSerialNumber.isEmpty()) {
+            KingsongAdapter.getInstance().requestSerialData();
+        }
+    }
 
-                    JSONArray service_uuid = services.getJSONArray(keyName);
-                    if (service_uuid.length() != service.getCharacteristics().size()) {
-                        Timber.i("Characteristics len not corresponds, go to the next");
-                        go_next_adapter = true;
-                        break;
-                    }
-                    for (int j = 0; j < service_uuid.length(); j++) {
-                        UUID c_uuid = UUID.fromString(service_uuid.getString(j));
-                        Timber.i("UUid %s", service_uuid.getString(j));
-                        BluetoothGattCharacteristic characteristic = service.getCharacteristic(c_uuid);
-                        if (characteristic == null) {
-                            Timber.i("UUid not found");
-                            go_next_adapter = true;
-                            break;
-                        } else {Timber.i("UUid found");}
-                    }
-                    if (go_next_adapter) {
-                        break;
-                    }
-                }
-                if (!go_next_adapter) {
-                    Timber.i("Wheel Detected as %s", adapterName);
-                    detected_wheel = true;
-                }
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
+    /**
+     * Subscribes to the data of the wheel connected by {@link #getLink()} and starts its adapter.
+     * Only the primary wheel becomes the last connected one of the settings.
+     */
+    boolean detectWheel(String deviceAddress, Context mContext) {
+        GattLink link = getLink();
+        if (this == mInstance) {
+            WheelLog.AppConfig.setLastMac(deviceAddress);
+        }
+        String advData = WheelLog.AppConfig.advDataForWheel(deviceAddress);
+        protoVer = GattServiceIndex.protoVer(advData);
+        Timber.i("ProtoVer %s, adv: %s", protoVer, advData );
+        String adapterName = GattServiceIndex.getInstance(mContext).find(link.getSupportedGattServices());
+        boolean detected_wheel = adapterName != null;
+        if (detected_wheel) {
+            Timber.i("Wheel Detected as %s", adapterName);
         }
 
         if (detected_wheel) {
@@ -1471,33 +1675,33 @@ public class WheelData {
             }
             if (WHEEL_TYPE.KINGSONG.toString().equalsIgnoreCase(adapterName)) {
                 setWheelType(WHEEL_TYPE.KINGSONG);
-                BluetoothGattService targetService = mBluetoothLeService.getGattService(UUID.fromString(Constants.KINGSONG_SERVICE_UUID));
+                BluetoothGattService targetService = link.getGattService(UUID.fromString(Constants.KINGSONG_SERVICE_UUID));
                 BluetoothGattCharacteristic notifyCharacteristic = targetService.getCharacteristic(UUID.fromString(Constants.KINGSONG_READ_CHARACTER_UUID));
-                mBluetoothLeService.setCharacteristicNotification(notifyCharacteristic, true);
+                link.setCharacteristicNotification(notifyCharacteristic, true);
                 BluetoothGattDescriptor descriptor = notifyCharacteristic.getDescriptor(UUID.fromString(Constants.KINGSONG_DESCRIPTER_UUID));
                 descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                mBluetoothLeService.writeBluetoothGattDescriptor(descriptor);
+                link.writeBluetoothGattDescriptor(descriptor);
 
                 return true;
             } else if (WHEEL_TYPE.GOTWAY.toString().equalsIgnoreCase(adapterName)) {
                 setWheelType(WHEEL_TYPE.GOTWAY_VIRTUAL);
-                BluetoothGattService targetService = mBluetoothLeService.getGattService(UUID.fromString(Constants.GOTWAY_SERVICE_UUID));
+                BluetoothGattService targetService = link.getGattService(UUID.fromString(Constants.GOTWAY_SERVICE_UUID));
                 BluetoothGattCharacteristic notifyCharacteristic = targetService.getCharacteristic(UUID.fromString(Constants.GOTWAY_READ_CHARACTER_UUID));
-                mBluetoothLeService.setCharacteristicNotification(notifyCharacteristic, true);
+                link.setCharacteristicNotification(notifyCharacteristic, true);
                 // Let the user know it's working by making the wheel beep
                 if (WheelLog.AppConfig.getConnectBeep())
-                    mBluetoothLeService.writeBluetoothGattCharacteristic("b".getBytes());
+                    link.writeBluetoothGattCharacteristic("b".getBytes(), GattWriteQueue.Lane.Command);
 
                 return true;
             } else if (WHEEL_TYPE.INMOTION.toString().equalsIgnoreCase(adapterName)) {
                 setWheelType(WHEEL_TYPE.INMOTION);
-                BluetoothGattService targetService = mBluetoothLeService.getGattService(UUID.fromString(Constants.INMOTION_SERVICE_UUID));
+                BluetoothGattService targetService = link.getGattService(UUID.fromString(Constants.INMOTION_SERVICE_UUID));
                 BluetoothGattCharacteristic notifyCharacteristic = targetService.getCharacteristic(UUID.fromString(Constants.INMOTION_READ_CHARACTER_UUID));
-                mBluetoothLeService.setCharacteristicNotification(notifyCharacteristic, true);
+                link.setCharacteristicNotification(notifyCharacteristic, true);
                 BluetoothGattDescriptor descriptor = notifyCharacteristic.getDescriptor(UUID.fromString(Constants.INMOTION_DESCRIPTER_UUID));
                 descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                mBluetoothLeService.writeBluetoothGattDescriptor(descriptor);
-                String inmotionPassword = WheelLog.AppConfig.getPasswordForWheel();
+                link.writeBluetoothGattDescriptor(descriptor);
+                String inmotionPassword = WheelLog.AppConfig.passwordForWheel(deviceAddress);
                 if (inmotionPassword.length() > 0) {
                     InMotionAdapter.getInstance().startKeepAliveTimer(inmotionPassword);
                     return true;
@@ -1507,14 +1711,14 @@ public class WheelData {
             } else if (WHEEL_TYPE.INMOTION_V2.toString().equalsIgnoreCase(adapterName)) {
                 Timber.i("Trying to start Inmotion V2");
                 setWheelType(WHEEL_TYPE.INMOTION_V2);
-                BluetoothGattService targetService = mBluetoothLeService.getGattService(UUID.fromString(Constants.INMOTION_V2_SERVICE_UUID));
+                BluetoothGattService targetService = link.getGattService(UUID.fromString(Constants.INMOTION_V2_SERVICE_UUID));
                 Timber.i("service UUID");
                 BluetoothGattCharacteristic notifyCharacteristic = targetService.getCharacteristic(UUID.fromString(Constants.INMOTION_V2_READ_CHARACTER_UUID));
                 Timber.i("read UUID");
                 if (notifyCharacteristic == null) {
                     Timber.i("it seems that RX UUID doesn't exist");
                 }
-                mBluetoothLeService.setCharacteristicNotification(notifyCharacteristic, true);
+                link.setCharacteristicNotification(notifyCharacteristic, true);
                 Timber.i("notify UUID");
                 BluetoothGattDescriptor descriptor = notifyCharacteristic.getDescriptor(UUID.fromString(Constants.INMOTION_V2_DESCRIPTER_UUID));
                 Timber.i("descr UUID");
@@ -1523,7 +1727,7 @@ public class WheelData {
                 }
                 descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
                 Timber.i("enable notify UUID");
-                mBluetoothLeService.writeBluetoothGattDescriptor(descriptor);
+                link.writeBluetoothGattDescriptor(descriptor);
                 Timber.i("write notify");
                 InmotionAdapterV2.getInstance().startKeepAliveTimer();
                 Timber.i("starting Inmotion V2 adapter");
@@ -1538,14 +1742,14 @@ public class WheelData {
                     Timber.i("no, switch to NB");
                     setWheelType(WHEEL_TYPE.NINEBOT);
                 }
-                BluetoothGattService targetService = mBluetoothLeService.getGattService(UUID.fromString(Constants.NINEBOT_Z_SERVICE_UUID));
+                BluetoothGattService targetService = link.getGattService(UUID.fromString(Constants.NINEBOT_Z_SERVICE_UUID));
                 Timber.i("service UUID");
                 BluetoothGattCharacteristic notifyCharacteristic = targetService.getCharacteristic(UUID.fromString(Constants.NINEBOT_Z_READ_CHARACTER_UUID));
                 Timber.i("read UUID");
                 if (notifyCharacteristic == null) {
                     Timber.i("it seems that RX UUID doesn't exist");
                 }
-                mBluetoothLeService.setCharacteristicNotification(notifyCharacteristic, true);
+                link.setCharacteristicNotification(notifyCharacteristic, true);
                 Timber.i("notify UUID");
                 BluetoothGattDescriptor descriptor = notifyCharacteristic.getDescriptor(UUID.fromString(Constants.NINEBOT_Z_DESCRIPTER_UUID));
                 Timber.i("descr UUID");
@@ -1554,7 +1758,7 @@ public class WheelData {
                 }
                 descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
                 Timber.i("enable notify UUID");
-                mBluetoothLeService.writeBluetoothGattDescriptor(descriptor);
+                link.writeBluetoothGattDescriptor(descriptor);
                 Timber.i("write notify");
                 if (protoVer.compareTo("S2") == 0 || protoVer.compareTo("Mini") == 0) {
                     NinebotAdapter.getInstance().startKeepAliveTimer(protoVer);
@@ -1568,14 +1772,14 @@ public class WheelData {
             } else if (WHEEL_TYPE.NINEBOT.toString().equalsIgnoreCase(adapterName)) {
                 Timber.i("Trying to start Ninebot");
                 setWheelType(WHEEL_TYPE.NINEBOT);
-                BluetoothGattService targetService = mBluetoothLeService.getGattService(UUID.fromString(Constants.NINEBOT_SERVICE_UUID));
+                BluetoothGattService targetService = link.getGattService(UUID.fromString(Constants.NINEBOT_SERVICE_UUID));
                 Timber.i("service UUID");
                 BluetoothGattCharacteristic notifyCharacteristic = targetService.getCharacteristic(UUID.fromString(Constants.NINEBOT_READ_CHARACTER_UUID));
                 Timber.i("read UUID");
                 if (notifyCharacteristic == null) {
                     Timber.i("it seems that RX UUID doesn't exist");
                 }
-                mBluetoothLeService.setCharacteristicNotification(notifyCharacteristic, true);
+                link.setCharacteristicNotification(notifyCharacteristic, true);
                 Timber.i("notify UUID");
                 BluetoothGattDescriptor descriptor = notifyCharacteristic.getDescriptor(UUID.fromString(Constants.NINEBOT_DESCRIPTER_UUID));
                 Timber.i("descr UUID");
@@ -1584,16 +1788,18 @@ public class WheelData {
                 }
                 descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
                 Timber.i("enable notify UUID");
-                mBluetoothLeService.writeBluetoothGattDescriptor(descriptor);
+                link.writeBluetoothGattDescriptor(descriptor);
                 Timber.i("write notify");
                 NinebotAdapter.getInstance().startKeepAliveTimer(protoVer);
                 Timber.i("starting ninebot adapter");
                 return true;
             }
         } else {
-            WheelLog.AppConfig.setLastMac("");
+            if (this == mInstance) {
+                WheelLog.AppConfig.setLastMac("");
+            }
             Timber.i("Protocol recognized as Unknown");
-            for (BluetoothGattService service : mBluetoothLeService.getSupportedGattServices()) {
+            for (BluetoothGattService service : link.getSupportedGattServices()) {
                 Timber.i("Service: %s", service.getUuid().toString());
                 for (BluetoothGattCharacteristic characteristics : service.getCharacteristics()) {
                     Timber.i("Characteristics: %s", characteristics.getUuid().toString());
@@ -0,0 +1,86 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import timber.log.Timber
+import java.util.*
+import java.util.concurrent.Executor
+
+/**
+ * One connected wheel with its own [WheelData], adapters, alarms and ride state.
+ * Frames are decoded on the shared executor, frames of one session one at a time
+ * and in the order they arrived. [connect] connects the wheel by its own [SessionLink].
+ */
+class WheelSession internal constructor(
+    val mac: String,
+    private val context: Context,
+    private val executor: Executor,
+    val data: WheelData = WheelData()
+) {
+    private val frames = ArrayDeque<ByteArray>()
+    private var draining = false
+    private var closed = false
+    private var link: SessionLink? = null
+
+    val name: String
+        get() = data.name.ifEmpty { mac }
+
+    init {
+        data.start()
+    }
+
+    /**
+     * Connects the wheel, its frames are then submitted by the link.
+     */
+    fun connect(): Boolean {
+        val link = SessionLink(this, context)
+        this.link = link
+        data.setLink(link)
+        return link.connect()
+    }
+
+    /**
+     * Queues a notification from the wheel for decoding.
+     */
+    fun submit(frame: ByteArray) {
+        synchronized(frames) {
+            if (closed) {
+                return
+            }
+            frames.addLast(frame)
+            if (draining) {
+                return
+            }
+            draining = true
+        }
+        executor.execute { drain() }
+    }
+
+    private fun drain() {
+        val previous = WheelData.bind(data)
+        try {
+            while (true) {
+                val frame = synchronized(frames) {
+                    frames.pollFirst().also { if (it == null) draining = false }
+                } ?: return
+                try {
+                    data.decodeResponse(frame, context)
+                    data.requestIdentity()
+                } catch (e: Exception) {
+                    Timber.e(e, "Decode failed for %s", mac)
+                }
+            }
+        } finally {
+            WheelData.bind(previous)
+        }
+    }
+
+    internal fun close() {
+        synchronized(frames) {
+            closed = true
+            frames.clear()
+        }
+        link?.close()
+        link = null
+        data.release()
+    }
+}
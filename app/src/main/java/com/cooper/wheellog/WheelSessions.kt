@@ -0,0 +1,85 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import timber.log.Timber
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Wheels connected in addition to the primary one of [BluetoothLeService].
+ * All of them share one decode pool sized by the number of cores.
+ */
+object WheelSessions {
+    private val sessions = LinkedHashMap<String, WheelSession>()
+
+    @JvmStatic
+    val executor: ExecutorService by lazy {
+        val threads = AtomicInteger()
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors().coerceAtLeast(2), ThreadFactory {
+            Thread(it, "wheel-decode-" + threads.incrementAndGet()).apply { isDaemon = true }
+        })
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun open(mac: String, context: Context): WheelSession {
+        return sessions.getOrPut(mac) {
+            Timber.i("Open session %s", mac)
+            WheelSession(mac, context.applicationContext ?: context, executor)
+        }
+    }
+
+    /**
+     * Opens a session for the wheel and connects it next to the primary wheel.
+     */
+    @JvmStatic
+    @Synchronized
+    fun connect(mac: String, context: Context): WheelSession? {
+        if (sessions.containsKey(mac)) {
+            return sessions[mac]
+        }
+        val session = open(mac, context)
+        if (!session.connect()) {
+            Timber.i("Unable to connect %s", mac)
+            close(mac)
+            return null
+        }
+        return session
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun get(mac: String): WheelSession? = sessions[mac]
+
+    @JvmStatic
+    @Synchronized
+    fun getSessions(): List<WheelSession> = ArrayList(sessions.values)
+
+    @JvmStatic
+    @Synchronized
+    fun close(mac: String) {
+        val session = sessions.remove(mac) ?: return
+        Timber.i("Close session %s", mac)
+        if (session.data.isSelected) {
+            WheelData.select(null)
+        }
+        session.close()
+    }
+
+    /**
+     * Shows the wheel of the session to the user, null for the primary wheel.
+     */
+    @JvmStatic
+    @Synchronized
+    fun select(mac: String?): Boolean {
+        if (mac == null) {
+            WheelData.select(null)
+            return true
+        }
+        val session = sessions[mac] ?: return false
+        WheelData.select(session.data)
+        return true
+    }
+}
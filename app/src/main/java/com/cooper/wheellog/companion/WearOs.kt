@@ -2,6 +2,7 @@ package com.cooper.wheellog.companion
 
 import android.content.Context
 import android.content.SharedPreferences
+import android.os.SystemClock
 import android.widget.Toast
 import androidx.preference.PreferenceManager
 import com.cooper.wheellog.R
@@ -13,17 +14,27 @@ import com.google.android.gms.wearable.MessageEvent
 import com.google.android.gms.wearable.PutDataMapRequest
 import com.google.android.gms.wearable.Wearable
 import com.wheellog.shared.Constants
+import com.wheellog.shared.WearDeltaEncoder
+import com.wheellog.shared.WearField
+import com.wheellog.shared.WearSendRate
 import com.wheellog.shared.serialize
 import kotlinx.coroutines.*
 import timber.log.Timber
-import java.text.SimpleDateFormat
-import java.util.*
 
 
 class WearOs(var context: Context): MessageClient.OnMessageReceivedListener, SharedPreferences.OnSharedPreferenceChangeListener {
     private val backgroundScope: CoroutineScope = CoroutineScope(Dispatchers.Default + Job())
     private var isConnected = false
     private var sendPingJob: Job
+    private val messageClient = Wearable.getMessageClient(context)
+    private val encoder = WearDeltaEncoder()
+    private val sendRate = WearSendRate()
+    private var nodeId: String? = null
+    private var lastAlarm = 0
+    // the last values wait for the watch, they are sent when it acknowledged or the interval passed
+    private var trailingSend: Job? = null
+    private val kmhString = context.getString(R.string.kmh)
+    private val mphString = context.getString(R.string.mph)
 
     fun sendUpdateData() {
         if (!isConnected) {
@@ -31,42 +42,85 @@ class WearOs(var context: Context): MessageClient.OnMessageReceivedListener, Sha
             return
         }
         val wd = WheelData.getInstance()
-        val dataRequest = PutDataMapRequest.create(Constants.wearOsDataItemPath)
-        dataRequest.dataMap.apply {
-            putDouble(Constants.wearOsSpeedData, wd.speedDouble)
-            putDouble(Constants.wearOsMaxSpeedData, wd.topSpeed.toDouble())
-            putDouble(Constants.wearOsVoltageData, wd.voltageDouble)
-            putDouble(Constants.wearOsCurrentData, wd.currentDouble)
-            putDouble(Constants.wearOsMaxCurrentData, wd.maxCurrentDouble)
-            putDouble(Constants.wearOsPowerData, wd.powerDouble)
-            putDouble(Constants.wearOsMaxPowerData, wd.maxPowerDouble)
-            putDouble(Constants.wearOsPWMData, wd.calculatedPwm)
-            putDouble(Constants.wearOsMaxPWMData, wd.maxPwm)
-            putDouble(Constants.wearOsTemperatureData, wd.temperature.toDouble())
-            putDouble(Constants.wearOsMaxTemperatureData, wd.maxTemp.toDouble())
-            putInt(Constants.wearOsBatteryData,wd.batteryLevel)
-            putInt(Constants.wearOsBatteryLowData, wd.batteryLowestLevel)
-            putDouble(Constants.wearOsDistanceData, wd.distanceDouble)
-            putString(Constants.wearOsUnitData,
-                    if (WheelLog.AppConfig.useMph)
-                        context.getString(R.string.mph)
-                    else
-                        context.getString(R.string.kmh))
-            putBoolean(Constants.wearOsCurrentOnDialData, WheelLog.AppConfig.currentOnDial)
-            putInt(Constants.wearOsAlarmData, wd.alarm)
-            putLong(Constants.wearOsTimestampData, wd.lastLifeData)
-            val sdf = SimpleDateFormat("HH:mm", Locale.US)
-            putString(Constants.wearOsTimeStringData, sdf.format(Date(wd.lastLifeData)))
+        val alarm = wd.alarm
+        encoder.apply {
+            set(WearField.Speed, wd.speedDouble)
+            set(WearField.MaxSpeed, wd.topSpeed.toDouble())
+            set(WearField.Voltage, wd.voltageDouble)
+            set(WearField.Current, wd.currentDouble)
+            set(WearField.MaxCurrent, wd.maxCurrentDouble)
+            set(WearField.Power, wd.powerDouble)
+            set(WearField.MaxPower, wd.maxPowerDouble)
+            set(WearField.Pwm, wd.calculatedPwm)
+            set(WearField.MaxPwm, wd.maxPwm)
+            set(WearField.Temperature, wd.temperature)
+            set(WearField.MaxTemperature, wd.maxTemp)
+            set(WearField.Battery, wd.batteryLevel)
+            set(WearField.BatteryLowest, wd.batteryLowestLevel)
+            set(WearField.Distance, wd.distanceDouble)
+            set(WearField.MainUnit, if (WheelLog.AppConfig.useMph) mphString else kmhString)
+            set(WearField.CurrentOnDial, WheelLog.AppConfig.currentOnDial)
+            set(WearField.Alarm, alarm)
+            set(WearField.Timestamp, wd.lastLifeData.toDouble())
         }
-        val request = dataRequest.asPutDataRequest()
-        request.setUrgent()
-        Wearable.getDataClient(context).putDataItem(request)
+        val now = SystemClock.elapsedRealtime()
+        if (sendRate.checkTimeout(now)) {
+            encoder.requestKeyFrame()
+        }
+        // only a new alarm is sent immediately, everything else waits for the watch
+        val urgent = alarm != 0 && alarm != lastAlarm
+        lastAlarm = alarm
+        val node = nodeId ?: return
+        if (!urgent && !sendRate.canSend(now)) {
+            scheduleTrailingSend(now)
+            return
+        }
+        send(node, urgent, now)
+    }
+
+    private fun send(node: String, urgent: Boolean, now: Long) {
+        trailingSend?.cancel()
+        trailingSend = null
+        val message = encoder.encode(urgent) ?: return
+        sendRate.onSent(encoder.sequence, now)
+        messageClient.sendMessage(node, Constants.wearOsDeltaMessagePath, message)
             .addOnFailureListener {
                 Timber.e("[wear] %s", it.localizedMessage)
+                encoder.requestKeyFrame()
             }
     }
 
+    private fun scheduleTrailingSend(now: Long) {
+        if (trailingSend != null) {
+            return
+        }
+        val delay = sendRate.delayUntilSend(now)
+        trailingSend = backgroundScope.launch(Dispatchers.Main) {
+            delay(delay)
+            trailingSend = null
+            sendPending()
+        }
+    }
+
+    /**
+     * Sends the values skipped for the send rate, also when no frame comes any more.
+     */
+    private fun sendPending() {
+        val node = nodeId ?: return
+        val now = SystemClock.elapsedRealtime()
+        if (sendRate.checkTimeout(now)) {
+            encoder.requestKeyFrame()
+        }
+        if (sendRate.canSend(now)) {
+            send(node, false, now)
+        } else {
+            scheduleTrailingSend(now)
+        }
+    }
+
     fun stop() {
+        trailingSend?.cancel()
+        trailingSend = null
         sendMessage(Constants.wearOsFinishMessage)
         removeMessageListener()
         val sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context)
@@ -74,12 +128,26 @@ class WearOs(var context: Context): MessageClient.OnMessageReceivedListener, Sha
     }
 
     override fun onMessageReceived(messageEvent: MessageEvent) {
+        if (messageEvent.path == Constants.wearOsAckMessagePath) {
+            val data = messageEvent.data
+            if (data.size == 2) {
+                val sequence = (data[0].toInt() and 0xFF shl 8) or (data[1].toInt() and 0xFF)
+                sendRate.onAck(sequence, SystemClock.elapsedRealtime())
+                if (trailingSend != null) {
+                    sendPending()
+                }
+            }
+            return
+        }
         if (messageEvent.path == Constants.wearOsDataMessagePath) {
             when (messageEvent.data.toString(Charsets.UTF_8)) {
                 // TODO: localization
                 Constants.wearOsPongMessage  -> {
                     Toast.makeText(context,"WearOs watch connected successfully!", Toast.LENGTH_LONG).show()
                     isConnected = true
+                    nodeId = messageEvent.sourceNodeId
+                    encoder.requestKeyFrame()
+                    sendRate.reset()
                     sendUpdatePages()
                     sendPingJob.cancel()
                 }
@@ -92,7 +160,6 @@ class WearOs(var context: Context): MessageClient.OnMessageReceivedListener, Sha
 
     init {
         addMessageListener()
-        sendUpdateData()
         sendPingJob = backgroundScope.launch {
             sendMessage(Constants.wearOsPingMessage)
             delay(500)
@@ -28,6 +28,7 @@ import com.cooper.wheellog.presentation.preferences.MultiSelectPreferenceDialogF
 import com.cooper.wheellog.presentation.preferences.SeekBarPreference
 import com.cooper.wheellog.utils.Constants
 import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import com.cooper.wheellog.utils.FileUtil
 import com.cooper.wheellog.utils.KingsongAdapter
 import com.cooper.wheellog.utils.MathsUtil
 import com.cooper.wheellog.utils.SomeUtil.Companion.getDrawableEx
@@ -435,6 +436,20 @@ class PreferencesFragment : PreferenceFragmentCompat(), OnSharedPreferenceChange
             }
             SettingsScreen.Logs -> {
                 tb.title = getText(R.string.logs_settings_title)
+                findPreference<Preference>(getString(R.string.link_diagnostics))?.onPreferenceClickListener = Preference.OnPreferenceClickListener {
+                    val diagnostics = WheelData.getInstance().diagnostics
+                    AlertDialog.Builder(requireActivity())
+                            .setTitle(R.string.link_diagnostics_title)
+                            .setMessage(diagnostics.report().ifEmpty { getString(R.string.link_diagnostics_empty) })
+                            .setPositiveButton(android.R.string.ok) { _: DialogInterface?, _: Int -> }
+                            .setNeutralButton(R.string.link_diagnostics_reset) { _: DialogInterface?, _: Int -> diagnostics.reset() }
+                            .show()
+                    true
+                }
+                findPreference<Preference>(getString(R.string.decode_raw))?.onPreferenceClickListener = Preference.OnPreferenceClickListener {
+                    decodeRawData()
+                    true
+                }
             }
             SettingsScreen.Alarms -> {
                 tb.title = getText(R.string.alarm_settings_title)
@@ -488,6 +503,43 @@ class PreferencesFragment : PreferenceFragmentCompat(), OnSharedPreferenceChange
         generalSettings.switchAlarmsIsVisible(this)
     }
 
+    /**
+     * Decodes every RAW capture again into a trip with [RawBatch] and shows the results.
+     * Trips go into the app folder, the public log folder is not writable as a file on Android 10+.
+     */
+    private fun decodeRawData() {
+        val context = requireContext().applicationContext
+        val raws = FileUtil.getRawCaptures(context)
+        if (raws.isEmpty()) {
+            AlertDialog.Builder(requireActivity())
+                    .setTitle(R.string.decode_raw_title)
+                    .setMessage(R.string.decode_raw_empty)
+                    .setPositiveButton(android.R.string.ok) { _: DialogInterface?, _: Int -> }
+                    .show()
+            return
+        }
+        val outputDir = context.getExternalFilesDir(Constants.LOG_FOLDER_NAME) ?: context.filesDir
+        val progress = AlertDialog.Builder(requireActivity())
+                .setTitle(R.string.decode_raw_title)
+                .setMessage(getString(R.string.decode_raw_started, raws.size))
+                .setCancelable(false)
+                .show()
+        Thread({
+            val results = RawBatch(context).run(raws, outputDir)
+            activity?.runOnUiThread {
+                progress.dismiss()
+                if (!isAdded) {
+                    return@runOnUiThread
+                }
+                AlertDialog.Builder(requireActivity())
+                        .setTitle(getString(R.string.decode_raw_finished, outputDir.absolutePath))
+                        .setMessage(results.joinToString("\n\n") { it.report() })
+                        .setPositiveButton(android.R.string.ok) { _: DialogInterface?, _: Int -> }
+                        .show()
+            }
+        }, "RawBatch").start()
+    }
+
     private fun refreshVolatileSettings() {
         if (currentScreen == SettingsScreen.Logs) {
             correctState(getString(R.string.auto_log))
@@ -159,6 +159,17 @@ class SpeedSettings(context: Context, ps: PreferenceScreen) : BaseSettingsClass(
                 setDefaultValue(WheelLog.AppConfig.maxSpeed)
                 addPreference(this)
             }
+            SeekBarPreference(context).apply {
+                key = getString(R.string.display_rate)
+                title = getString(R.string.display_rate_title)
+                summary = getString(R.string.display_rate_description)
+                min = 0
+                max = 60
+                unit = getString(R.string.fps)
+                increment = 1
+                setDefaultValue(WheelLog.AppConfig.displayRate)
+                addPreference(this)
+            }
             SwitchPreference(context).apply {
                 key = getString(R.string.current_on_dial)
                 title = getString(R.string.current_on_dial_title)
@@ -227,6 +238,17 @@ class SpeedSettings(context: Context, ps: PreferenceScreen) : BaseSettingsClass(
             summary = getString(R.string.use_reconnect_description)
             ps.addPreference(this)
         }
+        SeekBarPreference(context).apply {
+            key = getString(R.string.reconnect_missed_frames)
+            title = getString(R.string.reconnect_missed_frames_title)
+            summary = getString(R.string.reconnect_missed_frames_description)
+            min = 3
+            max = 50
+            increment = 1
+            setDefaultValue(WheelLog.AppConfig.reconnectMissedFrames)
+            ps.addPreference(this)
+            dependency = getString(R.string.use_reconnect)
+        }
         PreferenceCategory(context).apply {
             title = getString(R.string.beep_category)
             ps.addPreference(this)
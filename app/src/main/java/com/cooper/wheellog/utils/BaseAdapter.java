@@ -2,6 +2,9 @@ package com.cooper.wheellog.utils;
 
 import android.content.Context;
 
+import com.cooper.wheellog.LinkDiagnostics;
+import com.cooper.wheellog.WheelData;
+
 public abstract class BaseAdapter {
     protected Context mContext;
 
@@ -12,6 +15,20 @@ public abstract class BaseAdapter {
 
     public abstract boolean decode(byte[] data);
 
+    protected static void reportFrame() {
+        WheelData wd = WheelData.getInstance();
+        if (wd != null) {
+            wd.getDiagnostics().onFrame();
+        }
+    }
+
+    protected static void reportRejectedFrame(LinkDiagnostics.Reject reason) {
+        WheelData wd = WheelData.getInstance();
+        if (wd != null) {
+            wd.getDiagnostics().onRejected(reason);
+        }
+    }
+
     public void updatePedalsMode(int pedalsMode) {
     }
 
@@ -308,6 +308,59 @@ public class FileUtil {
         return tripModels;
     }
 
+    public static ArrayList<File> getRawCaptures(Context context) {
+        ArrayList<File> captures = new ArrayList<>();
+        // Android 9 or less
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)
+        {
+            File dir = new File(Environment.getExternalStoragePublicDirectory(
+                    Environment.DIRECTORY_DOWNLOADS), Constants.LOG_FOLDER_NAME);
+            File[] filesArray = dir.listFiles();
+            if (filesArray == null) {
+                return captures;
+            }
+            for (File wheelDir: filesArray) {
+                File[] wheelFiles = wheelDir.isDirectory() ? wheelDir.listFiles() : new File[] { wheelDir };
+                if (wheelFiles == null) {
+                    continue;
+                }
+                for (File f: wheelFiles) {
+                    if (f.isFile() && f.getName().startsWith("RAW_") && f.getName().endsWith(".csv")) {
+                        captures.add(f);
+                    }
+                }
+            }
+            return captures;
+        }
+        // Android 10+
+        Uri uri = MediaStore.Downloads.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+        String[] projection = {
+                MediaStore.Downloads.MIME_TYPE,
+                MediaStore.Downloads.DISPLAY_NAME,
+                MediaStore.Downloads._ID
+        };
+        String where = String.format("%s = 'text/comma-separated-values'", MediaStore.Downloads.MIME_TYPE);
+        Cursor cursor = context.getContentResolver().query(uri,
+                projection,
+                where + " AND " + MediaStore.Downloads.DISPLAY_NAME + " LIKE ?",
+                new String[] { "RAW_%" },
+                MediaStore.Downloads.DATE_MODIFIED + " DESC");
+        if (cursor != null && cursor.moveToFirst()) {
+            FileUtil resolver = new FileUtil(context);
+            Uri downloads = MediaStore.Downloads.getContentUri(MediaStore.VOLUME_EXTERNAL);
+            do {
+                String mediaId = cursor.getString(cursor.getColumnIndex(MediaStore.Downloads._ID));
+                resolver.uri = Uri.withAppendedPath(downloads, mediaId);
+                String path = resolver.getPathFromUri(resolver.uri);
+                if (!path.isEmpty()) {
+                    captures.add(new File(path));
+                }
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+        return captures;
+    }
+
     public void close() {
         if (stream == null) {
             return;
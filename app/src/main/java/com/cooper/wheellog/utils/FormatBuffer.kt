@@ -0,0 +1,176 @@
+package com.cooper.wheellog.utils
+
+import java.math.BigDecimal
+import java.math.RoundingMode
+import kotlin.math.abs
+import kotlin.math.floor
+
+/**
+ * Reusable char buffer for formatting numbers without creating new Strings.
+ * Covers the String.format(Locale.US, ...) patterns used on hot UI paths:
+ * %d, %02d, %.Nf and %02.0f. Content can be drawn directly with
+ * Canvas.drawText(chars, 0, length, ...).
+ */
+class FormatBuffer(capacity: Int = 32) {
+    var chars = CharArray(capacity)
+        private set
+    var length = 0
+        private set
+
+    private val digits = CharArray(20)
+
+    fun clear(): FormatBuffer {
+        length = 0
+        return this
+    }
+
+    fun append(c: Char): FormatBuffer {
+        ensureCapacity(length + 1)
+        chars[length++] = c
+        return this
+    }
+
+    fun append(s: String): FormatBuffer {
+        ensureCapacity(length + s.length)
+        s.toCharArray(chars, length, 0, s.length)
+        length += s.length
+        return this
+    }
+
+    fun append(other: FormatBuffer): FormatBuffer {
+        ensureCapacity(length + other.length)
+        System.arraycopy(other.chars, 0, chars, length, other.length)
+        length += other.length
+        return this
+    }
+
+    /**
+     * Same as %0{minDigits}d.
+     */
+    @JvmOverloads
+    fun append(value: Long, minDigits: Int = 1): FormatBuffer {
+        if (value < 0) {
+            append('-')
+        }
+        appendUnsigned(abs(value), minDigits)
+        return this
+    }
+
+    @JvmOverloads
+    fun append(value: Int, minDigits: Int = 1): FormatBuffer {
+        return append(value.toLong(), minDigits)
+    }
+
+    /**
+     * Same as %0{minIntDigits}.{decimals}f. Like Formatter, rounding is half-up on the
+     * shortest decimal text of the value, so 1.005 is 1.01 although its binary value is below.
+     */
+    @JvmOverloads
+    fun append(value: Double, decimals: Int, minIntDigits: Int = 1): FormatBuffer {
+        if (value.isNaN()) {
+            return append("NaN")
+        }
+        if (value.isInfinite()) {
+            return append(if (value > 0) "Infinity" else "-Infinity")
+        }
+        val scale = POWERS_OF_TEN[decimals]
+        val scaled = rounded(abs(value), decimals, scale)
+        if (value < 0) {
+            append('-')
+        }
+        appendUnsigned(scaled / scale, minIntDigits)
+        if (decimals > 0) {
+            append('.')
+            appendUnsigned(scaled % scale, decimals)
+        }
+        return this
+    }
+
+    /**
+     * Same as "%02d:%02d:%02d" for hours, minutes and seconds.
+     */
+    fun appendTime(totalSeconds: Int): FormatBuffer {
+        val seconds = abs(totalSeconds)
+        appendUnsigned((seconds / 3600).toLong(), 2)
+        append(':')
+        appendUnsigned((seconds / 60 % 60).toLong(), 2)
+        append(':')
+        appendUnsigned((seconds % 60).toLong(), 2)
+        return this
+    }
+
+    fun contentEquals(s: CharSequence): Boolean {
+        if (s.length != length) {
+            return false
+        }
+        for (i in 0 until length) {
+            if (chars[i] != s[i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    fun contentEquals(other: FormatBuffer): Boolean {
+        if (other.length != length) {
+            return false
+        }
+        for (i in 0 until length) {
+            if (chars[i] != other.chars[i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * Content as bytes, only for ASCII texts.
+     */
+    fun toAsciiBytes(): ByteArray {
+        val bytes = ByteArray(length)
+        for (i in 0 until length) {
+            bytes[i] = chars[i].code.toByte()
+        }
+        return bytes
+    }
+
+    override fun toString(): String {
+        return String(chars, 0, length)
+    }
+
+    private fun rounded(value: Double, decimals: Int, scale: Long): Long {
+        val scaled = value * scale
+        val fraction = scaled - floor(scaled)
+        // only a tie in binary can be on the other side of it in decimal
+        if (abs(fraction - 0.5) > 8 * Math.ulp(scaled)) {
+            return Math.round(scaled)
+        }
+        return BigDecimal(value.toString()).setScale(decimals, RoundingMode.HALF_UP).unscaledValue().toLong()
+    }
+
+    private fun appendUnsigned(value: Long, minDigits: Int) {
+        var v = value
+        var count = 0
+        do {
+            digits[count++] = '0' + (v % 10).toInt()
+            v /= 10
+        } while (v != 0L)
+        ensureCapacity(length + maxOf(count, minDigits))
+        for (i in count until minDigits) {
+            chars[length++] = '0'
+        }
+        while (count > 0) {
+            chars[length++] = digits[--count]
+        }
+    }
+
+    private fun ensureCapacity(size: Int) {
+        if (size > chars.size) {
+            chars = chars.copyOf(maxOf(size, chars.size * 2))
+        }
+    }
+
+    companion object {
+        private val POWERS_OF_TEN = longArrayOf(1, 10, 100, 1_000, 10_000, 100_000, 1_000_000)
+    }
+}
@@ -2,6 +2,7 @@ package com.cooper.wheellog.utils;
 
 import android.os.Handler;
 
+import com.cooper.wheellog.LinkDiagnostics;
 import com.cooper.wheellog.WheelData;
 import com.cooper.wheellog.WheelLog;
 
@@ -10,7 +11,6 @@ import java.io.ByteArrayOutputStream;
 import timber.log.Timber;
 
 public class GotwayAdapter extends BaseAdapter {
-    private static GotwayAdapter INSTANCE;
     gotwayUnpacker unpacker = new gotwayUnpacker();
     private static final double RATIO_GW = 0.875;
 
@@ -24,6 +24,7 @@ public class GotwayAdapter extends BaseAdapter {
 
         for (byte c : data) {
             if (unpacker.addChar(c)) {
+                reportFrame();
 
                 byte[] buff = unpacker.getBuffer();
                 Boolean useRatio = WheelLog.AppConfig.getUseRatio();
@@ -229,6 +230,7 @@ public class GotwayAdapter extends BaseAdapter {
                 int size = buffer.size();
                 if ((size == 20 && c != (byte) 0x18) || (size > 20 && size <= 24 && c != (byte) 0x5A)) {
                     Timber.i("Invalid frame footer (expected 18 5A 5A 5A 5A)");
+                    reportRejectedFrame(LinkDiagnostics.Reject.Footer);
                     state = UnpackerState.unknown;
                     return false;
                 }
@@ -252,10 +254,7 @@ public class GotwayAdapter extends BaseAdapter {
     }
 
     public static GotwayAdapter getInstance() {
-        if (INSTANCE == null) {
-            INSTANCE = new GotwayAdapter();
-        }
-        return INSTANCE;
+        return WheelData.adapterOf(GotwayAdapter.class, GotwayAdapter::new);
     }
 
     private double getScaledVoltage(double value) {
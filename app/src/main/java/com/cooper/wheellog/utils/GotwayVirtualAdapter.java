@@ -4,13 +4,15 @@ import com.cooper.wheellog.WheelData;
 import timber.log.Timber;
 
 public class GotwayVirtualAdapter extends BaseAdapter {
-    private static GotwayVirtualAdapter INSTANCE;
 
     @Override
     public boolean decode(byte[] data) {
         Timber.i("Begode_Gotway_detect");
         WheelData wd = WheelData.getInstance();
         boolean result;
+        if (data.length < 4) {
+            return false;
+        }
         if ((data[0] == (byte) 0xDC) && (data[1] == (byte) 0x5A) && (data[2] == (byte) 0x5C) && (data[3] == (byte)0x20)) {
             wd.setWheelType(Constants.WHEEL_TYPE.VETERAN);
             wd.setModel("Veteran");
@@ -25,9 +27,6 @@ public class GotwayVirtualAdapter extends BaseAdapter {
     }
 
     public static GotwayVirtualAdapter getInstance() {
-        if (INSTANCE == null) {
-            INSTANCE = new GotwayVirtualAdapter();
-        }
-        return INSTANCE;
+        return WheelData.adapterOf(GotwayVirtualAdapter.class, GotwayVirtualAdapter::new);
     }
 }
\ No newline at end of file
@@ -1,11 +1,10 @@
 package com.cooper.wheellog.utils;
 
+import com.cooper.wheellog.LinkDiagnostics;
 import com.cooper.wheellog.R;
 import com.cooper.wheellog.WheelData;
 import com.cooper.wheellog.WheelLog;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.*;
 import timber.log.Timber;
 
@@ -14,12 +13,10 @@ import android.content.Intent;
 import static com.cooper.wheellog.utils.InMotionAdapter.Model.*;
 
 public class InMotionAdapter extends BaseAdapter {
-    private static InMotionAdapter INSTANCE;
-    private Timer keepAliveTimer;
+    private RequestPoller poller;
     private int passwordSent = 0;
     private boolean needSlowData = true;
     protected boolean settingCommandReady = false;
-    private static int updateStep = 0;
     protected byte[] settingCommand;
 
     @Override
@@ -28,10 +25,14 @@ public class InMotionAdapter extends BaseAdapter {
             if (!unpacker.addChar(c)) {
                 continue;
             }
-            CANMessage result = CANMessage.verify(unpacker.getBuffer());
+            CANMessage result = CANMessage.verify(unpacker.buffer, unpacker.size, received);
             if (result == null) {
                 continue;
             }
+            reportFrame();
+            if (poller != null) {
+                poller.onResponse(result.id);
+            }
             // data OK
             CANMessage.IDValue idValue = CANMessage.IDValue.NoOp;
             for (CANMessage.IDValue id: CANMessage.IDValue.values()) {
@@ -49,7 +50,7 @@ public class InMotionAdapter extends BaseAdapter {
                     if (result.isValid()) {
                         needSlowData = false;
                     }
-                    return result.parseSlowInfoMessage();
+                    return result.parseSlowInfoMessage(this);
                 case PinCode:
                     passwordSent = Integer.MAX_VALUE;
                     break;
@@ -243,12 +244,16 @@ public class InMotionAdapter extends BaseAdapter {
         }
 
         public static Model findByBytes(byte[] data) {
+            return findByBytes(data, 0, data.length);
+        }
+
+        static Model findByBytes(byte[] data, int offset, int length) {
             StringBuilder stringBuffer = new StringBuilder();
-            if (data.length >= 108) {
-                if (data[107] > (byte) 0) {
-                    stringBuffer.append(data[107]);
+            if (length >= 108) {
+                if (data[offset + 107] > (byte) 0) {
+                    stringBuffer.append(data[offset + 107]);
                 }
-                stringBuffer.append(data[104]);
+                stringBuffer.append(data[offset + 104]);
             }
 
             return Model.findById(stringBuffer.toString());
@@ -281,58 +286,46 @@ public class InMotionAdapter extends BaseAdapter {
         }
     }
 
-    private static Model model = Model.UNKNOWN;
+    private Model model = Model.UNKNOWN;
     InMotionUnpacker unpacker = new InMotionUnpacker();
+    private final CANMessage received = new CANMessage();
+    private final RequestPoller.Request liveRequest = new RequestPoller.Request(CANMessage.FAST_DATA_FRAME,
+            RequestPoller.Kind.Live, CANMessage.IDValue.GetFastInfo.getValue());
+    private byte[] passwordFrame;
 
     private void setModel(Model value){
         model = value;
     }
 
     public void startKeepAliveTimer(String password) {
-        TimerTask timerTask = new TimerTask() {
-            @Override
-            public void run() {
-                if (updateStep == 0) {
-                    if (passwordSent < 6) {
-                        if (WheelData.getInstance().bluetoothCmd(InMotionAdapter.CANMessage.getPassword(password).writeBuffer())) {
-                            Timber.i("Sent password message");
-                            passwordSent++;
-                        } else {
-                            updateStep = 5;
-                        }
-
-                    } else if (model == UNKNOWN | needSlowData) {
-                        if (WheelData.getInstance().bluetoothCmd(InMotionAdapter.CANMessage.getSlowData().writeBuffer())) {
-                            Timber.i("Sent infos message");
-                        } else {
-                            updateStep = 5;
-                        }
-
-                    } else if (settingCommandReady) {
-                        if (WheelData.getInstance().bluetoothCmd(settingCommand)) {
-                            needSlowData = true;
-                            settingCommandReady = false;
-                            Timber.i("Sent command message");
-                        } else {
-                            updateStep = 5; // after +1 and %10 = 0
-                        }
-                    } else {
-                        if (!WheelData.getInstance().bluetoothCmd(CANMessage.standardMessage().writeBuffer())) {
-                            Timber.i("Unable to send keep-alive message");
-                            updateStep = 5;
-                        } else {
-                            Timber.i("Sent keep-alive message");
-                        }
-                    }
+        if (poller != null) {
+            poller.stop();
+        }
+        passwordFrame = CANMessage.getPassword(password).writeBuffer();
+        poller = new RequestPoller(this::nextRequest, 25, 250);
+        poller.start(200);
+    }
 
-                }
-                updateStep++;
-                updateStep %= 10;
-                Timber.i("Step: %d", updateStep);
-            }
-        };
-        keepAliveTimer = new Timer();
-        keepAliveTimer.scheduleAtFixedRate(timerTask, 200, 25);
+    private RequestPoller.Request nextRequest(boolean queryAllowed) {
+        if (passwordSent < 6) {
+            return new RequestPoller.Request(passwordFrame,
+                    RequestPoller.Kind.Command, CANMessage.IDValue.PinCode.getValue(), () -> {
+                Timber.i("Sent password message");
+                passwordSent++;
+            });
+        } else if (model == UNKNOWN || (needSlowData && queryAllowed)) {
+            return new RequestPoller.Request(CANMessage.SLOW_DATA_FRAME,
+                    model == UNKNOWN ? RequestPoller.Kind.Command : RequestPoller.Kind.Query,
+                    CANMessage.IDValue.GetSlowInfo.getValue(), () -> Timber.i("Sent infos message"));
+        } else if (settingCommandReady) {
+            return new RequestPoller.Request(settingCommand, RequestPoller.Kind.Command,
+                    RequestPoller.ANY_RESPONSE, () -> {
+                needSlowData = true;
+                settingCommandReady = false;
+                Timber.i("Sent command message");
+            });
+        }
+        return liveRequest;
     }
 
     @Override
@@ -743,135 +736,141 @@ public class InMotionAdapter extends BaseAdapter {
         int ch = 0;
         int format = CanFormat.StandardFormat.getValue();
         int type = CanFrame.DataFrame.getValue();
+        // the extended data is ex_data[ex, ex + exLength), for a received message
+        // it is the buffer of the unpacker and only valid until the next frame
         byte[] ex_data;
-
-        CANMessage(byte[] bArr) {
-            if (bArr.length < 16) return;
-            id = (((bArr[3] * 256) + bArr[2]) * 256 + bArr[1]) * 256 + bArr[0];
-            data = Arrays.copyOfRange(bArr, 4, 12);
-            len = bArr[12];
-            ch = bArr[13];
-            format = bArr[14] == 0 ? CanFormat.StandardFormat.getValue() : CanFormat.ExtendedFormat.getValue();
-            type = bArr[15] == 0 ? CanFrame.DataFrame.getValue() : CanFrame.RemoteFrame.getValue();
+        int ex = 0;
+        int exLength = 0;
+
+        // 2 header + 16 message + 1 check + 2 footer
+        private static final int FRAME_SIZE = 21;
+        private static final byte[] encodeBuffer = new byte[2 * FRAME_SIZE];
+
+        static final byte[] FAST_DATA_FRAME = getFastData().writeBuffer();
+        static final byte[] SLOW_DATA_FRAME = getSlowData().writeBuffer();
+
+        /**
+         * Reads the unescaped message {@code buffer[from, to)} without check and footer,
+         * the extended data is not copied.
+         */
+        private void read(byte[] buffer, int from, int to) {
+            ex_data = null;
+            ex = 0;
+            exLength = 0;
+            if (to - from < 16) {
+                id = IDValue.NoOp.getValue();
+                return;
+            }
+            id = (((buffer[from + 3] * 256) + buffer[from + 2]) * 256 + buffer[from + 1]) * 256 + buffer[from];
+            System.arraycopy(buffer, from + 4, data, 0, 8);
+            len = buffer[from + 12];
+            ch = buffer[from + 13];
+            format = buffer[from + 14] == 0 ? CanFormat.StandardFormat.getValue() : CanFormat.ExtendedFormat.getValue();
+            type = buffer[from + 15] == 0 ? CanFrame.DataFrame.getValue() : CanFrame.RemoteFrame.getValue();
 
             if (len == (byte) 0xFE) {
                 int ldata = MathsUtil.intFromBytesLE(data, 0);
 
-                if (ldata == bArr.length - 16) {
-                    ex_data = Arrays.copyOfRange(bArr, 16, 16 + ldata);
+                if (ldata == to - from - 16) {
+                    ex_data = buffer;
+                    ex = from + 16;
+                    exLength = ldata;
                 }
             }
-
         }
 
         public boolean isValid() {
             return ex_data != null;
         }
 
-        private CANMessage() {
+        CANMessage() {
         }
 
         public byte[] writeBuffer() {
-
-            byte[] canBuffer = getBytes();
-            byte check = computeCheck(canBuffer);
-
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            out.write(0xAA);
-            out.write(0xAA);
-
-            try {
-                out.write(escape(canBuffer));
-            } catch (IOException e) {
-                e.printStackTrace();
+            int capacity = 2 * (FRAME_SIZE + (len == (byte) 0xFE ? exLength : 0));
+            if (capacity > encodeBuffer.length) {
+                byte[] out = new byte[capacity];
+                return Arrays.copyOf(out, write(out));
+            }
+            synchronized (encodeBuffer) {
+                return Arrays.copyOf(encodeBuffer, write(encodeBuffer));
             }
-            out.write(check);
-            out.write(0x55);
-            out.write(0x55);
-
-            return out.toByteArray();
         }
 
-        private byte[] getBytes() {
-
-            ByteArrayOutputStream buff = new ByteArrayOutputStream();
-
-            int b3 = id / (256 * 256 * 256);
-            int b2 = (id - b3 * 256 * 256 * 256) / (256 * 256);
-
-            int b1 = (id - b3 * 256 * 256 * 256 - b2 * 256 * 256) / 256;
-            int b0 = id % 256;
-
-            buff.write(b0);
-            buff.write(b1);
-            buff.write(b2);
-            buff.write(b3);
-
-            try {
-                buff.write(data);
-                buff.write(len);
-                buff.write(ch);
-            } catch (IOException e) {
-                e.printStackTrace();
+        /**
+         * Encodes the frame with escaping and check into {@code out}, returns the size.
+         */
+        private int write(byte[] out) {
+            out[0] = (byte) 0xAA;
+            out[1] = (byte) 0xAA;
+            int pos = 2;
+            int check = 0;
+            for (int i = 0; i < 4; i++) {
+                byte c = (byte) (id >> (i * 8));
+                check += c;
+                pos = writeEscaped(out, pos, c);
+            }
+            for (byte c : data) {
+                check += c;
+                pos = writeEscaped(out, pos, c);
+            }
+            byte[] tail = {(byte) len, (byte) ch,
+                    (byte) (format == CanFormat.StandardFormat.getValue() ? 0 : 1),
+                    (byte) (type == CanFrame.DataFrame.getValue() ? 0 : 1)};
+            for (byte c : tail) {
+                check += c;
+                pos = writeEscaped(out, pos, c);
             }
-
-            buff.write(format == CanFormat.StandardFormat.getValue() ? 0 : 1);
-            buff.write(type == CanFrame.DataFrame.getValue() ? 0 : 1);
-
             if (len == (byte) 0xFE) {
-                try {
-                    buff.write(ex_data);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                // only the view, ex_data of a received message is the whole unpacker buffer
+                for (int i = ex; i < ex + exLength; i++) {
+                    check += ex_data[i];
+                    pos = writeEscaped(out, pos, ex_data[i]);
                 }
             }
-            return buff.toByteArray();
+            out[pos++] = (byte) check;
+            out[pos++] = 0x55;
+            out[pos++] = 0x55;
+            return pos;
         }
 
-        public void clearData() {
-            data = new byte[data.length];
+        private static int writeEscaped(byte[] out, int pos, byte c) {
+            if (c == (byte) 0xAA || c == (byte) 0x55 || c == (byte) 0xA5) {
+                out[pos++] = (byte) 0xA5;
+            }
+            out[pos++] = c;
+            return pos;
         }
 
-        private static byte computeCheck(byte[] buffer) {
-
-            int check = 0;
-            for (byte c : buffer) {
-                check = (check + c) & 0xFF;
-            }
-            return (byte) check;
+        public void clearData() {
+            data = new byte[data.length];
         }
 
-        static CANMessage verify(byte[] buffer) {
+        /**
+         * Checks the unescaped frame {@code buffer[0, size)} of the unpacker and reads it into {@code message}.
+         */
+        static CANMessage verify(byte[] buffer, int size, CANMessage message) {
 
-            if (buffer[0] != (byte) 0xAA || buffer[1] != (byte) 0xAA || buffer[buffer.length - 1] != (byte) 0x55 || buffer[buffer.length - 2] != (byte) 0x55) {
+            if (size < 5 || buffer[0] != (byte) 0xAA || buffer[1] != (byte) 0xAA || buffer[size - 1] != (byte) 0x55 || buffer[size - 2] != (byte) 0x55) {
+                reportRejectedFrame(LinkDiagnostics.Reject.Header);
                 return null;  // Header and tail not correct
             }
-            Timber.i("Before escape %s", StringUtil.toHexString(buffer));
-            int len = buffer.length - 3;
-            byte[] dataBuffer = Arrays.copyOfRange(buffer, 2, len);
-
-            Timber.i("After escape %s", StringUtil.toHexString(dataBuffer));
-            byte check = CANMessage.computeCheck(dataBuffer);
+            int len = size - 3;
+            int check = 0;
+            for (int i = 2; i < len; i++) {
+                check = (check + buffer[i]) & 0xFF;
+            }
 
             byte bufferCheck = buffer[len];
-            if (check == bufferCheck) {
+            if ((byte) check == bufferCheck) {
                 Timber.i("Check OK");
             } else {
-                Timber.i("Check FALSE, calc: %02X, packet: %02X", check, bufferCheck);
+                Timber.i("Check FALSE, calc: %02X, packet: %02X", (byte) check, bufferCheck);
+                reportRejectedFrame(LinkDiagnostics.Reject.Checksum);
+                return null;
             }
-            return (check == bufferCheck) ? new CANMessage(dataBuffer) : null;
-
-        }
-
-        private byte[] escape(byte[] buffer) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            for (byte c : buffer) {
-                if (c == (byte) 0xAA || c == (byte) 0x55 || c == (byte) 0xA5) {
-                    out.write(0xA5);
-                }
-                out.write(c);
-            }
-            return out.toByteArray();
+            message.read(buffer, 2, len);
+            return message;
         }
 
         public static CANMessage standardMessage() {
@@ -1097,15 +1096,15 @@ public class InMotionAdapter extends BaseAdapter {
         }
 
         boolean parseFastInfoMessage(Model model) {
-            if (!isValid()) return false;
-            double angle = (double) (MathsUtil.intFromBytesLE(ex_data, 0)) / 65536.0;
-            double roll = (double) (MathsUtil.intFromBytesLE(ex_data, 72)) / 90.0;
-            double speed = ((double) (MathsUtil.intFromBytesLE(ex_data, 12)) + (double) (MathsUtil.intFromBytesLE(ex_data, 16))) / (model.getSpeedCalculationFactor() * 2.0);
+            if (!isValid() || exLength < 76) return false;
+            double angle = (double) (MathsUtil.intFromBytesLE(ex_data, ex + 0)) / 65536.0;
+            double roll = (double) (MathsUtil.intFromBytesLE(ex_data, ex + 72)) / 90.0;
+            double speed = ((double) (MathsUtil.intFromBytesLE(ex_data, ex + 12)) + (double) (MathsUtil.intFromBytesLE(ex_data, ex + 16))) / (model.getSpeedCalculationFactor() * 2.0);
             speed = Math.abs(speed);
-            int voltage = MathsUtil.intFromBytesLE(ex_data, 24);
-            int current = (int)MathsUtil.signedIntFromBytesLE(ex_data, 20);
-            int temperature = ex_data[32];
-            int temperature2 = ex_data[34];
+            int voltage = MathsUtil.intFromBytesLE(ex_data, ex + 24);
+            int current = (int)MathsUtil.signedIntFromBytesLE(ex_data, ex + 20);
+            int temperature = ex_data[ex + 32];
+            int temperature2 = ex_data[ex + 34];
             int batt = batteryFromVoltage(voltage, model);
             long totalDistance;
             long distance;
@@ -1113,20 +1112,20 @@ public class InMotionAdapter extends BaseAdapter {
                     model == V8 || model == Glide3 || model == V10 || model == V10F ||
                     model == V10S || model == V10SF || model == V10T || model == V10FT ||
                     model == V8F || model == V8S) {
-                totalDistance = (MathsUtil.intFromBytesLE(ex_data, 44)); ///// V10F 48 byte - trip distance
+                totalDistance = (MathsUtil.intFromBytesLE(ex_data, ex + 44)); ///// V10F 48 byte - trip distance
             } else if (model == R0) {
-                totalDistance = (MathsUtil.longFromBytesLE(ex_data, 44));
+                totalDistance = (MathsUtil.longFromBytesLE(ex_data, ex + 44));
 
             } else if (model == L6) {
-                totalDistance = (MathsUtil.longFromBytesLE(ex_data, 44)) * 100;
+                totalDistance = (MathsUtil.longFromBytesLE(ex_data, ex + 44)) * 100;
 
             } else {
-                totalDistance = Math.round((MathsUtil.longFromBytesLE(ex_data, 44)) / 5.711016379455429E7d);
+                totalDistance = Math.round((MathsUtil.longFromBytesLE(ex_data, ex + 44)) / 5.711016379455429E7d);
             }
-            distance = (MathsUtil.intFromBytesLE(ex_data, 48));
+            distance = (MathsUtil.intFromBytesLE(ex_data, ex + 48));
 
             String workMode;
-            int workModeInt = MathsUtil.intFromBytesLE(ex_data, 60);
+            int workModeInt = MathsUtil.intFromBytesLE(ex_data, ex + 60);
             if (model == V8F || model == V8S || model == V10 || model == V10F || model == V10FT ||
                     model == V10S || model == V10SF || model == V10T) {
                 roll = 0;
@@ -1194,42 +1193,42 @@ public class InMotionAdapter extends BaseAdapter {
         }
 
 
-        boolean parseSlowInfoMessage() {
-            if (!isValid()) return false;
-            Model lmodel = Model.findByBytes(ex_data);  // CarType is just model.rawValue
+        boolean parseSlowInfoMessage(InMotionAdapter adapter) {
+            if (!isValid() || exLength < 81) return false;
+            Model lmodel = Model.findByBytes(ex_data, ex, exLength);  // CarType is just model.rawValue
             if (lmodel == UNKNOWN) lmodel = V8;
-            int v0 = ex_data[27] & 0xFF;
-            int v1 = ex_data[26] & 0xFF;
-            int v2 = ((ex_data[25] & 0xFF) * 256) | (ex_data[24] & 0xFF);
+            int v0 = ex_data[ex + 27] & 0xFF;
+            int v1 = ex_data[ex + 26] & 0xFF;
+            int v2 = ((ex_data[ex + 25] & 0xFF) * 256) | (ex_data[ex + 24] & 0xFF);
             String version = String.format(Locale.ENGLISH, "%d.%d.%d", v0, v1, v2);
             StringBuilder serialNumber = new StringBuilder();
             int maxspeed;
             int speakervolume = 0;
-            boolean light = ex_data[80] == 1;
+            boolean light = ex_data[ex + 80] == 1;
             boolean led = false;
             boolean handlebutton = false;
             boolean rideMode = false;
             int pedalHardness = 100;
-            int pedals = (int) (Math.round((MathsUtil.intFromBytesLE(ex_data, 56)) / 6553.6));
-            maxspeed = (((ex_data[61] & 0xFF) * 256) | (ex_data[60] & 0xFF)) / 1000;
-            if (ex_data.length > 126) {
-                speakervolume = (((ex_data[126] & 0xFF) * 256) | (ex_data[125] & 0xFF)) / 100;
+            int pedals = (int) (Math.round((MathsUtil.intFromBytesLE(ex_data, ex + 56)) / 6553.6));
+            maxspeed = (((ex_data[ex + 61] & 0xFF) * 256) | (ex_data[ex + 60] & 0xFF)) / 1000;
+            if (exLength > 126) {
+                speakervolume = (((ex_data[ex + 126] & 0xFF) * 256) | (ex_data[ex + 125] & 0xFF)) / 100;
             }
-            if (ex_data.length > 130) {
-                led = ex_data[130] == 1;
+            if (exLength > 130) {
+                led = ex_data[ex + 130] == 1;
             }
-            if (ex_data.length > 129) {
-                handlebutton = ex_data[129] != 1;
+            if (exLength > 129) {
+                handlebutton = ex_data[ex + 129] != 1;
             }
-            if (ex_data.length > 132) {
-                rideMode = ex_data[132] == 1;
+            if (exLength > 132) {
+                rideMode = ex_data[ex + 132] == 1;
             }
-            if (ex_data.length > 124) {
-                pedalHardness = (ex_data[124]-28) & 0xFF; // 0x80 = 128 = 100% -maximum, 0x20 = 32 - minimum
+            if (exLength > 124) {
+                pedalHardness = (ex_data[ex + 124]-28) & 0xFF; // 0x80 = 128 = 100% -maximum, 0x20 = 32 - minimum
             }
 
             for (int j = 0; j < 8; j++) {
-                serialNumber.append(String.format("%02X", ex_data[7 - j]));
+                serialNumber.append(String.format("%02X", ex_data[ex + 7 - j]));
             }
 
             WheelData wd = WheelData.getInstance();
@@ -1237,15 +1236,17 @@ public class InMotionAdapter extends BaseAdapter {
             wd.setModel(getModelString(lmodel));
             wd.setVersion(version);
 
-            WheelLog.AppConfig.setLightEnabled(light);
-            WheelLog.AppConfig.setLedEnabled(led);
-            WheelLog.AppConfig.setHandleButtonDisabled(handlebutton);
-            WheelLog.AppConfig.setWheelMaxSpeed(maxspeed);
-            WheelLog.AppConfig.setSpeakerVolume(speakervolume);
-            WheelLog.AppConfig.setPedalsAdjustment(pedals);
-            WheelLog.AppConfig.setRideMode(rideMode);
-            WheelLog.AppConfig.setPedalSensivity(pedalHardness);
-            getInstance().setModel(lmodel);
+            if (wd.isStoringSettings()) {
+                WheelLog.AppConfig.setLightEnabled(light);
+                WheelLog.AppConfig.setLedEnabled(led);
+                WheelLog.AppConfig.setHandleButtonDisabled(handlebutton);
+                WheelLog.AppConfig.setWheelMaxSpeed(maxspeed);
+                WheelLog.AppConfig.setSpeakerVolume(speakervolume);
+                WheelLog.AppConfig.setPedalsAdjustment(pedals);
+                WheelLog.AppConfig.setRideMode(rideMode);
+                WheelLog.AppConfig.setPedalSensivity(pedalHardness);
+            }
+            adapter.setModel(lmodel);
             return false;
         }
 
@@ -1261,7 +1262,9 @@ public class InMotionAdapter extends BaseAdapter {
             done
         }
 
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // extended packets are up to 255 + 21 bytes, longer ones are garbage
+        final byte[] buffer = new byte[512];
+        int size = 0;
         int oldc = 0;
         // there are two types of packets, basic and extended, if it is extended packet,
         // then len field should be 0xFE, and len of extended data should be in first data byte
@@ -1272,32 +1275,31 @@ public class InMotionAdapter extends BaseAdapter {
         UnpackerState state = UnpackerState.unknown;
 
         byte[] getBuffer() {
-            return buffer.toByteArray();
+            return Arrays.copyOf(buffer, size);
         }
 
         boolean addChar(int c) {
             if (c != (byte) 0xA5 || oldc == (byte) 0xA5) {
                 if (state == UnpackerState.collecting) {
-                    buffer.write(c);
-                    int sz = buffer.size();
+                    buffer[size++] = (byte) c;
+                    int sz = size;
                     if (sz == 7) len_ex = c & 0xFF;
                     else if (sz == 15) len_p = c & 0xFF;
-                    if ((sz > len_ex+21) && (len_p == 0xFE)) {
+                    if (((sz > len_ex+21) && (len_p == 0xFE)) || sz == buffer.length) {
+                        reportRejectedFrame(LinkDiagnostics.Reject.Length);
                         reset(); // longer than expected
                         return false;
                     }
                     if ((c == (byte) 0x55 && oldc == (byte) 0x55) && ((sz == len_ex+21) || (len_p != 0xFE))) { // 18 header + 1 crc + 2 footer
                         state = UnpackerState.done;
-                        updateStep = 0;
                         oldc = 0;
-                        Timber.i("Step reset");
                         return true;
                     }
                 } else {
                     if (c == (byte) 0xAA && oldc == (byte) 0xAA) {
-                        buffer = new ByteArrayOutputStream();
-                        buffer.write(0xAA);
-                        buffer.write(0xAA);
+                        buffer[0] = (byte) 0xAA;
+                        buffer[1] = (byte) 0xAA;
+                        size = 2;
                         state = UnpackerState.collecting;
                     }
                 }
@@ -1308,7 +1310,7 @@ public class InMotionAdapter extends BaseAdapter {
         }
 
         void reset(){
-            buffer = new ByteArrayOutputStream();
+            size = 0;
             oldc = 0;
             len_p = 0;
             len_ex = 0;
@@ -1321,31 +1323,23 @@ public class InMotionAdapter extends BaseAdapter {
         return 20;
     }
 
-    public static synchronized InMotionAdapter getInstance() {
-        if (INSTANCE == null) {
-            Timber.i("New instance");
-            INSTANCE = new InMotionAdapter();
-        } else {
-            Timber.i("Get instance");
-        }
-        return INSTANCE;
+    public static InMotionAdapter getInstance() {
+        return WheelData.adapterOf(InMotionAdapter.class, InMotionAdapter::new);
     }
 
     public static synchronized void newInstance() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
+        InMotionAdapter previous = WheelData.replaceAdapterOf(InMotionAdapter.class, new InMotionAdapter());
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("New instance");
-        INSTANCE = new InMotionAdapter();
     }
 
     public static synchronized void stopTimer() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
+        InMotionAdapter previous = WheelData.replaceAdapterOf(InMotionAdapter.class, null);
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("Kill instance, stop timer");
-        INSTANCE = null;
     }
 }
@@ -3,73 +3,69 @@ package com.cooper.wheellog.utils;
 import android.content.Context;
 import android.content.Intent;
 
+import com.cooper.wheellog.LinkDiagnostics;
 import com.cooper.wheellog.WheelData;
 import com.cooper.wheellog.WheelLog;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
 import timber.log.Timber;
 
 public class InmotionAdapterV2 extends BaseAdapter {
-    private static InmotionAdapterV2 INSTANCE;
-    private Timer keepAliveTimer;
+    private RequestPoller poller;
     private boolean settingCommandReady = false;
     private boolean requestSettings = false;
     private boolean turningOff = false;
-    private static int updateStep = 0;
-    private static int stateCon = 0;
-    private static int lightSwitchCounter = 0;
+    private int stateCon = 0;
+    private int lightSwitchCounter = 0;
     private byte[] settingCommand;
-    private static Model mModel = Model.UNKNOWN;
-    private static int protoVer = 0;
+    private Model mModel = Model.UNKNOWN;
+    private int protoVer = 0;
     InmotionUnpackerV2 unpacker = new InmotionUnpackerV2();
+    private final Message received = new Message();
+    // the requests of the keep-alive never change, they are encoded once
+    private final RequestPoller.Request carTypeRequest = request(Message.getCarType(),
+            RequestPoller.Kind.Command, () -> Timber.i("Sent car type message"));
+    private final RequestPoller.Request serialNumberRequest = request(Message.getSerialNumber(),
+            RequestPoller.Kind.Command, () -> Timber.i("Sent s/n message"));
+    private final RequestPoller.Request versionsRequest = request(Message.getVersions(),
+            RequestPoller.Kind.Command, () -> {
+        stateCon += 1;
+        Timber.i("Sent versions message");
+    });
+    private final RequestPoller.Request settingsRequest = request(Message.getCurrentSettings(),
+            RequestPoller.Kind.Command, () -> {
+        stateCon += 1;
+        Timber.i("Sent unknown data message");
+    });
+    private final RequestPoller.Request uselessDataRequest = request(Message.getUselessData(),
+            RequestPoller.Kind.Command, () -> {
+        Timber.i("Sent useless data message");
+        stateCon += 1;
+    });
+    private final RequestPoller.Request statisticsRequest = request(Message.getStatistics(),
+            RequestPoller.Kind.Query, () -> Timber.i("Sent statistics data message"));
+    private final RequestPoller.Request liveRequest = request(Message.getRealTimeData(),
+            RequestPoller.Kind.Live, null);
 
     @Override
     public boolean decode(byte[] data) {
         for (byte c : data) {
             if (unpacker.addChar(c)) {
-                Message result = Message.verify(unpacker.getBuffer());
+                Message result = Message.verify(unpacker.buffer, unpacker.size, received);
 
                 if (result != null) {
+                    reportFrame();
                     Timber.i("Get new data, command: %02X", result.command);
-                    if (result.flags == Message.Flag.Initial.getValue()) {
-                        if (result.command == Message.Command.MainInfo.getValue()) {
-                            return result.parseMainData();
-                        } else if ((result.command == Message.Command.Diagnistic.getValue()) && turningOff) {
-                            settingCommand = InmotionAdapterV2.Message.wheelOffSecondStage().writeBuffer();
-                            turningOff = false;
-                            settingCommandReady = true;
-                            return false;
-                        }
+                    if (poller != null) {
+                        poller.onResponse(result.command);
+                    }
+                    FrameHandler[] handlers = FRAME_HANDLERS[result.flags & 0xFF];
+                    FrameHandler handler = handlers != null ? handlers[result.command] : null;
+                    if (handler != null) {
+                        return handler.handle(this, result);
                     } else if (result.flags == Message.Flag.Default.getValue()) {
-                        if (result.command == Message.Command.Settings.getValue()) {
-                            requestSettings = false;
-                            if (getInstance().getModel() == Model.V12) {
-                                return false;
-                            } else {
-                                return result.parseSettings();
-                            }
-                        } else if (result.command == Message.Command.Diagnistic.getValue()) {
-                            return result.parseDiagnostic();
-                        } else if (result.command == Message.Command.BatteryRealTimeInfo.getValue()) {
-                            return result.parseBatteryRealTimeInfo();
-                        } else if (result.command == Message.Command.TotalStats.getValue()) {
-                            return result.parseTotalStats();
-                        } else if (result.command == Message.Command.RealTimeInfo.getValue()) {
-                            if (getInstance().getModel() == Model.V12) {
-                                return result.parseRealTimeInfoV12(mContext);
-                            } else if (protoVer < 2) {
-                                return result.parseRealTimeInfoV11(mContext);
-                            } else {
-                                return result.parseRealTimeInfoV11_1_4(mContext);
-                            }
-                        } else {
-                            Timber.i("Get unknown command: %02X", result.command);
-                        }
+                        Timber.i("Get unknown command: %02X", result.command);
                     }
                 }
             }
@@ -77,6 +73,57 @@ public class InmotionAdapterV2 extends BaseAdapter {
         return false;
     }
 
+    interface FrameHandler {
+        boolean handle(InmotionAdapterV2 adapter, Message msg);
+    }
+
+    // handlers by flags and command of the frame
+    private static final FrameHandler[][] FRAME_HANDLERS = new FrameHandler[256][];
+    // handlers of the main info answers by their first data byte
+    private static final FrameHandler[] MAIN_INFO_HANDLERS = new FrameHandler[256];
+
+    private static void addHandler(Message.Flag flags, Message.Command command, FrameHandler handler) {
+        if (FRAME_HANDLERS[flags.getValue()] == null) {
+            FRAME_HANDLERS[flags.getValue()] = new FrameHandler[256];
+        }
+        FRAME_HANDLERS[flags.getValue()][command.getValue()] = handler;
+    }
+
+    static {
+        addHandler(Message.Flag.Initial, Message.Command.MainInfo, (adapter, msg) -> msg.parseMainData(adapter));
+        addHandler(Message.Flag.Initial, Message.Command.Diagnistic, (adapter, msg) -> {
+            if (adapter.turningOff) {
+                adapter.settingCommand = Message.wheelOffSecondStage().writeBuffer();
+                adapter.turningOff = false;
+                adapter.settingCommandReady = true;
+            }
+            return false;
+        });
+        addHandler(Message.Flag.Default, Message.Command.Settings, (adapter, msg) -> {
+            adapter.requestSettings = false;
+            if (adapter.mModel == Model.V12) {
+                return false;
+            }
+            return msg.parseSettings();
+        });
+        addHandler(Message.Flag.Default, Message.Command.Diagnistic, (adapter, msg) -> msg.parseDiagnostic());
+        addHandler(Message.Flag.Default, Message.Command.BatteryRealTimeInfo, (adapter, msg) -> msg.parseBatteryRealTimeInfo());
+        addHandler(Message.Flag.Default, Message.Command.TotalStats, (adapter, msg) -> msg.parseTotalStats());
+        addHandler(Message.Flag.Default, Message.Command.RealTimeInfo, (adapter, msg) -> {
+            if (adapter.mModel == Model.V12) {
+                return msg.parseRealTimeInfoV12(adapter.mContext, adapter);
+            } else if (adapter.protoVer < 2) {
+                return msg.parseRealTimeInfoV11(adapter.mContext, adapter);
+            } else {
+                return msg.parseRealTimeInfoV11_1_4(adapter.mContext, adapter);
+            }
+        });
+
+        MAIN_INFO_HANDLERS[0x01] = (adapter, msg) -> msg.parseCarType(adapter);
+        MAIN_INFO_HANDLERS[0x02] = (adapter, msg) -> msg.parseSerialNumber(adapter);
+        MAIN_INFO_HANDLERS[0x06] = (adapter, msg) -> msg.parseVersions(adapter);
+    }
+
 
     public enum Model {
         V11(6, "Inmotion V11"),
@@ -130,82 +177,44 @@ public class InmotionAdapterV2 extends BaseAdapter {
     }
 
     public static InmotionAdapterV2 getInstance() {
-        if (INSTANCE == null) {
-            Timber.i("New instance");
-            INSTANCE = new InmotionAdapterV2();
-        }
-        Timber.i("Get instance");
-        return INSTANCE;
-
+        return WheelData.adapterOf(InmotionAdapterV2.class, InmotionAdapterV2::new);
     }
 
-	public void startKeepAliveTimer() {
-        updateStep = 0;
+    public void startKeepAliveTimer() {
         stateCon = 0;
-        TimerTask timerTask = new TimerTask() {
-            @Override
-            public void run() {
-                if (updateStep == 0) {
-                    if (stateCon == 0) {
-                        if (WheelData.getInstance().bluetoothCmd(Message.getCarType().writeBuffer())) {
-                            Timber.i("Sent car type message");
-                        } else updateStep = 35;
-
-                    } else if (stateCon == 1) {
-                        if (WheelData.getInstance().bluetoothCmd(Message.getSerialNumber().writeBuffer())) {
-                            Timber.i("Sent s/n message");
-                        } else updateStep = 35;
-
-                    } else if (stateCon == 2) {
-                        if (WheelData.getInstance().bluetoothCmd(Message.getVersions().writeBuffer())) {
-                            stateCon += 1;
-                            Timber.i("Sent versions message");
-                        } else updateStep = 35;
-
-                    } else if (settingCommandReady) {
-    					if (WheelData.getInstance().bluetoothCmd(settingCommand)) {
-                            settingCommandReady = false;
-                            requestSettings = true;
-                            Timber.i("Sent command message");
-                        } else updateStep = 35; // after +1 and %10 = 0
-    				} else if (stateCon == 3 | requestSettings) {
-                        if (WheelData.getInstance().bluetoothCmd(Message.getCurrentSettings().writeBuffer())) {
-                            stateCon += 1;
-                            Timber.i("Sent unknown data message");
-                        } else updateStep = 35;
-
-                    }
-                    else if (stateCon == 4) {
-                        if (WheelData.getInstance().bluetoothCmd(Message.getUselessData().writeBuffer())) {
-                            Timber.i("Sent useless data message");
-                            stateCon += 1;
-                        } else updateStep = 35;
-
-                    }
-                    else if (stateCon == 5) {
-                        if (WheelData.getInstance().bluetoothCmd(Message.getStatistics().writeBuffer())) {
-                            Timber.i("Sent statistics data message");
-                            stateCon += 1;
-                        } else updateStep = 35;
-
-                    }
-                    else  {
-                        if (WheelData.getInstance().bluetoothCmd(InmotionAdapterV2.Message.getRealTimeData().writeBuffer())) {
-                            Timber.i("Sent realtime data message");
-                            stateCon = 5;
-                        } else updateStep = 35;
-
-                    }
+        if (poller != null) {
+            poller.stop();
+        }
+        poller = new RequestPoller(this::nextRequest, 25, 250);
+        poller.start(100);
+    }
 
+    private RequestPoller.Request nextRequest(boolean queryAllowed) {
+        if (stateCon == 0) {
+            return carTypeRequest;
+        } else if (stateCon == 1) {
+            return serialNumberRequest;
+        } else if (stateCon == 2) {
+            return versionsRequest;
+        } else if (settingCommandReady) {
+            return new RequestPoller.Request(settingCommand, RequestPoller.Kind.Command,
+                    RequestPoller.ANY_RESPONSE, () -> {
+                settingCommandReady = false;
+                requestSettings = true;
+                Timber.i("Sent command message");
+            });
+        } else if (stateCon == 3 || requestSettings) {
+            return settingsRequest;
+        } else if (stateCon == 4) {
+            return uselessDataRequest;
+        } else if (queryAllowed) {
+            return statisticsRequest;
+        }
+        return liveRequest;
+    }
 
-				}
-                updateStep += 1;
-                updateStep %= 10;
-                Timber.i("Step: %d", updateStep);
-            }
-        };
-        keepAliveTimer = new Timer();
-        keepAliveTimer.scheduleAtFixedRate(timerTask, 100, 25);
+    private static RequestPoller.Request request(Message message, RequestPoller.Kind kind, Runnable onSent) {
+        return new RequestPoller.Request(message.writeBuffer(), kind, message.command, onSent);
     }
 
     @Override
@@ -376,115 +385,147 @@ public class InmotionAdapterV2 extends BaseAdapter {
         int flags = Flag.NoOp.getValue();
         int len = 0;
         int command = 0;
+        // the data is data[offset, offset + dataLength), for a received message
+        // it is the buffer of the unpacker and only valid until the next frame
         byte[] data;
+        int offset = 0;
+        int dataLength = 0;
+
+        Message() {
 
-        Message(byte[] bArr) {
-            if (bArr.length < 5) return;
-            flags = bArr[2];
-            len = bArr[3];
-            command = bArr[4] & 0x7F;
-            if (len > 1) {
-                data = Arrays.copyOfRange(bArr, 5, len+4);
-            }
         }
 
-        private Message() {
+        void setData(byte[] data) {
+            this.data = data;
+            offset = 0;
+            dataLength = data.length;
+        }
 
+        /**
+         * Reads the unescaped frame {@code buffer[0, size)} without check, the data is not copied.
+         */
+        private void read(byte[] buffer, int size) {
+            data = buffer;
+            offset = 5;
+            dataLength = 0;
+            if (size < 5) {
+                flags = Flag.NoOp.getValue();
+                len = 0;
+                command = 0;
+                return;
+            }
+            flags = buffer[2];
+            len = buffer[3] & 0xFF;
+            command = buffer[4] & 0x7F;
+            dataLength = Math.max(len - 1, 0);
         }
 
-        boolean parseMainData(){
+        boolean parseMainData(InmotionAdapterV2 adapter) {
             Timber.i("Parse main data");
+            WheelData.getInstance().resetRideTime();
+            FrameHandler handler = dataLength > 0 ? MAIN_INFO_HANDLERS[data[offset] & 0xFF] : null;
+            return handler != null && handler.handle(adapter, this);
+        }
+
+        boolean parseCarType(InmotionAdapterV2 adapter) {
+            if (dataLength < 7) return false;
             WheelData wd = WheelData.getInstance();
-            wd.resetRideTime();
-            if ((data[0] == (byte) 0x01) && len >= 6) {
-                stateCon += 1;
-                Timber.i("Parse car type");
-                // 020601010100 -v11
-                // 020701010100 -v12
-                int mainSeries = data[1]; //02
-                int series = data[2];    // 06
-                int type = data[3];      // 01
-                int batch = data[4];     // 02
-                int feature = data[5];   // 01
-                int reverse = data[6];   // 00
-                getInstance().setModel(Model.findById(series));
-                wd.setModel(mModel.getName());
-                wd.setVersion(String.format(Locale.ENGLISH,"-")); // need to find how to parse
-            } else if ((data[0] == (byte) 0x02) && len >= 17) {
-                stateCon += 1;
-                Timber.i("Parse serial num");
-                String serialNumber;
-                serialNumber = new String(data, 1, 16);
-
-                wd.setSerial(serialNumber);
-            } else if ((data[0] == (byte) 0x06) && len >= 10) {
-                Timber.i("Parse versions");
-                protoVer = 0;
-                int DriverBoard3 = MathsUtil.shortFromBytesLE(data, 2);
-                int DriverBoard2 = data[4];
-                int DriverBoard1 = data[5];
-                String DriverBoard = String.format(Locale.US, "%d.%d.%d",DriverBoard1, DriverBoard2, DriverBoard3);
-                int smth13 = MathsUtil.shortFromBytesLE(data, 6);
-                int smth12 = data[8];
-                int smth11 = data[9];
-                String smth1 = String.format(Locale.US, "%d.%d.%d",smth11, smth12, smth13);
-
-                int MainBoard3 = MathsUtil.shortFromBytesLE(data, 11);
-                int MainBoard2 = data[13];
-                int MainBoard1 = data[14];
-                String MainBoard = String.format(Locale.US, "%d.%d.%d",MainBoard1, MainBoard2, MainBoard3);
-
-                int smth23 = MathsUtil.shortFromBytesLE(data, 16);
-                int smth22 = data[18];
-                int smth21 = data[19];
-                String smth2 = String.format(Locale.US, "%d.%d.%d",smth21, smth22, smth23);
-
-                int Ble3 = MathsUtil.shortFromBytesLE(data, 20);
-                int Ble2 = data[22];
-                int Ble1 = data[23];
-                String Ble = String.format(Locale.US, "%d.%d.%d",Ble1, Ble2, Ble3);
-
-                int smth33 = MathsUtil.shortFromBytesLE(data, 16);
-                int smth32 = data[18];
-                int smth31 = data[19];
-                String smth3 = String.format(Locale.US, "%d.%d.%d",smth31, smth32, smth33);
-
-                String vers = String.format(Locale.US, "Main:%s Drv:%s BLE:%s",MainBoard, DriverBoard, Ble);
-                wd.setVersion(vers);
-                if (mModel == Model.V11) {
-                    if ((MainBoard1 < 2) && (MainBoard2 < 4)) { // main board ver before 1.4
-                        protoVer = 1;
-                    } else protoVer = 2; // main board 1.4+
-                }
+            adapter.stateCon += 1;
+            Timber.i("Parse car type");
+            // 020601010100 -v11
+            // 020701010100 -v12
+            int mainSeries = data[offset + 1]; //02
+            int series = data[offset + 2];    // 06
+            int type = data[offset + 3];      // 01
+            int batch = data[offset + 4];     // 02
+            int feature = data[offset + 5];   // 01
+            int reverse = data[offset + 6];   // 00
+            adapter.setModel(Model.findById(series));
+            wd.setModel(adapter.mModel.getName());
+            wd.setVersion(String.format(Locale.ENGLISH,"-")); // need to find how to parse
+            return false;
+        }
 
+        boolean parseSerialNumber(InmotionAdapterV2 adapter) {
+            if (dataLength < 17) return false;
+            WheelData wd = WheelData.getInstance();
+            adapter.stateCon += 1;
+            Timber.i("Parse serial num");
+            String serialNumber;
+            serialNumber = new String(data, offset + 1, 16);
+
+            wd.setSerial(serialNumber);
+            return false;
+        }
 
+        boolean parseVersions(InmotionAdapterV2 adapter) {
+            if (dataLength < 24) return false;
+            WheelData wd = WheelData.getInstance();
+            Timber.i("Parse versions");
+            adapter.protoVer = 0;
+            int DriverBoard3 = MathsUtil.shortFromBytesLE(data, offset + 2);
+            int DriverBoard2 = data[offset + 4];
+            int DriverBoard1 = data[offset + 5];
+            String DriverBoard = String.format(Locale.US, "%d.%d.%d",DriverBoard1, DriverBoard2, DriverBoard3);
+            int smth13 = MathsUtil.shortFromBytesLE(data, offset + 6);
+            int smth12 = data[offset + 8];
+            int smth11 = data[offset + 9];
+            String smth1 = String.format(Locale.US, "%d.%d.%d",smth11, smth12, smth13);
+
+            int MainBoard3 = MathsUtil.shortFromBytesLE(data, offset + 11);
+            int MainBoard2 = data[offset + 13];
+            int MainBoard1 = data[offset + 14];
+            String MainBoard = String.format(Locale.US, "%d.%d.%d",MainBoard1, MainBoard2, MainBoard3);
+
+            int smth23 = MathsUtil.shortFromBytesLE(data, offset + 16);
+            int smth22 = data[offset + 18];
+            int smth21 = data[offset + 19];
+            String smth2 = String.format(Locale.US, "%d.%d.%d",smth21, smth22, smth23);
+
+            int Ble3 = MathsUtil.shortFromBytesLE(data, offset + 20);
+            int Ble2 = data[offset + 22];
+            int Ble1 = data[offset + 23];
+            String Ble = String.format(Locale.US, "%d.%d.%d",Ble1, Ble2, Ble3);
+
+            int smth33 = MathsUtil.shortFromBytesLE(data, offset + 16);
+            int smth32 = data[offset + 18];
+            int smth31 = data[offset + 19];
+            String smth3 = String.format(Locale.US, "%d.%d.%d",smth31, smth32, smth33);
+
+            String vers = String.format(Locale.US, "Main:%s Drv:%s BLE:%s",MainBoard, DriverBoard, Ble);
+            wd.setVersion(vers);
+            if (adapter.mModel == Model.V11) {
+                if ((MainBoard1 < 2) && (MainBoard2 < 4)) { // main board ver before 1.4
+                    adapter.protoVer = 1;
+                } else adapter.protoVer = 2; // main board 1.4+
             }
             return false;
         }
 
         boolean parseBatteryRealTimeInfo(){
-            int bat1Voltage = MathsUtil.shortFromBytesLE(data, 0);
-            int bat1Temp = data[4];
-            int bat1ValidStatus = data[5] & 1;
-            int bat1Enabled = (data[5] >> 1) & 1;
-            int bat1WorkStatus1 = data[6] & 1;
-            int bat1WorkStatus2 = (data[6] >> 1) & 1;
-            int bat2Voltage = MathsUtil.shortFromBytesLE(data, 8);
-            int bat2Temp = data[12];
-            int bat2ValidStatus = data[13] & 1;
-            int bat2Enabled = (data[13] >> 1) & 1;
-            int bat2WorkStatus1 = data[14] & 1;
-            int bat2WorkStatus2 = (data[14] >> 1) & 1;
-            int chargeVoltage = MathsUtil.shortFromBytesLE(data, 16);
-            int chargeCurrent = MathsUtil.shortFromBytesLE(data, 18);
+            if (dataLength < 20) return false;
+            int bat1Voltage = MathsUtil.shortFromBytesLE(data, offset);
+            int bat1Temp = data[offset + 4];
+            int bat1ValidStatus = data[offset + 5] & 1;
+            int bat1Enabled = (data[offset + 5] >> 1) & 1;
+            int bat1WorkStatus1 = data[offset + 6] & 1;
+            int bat1WorkStatus2 = (data[offset + 6] >> 1) & 1;
+            int bat2Voltage = MathsUtil.shortFromBytesLE(data, offset + 8);
+            int bat2Temp = data[offset + 12];
+            int bat2ValidStatus = data[offset + 13] & 1;
+            int bat2Enabled = (data[offset + 13] >> 1) & 1;
+            int bat2WorkStatus1 = data[offset + 14] & 1;
+            int bat2WorkStatus2 = (data[offset + 14] >> 1) & 1;
+            int chargeVoltage = MathsUtil.shortFromBytesLE(data, offset + 16);
+            int chargeCurrent = MathsUtil.shortFromBytesLE(data, offset + 18);
             return false;
         }
         
         boolean parseDiagnostic(){
             boolean ok = true;
-            if (data.length > 7)
-                for (byte c : data) {
-                    if (c != 0) {
+            if (dataLength > 7)
+                for (int i = offset; i < offset + dataLength; i++) {
+                    if (data[i] != 0) {
                         ok = false;
                         break;
                     }
@@ -493,67 +534,71 @@ public class InmotionAdapterV2 extends BaseAdapter {
         }
 
         boolean parseSettings(){
+            if (dataLength < 25) return false;
             Timber.i("Parse settings data");
             int i = 1;
-            int mSpeedLim = MathsUtil.shortFromBytesLE(data, i);
-            int mPitchAngleZero = MathsUtil.signedShortFromBytesLE(data, i+2);
-            int mDriveMode = data[i+4] & 0xF;
-            int mRideMode = data[i+4] >> 4;
-            int mComfSens = data[i + 5];
-            int mClassSens = data[i + 6];
-            int mVolume = data[i + 7];
-            int mAudioId = MathsUtil.intFromBytesLE(data, i+8);
-            int mStandByTime = MathsUtil.shortFromBytesLE(data, i+12);
-            int mDecorLightMode = data[i + 14];
-            int mAutoLightLowThr = data[i + 15];
-            int mAutoLightHighThr = data[i + 16];
-            int mLightBr = data[i + 17];
-            int mAudioState = data[i + 20] & 3;
-            int mDecorState = (data[i + 20]>>2) & 3;
-            int mLiftedState = (data[i + 20] >> 4) & 3;
-            int mAutoLightState = (data[i + 20] >> 6) & 3;
-            int mAutoLightBrState = data[i + 21] & 3;
-            int mLockState = (data[i + 21]>>2) & 3;
-            int mTranspMode = (data[i + 21] >> 4) & 3;
-            int mLoadDetect = (data[i + 21] >> 6) & 3;
-            int mNoLoadDetect = data[i + 22] & 3;
-            int mLowBat = (data[i + 22]>>2) & 3;
-            int mFanQuiet = (data[i + 22] >> 4) & 3;
-            int mFan = (data[i + 22] >> 6) & 3; // to test
-            int mSome1 = data[i + 23] & 3; // to test
-            int mSome2 = (data[i + 23]>>2) & 3; // to test
-            int mSome3 = (data[i + 23] >> 4) & 3; // to test
-            int mSome4 = (data[i + 23] >> 6) & 3; // to test
-            WheelLog.AppConfig.setPedalsAdjustment(mPitchAngleZero/10);
-            WheelLog.AppConfig.setWheelMaxSpeed(mSpeedLim/100);
-            WheelLog.AppConfig.setFancierMode(mRideMode != 0);
-            WheelLog.AppConfig.setRideMode(mDriveMode != 0);
-            WheelLog.AppConfig.setPedalSensivity(mComfSens);
-            WheelLog.AppConfig.setSpeakerVolume(mVolume);
-            WheelLog.AppConfig.setLightBrightness(mLightBr);
-            WheelLog.AppConfig.setSpeakerMute(mAudioState == 0);
-            WheelLog.AppConfig.setDrlEnabled(mDecorState != 0);
-            WheelLog.AppConfig.setHandleButtonDisabled(mLiftedState == 0);
-            WheelLog.AppConfig.setLockMode(mLockState != 0);
-            WheelLog.AppConfig.setTransportMode(mTranspMode != 0);
-            WheelLog.AppConfig.setFanQuietEnabled(mFanQuiet != 0);
-            WheelLog.AppConfig.setGoHomeMode(mLowBat != 0);
+            int mSpeedLim = MathsUtil.shortFromBytesLE(data, offset + i);
+            int mPitchAngleZero = MathsUtil.signedShortFromBytesLE(data, offset + i+2);
+            int mDriveMode = data[offset + i+4] & 0xF;
+            int mRideMode = data[offset + i+4] >> 4;
+            int mComfSens = data[offset + i + 5];
+            int mClassSens = data[offset + i + 6];
+            int mVolume = data[offset + i + 7];
+            int mAudioId = MathsUtil.intFromBytesLE(data, offset + i+8);
+            int mStandByTime = MathsUtil.shortFromBytesLE(data, offset + i+12);
+            int mDecorLightMode = data[offset + i + 14];
+            int mAutoLightLowThr = data[offset + i + 15];
+            int mAutoLightHighThr = data[offset + i + 16];
+            int mLightBr = data[offset + i + 17];
+            int mAudioState = data[offset + i + 20] & 3;
+            int mDecorState = (data[offset + i + 20]>>2) & 3;
+            int mLiftedState = (data[offset + i + 20] >> 4) & 3;
+            int mAutoLightState = (data[offset + i + 20] >> 6) & 3;
+            int mAutoLightBrState = data[offset + i + 21] & 3;
+            int mLockState = (data[offset + i + 21]>>2) & 3;
+            int mTranspMode = (data[offset + i + 21] >> 4) & 3;
+            int mLoadDetect = (data[offset + i + 21] >> 6) & 3;
+            int mNoLoadDetect = data[offset + i + 22] & 3;
+            int mLowBat = (data[offset + i + 22]>>2) & 3;
+            int mFanQuiet = (data[offset + i + 22] >> 4) & 3;
+            int mFan = (data[offset + i + 22] >> 6) & 3; // to test
+            int mSome1 = data[offset + i + 23] & 3; // to test
+            int mSome2 = (data[offset + i + 23]>>2) & 3; // to test
+            int mSome3 = (data[offset + i + 23] >> 4) & 3; // to test
+            int mSome4 = (data[offset + i + 23] >> 6) & 3; // to test
+            if (WheelData.getInstance().isStoringSettings()) {
+                WheelLog.AppConfig.setPedalsAdjustment(mPitchAngleZero/10);
+                WheelLog.AppConfig.setWheelMaxSpeed(mSpeedLim/100);
+                WheelLog.AppConfig.setFancierMode(mRideMode != 0);
+                WheelLog.AppConfig.setRideMode(mDriveMode != 0);
+                WheelLog.AppConfig.setPedalSensivity(mComfSens);
+                WheelLog.AppConfig.setSpeakerVolume(mVolume);
+                WheelLog.AppConfig.setLightBrightness(mLightBr);
+                WheelLog.AppConfig.setSpeakerMute(mAudioState == 0);
+                WheelLog.AppConfig.setDrlEnabled(mDecorState != 0);
+                WheelLog.AppConfig.setHandleButtonDisabled(mLiftedState == 0);
+                WheelLog.AppConfig.setLockMode(mLockState != 0);
+                WheelLog.AppConfig.setTransportMode(mTranspMode != 0);
+                WheelLog.AppConfig.setFanQuietEnabled(mFanQuiet != 0);
+                WheelLog.AppConfig.setGoHomeMode(mLowBat != 0);
+            }
             return false;
         }
 
         boolean parseTotalStats() {
+            if (dataLength < 20) return false;
             Timber.i("Parse total stats data");
             WheelData wd = WheelData.getInstance();
-            long mTotal = MathsUtil.intFromBytesLE(data, 0);
-            long mTotal2 = MathsUtil.getInt4(data, 0);
-            long mDissipation = MathsUtil.intFromBytesLE(data, 4);
-            long mRecovery = MathsUtil.intFromBytesLE(data, 8);
-            long mRideTime = MathsUtil.intFromBytesLE(data, 12);
+            long mTotal = MathsUtil.intFromBytesLE(data, offset);
+            long mTotal2 = MathsUtil.getInt4(data, offset);
+            long mDissipation = MathsUtil.intFromBytesLE(data, offset + 4);
+            long mRecovery = MathsUtil.intFromBytesLE(data, offset + 8);
+            long mRideTime = MathsUtil.intFromBytesLE(data, offset + 12);
             int sec = (int)(mRideTime % 60);
             int min = (int)((mRideTime / 60) % 60);
             int hour = (int) (mRideTime/ 3600);
             String mRideTimeStr = String.format("%d:%02d:%02d",hour,min,sec);
-            long mPowerOnTime = MathsUtil.intFromBytesLE(data, 16);
+            long mPowerOnTime = MathsUtil.intFromBytesLE(data, offset + 16);
             sec = (int)(mPowerOnTime % 60);
             min = (int)((mPowerOnTime / 60) % 60);
             hour = (int) (mPowerOnTime/ 3600);
@@ -564,83 +609,85 @@ public class InmotionAdapterV2 extends BaseAdapter {
 
         String getError(int i){
             String inmoError = "";
-            if (((data[i])&0x01) == 1) inmoError += "err_iPhaseSensorState ";
-            if (((data[i]>>1) & 0x01) == 1) inmoError += "err_iBusSensorState ";
-            if (((data[i] >> 2) & 0x01)==1) inmoError += "err_motorHallState ";
-            if (((data[i] >> 3) & 0x01)==1) inmoError += "err_batteryState ";
-            if (((data[i] >> 4) & 0x01)==1) inmoError += "err_imuSensorState ";
-            if (((data[i] >> 5) & 0x01)==1) inmoError += "err_controllerCom1State ";
-            if (((data[i] >> 6) & 0x01)==1) inmoError += "err_controllerCom2State ";
-            if (((data[i] >> 7) & 0x01)==1) inmoError += "err_bleCom1State ";
-            if (((data[i+1]) & 0x01)==1) inmoError += "err_bleCom2State ";
-            if (((data[i+1] >> 1) & 0x01)==1) inmoError += "err_mosTempSensorState ";
-            if (((data[i+1] >> 2) & 0x01)==1) inmoError += "err_motorTempSensorState ";
-            if (((data[i+1] >> 3) & 0x01)==1) inmoError += "err_batteryTempSensorState ";
-            if (((data[i+1] >> 4) & 0x01)==1) inmoError += "err_boardTempSensorState ";
-            if (((data[i+1] >> 5) & 0x01)==1) inmoError += "err_fanState ";
-            if (((data[i+1] >> 6) & 0x01)==1) inmoError += "err_rtcState ";
-            if (((data[i+1] >> 7) & 0x01)==1) inmoError += "err_externalRomState ";
-            if (((data[i+2]) & 0x01)==1) inmoError += "err_vBusSensorState ";
-            if (((data[i+2] >> 1) & 0x01)==1) inmoError += "err_vBatterySensorState ";
-            if (((data[i+2] >> 2) & 0x01)==1) inmoError += "err_canNotPowerOffState";
-            if (((data[i+2] >> 3) & 0x01)==1) inmoError += "err_notKnown1 ";
-            if (((data[i+3]) & 0x01)==1) inmoError += "err_underVoltageState ";
-            if (((data[i+3] >> 1) & 0x01)==1) inmoError += "err_overVoltageState ";
-            if (((data[i+3] >> 2) & 0x03)>0) inmoError += "err_overBusCurrentState-" + String.valueOf((data[43] >> 2) & 0x03) + " ";
-            if (((data[i+3] >> 4) & 0x03)>0) inmoError += "err_lowBatteryState-"+ String.valueOf((data[43] >> 4) & 0x03) + " ";
-            if (((data[i+3] >> 6) & 0x01)==1) inmoError += "err_mosTempState ";
-            if (((data[i+3] >> 7) & 0x01)==1) inmoError += "err_motorTempState ";
-            if (((data[i+4]) & 0x01)==1) inmoError += "err_batteryTempState ";
-            if (((data[i+4] >> 1) & 0x01)==1) inmoError += "err_overBoardTempState ";
-            if (((data[i+4] >> 2) & 0x01)==1) inmoError += "err_overSpeedState ";
-            if (((data[i+4] >> 3) & 0x01)==1) inmoError += "err_outputSaturationState ";
-            if (((data[i+4] >> 4) & 0x01)==1) inmoError += "err_motorSpinState ";
-            if (((data[i+4] >> 5) & 0x01)==1) inmoError += "err_motorBlockState ";
-            if (((data[i+4] >> 6) & 0x01)==1) inmoError += "err_postureState ";
-            if (((data[i+4] >> 7) & 0x01)==1) inmoError += "err_riskBehaviourState ";
-            if (((data[i+5]) & 0x01)==1) inmoError += "err_motorNoLoadState ";
-            if (((data[i+5] >> 1) & 0x01)==1) inmoError += "err_noSelfTestState ";
-            if (((data[i+5] >> 2) & 0x01)==1) inmoError += "err_compatibilityState ";
-            if (((data[i+5] >> 3) & 0x01)==1) inmoError += "err_powerKeyLongPressState ";
-            if (((data[i+5] >> 4) & 0x01)==1) inmoError += "err_forceDfuState ";
-            if (((data[i+5] >> 5) & 0x01)==1) inmoError += "err_deviceLockState ";
-            if (((data[i+5] >> 6) & 0x01)==1) inmoError += "err_cpuOverTempState ";
-            if (((data[i+5] >> 7) & 0x01)==1) inmoError += "err_imuOverTempState ";
-            if (((data[i+6] >> 1) & 0x01)==1) inmoError += "err_hwCompatibilityState ";
-            if (((data[i+6] >> 2) & 0x01)==1) inmoError += "err_fanLowSpeedState ";
-            if (((data[i+6] >> 3) & 0x01)==1) inmoError += "err_notKnown2 ";
+            if (((data[offset + i])&0x01) == 1) inmoError += "err_iPhaseSensorState ";
+            if (((data[offset + i]>>1) & 0x01) == 1) inmoError += "err_iBusSensorState ";
+            if (((data[offset + i] >> 2) & 0x01)==1) inmoError += "err_motorHallState ";
+            if (((data[offset + i] >> 3) & 0x01)==1) inmoError += "err_batteryState ";
+            if (((data[offset + i] >> 4) & 0x01)==1) inmoError += "err_imuSensorState ";
+            if (((data[offset + i] >> 5) & 0x01)==1) inmoError += "err_controllerCom1State ";
+            if (((data[offset + i] >> 6) & 0x01)==1) inmoError += "err_controllerCom2State ";
+            if (((data[offset + i] >> 7) & 0x01)==1) inmoError += "err_bleCom1State ";
+            if (((data[offset + i+1]) & 0x01)==1) inmoError += "err_bleCom2State ";
+            if (((data[offset + i+1] >> 1) & 0x01)==1) inmoError += "err_mosTempSensorState ";
+            if (((data[offset + i+1] >> 2) & 0x01)==1) inmoError += "err_motorTempSensorState ";
+            if (((data[offset + i+1] >> 3) & 0x01)==1) inmoError += "err_batteryTempSensorState ";
+            if (((data[offset + i+1] >> 4) & 0x01)==1) inmoError += "err_boardTempSensorState ";
+            if (((data[offset + i+1] >> 5) & 0x01)==1) inmoError += "err_fanState ";
+            if (((data[offset + i+1] >> 6) & 0x01)==1) inmoError += "err_rtcState ";
+            if (((data[offset + i+1] >> 7) & 0x01)==1) inmoError += "err_externalRomState ";
+            if (((data[offset + i+2]) & 0x01)==1) inmoError += "err_vBusSensorState ";
+            if (((data[offset + i+2] >> 1) & 0x01)==1) inmoError += "err_vBatterySensorState ";
+            if (((data[offset + i+2] >> 2) & 0x01)==1) inmoError += "err_canNotPowerOffState";
+            if (((data[offset + i+2] >> 3) & 0x01)==1) inmoError += "err_notKnown1 ";
+            if (((data[offset + i+3]) & 0x01)==1) inmoError += "err_underVoltageState ";
+            if (((data[offset + i+3] >> 1) & 0x01)==1) inmoError += "err_overVoltageState ";
+            if (((data[offset + i+3] >> 2) & 0x03)>0) inmoError += "err_overBusCurrentState-" + String.valueOf((data[offset + 43] >> 2) & 0x03) + " ";
+            if (((data[offset + i+3] >> 4) & 0x03)>0) inmoError += "err_lowBatteryState-"+ String.valueOf((data[offset + 43] >> 4) & 0x03) + " ";
+            if (((data[offset + i+3] >> 6) & 0x01)==1) inmoError += "err_mosTempState ";
+            if (((data[offset + i+3] >> 7) & 0x01)==1) inmoError += "err_motorTempState ";
+            if (((data[offset + i+4]) & 0x01)==1) inmoError += "err_batteryTempState ";
+            if (((data[offset + i+4] >> 1) & 0x01)==1) inmoError += "err_overBoardTempState ";
+            if (((data[offset + i+4] >> 2) & 0x01)==1) inmoError += "err_overSpeedState ";
+            if (((data[offset + i+4] >> 3) & 0x01)==1) inmoError += "err_outputSaturationState ";
+            if (((data[offset + i+4] >> 4) & 0x01)==1) inmoError += "err_motorSpinState ";
+            if (((data[offset + i+4] >> 5) & 0x01)==1) inmoError += "err_motorBlockState ";
+            if (((data[offset + i+4] >> 6) & 0x01)==1) inmoError += "err_postureState ";
+            if (((data[offset + i+4] >> 7) & 0x01)==1) inmoError += "err_riskBehaviourState ";
+            if (((data[offset + i+5]) & 0x01)==1) inmoError += "err_motorNoLoadState ";
+            if (((data[offset + i+5] >> 1) & 0x01)==1) inmoError += "err_noSelfTestState ";
+            if (((data[offset + i+5] >> 2) & 0x01)==1) inmoError += "err_compatibilityState ";
+            if (((data[offset + i+5] >> 3) & 0x01)==1) inmoError += "err_powerKeyLongPressState ";
+            if (((data[offset + i+5] >> 4) & 0x01)==1) inmoError += "err_forceDfuState ";
+            if (((data[offset + i+5] >> 5) & 0x01)==1) inmoError += "err_deviceLockState ";
+            if (((data[offset + i+5] >> 6) & 0x01)==1) inmoError += "err_cpuOverTempState ";
+            if (((data[offset + i+5] >> 7) & 0x01)==1) inmoError += "err_imuOverTempState ";
+            if (((data[offset + i+6] >> 1) & 0x01)==1) inmoError += "err_hwCompatibilityState ";
+            if (((data[offset + i+6] >> 2) & 0x01)==1) inmoError += "err_fanLowSpeedState ";
+            if (((data[offset + i+6] >> 3) & 0x01)==1) inmoError += "err_notKnown2 ";
 
             return inmoError;
         }
 
-        boolean parseRealTimeInfoV11(Context sContext) {
+        boolean parseRealTimeInfoV11(Context sContext, InmotionAdapterV2 adapter) {
+            int i = (dataLength < 49) ? 36 : 38; // state data
+            if (dataLength < i + 12) return false;
             Timber.i("Parse V11 realtime stats data");
             WheelData wd = WheelData.getInstance();
-            int mVoltage = MathsUtil.shortFromBytesLE(data, 0);
-            int mCurrent = MathsUtil.signedShortFromBytesLE(data, 2);
-            int mSpeed = MathsUtil.signedShortFromBytesLE(data, 4);
-            int mTorque = MathsUtil.signedShortFromBytesLE(data, 6);
-            int mBatPower = MathsUtil.signedShortFromBytesLE(data, 8);
-            int mMotPower = MathsUtil.signedShortFromBytesLE(data, 10);
-            int mMileage = MathsUtil.shortFromBytesLE(data, 12) * 10;
-            int mRemainMileage = MathsUtil.shortFromBytesLE(data, 14) * 10;
-            int mBatLevel = data[16] & 0x7f;
-            int mBatMode = (data[16] >> 7)  & 0x1;
-            int mMosTemp = (data[17] & 0xff) + 80 - 256;
-            int mMotTemp = (data[18] & 0xff) + 80 - 256;
-            int mBatTemp = (data[19] & 0xff) + 80 - 256;
-            int mBoardTemp = (data[20] & 0xff) + 80 - 256;
-            int mLampTemp = (data[21] & 0xff) + 80 - 256;
-            int mPitchAngle = MathsUtil.signedShortFromBytesLE(data, 22);
-            int mPitchAimAngle = MathsUtil.signedShortFromBytesLE(data, 24);
-            int mRollAngle = MathsUtil.signedShortFromBytesLE(data, 26);
-            int mDynamicSpeedLimit = MathsUtil.shortFromBytesLE(data, 28);
-            int mDynamicCurrentLimit = MathsUtil.shortFromBytesLE(data, 30);
-            int mBrightness = data[32]& 0xff;
-            int mLightBrightness = data[33]& 0xff;
-            int mCpuTemp = (data[34] & 0xff) + 80 - 256;
-            int mImuTemp = (data[35] & 0xff) + 80 - 256;
-            int mPwm = MathsUtil.shortFromBytesLE(data, 36);
+            int mVoltage = MathsUtil.shortFromBytesLE(data, offset);
+            int mCurrent = MathsUtil.signedShortFromBytesLE(data, offset + 2);
+            int mSpeed = MathsUtil.signedShortFromBytesLE(data, offset + 4);
+            int mTorque = MathsUtil.signedShortFromBytesLE(data, offset + 6);
+            int mBatPower = MathsUtil.signedShortFromBytesLE(data, offset + 8);
+            int mMotPower = MathsUtil.signedShortFromBytesLE(data, offset + 10);
+            int mMileage = MathsUtil.shortFromBytesLE(data, offset + 12) * 10;
+            int mRemainMileage = MathsUtil.shortFromBytesLE(data, offset + 14) * 10;
+            int mBatLevel = data[offset + 16] & 0x7f;
+            int mBatMode = (data[offset + 16] >> 7)  & 0x1;
+            int mMosTemp = (data[offset + 17] & 0xff) + 80 - 256;
+            int mMotTemp = (data[offset + 18] & 0xff) + 80 - 256;
+            int mBatTemp = (data[offset + 19] & 0xff) + 80 - 256;
+            int mBoardTemp = (data[offset + 20] & 0xff) + 80 - 256;
+            int mLampTemp = (data[offset + 21] & 0xff) + 80 - 256;
+            int mPitchAngle = MathsUtil.signedShortFromBytesLE(data, offset + 22);
+            int mPitchAimAngle = MathsUtil.signedShortFromBytesLE(data, offset + 24);
+            int mRollAngle = MathsUtil.signedShortFromBytesLE(data, offset + 26);
+            int mDynamicSpeedLimit = MathsUtil.shortFromBytesLE(data, offset + 28);
+            int mDynamicCurrentLimit = MathsUtil.shortFromBytesLE(data, offset + 30);
+            int mBrightness = data[offset + 32]& 0xff;
+            int mLightBrightness = data[offset + 33]& 0xff;
+            int mCpuTemp = (data[offset + 34] & 0xff) + 80 - 256;
+            int mImuTemp = (data[offset + 35] & 0xff) + 80 - 256;
+            int mPwm = MathsUtil.shortFromBytesLE(data, offset + 36);
             wd.setVoltage(mVoltage);
             wd.setTorque((double)mTorque/100.0);
             wd.setMotorPower(mMotPower);
@@ -662,17 +709,15 @@ public class InmotionAdapterV2 extends BaseAdapter {
             wd.setPower(mBatPower * 100);
             wd.setWheelDistance(mMileage);
             //// state data
-            int i = (data.length < 49) ? 36 : 38;
-
-            int mPcMode = data[i] & 0x07; // lock, drive, shutdown, idle
-            int mMcMode = (data[i]>>3)&0x07;
-            int mMotState = (data[i]>>6)&0x01;
-            int chrgState = (data[i]>>7)&0x01;
-            int lightState = (data[i+1])&0x01;
-            int decorLiState = (data[i+1] >> 1) & 0x01;
-            int liftedState = (data[i+1]>>2)&0x01;
-            int tailLiState = (data[i+1]>>3)&0x03;
-            int fanState = (data[i+1]>>5)&0x01;
+            int mPcMode = data[offset + i] & 0x07; // lock, drive, shutdown, idle
+            int mMcMode = (data[offset + i]>>3)&0x07;
+            int mMotState = (data[offset + i]>>6)&0x01;
+            int chrgState = (data[offset + i]>>7)&0x01;
+            int lightState = (data[offset + i+1])&0x01;
+            int decorLiState = (data[offset + i+1] >> 1) & 0x01;
+            int liftedState = (data[offset + i+1]>>2)&0x01;
+            int tailLiState = (data[offset + i+1]>>3)&0x03;
+            int fanState = (data[offset + i+1]>>5)&0x01;
             String wmode = "";
             if (mMotState == 1) {wmode = wmode + "Active";}
             if (chrgState == 1) {wmode = wmode + " Charging";}
@@ -681,11 +726,11 @@ public class InmotionAdapterV2 extends BaseAdapter {
             //WheelLog.AppConfig.setFanEnabled(fanState != 0); // bad behaviour
 
             if (WheelLog.AppConfig.getLightEnabled() != (lightState == 1)) {
-                if (lightSwitchCounter > 3) {
+                if (adapter.lightSwitchCounter > 3) {
                     //WheelLog.AppConfig.setLightEnabled(lightState == 1); // bad behaviour
-                    lightSwitchCounter = 0;
-                } else lightSwitchCounter += 1;
-            } else lightSwitchCounter = 0;
+                    adapter.lightSwitchCounter = 0;
+                } else adapter.lightSwitchCounter += 1;
+            } else adapter.lightSwitchCounter = 0;
             
             //WheelLog.AppConfig.setDrlEnabled(decorLiState != 0); // too fast, bad behaviour
 
@@ -706,40 +751,41 @@ public class InmotionAdapterV2 extends BaseAdapter {
             return true;
         }
 
-        boolean parseRealTimeInfoV11_1_4(Context sContext) {
+        boolean parseRealTimeInfoV11_1_4(Context sContext, InmotionAdapterV2 adapter) {
+            if (dataLength < 68) return false;
             Timber.i("Parse V12 realtime stats data");
             WheelData wd = WheelData.getInstance();
-            int mVoltage = MathsUtil.shortFromBytesLE(data, 0);
-            int mCurrent = MathsUtil.signedShortFromBytesLE(data, 2);
-            int mSpeed = MathsUtil.signedShortFromBytesLE(data, 4);
-            int mTorque = MathsUtil.signedShortFromBytesLE(data, 6);
-            int mPwm = MathsUtil.signedShortFromBytesLE(data, 8);
-            int mBatPower = MathsUtil.signedShortFromBytesLE(data, 10);
-            int mMotPower = MathsUtil.signedShortFromBytesLE(data, 12);
-            int mXz = MathsUtil.signedShortFromBytesLE(data, 14); // always 0
-            int mPitchAngle = MathsUtil.signedShortFromBytesLE(data, 16);
-            int mPitchAimAngle = MathsUtil.signedShortFromBytesLE(data, 18);
-            int mRollAngle = MathsUtil.signedShortFromBytesLE(data, 20);
-            int mSomething1 = MathsUtil.shortFromBytesLE(data, 22);
-            int mSomething2 = MathsUtil.shortFromBytesLE(data, 24);
-            int mMileage = MathsUtil.shortFromBytesLE(data, 26) * 10;
-            int mBatLevel = MathsUtil.shortFromBytesLE(data, 28);
-            int mRemainMileage = MathsUtil.shortFromBytesLE(data, 30) * 10;
-            int mSomeThing120 = MathsUtil.shortFromBytesLE(data, 32);
-            int mDynamicSpeedLimit = MathsUtil.shortFromBytesLE(data, 34);
-            int mDynamicCurrentLimit = MathsUtil.shortFromBytesLE(data, 36);
-            int mSomething3 = MathsUtil.shortFromBytesLE(data, 38);
-            int mSomething4 = MathsUtil.shortFromBytesLE(data, 40);
-            int mMosTemp = (data[42] & 0xff) + 80 - 256;
-            int mMotTemp = (data[43] & 0xff) + 80 - 256;
-            int mBatTemp = (data[44] & 0xff) + 80 - 256; // 0
-            int mBoardTemp = (data[45] & 0xff) + 80 - 256;
-            int mCpuTemp = (data[46] & 0xff) + 80 - 256;
-            int mImuTemp = (data[47] & 0xff) + 80 - 256;
-            int mLampTemp = (data[48] & 0xff) + 80 - 256; // 0
-
-            int mBrightness = data[49]& 0xff;
-            int mLightBrightness = data[50]& 0xff;
+            int mVoltage = MathsUtil.shortFromBytesLE(data, offset);
+            int mCurrent = MathsUtil.signedShortFromBytesLE(data, offset + 2);
+            int mSpeed = MathsUtil.signedShortFromBytesLE(data, offset + 4);
+            int mTorque = MathsUtil.signedShortFromBytesLE(data, offset + 6);
+            int mPwm = MathsUtil.signedShortFromBytesLE(data, offset + 8);
+            int mBatPower = MathsUtil.signedShortFromBytesLE(data, offset + 10);
+            int mMotPower = MathsUtil.signedShortFromBytesLE(data, offset + 12);
+            int mXz = MathsUtil.signedShortFromBytesLE(data, offset + 14); // always 0
+            int mPitchAngle = MathsUtil.signedShortFromBytesLE(data, offset + 16);
+            int mPitchAimAngle = MathsUtil.signedShortFromBytesLE(data, offset + 18);
+            int mRollAngle = MathsUtil.signedShortFromBytesLE(data, offset + 20);
+            int mSomething1 = MathsUtil.shortFromBytesLE(data, offset + 22);
+            int mSomething2 = MathsUtil.shortFromBytesLE(data, offset + 24);
+            int mMileage = MathsUtil.shortFromBytesLE(data, offset + 26) * 10;
+            int mBatLevel = MathsUtil.shortFromBytesLE(data, offset + 28);
+            int mRemainMileage = MathsUtil.shortFromBytesLE(data, offset + 30) * 10;
+            int mSomeThing120 = MathsUtil.shortFromBytesLE(data, offset + 32);
+            int mDynamicSpeedLimit = MathsUtil.shortFromBytesLE(data, offset + 34);
+            int mDynamicCurrentLimit = MathsUtil.shortFromBytesLE(data, offset + 36);
+            int mSomething3 = MathsUtil.shortFromBytesLE(data, offset + 38);
+            int mSomething4 = MathsUtil.shortFromBytesLE(data, offset + 40);
+            int mMosTemp = (data[offset + 42] & 0xff) + 80 - 256;
+            int mMotTemp = (data[offset + 43] & 0xff) + 80 - 256;
+            int mBatTemp = (data[offset + 44] & 0xff) + 80 - 256; // 0
+            int mBoardTemp = (data[offset + 45] & 0xff) + 80 - 256;
+            int mCpuTemp = (data[offset + 46] & 0xff) + 80 - 256;
+            int mImuTemp = (data[offset + 47] & 0xff) + 80 - 256;
+            int mLampTemp = (data[offset + 48] & 0xff) + 80 - 256; // 0
+
+            int mBrightness = data[offset + 49]& 0xff;
+            int mLightBrightness = data[offset + 50]& 0xff;
 //            System.out.println(String.format(Locale.US,"\nVolt: %.2f, Amp: %.2f, Km/h: %.2f, N*m: %.2f, Bat Wt: %d, Mot Wt: %d, XZ: %d, PWM: %.2f, PitchAim: %.2f, Pith: %.2f, Roll: %.2f, \nTrip Km: %.2f, Rem Km: %.3f, Bat: %.2f, Something: %.2f, Lim km/h: %.2f, Lim A: %.2f, \nMos t: %d, Mot t: %d, Bat t: %d, Board t: %d, CPU t: %d, IMU t: %d, Lamp t: %d",
 //                    mVoltage/100.0, mCurrent/100.0, mSpeed/100.0, mTorque/100.0, mBatPower,mMotPower, mXz, mPwm/100.0, mPitchAimAngle/100.0, mPitchAngle/100.0,  mRollAngle/100.0, mMileage/10.0, mRemainMileage/1000.0, mBatLevel/100.0, mSomeThing180/100.0, mDynamicSpeedLimit/100.0, mDynamicCurrentLimit/100.0, mMosTemp, mMotTemp, mBatTemp, mBoardTemp, mCpuTemp, mImuTemp, mLampTemp));
             wd.setVoltage(mVoltage);
@@ -764,15 +810,15 @@ public class InmotionAdapterV2 extends BaseAdapter {
             wd.setPower(mBatPower * 100);
             wd.setWheelDistance(mMileage);
             //// state data
-            int mPcMode = data[56] & 0x07; // lock, drive, shutdown, idle
-            int mMcMode = (data[56]>>3)&0x07;
-            int mMotState = (data[56]>>6)&0x01;
-            int chrgState = (data[56]>>7)&0x01;
-            int lowLightState = (data[57])&0x01;
-            int highLightState = (data[57] >> 1) & 0x01;
-            int liftedState = (data[57]>>2)&0x01;
-            int tailLiState = (data[57]>>3)&0x03;
-            int fwUpdateState = (data[57]>>5)&0x01;
+            int mPcMode = data[offset + 56] & 0x07; // lock, drive, shutdown, idle
+            int mMcMode = (data[offset + 56]>>3)&0x07;
+            int mMotState = (data[offset + 56]>>6)&0x01;
+            int chrgState = (data[offset + 56]>>7)&0x01;
+            int lowLightState = (data[offset + 57])&0x01;
+            int highLightState = (data[offset + 57] >> 1) & 0x01;
+            int liftedState = (data[offset + 57]>>2)&0x01;
+            int tailLiState = (data[offset + 57]>>3)&0x03;
+            int fwUpdateState = (data[offset + 57]>>5)&0x01;
             String wmode = "";
             if (mMotState == 1) {wmode = wmode + "Active";}
             if (chrgState == 1) {wmode = wmode + " Charging";}
@@ -781,11 +827,11 @@ public class InmotionAdapterV2 extends BaseAdapter {
             wd.setModeStr(wmode);
 
             if (WheelLog.AppConfig.getLightEnabled() != (lowLightState == 1)) {
-                if (lightSwitchCounter > 3) {
+                if (adapter.lightSwitchCounter > 3) {
                     //WheelLog.AppConfig.setLightEnabled(lightState == 1); // bad behaviour
-                    lightSwitchCounter = 0;
-                } else lightSwitchCounter += 1;
-            } else lightSwitchCounter = 0;
+                    adapter.lightSwitchCounter = 0;
+                } else adapter.lightSwitchCounter += 1;
+            } else adapter.lightSwitchCounter = 0;
 
             //// errors data
             String inmoError = getError(61);
@@ -801,36 +847,37 @@ public class InmotionAdapterV2 extends BaseAdapter {
         }
 
 
-        boolean parseRealTimeInfoV12(Context sContext) {
+        boolean parseRealTimeInfoV12(Context sContext, InmotionAdapterV2 adapter) {
+            if (dataLength < 66) return false;
             Timber.i("Parse V12 realtime stats data");
             WheelData wd = WheelData.getInstance();
-            int mVoltage = MathsUtil.shortFromBytesLE(data, 0);
-            int mCurrent = MathsUtil.signedShortFromBytesLE(data, 2);
-            int mSpeed = MathsUtil.signedShortFromBytesLE(data, 4);
-            int mTorque = MathsUtil.signedShortFromBytesLE(data, 6);
-            int mPwm = MathsUtil.signedShortFromBytesLE(data, 8);
-            int mBatPower = MathsUtil.signedShortFromBytesLE(data, 10);
-            int mMotPower = MathsUtil.signedShortFromBytesLE(data, 12);
-            int mXz = MathsUtil.signedShortFromBytesLE(data, 14); // always 0
-            int mPitchAngle = MathsUtil.signedShortFromBytesLE(data, 16);
-            int mPitchAimAngle = MathsUtil.signedShortFromBytesLE(data, 18);
-            int mRollAngle = MathsUtil.signedShortFromBytesLE(data, 20);
-            int mMileage = MathsUtil.shortFromBytesLE(data, 22) * 10;
-            int mBatLevel = MathsUtil.shortFromBytesLE(data, 24);
-            int mRemainMileage = MathsUtil.shortFromBytesLE(data, 26) * 10;
-            int mSomeThing180 = MathsUtil.shortFromBytesLE(data, 28); // always 18000
-            int mDynamicSpeedLimit = MathsUtil.shortFromBytesLE(data, 30);
-            int mDynamicCurrentLimit = MathsUtil.shortFromBytesLE(data, 32);
-            int mMosTemp = (data[40] & 0xff) + 80 - 256;
-            int mMotTemp = (data[41] & 0xff) + 80 - 256;
-            int mBatTemp = (data[42] & 0xff) + 80 - 256; // 0
-            int mBoardTemp = (data[43] & 0xff) + 80 - 256;
-            int mCpuTemp = (data[44] & 0xff) + 80 - 256;
-            int mImuTemp = (data[45] & 0xff) + 80 - 256;
-            int mLampTemp = (data[46] & 0xff) + 80 - 256; // 0
+            int mVoltage = MathsUtil.shortFromBytesLE(data, offset);
+            int mCurrent = MathsUtil.signedShortFromBytesLE(data, offset + 2);
+            int mSpeed = MathsUtil.signedShortFromBytesLE(data, offset + 4);
+            int mTorque = MathsUtil.signedShortFromBytesLE(data, offset + 6);
+            int mPwm = MathsUtil.signedShortFromBytesLE(data, offset + 8);
+            int mBatPower = MathsUtil.signedShortFromBytesLE(data, offset + 10);
+            int mMotPower = MathsUtil.signedShortFromBytesLE(data, offset + 12);
+            int mXz = MathsUtil.signedShortFromBytesLE(data, offset + 14); // always 0
+            int mPitchAngle = MathsUtil.signedShortFromBytesLE(data, offset + 16);
+            int mPitchAimAngle = MathsUtil.signedShortFromBytesLE(data, offset + 18);
+            int mRollAngle = MathsUtil.signedShortFromBytesLE(data, offset + 20);
+            int mMileage = MathsUtil.shortFromBytesLE(data, offset + 22) * 10;
+            int mBatLevel = MathsUtil.shortFromBytesLE(data, offset + 24);
+            int mRemainMileage = MathsUtil.shortFromBytesLE(data, offset + 26) * 10;
+            int mSomeThing180 = MathsUtil.shortFromBytesLE(data, offset + 28); // always 18000
+            int mDynamicSpeedLimit = MathsUtil.shortFromBytesLE(data, offset + 30);
+            int mDynamicCurrentLimit = MathsUtil.shortFromBytesLE(data, offset + 32);
+            int mMosTemp = (data[offset + 40] & 0xff) + 80 - 256;
+            int mMotTemp = (data[offset + 41] & 0xff) + 80 - 256;
+            int mBatTemp = (data[offset + 42] & 0xff) + 80 - 256; // 0
+            int mBoardTemp = (data[offset + 43] & 0xff) + 80 - 256;
+            int mCpuTemp = (data[offset + 44] & 0xff) + 80 - 256;
+            int mImuTemp = (data[offset + 45] & 0xff) + 80 - 256;
+            int mLampTemp = (data[offset + 46] & 0xff) + 80 - 256; // 0
 // don't remove
-//            int mBrightness = data[48]& 0xff;
-//            int mLightBrightness = data[49]& 0xff;
+//            int mBrightness = data[offset + 48]& 0xff;
+//            int mLightBrightness = data[offset + 49]& 0xff;
 //            System.out.println(String.format(Locale.US,"\nVolt: %.2f, Amp: %.2f, Km/h: %.2f, N*m: %.2f, Bat Wt: %d, Mot Wt: %d, XZ: %d, PWM: %.2f, PitchAim: %.2f, Pith: %.2f, Roll: %.2f, \nTrip Km: %.2f, Rem Km: %.3f, Bat: %.2f, Something: %.2f, Lim km/h: %.2f, Lim A: %.2f, \nMos t: %d, Mot t: %d, Bat t: %d, Board t: %d, CPU t: %d, IMU t: %d, Lamp t: %d",
 //                    mVoltage/100.0, mCurrent/100.0, mSpeed/100.0, mTorque/100.0, mBatPower,mMotPower, mXz, mPwm/100.0, mPitchAimAngle/100.0, mPitchAngle/100.0,  mRollAngle/100.0, mMileage/10.0, mRemainMileage/1000.0, mBatLevel/100.0, mSomeThing180/100.0, mDynamicSpeedLimit/100.0, mDynamicCurrentLimit/100.0, mMosTemp, mMotTemp, mBatTemp, mBoardTemp, mCpuTemp, mImuTemp, mLampTemp));
             wd.setVoltage(mVoltage);
@@ -855,15 +902,15 @@ public class InmotionAdapterV2 extends BaseAdapter {
             wd.setPower(mBatPower * 100);
             wd.setWheelDistance(mMileage);
             //// state data
-            int mPcMode = data[54] & 0x07; // lock, drive, shutdown, idle
-            int mMcMode = (data[54]>>3)&0x07;
-            int mMotState = (data[54]>>6)&0x01;
-            int chrgState = (data[54]>>7)&0x01;
-            int lowLightState = (data[55])&0x01;
-            int highLightState = (data[55] >> 1) & 0x01;
-            int liftedState = (data[55]>>2)&0x01;
-            int tailLiState = (data[55]>>3)&0x03;
-            int fwUpdateState = (data[55]>>5)&0x01;
+            int mPcMode = data[offset + 54] & 0x07; // lock, drive, shutdown, idle
+            int mMcMode = (data[offset + 54]>>3)&0x07;
+            int mMotState = (data[offset + 54]>>6)&0x01;
+            int chrgState = (data[offset + 54]>>7)&0x01;
+            int lowLightState = (data[offset + 55])&0x01;
+            int highLightState = (data[offset + 55] >> 1) & 0x01;
+            int liftedState = (data[offset + 55]>>2)&0x01;
+            int tailLiState = (data[offset + 55]>>3)&0x03;
+            int fwUpdateState = (data[offset + 55]>>5)&0x01;
             String wmode = "";
             if (mMotState == 1) {wmode = wmode + "Active";}
             if (chrgState == 1) {wmode = wmode + " Charging";}
@@ -872,11 +919,11 @@ public class InmotionAdapterV2 extends BaseAdapter {
             wd.setModeStr(wmode);
 
             if (WheelLog.AppConfig.getLightEnabled() != (lowLightState == 1)) {
-                if (lightSwitchCounter > 3) {
+                if (adapter.lightSwitchCounter > 3) {
                     //WheelLog.AppConfig.setLightEnabled(lightState == 1); // bad behaviour
-                    lightSwitchCounter = 0;
-                } else lightSwitchCounter += 1;
-            } else lightSwitchCounter = 0;
+                    adapter.lightSwitchCounter = 0;
+                } else adapter.lightSwitchCounter += 1;
+            } else adapter.lightSwitchCounter = 0;
 
             //// errors data
             String inmoError = getError(59);
@@ -896,7 +943,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Initial.getValue();
             msg.command = Command.MainInfo.getValue();
-            msg.data = new byte[]{(byte)0x01};
+            msg.setData(new byte[]{(byte)0x01});
             return msg;
         }
 
@@ -904,7 +951,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.MainVersion.getValue();
-            msg.data = new byte[0];
+            msg.setData(new byte[0]);
             return msg;
         }
 
@@ -912,7 +959,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Initial.getValue();
             msg.command = Command.Diagnistic.getValue();
-            msg.data = new byte[]{(byte)0x81, (byte) 0x00};
+            msg.setData(new byte[]{(byte)0x81, (byte) 0x00});
             return msg;
         }
 
@@ -920,7 +967,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Initial.getValue();
             msg.command = Command.Diagnistic.getValue();
-            msg.data = new byte[]{(byte)0x82};
+            msg.setData(new byte[]{(byte)0x82});
             return msg;
         }
 
@@ -928,7 +975,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Initial.getValue();
             msg.command = Command.MainInfo.getValue();
-            msg.data = new byte[]{(byte)0x02};
+            msg.setData(new byte[]{(byte)0x02});
             return msg;
         }
 
@@ -936,7 +983,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Initial.getValue();
             msg.command = Command.MainInfo.getValue();
-            msg.data = new byte[]{(byte)0x06};
+            msg.setData(new byte[]{(byte)0x06});
             return msg;
         }
 
@@ -944,7 +991,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Settings.getValue();
-            msg.data = new byte[]{(byte)0x20};
+            msg.setData(new byte[]{(byte)0x20});
             return msg;
         }
 
@@ -952,7 +999,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Something1.getValue();
-            msg.data = new byte[]{(byte)0x00, (byte)0x01};
+            msg.setData(new byte[]{(byte)0x00, (byte)0x01});
             return msg;
         }
 
@@ -960,7 +1007,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.BatteryRealTimeInfo.getValue();
-            msg.data = new byte[0];
+            msg.setData(new byte[0]);
             return msg;
         }
 
@@ -968,7 +1015,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Diagnistic.getValue();
-            msg.data = new byte[0];
+            msg.setData(new byte[0]);
             return msg;
         }
 
@@ -976,7 +1023,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.TotalStats.getValue();
-            msg.data = new byte[0];
+            msg.setData(new byte[0]);
             return msg;
         }
 
@@ -984,7 +1031,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.RealTimeInfo.getValue();
-            msg.data = new byte[0];
+            msg.setData(new byte[0]);
             return msg;
         }
 
@@ -993,7 +1040,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x41, value, 0x01};
+            msg.setData(new byte[]{0x41, value, 0x01});
             return msg;
         }
 
@@ -1001,7 +1048,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x42, 0x01, 0x00, 0x01};
+            msg.setData(new byte[]{0x42, 0x01, 0x00, 0x01});
             return msg;
         }
 
@@ -1011,7 +1058,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x40, enable};
+            msg.setData(new byte[]{0x40, enable});
             return msg;
         }
 
@@ -1020,7 +1067,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x2b, value};
+            msg.setData(new byte[]{0x2b, value});
             return msg;
         }
 
@@ -1029,7 +1076,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x26, value};
+            msg.setData(new byte[]{0x26, value});
             return msg;
         }
 
@@ -1039,7 +1086,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x2d, enable};
+            msg.setData(new byte[]{0x2d, enable});
             return msg;
         }
 
@@ -1049,7 +1096,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x2e, enable};
+            msg.setData(new byte[]{0x2e, enable});
             return msg;
         }
 
@@ -1059,7 +1106,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x43, enable};
+            msg.setData(new byte[]{0x43, enable});
             return msg;
         }
 
@@ -1069,7 +1116,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x38, enable};
+            msg.setData(new byte[]{0x38, enable});
             return msg;
         }
 
@@ -1079,7 +1126,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x24, enable};
+            msg.setData(new byte[]{0x24, enable});
             return msg;
         }
 
@@ -1088,7 +1135,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x21, value[1], value[0]};
+            msg.setData(new byte[]{0x21, value[1], value[0]});
             return msg;
         }
 
@@ -1097,7 +1144,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x25, value, 0x64};
+            msg.setData(new byte[]{0x25, value, 0x64});
             return msg;
         }
 
@@ -1107,7 +1154,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x23, enable};
+            msg.setData(new byte[]{0x23, enable});
             return msg;
         }
 
@@ -1117,7 +1164,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x37, enable};
+            msg.setData(new byte[]{0x37, enable});
             return msg;
         }
 
@@ -1127,7 +1174,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x32, enable};
+            msg.setData(new byte[]{0x32, enable});
             return msg;
         }
 
@@ -1137,7 +1184,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x31, enable};
+            msg.setData(new byte[]{0x31, enable});
             return msg;
         }
 
@@ -1147,7 +1194,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x2c, enable};
+            msg.setData(new byte[]{0x2c, enable});
             return msg;
         }
 
@@ -1156,7 +1203,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
             Message msg = new Message();
             msg.flags = Flag.Default.getValue();
             msg.command = Command.Control.getValue();
-            msg.data = new byte[]{0x22, value[1], value[0]};
+            msg.setData(new byte[]{0x22, value[1], value[0]});
             return msg;
         }
 
@@ -1164,68 +1211,60 @@ public class InmotionAdapterV2 extends BaseAdapter {
 
 
         public byte[] writeBuffer() {
+            // 2 header + escaped flags, len, command and data + 1 check
+            byte[] out = new byte[2 + 2 * (3 + dataLength) + 1];
+            return Arrays.copyOf(out, write(out));
+        }
 
-            byte[] buffer = getBytes();
-            byte check = calcCheck(buffer);
-
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            out.write(0xAA);
-            out.write(0xAA);
-            try {
-                out.write(escape(buffer));
-            } catch (IOException e) {
-                e.printStackTrace();
+        /**
+         * Encodes the frame of {@code data[offset, offset + dataLength)} with escaping and check
+         * into {@code out}, returns the size.
+         */
+        private int write(byte[] out) {
+            out[0] = (byte) 0xAA;
+            out[1] = (byte) 0xAA;
+            byte[] header = {(byte) flags, (byte) (dataLength + 1), (byte) command};
+            int pos = 2;
+            int check = 0;
+            for (byte c : header) {
+                check ^= c;
+                pos = writeEscaped(out, pos, c);
+            }
+            for (int i = offset; i < offset + dataLength; i++) {
+                check ^= data[i];
+                pos = writeEscaped(out, pos, data[i]);
             }
-            out.write(check);
-            return out.toByteArray();
+            out[pos++] = (byte) check;
+            return pos;
         }
 
-        private byte[] getBytes() {
-
-            ByteArrayOutputStream buff = new ByteArrayOutputStream();
-            buff.write(flags);
-            buff.write(data.length+1);
-            buff.write(command);
-            try {
-                buff.write(data);
-            } catch (IOException e) {
-                e.printStackTrace();
+        private static int writeEscaped(byte[] out, int pos, byte c) {
+            if (c == (byte) 0xAA || c == (byte) 0xA5) {
+                out[pos++] = (byte) 0xA5;
             }
-            return buff.toByteArray();
+            out[pos++] = c;
+            return pos;
         }
 
-        private static byte calcCheck(byte[] buffer) {
-
+        /**
+         * Checks the unescaped frame {@code buffer[0, size)} of the unpacker and reads it into {@code message}.
+         */
+        static Message verify(byte[] buffer, int size, Message message) {
             int check = 0;
-            for (byte c : buffer) {
-                check = (check ^ c) & 0xFF;
+            for (int i = 0; i < size - 1; i++) {
+                check ^= buffer[i];
             }
-            return (byte) check;
-        }
 
-        static Message verify(byte[] buffer) {
-            Timber.i("Verify: %s", StringUtil.toHexString(buffer));
-            byte[] dataBuffer = Arrays.copyOfRange(buffer, 0, buffer.length - 1);
-            byte check = calcCheck(dataBuffer);
-
-            byte bufferCheck = buffer[buffer.length - 1];
-            if (check == bufferCheck) {
+            byte bufferCheck = buffer[size - 1];
+            if ((byte) check == bufferCheck) {
                 Timber.i("Check OK");
             } else {
-                Timber.i("Check FALSE, calc: %02X, packet: %02X",check, bufferCheck);
-            }
-            return (check == bufferCheck) ? new Message(dataBuffer) : null;
-        }
-
-        private byte[] escape(byte[] buffer) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            for (byte c : buffer) {
-                if (c == (byte) 0xAA || c == (byte) 0xA5) {
-                    out.write(0xA5);
-                }
-                out.write(c);
+                Timber.i("Check FALSE, calc: %02X, packet: %02X", (byte) check, bufferCheck);
+                reportRejectedFrame(LinkDiagnostics.Reject.Checksum);
+                return null;
             }
-            return out.toByteArray();
+            message.read(buffer, size - 1);
+            return message;
         }
     }
 	
@@ -1240,14 +1279,16 @@ public class InmotionAdapterV2 extends BaseAdapter {
         }
 
 
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // len is one byte, so frames are up to 255 + 5 bytes
+        final byte[] buffer = new byte[260];
+        int size = 0;
         int oldc = 0;
         int len = 0;
         int flags = 0;
         UnpackerState state = UnpackerState.unknown;
 
         byte[] getBuffer() {
-            return buffer.toByteArray();
+            return Arrays.copyOf(buffer, size);
         }
 
         boolean addChar(int c) {
@@ -1257,26 +1298,24 @@ public class InmotionAdapterV2 extends BaseAdapter {
 
                     case collecting:
 
-                        buffer.write(c);
-                        if (buffer.size() == len + 5) {
+                        buffer[size++] = (byte) c;
+                        if (size == len + 5) {
                             state = UnpackerState.done;
-                            updateStep = 0;
                             oldc = 0;
                             Timber.i("Len %d", len);
-                            Timber.i("Step reset");
                             return true;
                         }
                         break;
 
                     case lensearch:
-                        buffer.write(c);
+                        buffer[size++] = (byte) c;
                         len = c & 0xff;
                         state = UnpackerState.collecting;
                         oldc = c;
                         break;
 
                     case flagsearch:
-                        buffer.write(c);
+                        buffer[size++] = (byte) c;
                         flags = c & 0xff;
                         state = UnpackerState.lensearch;
                         oldc = c;
@@ -1284,9 +1323,9 @@ public class InmotionAdapterV2 extends BaseAdapter {
 
                     default:
                         if (c == (byte) 0xAA && oldc == (byte) 0xAA) {
-                            buffer = new ByteArrayOutputStream();
-                            buffer.write(0xAA);
-                            buffer.write(0xAA);
+                            buffer[0] = (byte) 0xAA;
+                            buffer[1] = (byte) 0xAA;
+                            size = 2;
                             state = UnpackerState.flagsearch;
                         }
                         oldc = c;
@@ -1299,7 +1338,7 @@ public class InmotionAdapterV2 extends BaseAdapter {
         }
 
         void reset() {
-            buffer = new ByteArrayOutputStream();
+            size = 0;
             oldc = 0;
             state = UnpackerState.unknown;
 
@@ -1312,21 +1351,19 @@ public class InmotionAdapterV2 extends BaseAdapter {
     }
 
     public static synchronized void newInstance() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
+        InmotionAdapterV2 previous = WheelData.replaceAdapterOf(InmotionAdapterV2.class, new InmotionAdapterV2());
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("New instance");
-        INSTANCE = new InmotionAdapterV2();
     }
 
     public static synchronized void stopTimer() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
+        InmotionAdapterV2 previous = WheelData.replaceAdapterOf(InmotionAdapterV2.class, null);
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("Kill instance, stop timer");
-        INSTANCE = null;
     }
 }
 
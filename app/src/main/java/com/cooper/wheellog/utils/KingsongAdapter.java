@@ -1,12 +1,14 @@
 package com.cooper.wheellog.utils;
+import com.cooper.wheellog.LinkDiagnostics;
 import com.cooper.wheellog.WheelData;
 import com.cooper.wheellog.WheelLog;
 
 import java.util.Locale;
 import timber.log.Timber;
 
+import static com.cooper.wheellog.utils.KingsongFrameLayout.Format.*;
+
 public class KingsongAdapter extends BaseAdapter {
-    private static KingsongAdapter INSTANCE;
 
     private int mKSAlarm1Speed = 0;
     private int mKSAlarm2Speed = 0;
@@ -26,262 +28,293 @@ public class KingsongAdapter extends BaseAdapter {
             int a1 = data[0] & 255;
             int a2 = data[1] & 255;
             if (a1 != 170 || a2 != 85) {
+                reportRejectedFrame(LinkDiagnostics.Reject.Header);
                 return false;
             }
-            if ((data[16] & 255) == 0xA9) {
-                // Live data
-                int voltage = MathsUtil.getInt2R(data, 2);
-                wd.setVoltage(voltage);
-                wd.setSpeed(MathsUtil.getInt2R(data, 4));
-                wd.setTotalDistance(MathsUtil.getInt4R(data, 6));
-                if ((wd.getModel().compareTo("KS-18L") == 0) && !m18Lkm) {
-                    wd.setTotalDistance(Math.round(wd.getTotalDistance() * KS18L_SCALER));
-                }
-                wd.setCurrent((data[10] & 0xFF) + (data[11] << 8));
+            reportFrame();
+            int type = data[16] & 255;
+            KingsongFrameLayout<KingsongAdapter>[] parts = FRAME_PARTS[type];
+            KingsongFrameLayout<KingsongAdapter> layout = parts != null ? parts[data[17] & 255] : FRAMES[type];
+            return layout != null && layout.decode(this, wd, data);
+        } else {
+            reportRejectedFrame(LinkDiagnostics.Reject.Length);
+        }
+        return false;
+    }
+
+    // layouts by the frame type in data[16]
+    @SuppressWarnings("unchecked")
+    private static final KingsongFrameLayout<KingsongAdapter>[] FRAMES = new KingsongFrameLayout[256];
+    // layouts of multi-part frames by the type and the part number in data[17]
+    @SuppressWarnings("unchecked")
+    private static final KingsongFrameLayout<KingsongAdapter>[][] FRAME_PARTS = new KingsongFrameLayout[256][];
+
+    private static KingsongFrameLayout<KingsongAdapter> addFrame(int type) {
+        KingsongFrameLayout<KingsongAdapter> layout = new KingsongFrameLayout<>();
+        FRAMES[type] = layout;
+        return layout;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static KingsongFrameLayout<KingsongAdapter> addFramePart(int type, int part) {
+        if (FRAME_PARTS[type] == null) {
+            FRAME_PARTS[type] = new KingsongFrameLayout[256];
+        }
+        KingsongFrameLayout<KingsongAdapter> layout = new KingsongFrameLayout<>();
+        FRAME_PARTS[type][part] = layout;
+        return layout;
+    }
+
+    private static SmartBms bmsOf(WheelData wd, int bmsnum) {
+        return bmsnum == 1 ? wd.getBms1() : wd.getBms2();
+    }
 
-                wd.setTemperature(MathsUtil.getInt2R(data, 12));
-                wd.setVoltageSag(voltage);
-                if ((data[15] & 255) == 224) {
-                    mMode = data[14];
-                    wd.setModeStr(String.format(Locale.US, "%d", mMode));
+    static {
+        // Live data
+        addFrame(0xA9)
+                .field(2, INT16_LE, (a, wd, v) -> wd.setVoltage((int) v))
+                .field(4, INT16_LE, (a, wd, v) -> wd.setSpeed((int) v))
+                .field(6, INT32_WORDS_LE, (a, wd, v) -> wd.setTotalDistance((long) v))
+                .field(10, INT16_LE, (a, wd, v) -> wd.setCurrent((int) v))
+                .field(12, INT16_LE, (a, wd, v) -> wd.setTemperature((int) v))
+                .then(KingsongAdapter::parseLiveData);
+        // Distance/Time/Fan Data
+        addFrame(0xB9)
+                .field(2, INT32_WORDS_LE, (a, wd, v) -> {
+                    wd.setWheelDistance((long) v);
+                    wd.updateRideTime();
+                })
+                .field(8, INT16_LE, (a, wd, v) -> wd.setTopSpeed((int) v))
+                .field(12, INT8, (a, wd, v) -> wd.setFanStatus((int) v))
+                .field(13, INT8, (a, wd, v) -> wd.setChargingStatus((int) v))
+                .field(14, INT16_LE, (a, wd, v) -> wd.setTemperature2((int) v));
+        // Name and Type data
+        addFrame(0xBB).then(KingsongAdapter::parseName);
+        // Serial Number
+        addFrame(0xB3).then(KingsongAdapter::parseSerialNumber);
+        // cpu load
+        addFrame(0xF5)
+                .field(14, INT8, (a, wd, v) -> wd.setCpuLoad((int) v))
+                .field(15, INT8, 0, 100, 1.0, (a, wd, v) -> wd.setOutput((int) v));
+        // speed limit (PWM?)
+        addFrame(0xF6)
+                .field(2, INT16_LE, 100.0, (a, wd, v) -> {
+                    a.mSpeedLimit = v;
+                    wd.setSpeedLimit(v);
+                });
+        // max speed and alerts
+        for (int type : new int[]{0xA4, 0xB5}) {
+            addFrame(type)
+                    .field(10, UINT8, (a, wd, v) -> a.mWheelMaxSpeed = (int) v)
+                    .field(8, UINT8, (a, wd, v) -> a.mKSAlarm3Speed = (int) v)
+                    .field(6, UINT8, (a, wd, v) -> a.mKSAlarm2Speed = (int) v)
+                    .field(4, UINT8, (a, wd, v) -> a.mKSAlarm1Speed = (int) v)
+                    .then(KingsongAdapter::parseAlarms);
+        }
+        // F1 - 1st BMS, F2 - 2nd BMS. F3 and F4 are also present but empty
+        for (int n = 1; n <= 2; n++) {
+            final int bmsnum = n;
+            int type = 0xF0 + bmsnum;
+            addFramePart(type, 0x00)
+                    .field(2, INT16_LE, 100.0, (a, wd, v) -> bmsOf(wd, bmsnum).setVoltage(v))
+                    .field(4, INT16_LE, 100.0, (a, wd, v) -> bmsOf(wd, bmsnum).setCurrent(v))
+                    .field(6, INT16_LE, 0, 10, 1.0, (a, wd, v) -> bmsOf(wd, bmsnum).setRemCap((int) v))
+                    .field(8, INT16_LE, 0, 10, 1.0, (a, wd, v) -> bmsOf(wd, bmsnum).setFactoryCap((int) v))
+                    .field(10, INT16_LE, (a, wd, v) -> bmsOf(wd, bmsnum).setFullCycles((int) v))
+                    .field(12, INT16_LE, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setRemPerc((int) v))
+                    .then((a, wd, data) -> a.requestBmsSerial(wd, bmsnum));
+            addFramePart(type, 0x01)
+                    .field(2, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTemp1(v))
+                    .field(4, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTemp2(v))
+                    .field(6, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTemp3(v))
+                    .field(8, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTemp4(v))
+                    .field(10, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTemp5(v))
+                    .field(12, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTemp6(v))
+                    .field(14, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTempMos(v));
+            // parts 2 to 5 hold 7 cells each, part 6 the last 2
+            for (int part = 0x02; part <= 0x06; part++) {
+                KingsongFrameLayout<KingsongAdapter> layout = addFramePart(type, part);
+                int first = (part - 0x02) * 7;
+                int count = part < 0x06 ? 7 : 2;
+                for (int i = 0; i < count; i++) {
+                    final int cell = first + i;
+                    layout.field(2 + i * 2, INT16_LE, 1000.0, (a, wd, v) -> bmsOf(wd, bmsnum).setCell(cell, v));
                 }
+            }
+            FRAME_PARTS[type][0x06]
+                    .field(10, INT16_LE, 2730, 1, 10.0, (a, wd, v) -> bmsOf(wd, bmsnum).setTempMosEnv(v))
+                    .then((a, wd, data) -> a.updateBmsCells(wd, bmsnum));
+        }
+        // e1 - 1st BMS, e2 - 2nd BMS.
+        addFrame(0xE1).then((a, wd, data) -> parseBmsSerialNumber(wd.getBms1(), data));
+        addFrame(0xE2).then((a, wd, data) -> parseBmsSerialNumber(wd.getBms2(), data));
+        // e5 - 1st BMS, e6 - 2nd BMS.
+        addFrame(0xE5).then((a, wd, data) -> parseBmsVersion(wd.getBms1(), data));
+        addFrame(0xE6).then((a, wd, data) -> parseBmsVersion(wd.getBms2(), data));
+    }
+
+    private boolean parseLiveData(WheelData wd, byte[] data) {
+        if ((wd.getModel().compareTo("KS-18L") == 0) && !m18Lkm) {
+            wd.setTotalDistance(Math.round(wd.getTotalDistance() * KS18L_SCALER));
+        }
+        int voltage = wd.getVoltage();
+        wd.setVoltageSag(voltage);
+        if ((data[15] & 255) == 224) {
+            mMode = data[14];
+            wd.setModeStr(String.format(Locale.US, "%d", mMode));
+        }
+        wd.setBatteryLevel(batteryFromVoltage(wd, voltage));
+        return true;
+    }
 
-                int battery;
-                Boolean useBetterPercents = WheelLog.AppConfig.getUseBetterPercents();
-                if (is84vWheel()) {
-                    if (useBetterPercents) {
-                        if (voltage > 8350) {
-                            battery = 100;
-                        } else if (voltage > 6800) {
-                            battery = (voltage - 6650) / 17;
-                        } else if (voltage > 6400) {
-                            battery = (voltage - 6400) / 45;
-                        } else {
-                            battery = 0;
-                        }
-                    } else {
-                        if (voltage < 6250) {
-                            battery = 0;
-                        } else if (voltage >= 8250) {
-                            battery = 100;
-                        } else {
-                            battery = (voltage - 6250) / 20;
-                        }
-                    }
-                } else if (is126vWheel()) {
-                    if (useBetterPercents) {
-                        if (voltage > 12525) {
-                            battery = 100;
-                        } else if (voltage > 10200) {
-                            battery = (int) Math.round((voltage - 9975) / 25.5);
-                        } else if (voltage > 9600) {
-                            battery = (int) Math.round((voltage - 9600) / 67.5);
-                        } else {
-                            battery = 0;
-                        }
-                    } else {
-                        if (voltage < 9375) {
-                            battery = 0;
-                        } else if (voltage >= 12375) {
-                            battery = 100;
-                        } else {
-                            battery = (voltage - 9375) / 30;
-                        }
-                    }
+    private int batteryFromVoltage(WheelData wd, int voltage) {
+        int battery;
+        Boolean useBetterPercents = WheelLog.AppConfig.getUseBetterPercents();
+        if (is84vWheel(wd)) {
+            if (useBetterPercents) {
+                if (voltage > 8350) {
+                    battery = 100;
+                } else if (voltage > 6800) {
+                    battery = (voltage - 6650) / 17;
+                } else if (voltage > 6400) {
+                    battery = (voltage - 6400) / 45;
                 } else {
-                    if (useBetterPercents) {
-                        if (voltage > 6680) {
-                            battery = 100;
-                        } else if (voltage > 5440) {
-                            battery = (int) Math.round((voltage - 5320) / 13.6);
-                        } else if (voltage > 5120) {
-                            battery = (voltage - 5120) / 36;
-                        } else {
-                            battery = 0;
-                        }
-                    } else {
-                        if (voltage < 5000) {
-                            battery = 0;
-                        } else if (voltage >= 6600) {
-                            battery = 100;
-                        } else {
-                            battery = (voltage - 5000) / 16;
-                        }
-                    }
+                    battery = 0;
                 }
-                wd.setBatteryLevel(battery);
-                return true;
-            } else if ((data[16] & 255) == 0xB9) { // Distance/Time/Fan Data
-                long distance = MathsUtil.getInt4R(data, 2);
-                wd.setWheelDistance(distance);
-                wd.updateRideTime();
-                wd.setTopSpeed(MathsUtil.getInt2R(data, 8));
-                wd.setFanStatus(data[12]);
-                wd.setChargingStatus(data[13]);
-                wd.setTemperature2(MathsUtil.getInt2R(data, 14));
-                return false;
-            } else if ((data[16] & 255) == 187) { // Name and Type data
-                int end = 0;
-                int i = 0;
-                while (i < 14 && data[i + 2] != 0) {
-                    end++;
-                    i++;
+            } else {
+                if (voltage < 6250) {
+                    battery = 0;
+                } else if (voltage >= 8250) {
+                    battery = 100;
+                } else {
+                    battery = (voltage - 6250) / 20;
                 }
-                wd.setName(new String(data, 2, end).trim());
-                wd.setModel("");
-                String[] ss = wd.getName().split("-");
-                StringBuilder model = new StringBuilder();
-                for (i = 0; i < ss.length - 1; i++) {
-                    if (i != 0) {
-                        model.append("-");
-                    }
-                    model.append(ss[i]);
+            }
+        } else if (is126vWheel(wd)) {
+            if (useBetterPercents) {
+                if (voltage > 12525) {
+                    battery = 100;
+                } else if (voltage > 10200) {
+                    battery = (int) Math.round((voltage - 9975) / 25.5);
+                } else if (voltage > 9600) {
+                    battery = (int) Math.round((voltage - 9600) / 67.5);
+                } else {
+                    battery = 0;
                 }
-                wd.setModel(model.toString());
-                try {
-                    wd.setVersion(String.format(Locale.US, "%.2f", Integer.parseInt(ss[ss.length - 1]) / 100.0));
-                } catch (Exception ignored) {
+            } else {
+                if (voltage < 9375) {
+                    battery = 0;
+                } else if (voltage >= 12375) {
+                    battery = 100;
+                } else {
+                    battery = (voltage - 9375) / 30;
                 }
-                return false;
-            } else if ((data[16] & 255) == 0xB3) { // Serial Number
-                byte[] sndata = new byte[18];
-                System.arraycopy(data, 2, sndata, 0, 14);
-                System.arraycopy(data, 17, sndata, 14, 3);
-                sndata[17] = (byte) 0;
-                wd.setSerial(new String(sndata));
-                updateKSAlarmAndSpeed();
-                return false;
-            } else if ((data[16] & 255) == 0xF5) { //cpu load
-                wd.setCpuLoad(data[14]);
-                wd.setOutput(data[15]*100);
-                return false;
-            } else if ((data[16] & 255) == 0xF6) { //speed limit (PWM?)
-                mSpeedLimit = MathsUtil.getInt2R(data, 2) / 100.0;
-                wd.setSpeedLimit(mSpeedLimit);
-                return false;
-            } else if ((data[16] & 255) == 0xA4 || (data[16] & 255) == 0xB5) { //max speed and alerts
-                mWheelMaxSpeed = data[10] & 255;
-                WheelLog.AppConfig.setWheelMaxSpeed(mWheelMaxSpeed);
-                mKSAlarm3Speed = (data[8] & 255);
-                mKSAlarm2Speed = (data[6] & 255);
-                mKSAlarm1Speed = (data[4] & 255);
-                WheelLog.AppConfig.setWheelKsAlarm3(mKSAlarm3Speed);
-                WheelLog.AppConfig.setWheelKsAlarm2(mKSAlarm2Speed);
-                WheelLog.AppConfig.setWheelKsAlarm1(mKSAlarm1Speed);
-                // after received 0xa4 send same repeat data[2] =0x01 data[16] = 0x98
-                if ((data[16] & 255) == 164) {
-                    data[16] = (byte) 0x98;
-                    wd.bluetoothCmd(data);
+            }
+        } else {
+            if (useBetterPercents) {
+                if (voltage > 6680) {
+                    battery = 100;
+                } else if (voltage > 5440) {
+                    battery = (int) Math.round((voltage - 5320) / 13.6);
+                } else if (voltage > 5120) {
+                    battery = (voltage - 5120) / 36;
+                } else {
+                    battery = 0;
                 }
-                return true;
-            } else if ((data[16] & 255) == 0xF1 || (data[16] & 255) == 0xF2) { // F1 - 1st BMS, F2 - 2nd BMS. F3 and F4 are also present but empty
-                int bmsnum = (data[16] & 255) - 0xF0;
-                SmartBms bms = bmsnum == 1 ? wd.getBms1() : wd.getBms2();
-                int pNum = (data[17] & 255);
-                if (pNum == 0x00) {
-                    bms.setVoltage(MathsUtil.getInt2R(data, 2)/100.0);
-                    bms.setCurrent(MathsUtil.getInt2R(data, 4)/100.0);
-                    bms.setRemCap(MathsUtil.getInt2R(data, 6)*10);
-                    bms.setFactoryCap(MathsUtil.getInt2R(data, 8)*10);
-                    bms.setFullCycles(MathsUtil.getInt2R(data, 10));
-                    bms.setRemPerc(MathsUtil.getInt2R(data, 12)/10);
-                    if (bms.getSerialNumber().equals("")) {
-                        if (bmsnum == 1) {
-                            requestBms1Serial();
-                        } else {
-                            requestBms2Serial();
-                        }
-                    }
-                } else if (pNum == 0x01) {
-                    bms.setTemp1((MathsUtil.getInt2R(data, 2)-2730)/10.0);
-                    bms.setTemp2((MathsUtil.getInt2R(data, 4)-2730)/10.0);
-                    bms.setTemp3((MathsUtil.getInt2R(data, 6)-2730)/10.0);
-                    bms.setTemp4((MathsUtil.getInt2R(data, 8)-2730)/10.0);
-                    bms.setTemp5((MathsUtil.getInt2R(data, 10)-2730)/10.0);
-                    bms.setTemp6((MathsUtil.getInt2R(data, 12)-2730)/10.0);
-                    bms.setTempMos((MathsUtil.getInt2R(data, 14)-2730)/10.0);
-                } else if (pNum == 0x02) {
-                    bms.getCells()[0] = MathsUtil.getInt2R(data, 2)/1000.0;
-                    bms.getCells()[1] = MathsUtil.getInt2R(data, 4)/1000.0;
-                    bms.getCells()[2] = MathsUtil.getInt2R(data, 6)/1000.0;
-                    bms.getCells()[3] = MathsUtil.getInt2R(data, 8)/1000.0;
-                    bms.getCells()[4] = MathsUtil.getInt2R(data, 10)/1000.0;
-                    bms.getCells()[5] = MathsUtil.getInt2R(data, 12)/1000.0;
-                    bms.getCells()[6] = MathsUtil.getInt2R(data, 14)/1000.0;
-                } else if (pNum == 0x03) {
-                    bms.getCells()[7] = MathsUtil.getInt2R(data, 2)/1000.0;
-                    bms.getCells()[8] = MathsUtil.getInt2R(data, 4)/1000.0;
-                    bms.getCells()[9] = MathsUtil.getInt2R(data, 6)/1000.0;
-                    bms.getCells()[10] = MathsUtil.getInt2R(data, 8)/1000.0;
-                    bms.getCells()[11] = MathsUtil.getInt2R(data, 10)/1000.0;
-                    bms.getCells()[12] = MathsUtil.getInt2R(data, 12)/1000.0;
-                    bms.getCells()[13] = MathsUtil.getInt2R(data, 14)/1000.0;
-                } else if (pNum == 0x04) {
-                    bms.getCells()[14] = MathsUtil.getInt2R(data, 2)/1000.0;
-                    bms.getCells()[15] = MathsUtil.getInt2R(data, 4)/1000.0;
-                    bms.getCells()[16] = MathsUtil.getInt2R(data, 6)/1000.0;
-                    bms.getCells()[17] = MathsUtil.getInt2R(data, 8)/1000.0;
-                    bms.getCells()[18] = MathsUtil.getInt2R(data, 10)/1000.0;
-                    bms.getCells()[19] = MathsUtil.getInt2R(data, 12)/1000.0;
-                    bms.getCells()[20] = MathsUtil.getInt2R(data, 14)/1000.0;
-                } else if (pNum == 0x05) {
-                    bms.getCells()[21] = MathsUtil.getInt2R(data, 2)/1000.0;
-                    bms.getCells()[22] = MathsUtil.getInt2R(data, 4)/1000.0;
-                    bms.getCells()[23] = MathsUtil.getInt2R(data, 6)/1000.0;
-                    bms.getCells()[24] = MathsUtil.getInt2R(data, 8)/1000.0;
-                    bms.getCells()[25] = MathsUtil.getInt2R(data, 10)/1000.0;
-                    bms.getCells()[26] = MathsUtil.getInt2R(data, 12)/1000.0;
-                    bms.getCells()[27] = MathsUtil.getInt2R(data, 14)/1000.0;
-                } else if (pNum == 0x06) {
-                    bms.getCells()[28] = MathsUtil.getInt2R(data, 2)/1000.0;
-                    bms.getCells()[29] = MathsUtil.getInt2R(data, 4)/1000.0;
-                    //bms.getCells()[30] = MathsUtil.getInt2R(data, 6)/1000.0;
-                    //bms.getCells()[31] = MathsUtil.getInt2R(data, 8)/1000.0;
-                    bms.setTempMosEnv((MathsUtil.getInt2R(data, 10)-2730)/10.0);
-                    //bms.getCells()[5] = MathsUtil.getInt2R(data, 12)/1000.0;
-                    bms.setMinCell(bms.getCells()[29]);
-                    for (int i = 0; i < 30; i++) {
-                        double cell = bms.getCells()[i];
-                        if (cell > 0.0) {
-                            if (bms.getMaxCell() < cell) {
-                                bms.setMaxCell(cell);
-                            }
-                            if (bms.getMinCell() > cell) {
-                                bms.setMinCell(cell);
-                            }
-                        }
-                    }
-                    bms.setCellDiff(bms.getMaxCell() - bms.getMinCell());
-                    if (bms.getVersionNumber().equals("")) {
-                        if (bmsnum == 1) {
-                            requestBms1Firmware();
-                        } else {
-                            requestBms2Firmware();
-                        }
-                    }
+            } else {
+                if (voltage < 5000) {
+                    battery = 0;
+                } else if (voltage >= 6600) {
+                    battery = 100;
+                } else {
+                    battery = (voltage - 5000) / 16;
                 }
-            } else if ((data[16] & 255) == 0xe1 || (data[16] & 255) == 0xe2) { // e1 - 1st BMS, e2 - 2nd BMS.
-                int bmsnum = (data[16] & 255) - 0xE0;
-                SmartBms bms = bmsnum == 1 ? wd.getBms1() : wd.getBms2();
-                byte[] sndata = new byte[18];
-                System.arraycopy(data, 2, sndata, 0, 14);
-                System.arraycopy(data, 17, sndata, 14, 3);
-                sndata[17] = (byte) 0;
-                bms.setSerialNumber(new String(sndata));
-            } else if ((data[16] & 255) == 0xe5 || (data[16] & 255) == 0xe6) { // e5 - 1st BMS, e6 - 2nd BMS.
-                int bmsnum = (data[16] & 255) - 0xE4;
-                SmartBms bms = bmsnum == 1 ? wd.getBms1() : wd.getBms2();
-                byte[] sndata = new byte[19];
-                System.arraycopy(data, 2, sndata, 0, 14);
-                System.arraycopy(data, 17, sndata, 14, 3);
-                sndata[18] = (byte) 0;
-                bms.setVersionNumber(new String(sndata));
             }
+        }
+        return battery;
+    }
 
+    private boolean parseName(WheelData wd, byte[] data) {
+        int end = 0;
+        int i = 0;
+        while (i < 14 && data[i + 2] != 0) {
+            end++;
+            i++;
         }
+        wd.setName(new String(data, 2, end).trim());
+        wd.setModel("");
+        String[] ss = wd.getName().split("-");
+        StringBuilder model = new StringBuilder();
+        for (i = 0; i < ss.length - 1; i++) {
+            if (i != 0) {
+                model.append("-");
+            }
+            model.append(ss[i]);
+        }
+        wd.setModel(model.toString());
+        try {
+            wd.setVersion(String.format(Locale.US, "%.2f", Integer.parseInt(ss[ss.length - 1]) / 100.0));
+        } catch (Exception ignored) {
+        }
+        return false;
+    }
+
+    private boolean parseSerialNumber(WheelData wd, byte[] data) {
+        wd.setSerial(serialFrom(data, 18));
+        updateKSAlarmAndSpeed(wd);
         return false;
     }
 
+    private boolean parseAlarms(WheelData wd, byte[] data) {
+        if (wd.isStoringSettings()) {
+            WheelLog.AppConfig.setWheelMaxSpeed(mWheelMaxSpeed);
+            WheelLog.AppConfig.setWheelKsAlarm3(mKSAlarm3Speed);
+            WheelLog.AppConfig.setWheelKsAlarm2(mKSAlarm2Speed);
+            WheelLog.AppConfig.setWheelKsAlarm1(mKSAlarm1Speed);
+        }
+        // after received 0xa4 send same repeat data[2] =0x01 data[16] = 0x98
+        if ((data[16] & 255) == 164) {
+            data[16] = (byte) 0x98;
+            wd.bluetoothCmd(data);
+        }
+        return true;
+    }
+
+    private boolean requestBmsSerial(WheelData wd, int bmsnum) {
+        if (bmsOf(wd, bmsnum).getSerialNumber().equals("")) {
+            wd.bluetoothCmd(getBmsRequest(bmsnum == 1 ? 0xe1 : 0xe2));
+        }
+        return false;
+    }
+
+    private boolean updateBmsCells(WheelData wd, int bmsnum) {
+        SmartBms bms = bmsOf(wd, bmsnum);
+        if (bms.getVersionNumber().equals("")) {
+            wd.bluetoothCmd(getBmsRequest(bmsnum == 1 ? 0xe5 : 0xe6));
+        }
+        return false;
+    }
+
+    private static boolean parseBmsSerialNumber(SmartBms bms, byte[] data) {
+        bms.setSerialNumber(serialFrom(data, 18));
+        return false;
+    }
+
+    private static boolean parseBmsVersion(SmartBms bms, byte[] data) {
+        bms.setVersionNumber(serialFrom(data, 19));
+        return false;
+    }
+
+    /**
+     * Text in data[2, 16) and data[17, 20), zero padded to {@code size}.
+     */
+    private static String serialFrom(byte[] data, int size) {
+        byte[] sndata = new byte[size];
+        System.arraycopy(data, 2, sndata, 0, 14);
+        System.arraycopy(data, 17, sndata, 14, 3);
+        return new String(sndata);
+    }
+
     @Override
     public void updatePedalsMode(int pedalsMode) {
         byte[] data = getEmptyRequest();
@@ -318,34 +351,28 @@ public class KingsongAdapter extends BaseAdapter {
         WheelData.getInstance().bluetoothCmd(data);
     }
 
-    private boolean is84vWheel() {
-        WheelData wd = WheelData.getInstance();
+    private boolean is84vWheel(WheelData wd) {
         return StringUtil.inArray(wd.getModel(), new String[]{"KS-18L", "KS-16X", "RW", "KS-18LH", "KS-S18"})
                 || wd.getName().startsWith("ROCKW") // support rockwheel models
                 || wd.getBtName().compareTo("RW") == 0;
     }
 
-    private boolean is126vWheel() {
-        WheelData wd = WheelData.getInstance();
+    private boolean is126vWheel(WheelData wd) {
         return StringUtil.inArray(wd.getModel(), new String[]{"KS-S20", "KS-S22"});
     }
 
 
     @Override
     public int getCellSForWheel() {
+        WheelData wd = WheelData.getInstance();
         int cells = 16;
-        if (is84vWheel()) {cells = 20; }
-        else if (is126vWheel()) {cells = 30; }
+        if (is84vWheel(wd)) {cells = 20; }
+        else if (is126vWheel(wd)) {cells = 30; }
         return cells;
     }
 
     public static KingsongAdapter getInstance() {
-        Timber.i("Get instance");
-        if (INSTANCE == null) {
-            Timber.i("New instance");
-            INSTANCE = new KingsongAdapter();
-        }
-        return INSTANCE;
+        return WheelData.adapterOf(KingsongAdapter.class, KingsongAdapter::new);
     }
 
     @Override
@@ -355,6 +382,10 @@ public class KingsongAdapter extends BaseAdapter {
     }
 
     public void updateKSAlarmAndSpeed() {
+        updateKSAlarmAndSpeed(WheelData.getInstance());
+    }
+
+    private void updateKSAlarmAndSpeed(WheelData wd) {
         byte[] data = getEmptyRequest();
         data[2] = (byte) mKSAlarm1Speed;
         data[4] = (byte) mKSAlarm2Speed;
@@ -365,7 +396,7 @@ public class KingsongAdapter extends BaseAdapter {
         if ((mWheelMaxSpeed | mKSAlarm3Speed | mKSAlarm2Speed | mKSAlarm1Speed) == 0) {
             data[16] = (byte) 0x98; // request speed & alarm values from wheel
         }
-        WheelData.getInstance().bluetoothCmd(data);
+        wd.bluetoothCmd(data);
     }
 
     public void updateKSAlarm1(int wheelKSAlarm1) {
@@ -410,6 +441,15 @@ public class KingsongAdapter extends BaseAdapter {
         return new byte[]{(byte) 0xAA, 0x55, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x14, 0x5A, 0x5A};
     }
 
+    private byte[] getBmsRequest(int type) {
+        byte[] data = getEmptyRequest();
+        data[16] = (byte) type;
+        data[17] = (byte) 0x00;
+        data[18] = (byte) 0x00;
+        data[19] = (byte) 0x00;
+        return data;
+    }
+
     @Override
     public void wheelBeep() {
         byte[] data = getEmptyRequest();
@@ -430,39 +470,19 @@ public class KingsongAdapter extends BaseAdapter {
     }
 
     public void requestBms1Serial() {
-        byte[] data = getEmptyRequest();
-        data[16] = (byte) 0xe1;
-        data[17] = (byte) 0x00;
-        data[18] = (byte) 0x00;
-        data[19] = (byte) 0x00;
-        WheelData.getInstance().bluetoothCmd(data);
+        WheelData.getInstance().bluetoothCmd(getBmsRequest(0xe1));
     }
 
     public void requestBms2Serial() {
-        byte[] data = getEmptyRequest();
-        data[16] = (byte) 0xe2;
-        data[17] = (byte) 0x00;
-        data[18] = (byte) 0x00;
-        data[19] = (byte) 0x00;
-        WheelData.getInstance().bluetoothCmd(data);
+        WheelData.getInstance().bluetoothCmd(getBmsRequest(0xe2));
     }
 
     public void requestBms1Firmware() {
-        byte[] data = getEmptyRequest();
-        data[16] = (byte) 0xe5;
-        data[17] = (byte) 0x00;
-        data[18] = (byte) 0x00;
-        data[19] = (byte) 0x00;
-        WheelData.getInstance().bluetoothCmd(data);
+        WheelData.getInstance().bluetoothCmd(getBmsRequest(0xe5));
     }
 
     public void requestBms2Firmware() {
-        byte[] data = getEmptyRequest();
-        data[16] = (byte) 0xe6;
-        data[17] = (byte) 0x00;
-        data[18] = (byte) 0x00;
-        data[19] = (byte) 0x00;
-        WheelData.getInstance().bluetoothCmd(data);
+        WheelData.getInstance().bluetoothCmd(getBmsRequest(0xe6));
     }
 
     public void requestAlarmSettingsAndMaxSpeed() {
@@ -0,0 +1,154 @@
+package com.cooper.wheellog.utils;
+
+import com.cooper.wheellog.WheelData;
+
+import java.util.ArrayList;
+
+/**
+ * Layout of a fixed size Kingsong frame: numeric fields read at an offset with a format and scale,
+ * each written to its target, then an optional handler for what does not fit a field.
+ * Fields are read straight from the frame without copying it.
+ */
+final class KingsongFrameLayout<A> {
+
+    enum Format {
+        INT8(1),
+        UINT8(1),
+        INT16_LE(2),
+        UINT16_LE(2),
+        INT16_BE(2),
+        INT32_LE(4),
+        INT32_BE(4),
+        // two little endian 16 bit words, the high word first
+        INT32_WORDS_LE(4);
+
+        final int width;
+
+        Format(int width) {
+            this.width = width;
+        }
+
+        int read(byte[] data, int offset) {
+            switch (this) {
+                case INT8:
+                    return data[offset];
+                case UINT8:
+                    return data[offset] & 0xFF;
+                case INT16_LE:
+                    return (short) ((data[offset + 1] << 8) | (data[offset] & 0xFF));
+                case UINT16_LE:
+                    return ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF);
+                case INT16_BE:
+                    return (short) ((data[offset] << 8) | (data[offset + 1] & 0xFF));
+                case INT32_LE:
+                    return (data[offset + 3] << 24) | ((data[offset + 2] & 0xFF) << 16)
+                            | ((data[offset + 1] & 0xFF) << 8) | (data[offset] & 0xFF);
+                case INT32_BE:
+                    return (data[offset] << 24) | ((data[offset + 1] & 0xFF) << 16)
+                            | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+                default:
+                    return (data[offset + 1] << 24) | ((data[offset] & 0xFF) << 16)
+                            | ((data[offset + 3] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+            }
+        }
+    }
+
+    interface Target<A> {
+        void set(A adapter, WheelData wd, double value);
+    }
+
+    interface Handler<A> {
+        boolean handle(A adapter, WheelData wd, byte[] data);
+    }
+
+    private static final class Field<A> {
+        final int offset;
+        final Format format;
+        final int bias;
+        final int multiplier;
+        final double divisor;
+        final Target<A> target;
+
+        Field(int offset, Format format, int bias, int multiplier, double divisor, Target<A> target) {
+            this.offset = offset;
+            this.format = format;
+            this.bias = bias;
+            this.multiplier = multiplier;
+            this.divisor = divisor;
+            this.target = target;
+        }
+
+        // (raw - bias) * multiplier / divisor, kept in this order so the
+        // values are the same as the integer arithmetic of the adapters
+        double value(byte[] data) {
+            double value = format.read(data, offset);
+            if (bias != 0) {
+                value -= bias;
+            }
+            if (multiplier != 1) {
+                value *= multiplier;
+            }
+            if (divisor != 1.0) {
+                value /= divisor;
+            }
+            return value;
+        }
+    }
+
+    private final ArrayList<Field<A>> fieldList = new ArrayList<>();
+    private Field<A>[] fields;
+    private Handler<A> handler;
+    private int size = 0;
+
+    /**
+     * Raw value of the field.
+     */
+    KingsongFrameLayout<A> field(int offset, Format format, Target<A> target) {
+        return field(offset, format, 0, 1, 1.0, target);
+    }
+
+    /**
+     * Raw value divided by {@code divisor}.
+     */
+    KingsongFrameLayout<A> field(int offset, Format format, double divisor, Target<A> target) {
+        return field(offset, format, 0, 1, divisor, target);
+    }
+
+    /**
+     * {@code (raw - bias) * multiplier / divisor}.
+     */
+    @SuppressWarnings("unchecked")
+    KingsongFrameLayout<A> field(int offset, Format format, int bias, int multiplier, double divisor, Target<A> target) {
+        fieldList.add(new Field<>(offset, format, bias, multiplier, divisor, target));
+        fields = fieldList.toArray(new Field[0]);
+        size = Math.max(size, offset + format.width);
+        return this;
+    }
+
+    /**
+     * Runs after the fields are set, its result is the result of {@link #decode}.
+     */
+    KingsongFrameLayout<A> then(Handler<A> handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    /**
+     * Smallest frame that holds all fields.
+     */
+    int getSize() {
+        return size;
+    }
+
+    boolean decode(A adapter, WheelData wd, byte[] data) {
+        if (data.length < size) {
+            return false;
+        }
+        if (fields != null) {
+            for (Field<A> field : fields) {
+                field.target.set(adapter, wd, field.value(data));
+            }
+        }
+        return handler != null && handler.handle(adapter, wd, data);
+    }
+}
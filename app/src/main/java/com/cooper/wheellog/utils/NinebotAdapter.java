@@ -1,5 +1,6 @@
 package com.cooper.wheellog.utils;
 
+import com.cooper.wheellog.LinkDiagnostics;
 import com.cooper.wheellog.WheelData;
 
 import java.io.ByteArrayOutputStream;
@@ -11,14 +12,21 @@ import timber.log.Timber;
  * Created by palachzzz on Dec 2019.
  */
 public class NinebotAdapter extends BaseAdapter {
-    private static NinebotAdapter INSTANCE;
-    private Timer keepAliveTimer;
+    private RequestPoller poller;
     private boolean settingCommandReady = false;
-    private static int updateStep = 0;
     private byte[] settingCommand;
-    private static byte[] gamma = new byte[16];
-    private static int stateCon = 0;
-    private static byte protoVersion = 0;
+    private byte[] gamma = new byte[16];
+    private int stateCon = 0;
+    private byte protoVersion = 0;
+    // live data collected from several messages
+    private int batt = 0;
+    private int speed = 0;
+    private int distance = 0;
+    private int temperature = 0;
+    private int voltage = 0;
+    private int current = 0;
+    private int power = 0;
+    private String serialNum = "";
 
     NinebotUnpacker unpacker = new NinebotUnpacker();
 
@@ -26,49 +34,37 @@ public class NinebotAdapter extends BaseAdapter {
         Timber.i("Ninebot timer starting");
         if (protoVer.compareTo("S2") == 0) protoVersion = 1;
         if (protoVer.compareTo("Mini") == 0) protoVersion = 2;
-        updateStep = 0;
         stateCon = 0;
-        TimerTask timerTask = new TimerTask() {
-            @Override
-            public void run() {
-                if (updateStep == 0) {
-                    if (stateCon == 0) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotAdapter.CANMessage.getSerialNumber().writeBuffer())) {
-                            Timber.i("Sent serial number message");
-                        } else updateStep = 39;
-
-                    } else if (stateCon == 1) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotAdapter.CANMessage.getVersion().writeBuffer())) {
-                            Timber.i("Sent serial version message");
-                        } else updateStep = 39;
-
-                    } else if (settingCommandReady) {
-                        if (WheelData.getInstance().bluetoothCmd(settingCommand)) {
-                            settingCommandReady = false;
-                            Timber.i("Sent command message");
-                        } else updateStep = 39;
-                    } else {
-                        if (!WheelData.getInstance().bluetoothCmd(NinebotAdapter.CANMessage.getLiveData().writeBuffer())) {
-                            Timber.i("Unable to send keep-alive message");
-                            updateStep = 39;
-                        } else {
-                            Timber.i("Sent keep-alive message");
-                        }
-                    }
-                }
-                updateStep += 1;
-                updateStep %= 5;
-                Timber.i("Step: %d", updateStep);
-            }
-        };
+        if (poller != null) {
+            poller.stop();
+        }
+        poller = new RequestPoller(queryAllowed -> nextRequest(), 25, 125);
+        poller.start(0);
         Timber.i("Ninebot timer started");
-        keepAliveTimer = new Timer();
-        keepAliveTimer.scheduleAtFixedRate(timerTask, 0, 25);
+    }
+
+    private RequestPoller.Request nextRequest() {
+        if (stateCon == 0) {
+            return request(CANMessage.getSerialNumber(), RequestPoller.Kind.Command, "serial number");
+        } else if (stateCon == 1) {
+            return request(CANMessage.getVersion(), RequestPoller.Kind.Command, "serial version");
+        } else if (settingCommandReady) {
+            return new RequestPoller.Request(settingCommand, RequestPoller.Kind.Command,
+                    RequestPoller.ANY_RESPONSE, () -> {
+                settingCommandReady = false;
+                Timber.i("Sent command message");
+            });
+        }
+        return request(CANMessage.getLiveData(), RequestPoller.Kind.Live, "keep-alive");
+    }
+
+    private static RequestPoller.Request request(CANMessage message, RequestPoller.Kind kind, String name) {
+        return new RequestPoller.Request(message.writeBuffer(), kind, message.parameter,
+                () -> Timber.i("Sent %s message", name));
     }
 
     public void resetConnection() {
         stateCon = 0;
-        updateStep = 0;
         gamma = new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
         stopTimer();
     }
@@ -258,6 +254,7 @@ public class NinebotAdapter extends BaseAdapter {
             }
 
             public int getValue() {
+                byte protoVersion = getInstance().protoVersion;
                 if (protoVersion == 1) {
                     return value_s2;
                 } else if (protoVersion == 2) {
@@ -320,15 +317,6 @@ public class NinebotAdapter extends BaseAdapter {
         byte[] data;
         int crc = 0;
 
-        static int batt = 0;
-        static int speed = 0;
-        static int distance = 0;
-        static int temperature = 0;
-        static int voltage = 0;
-        static int current = 0;
-        static int power = 0;
-        static String serialNum = "";
-
         CANMessage(byte[] bArr) {
             if (bArr.length < 7) return;
             len = bArr[0] & 0xff;
@@ -369,7 +357,7 @@ public class NinebotAdapter extends BaseAdapter {
             crc = computeCheck(buff.toByteArray());
             buff.write(crc & 0xff);
             buff.write((crc >> 8) & 0xff);
-            return crypto(buff.toByteArray());
+            return crypto(buff.toByteArray(), getInstance().gamma);
         }
 
         private static int computeCheck(byte[] buffer) {
@@ -383,11 +371,11 @@ public class NinebotAdapter extends BaseAdapter {
             return check;
         }
 
-        static CANMessage verify(byte[] buffer) {
+        static CANMessage verify(byte[] buffer, byte[] gamma) {
 
             Timber.i("Verifying");
             byte[] dataBuffer = Arrays.copyOfRange(buffer, 2, buffer.length);
-            dataBuffer = crypto(dataBuffer);
+            dataBuffer = crypto(dataBuffer, gamma);
 
             int check = (dataBuffer[dataBuffer.length - 1] << 8 | ((dataBuffer[dataBuffer.length - 2]) & 0xff)) & 0xffff;
             byte[] dataBufferCheck = Arrays.copyOfRange(dataBuffer, 0, dataBuffer.length - 2);
@@ -396,11 +384,12 @@ public class NinebotAdapter extends BaseAdapter {
                 Timber.i("Check OK");
             } else {
                 Timber.i("Check FALSE, packet: %02X, calc: %02X", check, checkBuffer);
+                reportRejectedFrame(LinkDiagnostics.Reject.Checksum);
             }
             return (check == checkBuffer) ? new CANMessage(dataBuffer) : null;
         }
 
-        static byte[] crypto(byte[] buffer) {
+        static byte[] crypto(byte[] buffer, byte[] gamma) {
             byte[] dataBuffer = Arrays.copyOfRange(buffer, 0, buffer.length);
             Timber.i("Initial packet: %s", StringUtil.toHexString(dataBuffer));
             for (int j = 1; j < dataBuffer.length; j++) {
@@ -466,23 +455,23 @@ public class NinebotAdapter extends BaseAdapter {
             return gammaTemp;
         }
 
-        serialNumberStatus parseSerialNumber() {
-            serialNum = new String(data);
-            Timber.i("Serial Number: %s", serialNum);
-            return new serialNumberStatus(serialNum);
+        serialNumberStatus parseSerialNumber(NinebotAdapter adapter) {
+            adapter.serialNum = new String(data);
+            Timber.i("Serial Number: %s", adapter.serialNum);
+            return new serialNumberStatus(adapter.serialNum);
         }
 
-        serialNumberStatus parseSerialNumber2() {
-            serialNum = serialNum + new String(data);
-            Timber.i("Serial Number: %s", serialNum);
-            return new serialNumberStatus(serialNum);
+        serialNumberStatus parseSerialNumber2(NinebotAdapter adapter) {
+            adapter.serialNum = adapter.serialNum + new String(data);
+            Timber.i("Serial Number: %s", adapter.serialNum);
+            return new serialNumberStatus(adapter.serialNum);
         }
 
-        versionStatus parseVersionNumber() {
+        versionStatus parseVersionNumber(NinebotAdapter adapter) {
             String versionNumber ="";
-            if (protoVersion == 1) {
+            if (adapter.protoVersion == 1) {
                 versionNumber = String.format(Locale.US, "%d.%d.%d", data[1] >> 4, data[0] >> 4, data[0] & 0xf);
-            } else if (protoVersion == 2) {
+            } else if (adapter.protoVersion == 2) {
                 versionNumber = String.format(Locale.US, "%d.%d.%d", data[1] & 0xf, data[0] >> 4, data[0] & 0xf);
             }
             Timber.i("Version Number: %s", versionNumber);
@@ -498,10 +487,10 @@ public class NinebotAdapter extends BaseAdapter {
             return new activationStatus(activationDateStr);
         }
 
-        Status parseLiveData() {
+        Status parseLiveData(NinebotAdapter adapter) {
             int batt = MathsUtil.shortFromBytesLE(data, 8);
             int speed;
-            if (protoVersion == 1) {
+            if (adapter.protoVersion == 1) {
                 speed = MathsUtil.shortFromBytesLE(data, 28); //speed up to 320.00 km/h
             }
             else {
@@ -510,7 +499,7 @@ public class NinebotAdapter extends BaseAdapter {
             int distance = MathsUtil.intFromBytesLE(data, 14);
             int temperature = MathsUtil.shortFromBytesLE(data, 22);
             int voltage = MathsUtil.shortFromBytesLE(data, 24);
-            if (protoVersion == 2) {
+            if (adapter.protoVersion == 2) {
                 voltage = 0; // no voltage for mini
             }
             int current = MathsUtil.signedShortFromBytesLE(data, 26);
@@ -518,27 +507,27 @@ public class NinebotAdapter extends BaseAdapter {
             return new Status(speed, voltage, batt, current, power, distance, temperature);
         }
 
-        Status parseLiveData2() {
-            batt = MathsUtil.shortFromBytesLE(data, 2);
-            speed = MathsUtil.shortFromBytesLE(data, 4) / 10;
-            return new Status(speed, voltage, batt, current, power, distance, temperature);
+        Status parseLiveData2(NinebotAdapter adapter) {
+            adapter.batt = MathsUtil.shortFromBytesLE(data, 2);
+            adapter.speed = MathsUtil.shortFromBytesLE(data, 4) / 10;
+            return new Status(adapter.speed, adapter.voltage, adapter.batt, adapter.current, adapter.power, adapter.distance, adapter.temperature);
         }
 
-        Status parseLiveData3() {
-            distance = MathsUtil.intFromBytesLE(data, 2);
-            return new Status(speed, voltage, batt, current, power, distance, temperature);
+        Status parseLiveData3(NinebotAdapter adapter) {
+            adapter.distance = MathsUtil.intFromBytesLE(data, 2);
+            return new Status(adapter.speed, adapter.voltage, adapter.batt, adapter.current, adapter.power, adapter.distance, adapter.temperature);
         }
 
-        Status parseLiveData4() {
-            temperature = MathsUtil.shortFromBytesLE(data, 4);
-            return new Status(speed, voltage, batt, current, power, distance, temperature);
+        Status parseLiveData4(NinebotAdapter adapter) {
+            adapter.temperature = MathsUtil.shortFromBytesLE(data, 4);
+            return new Status(adapter.speed, adapter.voltage, adapter.batt, adapter.current, adapter.power, adapter.distance, adapter.temperature);
         }
 
-        Status parseLiveData5() {
-            voltage = MathsUtil.shortFromBytesLE(data, 0);
-            current = MathsUtil.signedShortFromBytesLE(data, 2);
-            power = voltage * current;
-            return new Status(speed, voltage, batt, current, power, distance, temperature);
+        Status parseLiveData5(NinebotAdapter adapter) {
+            adapter.voltage = MathsUtil.shortFromBytesLE(data, 0);
+            adapter.current = MathsUtil.signedShortFromBytesLE(data, 2);
+            adapter.power = adapter.voltage * adapter.current;
+            return new Status(adapter.speed, adapter.voltage, adapter.batt, adapter.current, adapter.power, adapter.distance, adapter.temperature);
         }
 
         public byte[] getData() {
@@ -552,13 +541,17 @@ public class NinebotAdapter extends BaseAdapter {
         for (byte c : data) {
             if (unpacker.addChar(c)) {
                 Timber.i("Starting verification");
-                CANMessage result = CANMessage.verify(unpacker.getBuffer());
+                CANMessage result = CANMessage.verify(unpacker.getBuffer(), gamma);
 
                 if (result != null) { // data OK
+                    reportFrame();
                     Timber.i("Verification successful, command %02X", result.parameter);
+                    if (poller != null) {
+                        poller.onResponse(result.parameter);
+                    }
                     if (result.parameter == CANMessage.Param.SerialNumber.getValue()) {
                         Timber.i("Get serial number");
-                        serialNumberStatus infos = result.parseSerialNumber();
+                        serialNumberStatus infos = result.parseSerialNumber(this);
                         stateCon = 1;
                         if ((result.len - 2) == 14) {
                             if (infos != null)
@@ -566,17 +559,17 @@ public class NinebotAdapter extends BaseAdapter {
                         }
                     } else if (result.parameter == CANMessage.Param.SerialNumber2.getValue()) {
                         Timber.i("Get serial number2");
-                        serialNumberStatus infos = result.parseSerialNumber2();
+                        serialNumberStatus infos = result.parseSerialNumber2(this);
 
                     } else if (result.parameter == CANMessage.Param.SerialNumber3.getValue()) {
                         Timber.i("Get serial number3");
-                        serialNumberStatus infos = result.parseSerialNumber2();
+                        serialNumberStatus infos = result.parseSerialNumber2(this);
                         if (infos != null)
                             outValues.add(infos);
 
                     } else if (result.parameter == CANMessage.Param.Firmware.getValue()) {
                         Timber.i("Get version number");
-                        versionStatus infos = result.parseVersionNumber();
+                        versionStatus infos = result.parseVersionNumber(this);
                         stateCon = 2;
                         if (infos != null)
                             outValues.add(infos);
@@ -584,23 +577,23 @@ public class NinebotAdapter extends BaseAdapter {
                     } else if (result.parameter == CANMessage.Param.LiveData.getValue()) {
                         Timber.i("Get life data1");
                         if (result.len - 2 == 32) {
-                            Status status = result.parseLiveData();
+                            Status status = result.parseLiveData(this);
                             if (status != null) {
                                 outValues.add(status);
                             }
                         }
                     } else if (result.parameter == CANMessage.Param.LiveData2.getValue()) {
                         Timber.i("Get life data2");
-                        result.parseLiveData2();
+                        result.parseLiveData2(this);
                     } else if (result.parameter == CANMessage.Param.LiveData3.getValue()) {
                         Timber.i("Get life data3");
-                        result.parseLiveData3();
+                        result.parseLiveData3(this);
                     } else if (result.parameter == CANMessage.Param.LiveData4.getValue()) {
                         Timber.i("Get life data4");
-                        result.parseLiveData4();
+                        result.parseLiveData4(this);
                     } else if (result.parameter == CANMessage.Param.LiveData5.getValue()) {
                         Timber.i("Get life data5");
-                        Status status = result.parseLiveData5();
+                        Status status = result.parseLiveData5(this);
                         if (status != null) {
                             outValues.add(status);
                         }
@@ -639,9 +632,7 @@ public class NinebotAdapter extends BaseAdapter {
                     buffer.write(c);
                     if (buffer.size() == len + 6) {
                         state = UnpackerState.done;
-                        updateStep = 0;
                         Timber.i("Len %d", len);
-                        Timber.i("Step reset");
                         return true;
                     }
                     break;
@@ -672,30 +663,22 @@ public class NinebotAdapter extends BaseAdapter {
     }
 
     public static NinebotAdapter getInstance() {
-        Timber.i("Get instance");
-        if (INSTANCE == null) {
-            Timber.i("New instance");
-            INSTANCE = new NinebotAdapter();
-        }
-        return INSTANCE;
+        return WheelData.adapterOf(NinebotAdapter.class, NinebotAdapter::new);
     }
 
     public static synchronized void newInstance() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
-
+        NinebotAdapter previous = WheelData.replaceAdapterOf(NinebotAdapter.class, new NinebotAdapter());
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("New instance");
-        INSTANCE = new NinebotAdapter();
     }
 
     public static synchronized void stopTimer() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
+        NinebotAdapter previous = WheelData.replaceAdapterOf(NinebotAdapter.class, null);
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("Kill instance, stop timer");
-        INSTANCE = null;
     }
 }
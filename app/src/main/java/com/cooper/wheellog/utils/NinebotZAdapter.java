@@ -1,5 +1,6 @@
 package com.cooper.wheellog.utils;
 
+import com.cooper.wheellog.LinkDiagnostics;
 import com.cooper.wheellog.WheelData;
 import com.cooper.wheellog.WheelLog;
 import com.cooper.wheellog.R;
@@ -13,16 +14,15 @@ import timber.log.Timber;
  * Created by palachzzz on 08/2018.
  */
 public class NinebotZAdapter extends BaseAdapter {
-    private static NinebotZAdapter INSTANCE;
-    private Timer keepAliveTimer;
+    private RequestPoller poller;
     protected boolean settingCommandReady = false;
     private boolean settingRequestReady = false;
-    private static int updateStep = 0;
     protected byte[] settingCommand;
     private byte[] settingRequest;
-    private static byte[] gamma = new byte[16];
-    private static int stateCon = 0;
-    private static boolean bmsMode = false;
+    private byte[] gamma = new byte[16];
+    private int stateCon = 0;
+    private boolean bmsMode = false;
+    private boolean liveDataUpdated = false;
 
     ///// wheel settings
 
@@ -51,121 +51,74 @@ public class NinebotZAdapter extends BaseAdapter {
 
     public void startKeepAliveTimer() {
         Timber.i("Ninebot Z timer starting");
-        updateStep = 0;
         stateCon = 0;
-        TimerTask timerTask = new TimerTask() {
-            @Override
-            public void run() {
-                if (updateStep == 0) {
-                    Timber.i("State connection %d", stateCon);
-                    if (stateCon == 0) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getBleVersion().writeBuffer())) {
-                            Timber.i("Sent start message");
-                        } else Timber.i("Unable to send start message");
-
-                    } else if (stateCon == 1) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getKey().writeBuffer())) {
-                            Timber.i("Sent getkey message");
-                        } else Timber.i("Unable to send getkey message");
-
-                    } else if (stateCon == 2) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getSerialNumber().writeBuffer())) {
-                            Timber.i("Sent serial number message");
-                        } else Timber.i("Unable to send serial number message");
-
-                    } else if (stateCon == 3) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getVersion().writeBuffer())) {
-                            Timber.i("Sent version message");
-                        } else Timber.i("Unable to send version message");
-
-                    } else if (stateCon == 4) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getParams1().writeBuffer())) {
-                            Timber.i("Sent getParams1 message");
-                        } else Timber.i("Unable to send getParams1 message");
-
-                    } else if (stateCon == 5) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getParams2().writeBuffer())) {
-                            Timber.i("Sent getParams2 message");
-                        } else Timber.i("Unable to send getParams2 message");
-
-                    } else if (stateCon == 6) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getParams3().writeBuffer())) {
-                            Timber.i("Sent getParams3 message");
-                        } else Timber.i("Unable to send getParams2 message");
-
-                    } else if (stateCon == 7) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getBms1Sn().writeBuffer())) {
-                            Timber.i("Sent BMS1 SN message");
-                        } else Timber.i("Unable to send BMS1 SN message");
-                    } else if (stateCon == 8) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getBms1Life().writeBuffer())) {
-                            Timber.i("Sent BMS1 life message");
-                        } else Timber.i("Unable to send BMS1 life message");
-                    } else if (stateCon == 9) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getBms1Cells().writeBuffer())) {
-                            Timber.i("Sent BMS1 cells message");
-                        } else Timber.i("Unable to send BMS1 cells message");
-                    } else if (stateCon == 10) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getBms2Sn().writeBuffer())) {
-                            Timber.i("Sent BMS2 SN message");
-                        } else Timber.i("Unable to send BMS2 SN message");
-                    } else if (stateCon == 11) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getBms2Life().writeBuffer())) {
-                            Timber.i("Sent BMS2 life message");
-                        } else Timber.i("Unable to send BMS2 life message");
-                    } else if (stateCon == 12) {
-                        if (WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getBms2Cells().writeBuffer())) {
-                            Timber.i("Sent BMS2 cells message");
-                        } else Timber.i("Unable to send BMS2 cells message");
-
-                    } else if (settingCommandReady) {
-                        if (WheelData.getInstance().bluetoothCmd(settingCommand)) {
-                            settingCommandReady = false;
-                            Timber.i("Sent command message");
-                        } else Timber.i("Unable to send command message");
-
-                    } else if (settingRequestReady) {
-                        if (WheelData.getInstance().bluetoothCmd(settingRequest)) {
-                            settingRequestReady = false;
-                            Timber.i("Sent settings request message");
-                        } else Timber.i("Unable to send settings request message");
-
-                    } else {
-                        if (!WheelData.getInstance().bluetoothCmd(NinebotZAdapter.CANMessage.getLiveData().writeBuffer())) {
-                            Timber.i("Unable to send keep-alive message");
-                        } else {
-                            Timber.i("Sent keep-alive message");
-                        }
-                    }
-
-                }
-                updateStep += 1;
+        Arrays.fill(gamma, (byte) 0); // the key is sent again for every connection
+        if (poller != null) {
+            poller.stop();
+        }
+        poller = new RequestPoller(this::nextRequest, 25, 125);
+        poller.start(200);
+        Timber.i("Ninebot Z timer started");
+    }
 
-                if ((updateStep == 5) && (stateCon > 6) && (stateCon < 13)) {
-                    stateCon += 1;
-                    Timber.i("Change state to %d 1", stateCon);
-                    if (stateCon > 12) stateCon = 7;
-                }
-                if (bmsMode && (stateCon == 13)) {
-                    stateCon = 7;
-                    Timber.i("Change state to %d 2", stateCon);
-                }
-                if (!bmsMode && (stateCon > 6) && (stateCon < 13)) {
-                    stateCon = 13;
-                    Timber.i("Change state to %d 3", stateCon);
-                }
-                updateStep %= 5;
-                Timber.i("Step: %d", updateStep);
+    private RequestPoller.Request nextRequest(boolean queryAllowed) {
+        if (bmsMode && stateCon == 13) {
+            stateCon = 7;
+            Timber.i("Change state to %d 2", stateCon);
+        }
+        if (!bmsMode && (stateCon > 6) && (stateCon < 13)) {
+            stateCon = 13;
+            Timber.i("Change state to %d 3", stateCon);
+        }
+        Timber.i("State connection %d", stateCon);
+        switch (stateCon) {
+            case 0: return request(CANMessage.getBleVersion(), RequestPoller.Kind.Command, "start");
+            case 1: return request(CANMessage.getKey(), RequestPoller.Kind.Command, "getkey");
+            case 2: return request(CANMessage.getSerialNumber(), RequestPoller.Kind.Command, "serial number");
+            case 3: return request(CANMessage.getVersion(), RequestPoller.Kind.Command, "version");
+            case 4: return request(CANMessage.getParams1(), RequestPoller.Kind.Command, "getParams1");
+            case 5: return request(CANMessage.getParams2(), RequestPoller.Kind.Command, "getParams2");
+            case 6: return request(CANMessage.getParams3(), RequestPoller.Kind.Command, "getParams3");
+        }
+        if (settingCommandReady) {
+            return new RequestPoller.Request(settingCommand, RequestPoller.Kind.Command,
+                    RequestPoller.ANY_RESPONSE, () -> {
+                settingCommandReady = false;
+                Timber.i("Sent command message");
+            });
+        } else if (settingRequestReady) {
+            return new RequestPoller.Request(settingRequest, RequestPoller.Kind.Command,
+                    RequestPoller.ANY_RESPONSE, () -> {
+                settingRequestReady = false;
+                Timber.i("Sent settings request message");
+            });
+        } else if (queryAllowed && stateCon >= 7 && stateCon <= 12) {
+            CANMessage message;
+            switch (stateCon) {
+                case 7: message = CANMessage.getBms1Sn(); break;
+                case 8: message = CANMessage.getBms1Life(); break;
+                case 9: message = CANMessage.getBms1Cells(); break;
+                case 10: message = CANMessage.getBms2Sn(); break;
+                case 11: message = CANMessage.getBms2Life(); break;
+                default: message = CANMessage.getBms2Cells(); break;
             }
-        };
-        Timber.i("Ninebot Z timer started");
-        keepAliveTimer = new Timer();
-        keepAliveTimer.scheduleAtFixedRate(timerTask, 200, 25);
+            // the next BMS request is sent even if this one is not answered
+            return new RequestPoller.Request(message.writeBuffer(), RequestPoller.Kind.Query, message.parameter, () -> {
+                stateCon += 1;
+                if (stateCon > 12) stateCon = 7;
+                Timber.i("Change state to %d 1", stateCon);
+            });
+        }
+        return request(CANMessage.getLiveData(), RequestPoller.Kind.Live, "keep-alive");
+    }
+
+    private static RequestPoller.Request request(CANMessage message, RequestPoller.Kind kind, String name) {
+        return new RequestPoller.Request(message.writeBuffer(), kind, message.parameter,
+                () -> Timber.i("Sent %s message", name));
     }
 
     public void resetConnection() {
         stateCon = 0;
-        updateStep = 0;
         gamma = new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
         stopTimer();
     }
@@ -244,89 +197,124 @@ public class NinebotZAdapter extends BaseAdapter {
         Timber.i("Ninebot_z decoding");
         WheelData wd = WheelData.getInstance();
         setBmsReadingMode(wd.getBmsView());
-        boolean retResult = false;
+        liveDataUpdated = false;
         for (byte c : data) {
             if (unpacker.addChar(c)) {
                 Timber.i("Starting verification");
-                CANMessage result = CANMessage.verify(unpacker.getBuffer());
+                CANMessage result = CANMessage.verify(unpacker.buffer, unpacker.size, gamma);
 
                 if (result != null) { // data OK
+                    reportFrame();
                     Timber.i("Verification successful, command %02X", result.parameter);
-                    if ((result.parameter == CANMessage.Param.BleVersion.getValue()) && (result.source == CANMessage.Addr.Controller.getValue())) {
-                        Timber.i("Get start answer");
-                        stateCon = 2;
-
-                    } else if ((result.parameter == CANMessage.Param.GetKey.getValue()) && (result.source == CANMessage.Addr.KeyGenerator.getValue())) {
-                        Timber.i("Get encryption key");
-                        gamma = result.parseKey();
-                        stateCon = 2;
-                        retResult = false;
-
-                    } else if ((result.parameter == CANMessage.Param.SerialNumber.getValue()) && (result.source == CANMessage.Addr.Controller.getValue())) {
-                        Timber.i("Get serial number");
-                        result.parseSerialNumber();
-                        stateCon = 3;
-
-                    } else if ((result.parameter == CANMessage.Param.LockMode.getValue()) && (result.source == CANMessage.Addr.Controller.getValue())) {
-                        Timber.i("Get param1 number");
-                        result.parseParams1();
-                        stateCon = 5;
-
-                    } else if ((result.parameter == CANMessage.Param.LedMode.getValue()) && (result.source == CANMessage.Addr.Controller.getValue())) {
-                        Timber.i("Get param2 number");
-                        result.parseParams2();
-                        stateCon = 6;
-
-                    } else if ((result.parameter == CANMessage.Param.SpeakerVolume.getValue()) && (result.source == CANMessage.Addr.Controller.getValue())) {
-                        Timber.i("Get param3 number");
-                        result.parseParams3();
-                        stateCon = 13;
-
-                    } else if ((result.parameter == CANMessage.Param.Firmware.getValue()) && (result.source == CANMessage.Addr.Controller.getValue())) {
-                        Timber.i("Get version number");
-                        result.parseVersionNumber();
-                        stateCon = 4;
-
-                    } else if ((result.parameter == CANMessage.Param.LiveData.getValue()) && (result.source == CANMessage.Addr.Controller.getValue())) {
-                        Timber.i("Get life data");
-                        result.parseLiveData();
-                        retResult = true;
-
-                    } else if (result.source == CANMessage.Addr.BMS1.getValue()) {
-                        Timber.i("Get info from BMS1");
-                        if (result.parameter == 0x10) {
-                            result.parseBmsSn(1);
-                            stateCon = 8;
-                        }
-                        if (result.parameter == 0x30) {
-                            result.parseBmsLife(1);
-                            stateCon = 9;
-                        }
-                        if (result.parameter == 0x40) {
-                            result.parseBmsCells(1);
-                            stateCon = 10;
-                        }
-
-                    } else if (result.source == CANMessage.Addr.BMS2.getValue()) {
-                        Timber.i("Get info from BMS2");
-                        if (result.parameter == 0x10) {
-                            result.parseBmsSn(2);
-                            stateCon = 11;
-                        }
-                        if (result.parameter == 0x30) {
-                            result.parseBmsLife(2);
-                            stateCon = 12;
-                        }
-                        if (result.parameter == 0x40) {
-                            result.parseBmsCells(2);
-                            stateCon = 13;
-                        }
+                    if (poller != null) {
+                        poller.onResponse(result.parameter);
+                    }
+                    FrameHandler[] handlers = FRAME_HANDLERS[result.source];
+                    FrameHandler handler = handlers != null ? handlers[result.parameter] : null;
+                    if (handler != null) {
+                        handler.handle(this, result);
                     }
                 }
             }
         }
         wd.resetRideTime();
-        return retResult;
+        return liveDataUpdated;
+    }
+
+    interface FrameHandler {
+        void handle(NinebotZAdapter adapter, CANMessage msg);
+    }
+
+    /**
+     * Handlers of the answers by source address and parameter.
+     */
+    private static final FrameHandler[][] FRAME_HANDLERS = new FrameHandler[256][];
+
+    private static void addHandler(CANMessage.Addr source, int parameter, FrameHandler handler) {
+        if (FRAME_HANDLERS[source.getValue()] == null) {
+            FRAME_HANDLERS[source.getValue()] = new FrameHandler[256];
+        }
+        FRAME_HANDLERS[source.getValue()][parameter] = handler;
+    }
+
+    private static void addHandler(CANMessage.Addr source, CANMessage.Param parameter, FrameHandler handler) {
+        addHandler(source, parameter.getValue(), handler);
+    }
+
+    static {
+        addHandler(CANMessage.Addr.Controller, CANMessage.Param.BleVersion, (adapter, msg) -> {
+            Timber.i("Get start answer");
+            adapter.stateCon = 2;
+        });
+        addHandler(CANMessage.Addr.KeyGenerator, CANMessage.Param.GetKey, (adapter, msg) -> {
+            Timber.i("Get encryption key");
+            byte[] key = msg.parseKey();
+            if (key == null) {
+                return;
+            }
+            adapter.gamma = key;
+            adapter.stateCon = 2;
+            adapter.liveDataUpdated = false;
+        });
+        addHandler(CANMessage.Addr.Controller, CANMessage.Param.SerialNumber, (adapter, msg) -> {
+            Timber.i("Get serial number");
+            msg.parseSerialNumber();
+            adapter.stateCon = 3;
+        });
+        addHandler(CANMessage.Addr.Controller, CANMessage.Param.LockMode, (adapter, msg) -> {
+            Timber.i("Get param1 number");
+            msg.parseParams1(adapter);
+            adapter.stateCon = 5;
+        });
+        addHandler(CANMessage.Addr.Controller, CANMessage.Param.LedMode, (adapter, msg) -> {
+            Timber.i("Get param2 number");
+            msg.parseParams2(adapter);
+            adapter.stateCon = 6;
+        });
+        addHandler(CANMessage.Addr.Controller, CANMessage.Param.SpeakerVolume, (adapter, msg) -> {
+            Timber.i("Get param3 number");
+            msg.parseParams3(adapter);
+            adapter.stateCon = 13;
+        });
+        addHandler(CANMessage.Addr.Controller, CANMessage.Param.Firmware, (adapter, msg) -> {
+            Timber.i("Get version number");
+            msg.parseVersionNumber();
+            adapter.stateCon = 4;
+        });
+        addHandler(CANMessage.Addr.Controller, CANMessage.Param.LiveData, (adapter, msg) -> {
+            Timber.i("Get life data");
+            adapter.liveDataUpdated = msg.parseLiveData();
+        });
+        addHandler(CANMessage.Addr.BMS1, 0x10, (adapter, msg) -> {
+            Timber.i("Get info from BMS1");
+            msg.parseBmsSn(1);
+            adapter.stateCon = 8;
+        });
+        addHandler(CANMessage.Addr.BMS1, 0x30, (adapter, msg) -> {
+            Timber.i("Get info from BMS1");
+            msg.parseBmsLife(1);
+            adapter.stateCon = 9;
+        });
+        addHandler(CANMessage.Addr.BMS1, 0x40, (adapter, msg) -> {
+            Timber.i("Get info from BMS1");
+            msg.parseBmsCells(1);
+            adapter.stateCon = 10;
+        });
+        addHandler(CANMessage.Addr.BMS2, 0x10, (adapter, msg) -> {
+            Timber.i("Get info from BMS2");
+            msg.parseBmsSn(2);
+            adapter.stateCon = 11;
+        });
+        addHandler(CANMessage.Addr.BMS2, 0x30, (adapter, msg) -> {
+            Timber.i("Get info from BMS2");
+            msg.parseBmsLife(2);
+            adapter.stateCon = 12;
+        });
+        addHandler(CANMessage.Addr.BMS2, 0x40, (adapter, msg) -> {
+            Timber.i("Get info from BMS2");
+            msg.parseBmsCells(2);
+            adapter.stateCon = 13;
+        });
     }
 
     @Override
@@ -560,16 +548,18 @@ public class NinebotZAdapter extends BaseAdapter {
         int crc = 0;
 
 
-        CANMessage(byte[] bArr) {
-            if (bArr.length < 7) return;
-            len = bArr[0] & 0xff;
-            source = bArr[1] & 0xff;
-            destination = bArr[2] & 0xff;
-            command = bArr[3] & 0xff;
-            parameter = bArr[4] & 0xff;
-            data = Arrays.copyOfRange(bArr, 5, bArr.length - 2);
-            crc = bArr[bArr.length - 1] << 8 + bArr[bArr.length - 2];
-
+        /**
+         * Reads a decrypted frame, {@code from} is the position of the length byte.
+         */
+        CANMessage(byte[] buffer, int from, int to) {
+            if (to - from < 7) return;
+            len = buffer[from] & 0xff;
+            source = buffer[from + 1] & 0xff;
+            destination = buffer[from + 2] & 0xff;
+            command = buffer[from + 3] & 0xff;
+            parameter = buffer[from + 4] & 0xff;
+            data = Arrays.copyOfRange(buffer, from + 5, to - 2);
+            crc = (buffer[to - 1] & 0xff) << 8 | (buffer[to - 2] & 0xff);
         }
 
         private CANMessage() {
@@ -610,14 +600,18 @@ public class NinebotZAdapter extends BaseAdapter {
             crc = computeCheck(buff.toByteArray());
             buff.write(crc & 0xff);
             buff.write((crc >> 8) & 0xff);
-            return crypto(buff.toByteArray());
+            return crypto(buff.toByteArray(), getInstance().gamma);
         }
 
         private static int computeCheck(byte[] buffer) {
+            return computeCheck(buffer, 0, buffer.length);
+        }
+
+        private static int computeCheck(byte[] buffer, int from, int to) {
 
             int check = 0;
-            for (byte c : buffer) {
-                check = check + ((int) c & 0xff);
+            for (int i = from; i < to; i++) {
+                check = check + ((int) buffer[i] & 0xff);
             }
             check ^= 0xFFFF;
             check &= 0xFFFF;
@@ -625,34 +619,43 @@ public class NinebotZAdapter extends BaseAdapter {
             return check;
         }
 
-        static CANMessage verify(byte[] buffer) {
+        /**
+         * Decrypts and checks the frame of the unpacker in place, {@code size} bytes with the 5A A5 header.
+         */
+        static CANMessage verify(byte[] buffer, int size, byte[] gamma) {
 
             Timber.i("Verifying");
-            byte[] dataBuffer = Arrays.copyOfRange(buffer, 2, buffer.length);
-            dataBuffer = crypto(dataBuffer);
+            crypto(buffer, 2, size, gamma);
 
-            int check = (dataBuffer[dataBuffer.length - 1] << 8 | ((dataBuffer[dataBuffer.length - 2]) & 0xff)) & 0xffff;
-            byte[] dataBufferCheck = Arrays.copyOfRange(dataBuffer, 0, dataBuffer.length - 2);
-            int checkBuffer = computeCheck(dataBufferCheck);
+            int check = ((buffer[size - 1] & 0xff) << 8 | (buffer[size - 2] & 0xff)) & 0xffff;
+            int checkBuffer = computeCheck(buffer, 2, size - 2);
             if (check == checkBuffer) {
                 Timber.i("Check OK");
             } else {
                 Timber.i("Check FALSE, packet: %02X, calc: %02X", check, checkBuffer);
+                reportRejectedFrame(LinkDiagnostics.Reject.Checksum);
             }
-            return (check == checkBuffer) ? new CANMessage(dataBuffer) : null;
+            return (check == checkBuffer) ? new CANMessage(buffer, 2, size) : null;
         }
 
-        static byte[] crypto(byte[] buffer) {
+        static byte[] crypto(byte[] buffer, byte[] gamma) {
 
             byte[] dataBuffer = Arrays.copyOfRange(buffer, 0, buffer.length);
             Timber.i("Initial packet: %s", StringUtil.toHexString(dataBuffer));
-            for (int j = 1; j < dataBuffer.length; j++) {
-                dataBuffer[j] ^= gamma[(j - 1) % 16];
-            }
+            crypto(dataBuffer, 0, dataBuffer.length, gamma);
             Timber.i("En/Decrypted packet: %s", StringUtil.toHexString(dataBuffer));
             return dataBuffer;
         }
 
+        /**
+         * En/Decrypts {@code buffer[from, to)} in place, the first byte (length) is not encrypted.
+         */
+        static void crypto(byte[] buffer, int from, int to, byte[] gamma) {
+            for (int j = from + 1; j < to; j++) {
+                buffer[j] ^= gamma[(j - from - 1) % 16];
+            }
+        }
+
         public static CANMessage getBleVersion() {
             CANMessage msg = new CANMessage();
             msg.source = Addr.App.getValue();
@@ -979,6 +982,7 @@ public class NinebotZAdapter extends BaseAdapter {
         }
 
         private byte[] parseKey() {
+            if (data.length < 16) return null;
             byte[] gammaTemp = Arrays.copyOfRange(data, 0, data.length);
             StringBuilder gamma_text = new StringBuilder();
             for (byte datum : data) {
@@ -995,49 +999,59 @@ public class NinebotZAdapter extends BaseAdapter {
             wd.setModel("Ninebot Z");
         }
 
-        void parseParams1() {
-            getInstance().lockMode = MathsUtil.shortFromBytesLE(data, 0);
-            getInstance().limitedMode = MathsUtil.shortFromBytesLE(data, 4);
-            getInstance().limitModeSpeed1Km = MathsUtil.shortFromBytesLE(data, 6)/100;
-            getInstance().limitModeSpeed = MathsUtil.shortFromBytesLE(data, 8)/100;
-            getInstance().alarms = MathsUtil.shortFromBytesLE(data, 24);
-            getInstance().alarm1Speed = MathsUtil.shortFromBytesLE(data, 26)/100;
-            getInstance().alarm2Speed = MathsUtil.shortFromBytesLE(data, 28)/100;
-            getInstance().alarm3Speed = MathsUtil.shortFromBytesLE(data, 30)/100;
-            WheelLog.AppConfig.setLockMode(getInstance().lockMode==1);
-            WheelLog.AppConfig.setWheelLimitedModeEnabled(getInstance().limitedMode == 1);
-            WheelLog.AppConfig.setWheelLimitedModeSpeed(getInstance().limitModeSpeed);
-            WheelLog.AppConfig.setWheelAlarm1Speed(getInstance().alarm1Speed);
-            WheelLog.AppConfig.setWheelAlarm2Speed(getInstance().alarm2Speed);
-            WheelLog.AppConfig.setWheelAlarm3Speed(getInstance().alarm3Speed);
-            WheelLog.AppConfig.setWheelAlarm1Enabled((getInstance().alarms & 0x0001) == 1);
-            WheelLog.AppConfig.setWheelAlarm2Enabled(((getInstance().alarms >> 1) & 0x0001) == 1);
-            WheelLog.AppConfig.setWheelAlarm3Enabled(((getInstance().alarms >> 2) & 0x0001) == 1);
-        }
-
-        void parseParams2() {
-            getInstance().ledMode = MathsUtil.shortFromBytesLE(data, 0);
-            getInstance().ledColor1 = (MathsUtil.intFromBytesLE(data, 4) >> 16) & 0xFF;
-            getInstance().ledColor2 = (MathsUtil.intFromBytesLE(data, 8) >> 16) & 0xFF;
-            getInstance().ledColor3 = (MathsUtil.intFromBytesLE(data, 12) >> 16) & 0xFF;
-            getInstance().ledColor4 = (MathsUtil.intFromBytesLE(data, 16) >> 16) & 0xFF;
-            getInstance().pedalSensivity = MathsUtil.shortFromBytesLE(data, 24);
-            getInstance().driveFlags = MathsUtil.shortFromBytesLE(data, 26);
-            WheelLog.AppConfig.setLedMode(Integer.toString(getInstance().ledMode));
-            WheelLog.AppConfig.setPedalSensivity(getInstance().pedalSensivity);
-            WheelLog.AppConfig.setLightEnabled(((getInstance().driveFlags >> 2) & 0x0001) == 1);
-            WheelLog.AppConfig.setTaillightEnabled(((getInstance().driveFlags >> 1) & 0x0001) == 1);
-            WheelLog.AppConfig.setDrlEnabled((getInstance().driveFlags & 0x0001) == 1);
-            WheelLog.AppConfig.setHandleButtonDisabled(((getInstance().driveFlags >> 3) & 0x0001) == 0);
-            WheelLog.AppConfig.setBrakeAssistantEnabled(((getInstance().driveFlags >> 4) & 0x0001) == 1);
-        }
-
-        void parseParams3() {
-            getInstance().speakerVolume = MathsUtil.shortFromBytesLE(data, 0) >> 3;
-            WheelLog.AppConfig.setSpeakerVolume(getInstance().speakerVolume);
+        void parseParams1(NinebotZAdapter adapter) {
+            if (data.length < 32) return;
+            adapter.lockMode = MathsUtil.shortFromBytesLE(data, 0);
+            adapter.limitedMode = MathsUtil.shortFromBytesLE(data, 4);
+            adapter.limitModeSpeed1Km = MathsUtil.shortFromBytesLE(data, 6)/100;
+            adapter.limitModeSpeed = MathsUtil.shortFromBytesLE(data, 8)/100;
+            adapter.alarms = MathsUtil.shortFromBytesLE(data, 24);
+            adapter.alarm1Speed = MathsUtil.shortFromBytesLE(data, 26)/100;
+            adapter.alarm2Speed = MathsUtil.shortFromBytesLE(data, 28)/100;
+            adapter.alarm3Speed = MathsUtil.shortFromBytesLE(data, 30)/100;
+            if (WheelData.getInstance().isStoringSettings()) {
+                WheelLog.AppConfig.setLockMode(adapter.lockMode==1);
+                WheelLog.AppConfig.setWheelLimitedModeEnabled(adapter.limitedMode == 1);
+                WheelLog.AppConfig.setWheelLimitedModeSpeed(adapter.limitModeSpeed);
+                WheelLog.AppConfig.setWheelAlarm1Speed(adapter.alarm1Speed);
+                WheelLog.AppConfig.setWheelAlarm2Speed(adapter.alarm2Speed);
+                WheelLog.AppConfig.setWheelAlarm3Speed(adapter.alarm3Speed);
+                WheelLog.AppConfig.setWheelAlarm1Enabled((adapter.alarms & 0x0001) == 1);
+                WheelLog.AppConfig.setWheelAlarm2Enabled(((adapter.alarms >> 1) & 0x0001) == 1);
+                WheelLog.AppConfig.setWheelAlarm3Enabled(((adapter.alarms >> 2) & 0x0001) == 1);
+            }
+        }
+
+        void parseParams2(NinebotZAdapter adapter) {
+            if (data.length < 28) return;
+            adapter.ledMode = MathsUtil.shortFromBytesLE(data, 0);
+            adapter.ledColor1 = (MathsUtil.intFromBytesLE(data, 4) >> 16) & 0xFF;
+            adapter.ledColor2 = (MathsUtil.intFromBytesLE(data, 8) >> 16) & 0xFF;
+            adapter.ledColor3 = (MathsUtil.intFromBytesLE(data, 12) >> 16) & 0xFF;
+            adapter.ledColor4 = (MathsUtil.intFromBytesLE(data, 16) >> 16) & 0xFF;
+            adapter.pedalSensivity = MathsUtil.shortFromBytesLE(data, 24);
+            adapter.driveFlags = MathsUtil.shortFromBytesLE(data, 26);
+            if (WheelData.getInstance().isStoringSettings()) {
+                WheelLog.AppConfig.setLedMode(Integer.toString(adapter.ledMode));
+                WheelLog.AppConfig.setPedalSensivity(adapter.pedalSensivity);
+                WheelLog.AppConfig.setLightEnabled(((adapter.driveFlags >> 2) & 0x0001) == 1);
+                WheelLog.AppConfig.setTaillightEnabled(((adapter.driveFlags >> 1) & 0x0001) == 1);
+                WheelLog.AppConfig.setDrlEnabled((adapter.driveFlags & 0x0001) == 1);
+                WheelLog.AppConfig.setHandleButtonDisabled(((adapter.driveFlags >> 3) & 0x0001) == 0);
+                WheelLog.AppConfig.setBrakeAssistantEnabled(((adapter.driveFlags >> 4) & 0x0001) == 1);
+            }
+        }
+
+        void parseParams3(NinebotZAdapter adapter) {
+            if (data.length < 2) return;
+            adapter.speakerVolume = MathsUtil.shortFromBytesLE(data, 0) >> 3;
+            if (WheelData.getInstance().isStoringSettings()) {
+                WheelLog.AppConfig.setSpeakerVolume(adapter.speakerVolume);
+            }
         }
 
         void parseVersionNumber() {
+            if (data.length < 2) return;
             String versionNumber = "";
             WheelData wd = WheelData.getInstance();
             versionNumber += String.format("%X.", (data[1] & 0x0f));
@@ -1047,6 +1061,7 @@ public class NinebotZAdapter extends BaseAdapter {
         }
 
         void parseActivationDate() { ////// ToDo: add to wheeldata
+            if (data.length < 2) return;
             WheelData wd = WheelData.getInstance();
             int activationDate = MathsUtil.shortFromBytesLE(data, 0);
             int year = activationDate>>9;
@@ -1056,7 +1071,8 @@ public class NinebotZAdapter extends BaseAdapter {
             //wd.setActivationDate(activationDateStr); fixme
         }
 
-        void parseLiveData() {
+        boolean parseLiveData() {
+            if (data.length < 28) return false;
             WheelData wd = WheelData.getInstance();
             int errorcode = MathsUtil.shortFromBytesLE(data, 0);
             int alarmcode = MathsUtil.shortFromBytesLE(data, 2);
@@ -1086,9 +1102,11 @@ public class NinebotZAdapter extends BaseAdapter {
             wd.setBatteryLevel(batt);
             wd.setVoltageSag(voltage);
             wd.setPower(power);
+            return true;
         }
 
         void parseBmsSn(int bmsnum) {
+            if (data.length < 34) return;
             WheelData wd = WheelData.getInstance();
             String serialNumber = new String(data, 0, 14);
             String versionNumber = "";
@@ -1115,6 +1133,7 @@ public class NinebotZAdapter extends BaseAdapter {
         }
 
         void parseBmsLife(int bmsnum) {
+            if (data.length < 24) return;
             WheelData wd = WheelData.getInstance();
             int bmsStatus = MathsUtil.shortFromBytesLE(data, 0);
             int remCap = MathsUtil.shortFromBytesLE(data, 2);
@@ -1138,54 +1157,12 @@ public class NinebotZAdapter extends BaseAdapter {
         }
 
         void parseBmsCells(int bmsnum) {
+            if (data.length < 32) return;
             WheelData wd = WheelData.getInstance();
-            int cell1 = MathsUtil.shortFromBytesLE(data, 0);
-            int cell2 = MathsUtil.shortFromBytesLE(data, 2);
-            int cell3 = MathsUtil.shortFromBytesLE(data, 4);
-            int cell4 = MathsUtil.shortFromBytesLE(data, 6);
-            int cell5 = MathsUtil.shortFromBytesLE(data, 8);
-            int cell6 = MathsUtil.shortFromBytesLE(data, 10);
-            int cell7 = MathsUtil.shortFromBytesLE(data, 12);
-            int cell8 = MathsUtil.shortFromBytesLE(data, 14);
-            int cell9 = MathsUtil.shortFromBytesLE(data, 16);
-            int cell10 = MathsUtil.shortFromBytesLE(data, 18);
-            int cell11 = MathsUtil.shortFromBytesLE(data, 20);
-            int cell12 = MathsUtil.shortFromBytesLE(data, 22);
-            int cell13 = MathsUtil.shortFromBytesLE(data, 24);
-            int cell14 = MathsUtil.shortFromBytesLE(data, 26);
-            int cell15 = MathsUtil.shortFromBytesLE(data, 28);
-            int cell16 = MathsUtil.shortFromBytesLE(data, 30);
-
             SmartBms bms = bmsnum == 1 ? wd.getBms1() : wd.getBms2();
-            bms.getCells()[0] = cell1 / 1000.0;
-            bms.getCells()[1] = cell2 / 1000.0;
-            bms.getCells()[2] = cell3 / 1000.0;
-            bms.getCells()[3] = cell4 / 1000.0;
-            bms.getCells()[4] = cell5 / 1000.0;
-            bms.getCells()[5] = cell6 / 1000.0;
-            bms.getCells()[6] = cell7 / 1000.0;
-            bms.getCells()[7] = cell8 / 1000.0;
-            bms.getCells()[8] = cell9 / 1000.0;
-            bms.getCells()[9] = cell10 / 1000.0;
-            bms.getCells()[10] = cell11 / 1000.0;
-            bms.getCells()[11] = cell12 / 1000.0;
-            bms.getCells()[12] = cell13 / 1000.0;
-            bms.getCells()[13] = cell14 / 1000.0;
-            bms.getCells()[14] = cell15 / 1000.0;
-            bms.getCells()[15] = cell16 / 1000.0;
-            bms.setMinCell(bms.getCells()[0]);
-            for (int i =0; i < 16; i++) {
-                double cell = bms.getCells()[i];
-                if (cell > 0.0) {
-                    if (bms.getMaxCell() < cell) {
-                        bms.setMaxCell(cell);
-                    }
-                    if (bms.getMinCell() > cell) {
-                        bms.setMinCell(cell);
-                    }
-                }
+            for (int i = 0; i < 16; i++) {
+                bms.setCell(i, MathsUtil.shortFromBytesLE(data, i * 2) / 1000.0);
             }
-            bms.setCellDiff(bms.getMaxCell()-bms.getMinCell());
         }
 
         public byte[] getData() {
@@ -1202,39 +1179,39 @@ public class NinebotZAdapter extends BaseAdapter {
             done
         }
 
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // 2 header + 1 len + 4 addresses, command and parameter + 255 data + 2 crc
+        final byte[] buffer = new byte[264];
+        int size = 0;
         int oldc = 0;
         int len = 0;
         UnpackerState state = UnpackerState.unknown;
 
         byte[] getBuffer() {
-            return buffer.toByteArray();
+            return Arrays.copyOf(buffer, size);
         }
 
         boolean addChar(int c) {
 
             switch (state) {
                 case collecting:
-                    buffer.write(c);
-                    if (buffer.size() == len + 9) {
+                    buffer[size++] = (byte) c;
+                    if (size == len + 9) {
                         state = UnpackerState.done;
-                        updateStep = 0;
                         Timber.i("Len %d", len);
-                        Timber.i("Step reset");
                         return true;
                     }
                     break;
                 case started:
-                    buffer.write(c);
+                    buffer[size++] = (byte) c;
                     len = c & 0xff;
                     state = UnpackerState.collecting;
                     break;
                 default:
                     if (c == (byte) 0xA5 && oldc == (byte) 0x5A) {
                         Timber.i("Find start");
-                        buffer = new ByteArrayOutputStream();
-                        buffer.write(0x5A);
-                        buffer.write(0xA5);
+                        buffer[0] = 0x5A;
+                        buffer[1] = (byte) 0xA5;
+                        size = 2;
                         state = UnpackerState.started;
                     }
                     oldc = c;
@@ -1244,29 +1221,22 @@ public class NinebotZAdapter extends BaseAdapter {
     }
 
     public static NinebotZAdapter getInstance() {
-        Timber.i("Get instance");
-        if (INSTANCE == null) {
-            Timber.i("New instance");
-            INSTANCE = new NinebotZAdapter();
-        }
-        return INSTANCE;
+        return WheelData.adapterOf(NinebotZAdapter.class, NinebotZAdapter::new);
     }
 
     public static synchronized void newInstance() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
+        NinebotZAdapter previous = WheelData.replaceAdapterOf(NinebotZAdapter.class, new NinebotZAdapter());
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("New instance");
-        INSTANCE = new NinebotZAdapter();
     }
 
     public static synchronized void stopTimer() {
-        if (INSTANCE != null && INSTANCE.keepAliveTimer != null) {
-            INSTANCE.keepAliveTimer.cancel();
-            INSTANCE.keepAliveTimer = null;
+        NinebotZAdapter previous = WheelData.replaceAdapterOf(NinebotZAdapter.class, null);
+        if (previous != null && previous.poller != null) {
+            previous.poller.stop();
         }
         Timber.i("Kill instance, stop timer");
-        INSTANCE = null;
     }
 }
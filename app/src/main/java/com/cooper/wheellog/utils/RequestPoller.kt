@@ -0,0 +1,241 @@
+package com.cooper.wheellog.utils
+
+import android.os.SystemClock
+import com.cooper.wheellog.WheelData
+import timber.log.Timber
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Request/response polling for wheels which send data only on request.
+ *
+ * The next request is sent only after the response to the previous one arrived
+ * or timed out. The timeout follows the measured response latency of the wheel.
+ * Live data requests go first, settings and statistics queries are allowed
+ * once per [QUERY_RATIO] live data requests.
+ * The poller wakes up only when the next request is due or a response arrived.
+ */
+class RequestPoller @JvmOverloads constructor(
+    private val source: Source,
+    private val minInterval: Long,
+    private val maxInterval: Long,
+    private val sender: Sender = Sender { request ->
+        if (request.kind == Kind.Live) WheelData.getInstance().bluetoothPoll(request.data)
+        else WheelData.getInstance().bluetoothCmd(request.data)
+    },
+    private val clock: Clock = Clock { SystemClock.uptimeMillis() }
+) {
+
+    enum class Kind {
+        /**
+         * User commands and handshake requests.
+         */
+        Command,
+        /**
+         * Settings, statistics and other slowly changing data.
+         */
+        Query,
+        Live
+    }
+
+    class Request @JvmOverloads constructor(
+        val data: ByteArray,
+        val kind: Kind,
+        /**
+         * Key of the expected response, [ANY_RESPONSE] or [NO_RESPONSE].
+         */
+        val response: Int = ANY_RESPONSE,
+        /**
+         * Runs after the request was sent.
+         */
+        val onSent: Runnable? = null
+    )
+
+    fun interface Source {
+        /**
+         * @param queryAllowed false if a [Kind.Query] request should wait for live data requests.
+         * @return the next request or null if there is nothing to send.
+         */
+        fun nextRequest(queryAllowed: Boolean): Request?
+    }
+
+    fun interface Sender {
+        fun send(request: Request): Boolean
+    }
+
+    fun interface Clock {
+        fun now(): Long
+    }
+
+    /**
+     * Runs the ticks of a poller, created by [schedulerFactory] on [start].
+     */
+    interface Scheduler {
+        /**
+         * [tick] must run after [delay] ms, replacing a previously scheduled run.
+         */
+        fun schedule(tick: Runnable, delay: Long)
+
+        /**
+         * Cancels the scheduled run for good, the scheduler is not used again.
+         */
+        fun shutdown()
+    }
+
+    /**
+     * Ticks on a thread of its own.
+     */
+    private class ThreadScheduler : Scheduler {
+        private val executor = Executors.newSingleThreadScheduledExecutor()
+        private var next: ScheduledFuture<*>? = null
+
+        override fun schedule(tick: Runnable, delay: Long) {
+            next?.cancel(false)
+            next = executor.schedule(tick, delay, TimeUnit.MILLISECONDS)
+        }
+
+        override fun shutdown() {
+            executor.shutdownNow()
+        }
+    }
+
+    // requests are built and sent for the wheel which created the poller
+    private val wheelData: WheelData? = WheelData.getInstance()
+    private val tickTask = Runnable { onTick() }
+    private var scheduler: Scheduler? = null
+    private var outstanding: Request? = null
+    private var sentTime = 0L
+    private var lastSendTime = Long.MIN_VALUE / 2
+    private var livePolls = QUERY_RATIO
+
+    /**
+     * Smoothed response latency, ms, -1 until the first response.
+     */
+    var latency = -1.0
+        private set
+
+    var interval = maxInterval
+        private set
+
+    var timeouts = 0L
+        private set
+
+    @Synchronized
+    fun start(delay: Long) {
+        stop()
+        scheduler = schedulerFactory()
+        schedule(delay)
+    }
+
+    @Synchronized
+    fun stop() {
+        scheduler?.shutdown()
+        scheduler = null
+        reset()
+    }
+
+    @Synchronized
+    private fun onTick() {
+        if (scheduler == null) {
+            return
+        }
+        val previous = WheelData.bind(wheelData)
+        try {
+            schedule(tick())
+        } finally {
+            WheelData.bind(previous)
+        }
+    }
+
+    private fun schedule(delay: Long) {
+        scheduler?.schedule(tickTask, delay)
+    }
+
+    @Synchronized
+    fun reset() {
+        outstanding = null
+        lastSendTime = Long.MIN_VALUE / 2
+        livePolls = QUERY_RATIO
+        latency = -1.0
+        interval = maxInterval
+    }
+
+    /**
+     * Called by the adapter for every verified message from the wheel.
+     */
+    @Synchronized
+    fun onResponse(key: Int) {
+        val request = outstanding ?: return
+        if (request.response != ANY_RESPONSE && request.response != key) {
+            return
+        }
+        outstanding = null
+        val rtt = (clock.now() - sentTime).toDouble()
+        latency = if (latency < 0) rtt else latency * (1 - SMOOTHING) + rtt * SMOOTHING
+        interval = latency.toLong().coerceIn(minInterval, maxInterval)
+        // the next request may be due before the timeout the poller sleeps for
+        schedule((lastSendTime + interval - clock.now()).coerceAtLeast(0))
+    }
+
+    /**
+     * Sends the next request if the previous one is answered or timed out.
+     * @return ms until the next request is due. A source with nothing to send is asked
+     * again after the interval.
+     */
+    @Synchronized
+    fun tick(): Long {
+        val now = clock.now()
+        if (outstanding != null) {
+            val timeout = timeout()
+            if (now - sentTime < timeout) {
+                return sentTime + timeout - now
+            }
+            Timber.i("Response timeout")
+            outstanding = null
+            timeouts++
+            interval = maxInterval
+        }
+        if (now - lastSendTime < interval) {
+            return lastSendTime + interval - now
+        }
+        val request = source.nextRequest(livePolls >= QUERY_RATIO) ?: return interval
+        if (!sender.send(request)) {
+            Timber.i("Unable to send request")
+            lastSendTime = now - interval + minInterval
+            return minInterval
+        }
+        when (request.kind) {
+            Kind.Live -> livePolls++
+            Kind.Query -> livePolls = 0
+            else -> {}
+        }
+        lastSendTime = now
+        sentTime = now
+        outstanding = if (request.response == NO_RESPONSE) null else request
+        request.onSent?.run()
+        return if (outstanding != null) timeout() else interval
+    }
+
+    private fun timeout(): Long {
+        if (latency < 0) {
+            return maxInterval
+        }
+        return (latency * TIMEOUT_FACTOR).toLong().coerceIn(minInterval * 2, maxInterval)
+    }
+
+    companion object {
+        const val ANY_RESPONSE = -1
+        const val NO_RESPONSE = -2
+        const val QUERY_RATIO = 4
+        private const val TIMEOUT_FACTOR = 3
+        private const val SMOOTHING = 0.2
+
+        /**
+         * Creates the scheduler of a poller, a thread per poller. Tests replace it
+         * to run the pollers on a virtual clock.
+         */
+        @JvmStatic
+        var schedulerFactory: () -> Scheduler = { ThreadScheduler() }
+    }
+}
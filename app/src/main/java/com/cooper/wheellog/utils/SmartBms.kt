@@ -22,16 +22,116 @@ class SmartBms {
     var tempMos: Double = 0.0
     var tempMosEnv: Double = 0.0
     var balanceMap: Int = 0
+        @Synchronized set(value) {
+            // the balance marker is shown with the cell
+            dirtyCells = dirtyCells or (field xor value)
+            field = value
+        }
     var health: Int = 0
+
+    /**
+     * Lowest cell above zero, highest cell since the reset and their difference,
+     * kept up to date by [setCell]. The highest cell does not drop with the cell,
+     * as the adapters always reported it.
+     */
     var minCell: Double = 0.0
+        private set
     var maxCell: Double = 0.0
+        private set
     var cellDiff: Double = 0.0
-    lateinit var cells: Array<Double>
+        private set
+
+    /**
+     * Cell voltages, written with [setCell].
+     */
+    val cells = DoubleArray(CELLS)
+
+    private var minIndex = -1
+    private var dirtyCells = -1
+    private val history = DoubleArray(CELLS * HISTORY_SIZE)
+    private val historyWrites = IntArray(CELLS)
 
     init {
         reset()
     }
-    
+
+    @Synchronized
+    fun setCell(index: Int, value: Double) {
+        if (cells[index] != value) {
+            cells[index] = value
+            dirtyCells = dirtyCells or (1 shl index)
+            if (value > maxCell) {
+                maxCell = value
+            }
+            if (value > 0.0 && (minIndex < 0 || value <= minCell)) {
+                minIndex = index
+                minCell = value
+            } else if (index == minIndex) {
+                findMinCell()
+            }
+            cellDiff = maxCell - minCell
+        }
+        val base = index * HISTORY_SIZE
+        val slot = historyWrites[index] % HISTORY_SIZE
+        // a full ring drops its oldest value, which moves the drift
+        if (historyWrites[index] >= HISTORY_SIZE && history[base + slot] != history[base + (slot + 1) % HISTORY_SIZE]) {
+            dirtyCells = dirtyCells or (1 shl index)
+        }
+        history[base + slot] = value
+        historyWrites[index]++
+    }
+
+    /**
+     * Bit i is set if cell i or its balance marker changed since the last call.
+     */
+    @Synchronized
+    fun takeDirtyCells(): Int {
+        val dirty = dirtyCells
+        dirtyCells = 0
+        return dirty
+    }
+
+    /**
+     * Copies the last values of the cell into [out], oldest first.
+     * @return number of values copied
+     */
+    @Synchronized
+    fun cellHistory(index: Int, out: DoubleArray): Int {
+        val writes = historyWrites[index]
+        val count = minOf(writes, HISTORY_SIZE, out.size)
+        for (i in 0 until count) {
+            out[i] = history[index * HISTORY_SIZE + (writes - count + i) % HISTORY_SIZE]
+        }
+        return count
+    }
+
+    /**
+     * Change of the cell over its history, the newest value minus the oldest one.
+     * A cell that drifts away from the others shows the imbalance over the ride.
+     */
+    @Synchronized
+    fun cellDrift(index: Int): Double {
+        val writes = historyWrites[index]
+        if (writes < 2) {
+            return 0.0
+        }
+        val base = index * HISTORY_SIZE
+        val oldest = if (writes >= HISTORY_SIZE) writes % HISTORY_SIZE else 0
+        return history[base + (writes - 1) % HISTORY_SIZE] - history[base + oldest]
+    }
+
+    private fun findMinCell() {
+        minIndex = -1
+        minCell = 0.0
+        for (i in cells.indices) {
+            if (cells[i] > 0.0 && (minIndex < 0 || cells[i] < minCell)) {
+                minIndex = i
+                minCell = cells[i]
+            }
+        }
+    }
+
+    @Synchronized
     fun reset() {
         serialNumber = ""
         versionNumber = ""
@@ -58,6 +158,14 @@ class SmartBms {
         minCell = 0.0
         maxCell = 0.0
         cellDiff = 0.0
-        cells = Array(32) { 0.0 }
+        cells.fill(0.0)
+        minIndex = -1
+        dirtyCells = -1
+        historyWrites.fill(0)
+    }
+
+    companion object {
+        const val CELLS = 32
+        const val HISTORY_SIZE = 60
     }
 }
@@ -23,6 +23,18 @@ class StringUtil {
             }
         }
 
+        /**
+         * Allocation-free variant of [toTempString].
+         */
+        @JvmStatic
+        fun FormatBuffer.appendTemp(value: Int, useFahrenheit: Boolean): FormatBuffer {
+            return if (useFahrenheit) {
+                append(MathsUtil.celsiusToFahrenheit(value.toDouble()).toInt(), 2).append('℉')
+            } else {
+                append(value, 2).append('℃')
+            }
+        }
+
         @JvmStatic
         fun toHexString(buffer: ByteArray): String {
             return "[" + toHexStringRaw(buffer) + "]"
@@ -1,5 +1,6 @@
 package com.cooper.wheellog.utils;
 
+import com.cooper.wheellog.LinkDiagnostics;
 import com.cooper.wheellog.WheelData;
 import com.cooper.wheellog.WheelLog;
 
@@ -8,7 +9,6 @@ import java.util.Locale;
 import timber.log.Timber;
 
 public class VeteranAdapter extends BaseAdapter {
-    private static VeteranAdapter INSTANCE;
     veteranUnpacker unpacker = new veteranUnpacker();
     private static final int WAITING_TIME = 100;
     private long time_old = 0;
@@ -25,6 +25,7 @@ public class VeteranAdapter extends BaseAdapter {
         boolean newDataFound = false;
         for (byte c : data) {
             if (unpacker.addChar(c)) {
+                reportFrame();
                 byte[] buff = unpacker.getBuffer();
                 Boolean useBetterPercents = WheelLog.AppConfig.getUseBetterPercents();
                 int veteranNegative = Integer.parseInt(WheelLog.AppConfig.getGotwayNegative());
@@ -150,6 +151,9 @@ public class VeteranAdapter extends BaseAdapter {
         }
 
 
+        // decode reads the fields up to the hardware pwm at 34
+        static final int MIN_LEN = 32;
+
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         int old1 = 0;
         int old2 = 0;
@@ -171,6 +175,7 @@ public class VeteranAdapter extends BaseAdapter {
                     if (((bsize == 22 || bsize == 30) && (c != 0x00)) || ((bsize == 23) && ((c & 0xFE) != 0x00)) || ((bsize == 31) && ((c & 0xFC) != 0x00))) {
                         state = UnpackerState.done;
                         Timber.i("Data verification failed");
+                        reportRejectedFrame(LinkDiagnostics.Reject.Format);
                         reset();
                         return false;
                     }
@@ -187,6 +192,12 @@ public class VeteranAdapter extends BaseAdapter {
                 case lensearch:
                     buffer.write(c);
                     len = c & 0xff;
+                    if (len < MIN_LEN) {
+                        Timber.i("Len %d is too short", len);
+                        reportRejectedFrame(LinkDiagnostics.Reject.Length);
+                        reset();
+                        return false;
+                    }
                     state = UnpackerState.collecting;
                     old2 = old1;
                     old1 = c;
@@ -221,10 +232,7 @@ public class VeteranAdapter extends BaseAdapter {
 
 
     public static VeteranAdapter getInstance() {
-        if (INSTANCE == null) {
-            INSTANCE = new VeteranAdapter();
-        }
-        return INSTANCE;
+        return WheelData.adapterOf(VeteranAdapter.class, VeteranAdapter::new);
     }
 
 }
\ No newline at end of file
@@ -1,31 +1,73 @@
 package com.cooper.wheellog.views
 
-import java.util.concurrent.Callable
+import com.cooper.wheellog.utils.FormatBuffer
 
-class ViewBlockInfo : Comparable<ViewBlockInfo> {
-    var title: String
+class ViewBlockInfo private constructor(
+    var title: String,
+    private val value: ValueSource?,
+    private val formatter: ValueFormatter?,
+    private val textSource: TextSource?,
     var enabled: Boolean
-    private var value: Callable<String>
-    var index = -1
+) : Comparable<ViewBlockInfo> {
+
+    constructor(title: String, value: ValueSource, formatter: ValueFormatter, enabled: Boolean = true)
+            : this(title, value, formatter, null, enabled)
+
+    /**
+     * Block of a text value, the text is compared with the shown one.
+     */
+    constructor(title: String, textSource: TextSource, enabled: Boolean = true)
+            : this(title, null, null, textSource, enabled)
+
+    fun interface ValueSource {
+        fun get(): Double
+    }
+
+    fun interface ValueFormatter {
+        fun format(buffer: FormatBuffer, value: Double)
+    }
 
-    constructor(title: String, value: Callable<String>, enabled: Boolean) {
-        this.title = title
-        this.value = value
-        this.enabled = enabled
+    fun interface TextSource {
+        fun get(): String?
     }
 
-    constructor(title: String, value: Callable<String>) : this(title, value, true)
+    var index = -1
+    val text = FormatBuffer()
+    private var lastValue = 0.0
+    private var formatted = false
 
-    @Throws(Exception::class)
-    fun getValue(): String {
-        return value.call()
+    /**
+     * Re-formats [text] only if the source value has changed since the last call.
+     * @return true if [text] was changed.
+     */
+    fun update(): Boolean {
+        if (textSource != null) {
+            val newText = textSource.get() ?: ""
+            if (formatted && text.contentEquals(newText)) {
+                return false
+            }
+            formatted = true
+            text.clear().append(newText)
+            return true
+        }
+        val newValue = value!!.get()
+        if (formatted && newValue.compareTo(lastValue) == 0) {
+            return false
+        }
+        lastValue = newValue
+        formatted = true
+        formatter!!.format(text.clear(), newValue)
+        return true
     }
 
-    fun setValue(mValue: Callable<String>) {
-        value = mValue
+    /**
+     * Forces the next [update] to re-format, e.g. after units have been changed.
+     */
+    fun invalidate() {
+        formatted = false
     }
 
     override fun compareTo(other: ViewBlockInfo): Int {
         return index.compareTo(other.index)
     }
-}
\ No newline at end of file
+}
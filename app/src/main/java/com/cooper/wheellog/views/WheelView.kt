@@ -4,19 +4,20 @@ import android.annotation.SuppressLint
 import android.app.AlertDialog
 import android.content.Context
 import android.graphics.*
-import android.os.Handler
 import android.util.AttributeSet
+import android.view.Choreographer
 import android.view.GestureDetector
 import android.view.MotionEvent
 import android.view.View
 import androidx.core.math.MathUtils
 import com.cooper.wheellog.*
+import com.cooper.wheellog.utils.FormatBuffer
 import com.cooper.wheellog.utils.MathsUtil.dpToPx
 import com.cooper.wheellog.utils.MathsUtil.kmToMiles
 import com.cooper.wheellog.utils.ReflectUtil
 import com.cooper.wheellog.utils.SomeUtil
 import com.cooper.wheellog.utils.SomeUtil.Companion.getColorEx
-import com.cooper.wheellog.utils.StringUtil.Companion.toTempString
+import com.cooper.wheellog.utils.StringUtil.Companion.appendTemp
 import timber.log.Timber
 import java.util.*
 import kotlin.math.*
@@ -24,6 +25,11 @@ import kotlin.math.*
 
 @SuppressLint("ClickableViewAccessibility")
 class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
+    companion object {
+        // the dials move one tick (2.25°) per 30 ms
+        private const val ANIMATION_TICKS_PER_SECOND = 1000f / 30
+    }
+
     private var currentTheme = R.style.OriginalTheme
     private var outerArcPaint = Paint()
     private var innerArcPaint = Paint()
@@ -53,7 +59,7 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
     private var mBatteryLowest = 101
     private var mTemperature = 0
     private var mMaxTemperature = 0
-    private var mCurrentTime = "00:00:00"
+    private var mRidingTime = 0
     private var mDistance = 0.0
     private var mTotalDistance = 0.0
     private var mTopSpeed = 0.0
@@ -63,6 +69,35 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
     private var mMaxPwm = 0.0
     private var mAverageSpeed = 0.0
     private var useMph: Boolean
+    private var useFahrenheit = false
+    private var currentOnDial = false
+    private var useShortPwm = false
+    private var alteredAlarms = false
+    private var alarm1Speed = 0
+    private var fixedPercents = false
+    private var useBetterPercents = false
+    private val unitKmh = " " + resources.getString(R.string.kmh)
+    private val unitMph = " " + resources.getString(R.string.mph)
+    private val unitKm = " " + resources.getString(R.string.km)
+    private val unitMiles = " " + resources.getString(R.string.miles)
+    private val unitMetre = " " + resources.getString(R.string.metre)
+    private val unitVolt = " " + resources.getString(R.string.volt)
+    private val unitAmp = " " + resources.getString(R.string.amp)
+    private val unitWatt = " " + resources.getString(R.string.watt)
+    private var speedUnitString = ""
+    // cached texts for onDraw, re-formatted only when the shown value changes
+    private val speedText = FormatBuffer(8)
+    private var shownSpeed = Int.MIN_VALUE
+    private val pwmText = FormatBuffer(16)
+    private var shownPwm = Int.MIN_VALUE
+    private var shownMaxPwm = Int.MIN_VALUE
+    private var shownPwmSeparator = ' '
+    private val batteryText = FormatBuffer(8)
+    private var shownBattery = Int.MIN_VALUE
+    private val temperatureText = FormatBuffer(8)
+    private var shownTemperature = Int.MIN_VALUE
+    private val maxTemperatureText = FormatBuffer(8)
+    private var shownMaxTemperature = Int.MIN_VALUE
     private var mWheelModel = ""
     private val versionString = String.format("ver %s %s", BuildConfig.VERSION_NAME, BuildConfig.BUILD_DATE)
     private var outerStrokeWidth = 0f
@@ -80,7 +115,6 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
     private var centerX = 0f
     private var centerY = 0f
     private val boundaryOfText = Rect()
-    var refreshDisplay = false
     private var targetSpeed = 0
     private var targetCurrent = 0
     private var currentSpeed = 0
@@ -92,173 +126,137 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
     private var currentBattery = 0
     private var mTextBoxesBitmap: Bitmap? = null
     private var mCanvas: Canvas? = null
-    private val refreshHandler = Handler()
     private var boxRects = arrayOf<RectF?>()
-    private val refreshRunner: Runnable = object : Runnable {
-        override fun run() {
-            if (refreshDisplay) {
-                invalidate()
-                refreshHandler.postDelayed(this, 30)
-            }
-        }
-    }
+    private var textBoxesLayoutDirty = true
+    private var boxValuePaint = Paint()
+    private var boxTitlePaint = Paint()
+    private val boxClearPaint = Paint().apply { xfermode = PorterDuffXfermode(PorterDuff.Mode.CLEAR) }
+    private val boxClearRect = RectF()
+    private val frameCallback = Choreographer.FrameCallback { frameTimeNanos -> onAnimationFrame(frameTimeNanos) }
+    private var animating = false
+    private var lastFrameTimeNanos = 0L
+    private var animationTicks = 0f
+    private var framesCount = 0
+    private var framesWindowStart = 0L
 
     private val viewBlockInfo: Array<ViewBlockInfo>
         get() = arrayOf(
-                ViewBlockInfo(resources.getString(R.string.pwm)) { String.format(Locale.US, "%.2f%%", mPwm) },
-                ViewBlockInfo(resources.getString(R.string.max_pwm)) { String.format(Locale.US, "%.2f%%", mMaxPwm) },
-                ViewBlockInfo(resources.getString(R.string.voltage)) { String.format(Locale.US, "%.2f " + resources.getString(R.string.volt), mVoltage) },
-                ViewBlockInfo(resources.getString(R.string.average_riding_speed)) {
-                    if (useMph) {
-                        String.format(Locale.US, "%.1f " + resources.getString(R.string.mph), kmToMiles(mAverageSpeed))
-                    } else {
-                        String.format(Locale.US, "%.1f " + resources.getString(R.string.kmh), mAverageSpeed)
-                    }
-                },
-                ViewBlockInfo(resources.getString(R.string.riding_time)) { mCurrentTime },
-                ViewBlockInfo(resources.getString(R.string.top_speed)) {
+                ViewBlockInfo(resources.getString(R.string.pwm), { mPwm }, { b, v -> b.append(v, 2).append('%') }),
+                ViewBlockInfo(resources.getString(R.string.max_pwm), { mMaxPwm }, { b, v -> b.append(v, 2).append('%') }),
+                ViewBlockInfo(resources.getString(R.string.voltage), { mVoltage }, { b, v -> b.append(v, 2).append(unitVolt) }),
+                ViewBlockInfo(resources.getString(R.string.average_riding_speed), { mAverageSpeed }, { b, v -> appendSpeed(b, v) }),
+                ViewBlockInfo(resources.getString(R.string.riding_time), { mRidingTime.toDouble() }, { b, v -> b.appendTime(v.toInt()) }),
+                ViewBlockInfo(resources.getString(R.string.top_speed), { mTopSpeed }, { b, v -> appendSpeed(b, v) }),
+                ViewBlockInfo(resources.getString(R.string.distance), { mDistance }, { b, v ->
                     if (useMph) {
-                        String.format(Locale.US, "%.1f " + resources.getString(R.string.mph), kmToMiles(mTopSpeed))
+                        b.append(kmToMiles(v), 2).append(unitMiles)
                     } else {
-                        String.format(Locale.US, "%.1f " + resources.getString(R.string.kmh), mTopSpeed)
-                    }
-                },
-                ViewBlockInfo(resources.getString(R.string.distance)) {
-                    if (useMph) {
-                        String.format(Locale.US, "%.2f " + resources.getString(R.string.miles), kmToMiles(mDistance))
-                    } else {
-                        if (mDistance < 1) {
-                            String.format(Locale.US, "%.0f " + resources.getString(R.string.metre), mDistance * 1000)
+                        if (v < 1) {
+                            b.append(v * 1000, 0).append(unitMetre)
                         } else {
-                            String.format(Locale.US, "%.2f " + resources.getString(R.string.km), mDistance)
+                            b.append(v, 2).append(unitKm)
                         }
                     }
-                },
-                ViewBlockInfo(resources.getString(R.string.total)) {
+                }),
+                ViewBlockInfo(resources.getString(R.string.total), { mTotalDistance }, { b, v ->
                     if (useMph) {
-                        String.format(Locale.US, "%.0f " + resources.getString(R.string.miles), kmToMiles(mTotalDistance))
+                        b.append(kmToMiles(v), 0).append(unitMiles)
                     } else {
-                        String.format(Locale.US, "%.0f " + resources.getString(R.string.km), mTotalDistance)
+                        b.append(v, 0).append(unitKm)
                     }
-                },
-                ViewBlockInfo(resources.getString(R.string.battery)) { String.format(Locale.US, "%d %%", mBattery) },
-                ViewBlockInfo(resources.getString(R.string.current)) { String.format(Locale.US, "%.2f " + resources.getString(R.string.amp), mCurrent) },
-                ViewBlockInfo(resources.getString(R.string.maxcurrent)) { String.format(Locale.US, "%.2f " + resources.getString(R.string.amp), WheelData.getInstance().maxCurrentDouble) },
+                }),
+                ViewBlockInfo(resources.getString(R.string.battery), { mBattery.toDouble() }, { b, v -> b.append(v.toInt()).append(" %") }),
+                ViewBlockInfo(resources.getString(R.string.current), { mCurrent }, { b, v -> b.append(v, 2).append(unitAmp) }),
+                ViewBlockInfo(resources.getString(R.string.maxcurrent), { WheelData.getInstance().maxCurrentDouble }, { b, v -> b.append(v, 2).append(unitAmp) }),
                 ViewBlockInfo(
                     resources.getString(R.string.power),
-                    {
-                        String.format(
-                            Locale.US,
-                            "%.2f " + resources.getString(R.string.watt),
-                            WheelData.getInstance().powerDouble
-                        )
-                    },
+                    { WheelData.getInstance().powerDouble },
+                    { b, v -> b.append(v, 2).append(unitWatt) },
                     false
                 ),
                 ViewBlockInfo(
                     resources.getString(R.string.maxpower),
-                    {
-                        String.format(
-                            Locale.US,
-                            "%.0f " + resources.getString(R.string.watt),
-                            WheelData.getInstance().maxPowerDouble
-                        )
-                    },
+                    { WheelData.getInstance().maxPowerDouble },
+                    { b, v -> b.append(v, 0).append(unitWatt) },
                     false
                 ),
-                ViewBlockInfo(resources.getString(R.string.temperature), {
-                    mTemperature.toTempString()
-                },
-                false),
-                ViewBlockInfo(resources.getString(R.string.temperature2), {
-                    WheelData.getInstance().temperature2.toTempString()
-                }, false),
-                ViewBlockInfo(resources.getString(R.string.maxtemperature), {
-                    mMaxTemperature.toTempString()
-                }, false),
-                ViewBlockInfo(resources.getString(R.string.average_speed), {
-                        if (useMph) {
-                            String.format(
-                                Locale.US,
-                                "%.1f " + resources.getString(R.string.mph),
-                                kmToMiles(WheelData.getInstance().averageSpeedDouble)
-                            )
-                        } else {
-                            String.format(
-                                Locale.US,
-                                "%.1f " + resources.getString(R.string.kmh),
-                                WheelData.getInstance().averageSpeedDouble
-                            )
-                        }
-                    },
+                ViewBlockInfo(
+                    resources.getString(R.string.temperature),
+                    { mTemperature.toDouble() },
+                    { b, v -> b.appendTemp(v.toInt(), useFahrenheit) },
+                    false
+                ),
+                ViewBlockInfo(
+                    resources.getString(R.string.temperature2),
+                    { WheelData.getInstance().temperature2.toDouble() },
+                    { b, v -> b.appendTemp(v.toInt(), useFahrenheit) },
+                    false
+                ),
+                ViewBlockInfo(
+                    resources.getString(R.string.maxtemperature),
+                    { mMaxTemperature.toDouble() },
+                    { b, v -> b.appendTemp(v.toInt(), useFahrenheit) },
+                    false
+                ),
+                ViewBlockInfo(
+                    resources.getString(R.string.average_speed),
+                    { WheelData.getInstance().averageSpeedDouble },
+                    { b, v -> appendSpeed(b, v) },
                     false
                 ),
                 ViewBlockInfo(
                     resources.getString(R.string.ride_time),
-                    { WheelData.getInstance().rideTimeString },
+                    { WheelData.getInstance().totalRideTime.toDouble() },
+                    { b, v -> b.appendTime(v.toInt()) },
                     false
                 ),
                 ViewBlockInfo(
                     resources.getString(R.string.wheel_distance),
-                    {
-                        if (useMph) {
-                            String.format(
-                                Locale.US,
-                                "%.2f " + resources.getString(R.string.miles),
-                                kmToMiles(WheelData.getInstance().wheelDistanceDouble)
-                            )
-                        } else {
-                            String.format(
-                                Locale.US,
-                                "%.3f " + resources.getString(R.string.km),
-                                WheelData.getInstance().wheelDistanceDouble
-                            )
-                        }
-                    },
+                    { WheelData.getInstance().wheelDistanceDouble },
+                    { b, v -> appendLongDistance(b, v) },
                     false
                 ),
                 ViewBlockInfo(
                     resources.getString(R.string.remaining_distance),
-                    {
-                        if (useMph) {
-                            String.format(
-                                Locale.US,
-                                "%.2f " + resources.getString(R.string.miles),
-                                kmToMiles(WheelData.getInstance().remainingDistance)
-                            )
-                        } else {
-                            String.format(
-                                Locale.US,
-                                "%.3f " + resources.getString(R.string.km),
-                                WheelData.getInstance().remainingDistance
-                            )
-                        }
-                    },
+                    { WheelData.getInstance().remainingDistance },
+                    { b, v -> appendLongDistance(b, v) },
                     false
                 ),
                 ViewBlockInfo(
                     resources.getString(R.string.battery_per_km),
-                    {
-                        String.format(Locale.US, "%.2f %%", WheelData.getInstance().batteryPerKm)
-                    },
+                    { WheelData.getInstance().batteryPerKm },
+                    { b, v -> b.append(v, 2).append(" %") },
                     false
                 ),
                 ViewBlockInfo(
                     resources.getString(R.string.user_distance),
-                    {
-                        String.format(
-                            Locale.US,
-                            "%.3f " + resources.getString(R.string.km),
-                            WheelData.getInstance().userDistanceDouble)
-                    },
+                    { WheelData.getInstance().userDistanceDouble },
+                    { b, v -> b.append(v, 3).append(unitKm) },
                     false
                 )
         )
 
+    private fun appendSpeed(buffer: FormatBuffer, value: Double) {
+        if (useMph) {
+            buffer.append(kmToMiles(value), 1).append(unitMph)
+        } else {
+            buffer.append(value, 1).append(unitKmh)
+        }
+    }
+
+    private fun appendLongDistance(buffer: FormatBuffer, value: Double) {
+        if (useMph) {
+            buffer.append(kmToMiles(value), 2).append(unitMiles)
+        } else {
+            buffer.append(value, 3).append(unitKm)
+        }
+    }
+
     fun setWheelModel(mWheelModel: String) {
         if (this.mWheelModel != mWheelModel) {
             this.mWheelModel = mWheelModel
             calcModelTextSize()
+            invalidate()
         }
     }
 
@@ -266,6 +264,7 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         for (block in mViewBlocks) {
             block.enabled = false
             block.index = -1
+            block.invalidate()
         }
         var index = 0
         for (title in WheelLog.AppConfig.viewBlocks) {
@@ -277,8 +276,29 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
                 }
             }
         }
-        useMph = WheelLog.AppConfig.useMph
+        updateSettings()
         Arrays.sort(mViewBlocks)
+        textBoxesLayoutDirty = true
+    }
+
+    /**
+     * Reads the settings used by onDraw, so they are not fetched from preferences on every frame.
+     */
+    private fun updateSettings() {
+        val config = WheelLog.AppConfig
+        useMph = config.useMph
+        useFahrenheit = config.useFahrenheit
+        currentOnDial = config.currentOnDial
+        useShortPwm = config.useShortPwm
+        alteredAlarms = config.alteredAlarms
+        alarm1Speed = config.alarm1Speed
+        fixedPercents = config.fixedPercents
+        useBetterPercents = config.useBetterPercents
+        speedUnitString = if (useMph) resources.getString(R.string.mph) else resources.getString(R.string.kmh)
+        shownSpeed = Int.MIN_VALUE
+        shownTemperature = Int.MIN_VALUE
+        shownMaxTemperature = Int.MIN_VALUE
+        invalidate()
     }
 
     fun resetBatteryLowest() {
@@ -335,9 +355,9 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         refresh()
     }
 
-    fun setRideTime(currentTime: String) {
-        if (mCurrentTime == currentTime) return
-        mCurrentTime = currentTime
+    fun setRidingTime(seconds: Int) {
+        if (mRidingTime == seconds) return
+        mRidingTime = seconds
         refresh()
     }
 
@@ -381,11 +401,76 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         refresh()
     }
 
+    /**
+     * Schedules a frame. The frame callbacks keep running only until every animated value reaches its target.
+     */
     private fun refresh() {
-        if (!refreshDisplay) {
-            refreshDisplay = true
-            refreshHandler.postDelayed(refreshRunner, 30)
+        if (isInEditMode) {
+            invalidate()
+            return
+        }
+        if (!animating) {
+            animating = true
+            lastFrameTimeNanos = 0L
+            Choreographer.getInstance().postFrameCallback(frameCallback)
+        }
+    }
+
+    private fun onAnimationFrame(frameTimeNanos: Long) {
+        if (lastFrameTimeNanos != 0L) {
+            animationTicks += (frameTimeNanos - lastFrameTimeNanos) / 1_000_000_000f * ANIMATION_TICKS_PER_SECOND
+        }
+        lastFrameTimeNanos = frameTimeNanos
+        val steps = animationTicks.toInt()
+        if (steps > 0) {
+            animationTicks -= steps
+            currentSpeed = updateCurrentValue(targetSpeed, currentSpeed, steps)
+            currentCurrent = updateCurrentValue2(targetCurrent, currentCurrent, steps)
+            currentTemperature = updateCurrentValue(targetTemperature, currentTemperature, steps)
+            currentBattery = updateCurrentValue(targetBattery, currentBattery, steps)
+        }
+        invalidate()
+        if (currentSpeed == targetSpeed && currentCurrent == targetCurrent &&
+                currentBattery == targetBattery && currentTemperature == targetTemperature) {
+            animating = false
+            animationTicks = 0f
+            reportFrames()
+        } else {
+            Choreographer.getInstance().postFrameCallback(frameCallback)
+        }
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        if (animating) {
+            animating = false
+            refresh()
+        }
+    }
+
+    override fun onDetachedFromWindow() {
+        Choreographer.getInstance().removeFrameCallback(frameCallback)
+        super.onDetachedFromWindow()
+    }
+
+    private fun countFrame() {
+        if (framesWindowStart == 0L) {
+            framesWindowStart = System.nanoTime()
         }
+        framesCount++
+    }
+
+    /**
+     * Logs the frames actually rendered per second of the animation which just stopped.
+     */
+    private fun reportFrames() {
+        val elapsed = System.nanoTime() - framesWindowStart
+        if (framesWindowStart != 0L && elapsed > 0) {
+            Timber.i("WheelView: %d frames in %d ms, %.1f frames/s",
+                    framesCount, elapsed / 1_000_000, framesCount * 1_000_000_000f / elapsed)
+        }
+        framesCount = 0
+        framesWindowStart = 0L
     }
 
     override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
@@ -462,6 +547,7 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         calcModelTextSize()
         mTextBoxesBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888)
         mCanvas = Canvas(mTextBoxesBitmap!!)
+        textBoxesLayoutDirty = true
         if (landscape && w.toFloat() / h > 1.4 || !landscape && h.toFloat() / w > 1.1) {
             redrawTextBoxes()
         }
@@ -481,18 +567,56 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         modelTextPaint.textSize = calculateFontSize(boundaryOfText, modelTextRect, mWheelModel, modelTextPaint) / 2
     }
 
-    private fun drawTextBox(header: String, value: String, canvas: Canvas, rect: RectF, paint: Paint, paintDescription: Paint) {
+    private fun drawTextBox(header: String, value: FormatBuffer, canvas: Canvas, rect: RectF) {
         val x = rect.centerX()
         val y = rect.centerY() - boxInnerPadding
-        canvas.drawText(value, x, y, paint)
-        canvas.drawText(header, x, y + boxTextSize * 0.7f, paintDescription)
+        canvas.drawText(value.chars, 0, value.length, x, y, boxValuePaint)
+        canvas.drawText(header, x, y + boxTextSize * 0.7f, boxTitlePaint)
     }
 
+    /**
+     * Redraws only the blocks whose displayed value has changed.
+     * The layout and font sizes are recalculated only after a size or block set change.
+     */
     fun redrawTextBoxes() {
-        if (mTextBoxesBitmap == null || mCanvas == null) {
-            return
+        val canvas = mCanvas ?: return
+        if (textBoxesLayoutDirty) {
+            mTextBoxesBitmap!!.eraseColor(Color.TRANSPARENT)
+            textBoxesLayoutDirty = false
+            if (!layoutTextBoxes()) {
+                boxRects = arrayOf()
+                return
+            }
+            for (block in mViewBlocks) {
+                block.invalidate()
+            }
+        }
+        try {
+            var i = 0
+            var changed = false
+            val clearInset = -boxInnerPadding / 2
+            for (block in mViewBlocks) {
+                if (block.enabled) {
+                    val rect = boxRects[i++] ?: continue
+                    if (block.update()) {
+                        boxClearRect.set(rect)
+                        boxClearRect.inset(clearInset, clearInset)
+                        canvas.drawRect(boxClearRect, boxClearPaint)
+                        drawTextBox(block.title, block.text, canvas, rect)
+                        changed = true
+                    }
+                }
+            }
+            if (changed) {
+                invalidate()
+            }
+        } catch (e: Exception) {
+            Timber.i("Draw exception: %s", e.message)
+            e.printStackTrace()
         }
-        mTextBoxesBitmap!!.eraseColor(Color.TRANSPARENT)
+    }
+
+    private fun layoutTextBoxes(): Boolean {
         val w = width
         val h = height
         val landscape = w > h
@@ -503,7 +627,7 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
             }
         }
         if (countBlocks == 0) {
-            return
+            return false
         }
         var cols = 2
         var rows = (countBlocks / cols.toFloat() + 0.499f).roundToInt()
@@ -557,23 +681,13 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         }
         boxTextSize = calculateFontSize(boundaryOfText, boxRects[0]!!, "10000 km/h", textPaint, 2) * 1.2f
         boxTextHeight = boundaryOfText.height().toFloat()
-        val paint = Paint(textPaint)
-        paint.textSize = boxTextSize * 0.8f
-        paint.color = getColorEx(R.color.wheelview_text)
-        val paintDescription = Paint(paint)
-        paintDescription.textSize = boxTextSize / 2f
-        paintDescription.alpha = 150
-        try {
-            var i = 0
-            for (block in mViewBlocks) {
-                if (block.enabled) {
-                    drawTextBox(block.title, block.getValue(), mCanvas!!, boxRects[i++]!!, paint, paintDescription)
-                }
-            }
-        } catch (e: Exception) {
-            Timber.i("Draw exception: %s", e.message)
-            e.printStackTrace()
-        }
+        boxValuePaint = Paint(textPaint)
+        boxValuePaint.textSize = boxTextSize * 0.8f
+        boxValuePaint.color = getColorEx(R.color.wheelview_text)
+        boxTitlePaint = Paint(boxValuePaint)
+        boxTitlePaint.textSize = boxTextSize / 2f
+        boxTitlePaint.alpha = 150
+        return true
     }
 
     private fun getBlockIndexBy(x: Float, y: Float): Int {
@@ -585,16 +699,7 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
     }
 
     private fun drawOriginal(canvas: Canvas) {
-        var currentDial: Int
-        if (WheelLog.AppConfig.currentOnDial) {
-            currentCurrent = updateCurrentValue2(targetCurrent, currentCurrent)
-            currentDial = currentCurrent
-        } else {
-            currentSpeed = updateCurrentValue(targetSpeed, currentSpeed)
-            currentDial = currentSpeed
-        }
-        currentTemperature = updateCurrentValue(targetTemperature, currentTemperature)
-        currentBattery = updateCurrentValue(targetBattery, currentBattery)
+        var currentDial = if (currentOnDial) currentCurrent else currentSpeed
 
         //####################################################
         //################# DRAW OUTER ARC ###################
@@ -634,23 +739,18 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         //####################################################
         //################# DRAW SPEED TEXT ##################
         //####################################################
-        val speed = if (WheelLog.AppConfig.useMph) kmToMiles(mSpeed.toFloat()).roundToInt() else mSpeed
-        val speedString: String = if (speed < 100) String.format(Locale.US, "%.1f", speed / 10.0) else String.format(Locale.US, "%02d", (speed / 10.0).roundToInt())
-        val alarm1Speed = WheelLog.AppConfig.alarm1Speed.toDouble()
-        if (!WheelLog.AppConfig.alteredAlarms && alarm1Speed * 10 > 0 && mSpeed >= alarm1Speed * 10) textPaint.color = getColorEx(R.color.accent) else textPaint.color = getColorEx(R.color.wheelview_speed_text)
+        updateSpeedText()
+        if (!alteredAlarms && alarm1Speed * 10 > 0 && mSpeed >= alarm1Speed * 10) textPaint.color = getColorEx(R.color.accent) else textPaint.color = getColorEx(R.color.wheelview_speed_text)
         textPaint.textSize = speedTextSize
-        canvas.drawText(speedString, outerArcRect.centerX(), speedTextRect.centerY() + speedTextRect.height() / 2, textPaint)
+        canvas.drawText(speedText.chars, 0, speedText.length, outerArcRect.centerX(), speedTextRect.centerY() + speedTextRect.height() / 2, textPaint)
         textPaint.textSize = speedTextKPHSize
         textPaint.color = getColorEx(R.color.wheelview_text)
-        if (WheelLog.AppConfig.useShortPwm || isInEditMode) {
-            val pwm = String.format("%02.0f%% / %02.0f%%",
-                    WheelData.getInstance().calculatedPwm,
-                    WheelData.getInstance().maxPwm)
+        if (useShortPwm || isInEditMode) {
+            updatePwmText('/')
             textPaint.textSize = speedTextKPHSize * 1.2f
-            canvas.drawText(pwm, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 3.3f, textPaint)
+            canvas.drawText(pwmText.chars, 0, pwmText.length, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 3.3f, textPaint)
         } else {
-            val metric = if (WheelLog.AppConfig.useMph) resources.getString(R.string.mph) else resources.getString(R.string.kmh)
-            canvas.drawText(metric, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 1.1f, textPaint)
+            canvas.drawText(speedUnitString, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 1.1f, textPaint)
         }
 
         //####################################################
@@ -660,29 +760,32 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
             textPaint.textSize = innerArcTextSize
             canvas.save()
             if (width > height) canvas.rotate(144 + currentBattery * 2.25f - 180, innerArcRect.centerX(), innerArcRect.centerY()) else canvas.rotate(144 + currentBattery * 2.25f - 180, innerArcRect.centerY(), innerArcRect.centerX())
-            val bestBatteryString = String.format(Locale.US, "%02d%%", mBattery)
-            canvas.drawText(bestBatteryString, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
+            updateBatteryText()
+            canvas.drawText(batteryText.chars, 0, batteryText.length, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
             canvas.restore()
             canvas.save()
             /// true battery
-            val fixedPercents = WheelLog.AppConfig.fixedPercents
-            if (WheelLog.AppConfig.useBetterPercents || fixedPercents) {
+            if (useBetterPercents || fixedPercents) {
                 if (width > height) canvas.rotate(144 + -3.3f * 2.25f - 180, innerArcRect.centerX(), innerArcRect.centerY()) else canvas.rotate(144 + -2 * 2.25f - 180, innerArcRect.centerY(), innerArcRect.centerX())
                 var batteryCalculateType = "true"
                 if (fixedPercents && !WheelData.getInstance().isVoltageTiltbackUnsupported) batteryCalculateType = "fixed"
-                val batteryString = String.format(Locale.US, "%s", batteryCalculateType)
-                canvas.drawText(batteryString, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
+                canvas.drawText(batteryCalculateType, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
                 canvas.restore()
                 canvas.save()
             }
             if (width > height) canvas.rotate(143.5f + currentTemperature * 2.25f, innerArcRect.centerX(), innerArcRect.centerY()) else canvas.rotate(143.5f + currentTemperature * 2.25f, innerArcRect.centerY(), innerArcRect.centerX())
-            canvas.drawText(mTemperature.toTempString(), temperatureTextRect.centerX(), temperatureTextRect.centerY(), textPaint)
+            updateTemperatureText()
+            canvas.drawText(temperatureText.chars, 0, temperatureText.length, temperatureTextRect.centerX(), temperatureTextRect.centerY(), textPaint)
             canvas.restore()
             canvas.save()
 
             // Max temperature
             if (width > height) canvas.rotate(-50f, innerArcRect.centerX(), innerArcRect.centerY()) else canvas.rotate(-50f, innerArcRect.centerY(), innerArcRect.centerX())
-            canvas.drawText(mMaxTemperature.toTempString(), temperatureTextRect.centerX(), temperatureTextRect.centerY(), textPaint)
+            if (shownMaxTemperature != mMaxTemperature) {
+                shownMaxTemperature = mMaxTemperature
+                maxTemperatureText.clear().appendTemp(mMaxTemperature, useFahrenheit)
+            }
+            canvas.drawText(maxTemperatureText.chars, 0, maxTemperatureText.length, temperatureTextRect.centerX(), temperatureTextRect.centerY(), textPaint)
             canvas.restore()
             canvas.save()
         }
@@ -692,7 +795,6 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
 
         // Draw text blocks bitmap
         canvas.drawBitmap(mTextBoxesBitmap!!, 0f, 0f, textPaint)
-        refreshDisplay = currentSpeed != targetSpeed || currentCurrent != targetCurrent || currentBattery != targetBattery || currentTemperature != targetTemperature
         if (width * 1.2 < height) {
             canvas.drawText(versionString, (
                     width - paddingRight).toFloat(), (
@@ -704,19 +806,13 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
     private fun drawAJDM(canvas: Canvas) {
         var currentDial: Int
         var currentDial2: Int
-        if (WheelLog.AppConfig.currentOnDial) {
-            currentSpeed = updateCurrentValue(targetSpeed, currentSpeed)
-            currentCurrent = updateCurrentValue2(targetCurrent, currentCurrent)
+        if (currentOnDial) {
             currentDial = currentCurrent
             currentDial2 = currentSpeed
         } else {
-            currentSpeed = updateCurrentValue(targetSpeed, currentSpeed)
-            currentCurrent = updateCurrentValue2(targetCurrent, currentCurrent)
             currentDial = currentSpeed
             currentDial2 = currentCurrent
         }
-        currentTemperature = updateCurrentValue(targetTemperature, currentTemperature)
-        currentBattery = updateCurrentValue(targetBattery, currentBattery)
 
         //####################################################
         //################# DRAW OUTER ARC ###################
@@ -799,26 +895,21 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         //####################################################
         //################# DRAW SPEED TEXT ##################
         //####################################################
-        val speed = if (WheelLog.AppConfig.useMph) kmToMiles(mSpeed.toFloat()).roundToInt() else mSpeed
-        val speedString: String = if (speed < 100) String.format(Locale.US, "%.1f", speed / 10.0) else String.format(Locale.US, "%02d", (speed / 10.0).roundToInt())
-        val alarm1Speed = WheelLog.AppConfig.alarm1Speed.toDouble()
-        if (!WheelLog.AppConfig.alteredAlarms && alarm1Speed * 10 > 0 && mSpeed >= alarm1Speed * 10)
+        updateSpeedText()
+        if (!alteredAlarms && alarm1Speed * 10 > 0 && mSpeed >= alarm1Speed * 10)
             textPaint.color = getColorEx(R.color.ajdm_accent)
         else
             textPaint.color = getColorEx(R.color.ajdm_wheelview_speed_text)
         textPaint.textSize = speedTextSize
-        canvas.drawText(speedString, outerArcRect.centerX(), speedTextRect.centerY() + speedTextRect.height() / 2, textPaint)
+        canvas.drawText(speedText.chars, 0, speedText.length, outerArcRect.centerX(), speedTextRect.centerY() + speedTextRect.height() / 2, textPaint)
         textPaint.textSize = speedTextKPHSize
         textPaint.color = getColorEx(R.color.ajdm_wheelview_text)
-        if (WheelLog.AppConfig.useShortPwm || isInEditMode) {
-            val pwm = String.format("%02.0f%% | %02.0f%%",
-                    WheelData.getInstance().calculatedPwm,
-                    WheelData.getInstance().maxPwm)
+        if (useShortPwm || isInEditMode) {
+            updatePwmText('|')
             textPaint.textSize = speedTextKPHSize * 1.2f
-            canvas.drawText(pwm, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 3.3f, textPaint)
+            canvas.drawText(pwmText.chars, 0, pwmText.length, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 3.3f, textPaint)
         } else {
-            val metric = if (WheelLog.AppConfig.useMph) resources.getString(R.string.mph) else resources.getString(R.string.kmh)
-            canvas.drawText(metric, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 1.1f, textPaint)
+            canvas.drawText(speedUnitString, outerArcRect.centerX(), speedTextRect.bottom + speedTextKPHHeight * 1.1f, textPaint)
         }
 
         //####################################################
@@ -828,23 +919,22 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
             textPaint.textSize = innerArcTextSize
             canvas.save()
             if (width > height) canvas.rotate(140 + -3.3f * 2.25f - 180, innerArcRect.centerX(), innerArcRect.centerY()) else canvas.rotate(140 + -2 * 2.25f - 180, innerArcRect.centerY(), innerArcRect.centerX())
-            val bestbatteryString = java.lang.String.format(Locale.US, "%02d%%", mBattery)
-            canvas.drawText(bestbatteryString, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
+            updateBatteryText()
+            canvas.drawText(batteryText.chars, 0, batteryText.length, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
             canvas.restore()
             canvas.save()
             /// true battery
-            val fixedPercents = WheelLog.AppConfig.fixedPercents
-            if (WheelLog.AppConfig.useBetterPercents || fixedPercents) {
+            if (useBetterPercents || fixedPercents) {
                 if (width > height) canvas.rotate(147 + currentBattery * 2.25f - 180, innerArcRect.centerX(), innerArcRect.centerY()) else canvas.rotate(146 + currentBattery * 2.25f - 180, innerArcRect.centerY(), innerArcRect.centerX())
                 var batteryCalculateType = "true"
                 if (fixedPercents && !WheelData.getInstance().isVoltageTiltbackUnsupported) batteryCalculateType = "fixed"
-                val batteryString = java.lang.String.format(Locale.US, "%s", batteryCalculateType)
-                canvas.drawText(batteryString, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
+                canvas.drawText(batteryCalculateType, batteryTextRect.centerX(), batteryTextRect.centerY(), textPaint)
                 canvas.restore()
                 canvas.save()
             }
             if (width > height) canvas.rotate(138f + 120 * 2.25f, innerArcRect.centerX(), innerArcRect.centerY()) else canvas.rotate(135f + 120 * 2.25f, innerArcRect.centerY(), innerArcRect.centerX())
-            canvas.drawText(mTemperature.toTempString(), temperatureTextRect.centerX(), temperatureTextRect.centerY(), textPaint)
+            updateTemperatureText()
+            canvas.drawText(temperatureText.chars, 0, temperatureText.length, temperatureTextRect.centerX(), temperatureTextRect.centerY(), textPaint)
             canvas.restore()
             canvas.save()
         }
@@ -854,7 +944,6 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
 
         // Draw text blocks bitmap
         canvas.drawBitmap(mTextBoxesBitmap!!, 0f, 0f, textPaint)
-        refreshDisplay = currentSpeed != targetSpeed || currentCurrent != targetCurrent || currentBattery != targetBattery || currentTemperature != targetTemperature
         if (width * 1.2 < height) {
             canvas.drawText(versionString, (
                     width - paddingRight).toFloat(), (
@@ -863,23 +952,55 @@ class WheelView(context: Context, attrs: AttributeSet?) : View(context, attrs) {
         }
     }
 
+    private fun updateSpeedText() {
+        val speed = if (useMph) kmToMiles(mSpeed.toFloat()).roundToInt() else mSpeed
+        if (speed == shownSpeed) return
+        shownSpeed = speed
+        speedText.clear()
+        if (speed < 100) speedText.append(speed / 10.0, 1) else speedText.append((speed / 10.0).roundToInt(), 2)
+    }
+
+    private fun updatePwmText(separator: Char) {
+        val pwm = Math.round(WheelData.getInstance().calculatedPwm).toInt()
+        val maxPwm = Math.round(WheelData.getInstance().maxPwm).toInt()
+        // the separator follows the theme
+        if (pwm == shownPwm && maxPwm == shownMaxPwm && separator == shownPwmSeparator) return
+        shownPwm = pwm
+        shownMaxPwm = maxPwm
+        shownPwmSeparator = separator
+        pwmText.clear().append(pwm, 2).append("% ").append(separator).append(' ').append(maxPwm, 2).append('%')
+    }
+
+    private fun updateBatteryText() {
+        if (mBattery == shownBattery) return
+        shownBattery = mBattery
+        batteryText.clear().append(mBattery, 2).append('%')
+    }
+
+    private fun updateTemperatureText() {
+        if (mTemperature == shownTemperature) return
+        shownTemperature = mTemperature
+        temperatureText.clear().appendTemp(mTemperature, useFahrenheit)
+    }
+
     override fun onDraw(canvas: Canvas) {
         super.onDraw(canvas)
+        countFrame()
         when (currentTheme) {
             R.style.OriginalTheme -> drawOriginal(canvas)
             R.style.AJDMTheme -> drawAJDM(canvas)
         }
     }
 
-    private fun updateCurrentValue(target: Int, current: Int): Int {
-        return if (target > current) current + 1 else if (current > target) current - 1 else target
+    private fun updateCurrentValue(target: Int, current: Int, steps: Int): Int {
+        return if (target > current) min(current + steps, target) else if (current > target) max(current - steps, target) else target
     }
 
-    private fun updateCurrentValue2(target: Int, current: Int): Int {
+    private fun updateCurrentValue2(target: Int, current: Int, steps: Int): Int {
         return if (target > 0) {
-            if (target > current) target else if (current > target) current - 1 else target
+            if (target > current) target else if (current > target) max(current - steps, target) else target
         } else {
-            if (target < current) target else if (current > target) current + 1 else target
+            target
         }
     }
 
@@ -0,0 +1,145 @@
+package com.cooper.wheellog
+
+import com.cooper.wheellog.utils.*
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import com.google.common.truth.Truth.assertWithMessage
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.util.*
+
+/**
+ * Bytes allocated per frame on the decode path, against the budgets of `allocationBudgets.properties`.
+ * Each adapter decodes its frames once to warm up and then [PASSES] times measured with the
+ * allocation counter of the thread, the least pass counts, so only the garbage of the steady
+ * state counts and not the one of a pass the JIT or a logger happened to add to. The frames are
+ * measured through the adapter alone and through the whole [WheelData.decodeResponse].
+ *
+ * Every run writes the measured values to `build/allocationBudgets.properties`.
+ */
+@RunWith(RobolectricTestRunner::class)
+class AllocationBudgetTest {
+    @get:Rule
+    val wheel = DecodeRule()
+    private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    private val budgets = Properties().apply {
+        File(DecodeRule.RESOURCES, "allocationBudgets.properties").inputStream().use { load(it) }
+    }
+    private val ride = RideProfile(
+            speed = { t -> 20 + t % 10 },
+            voltage = { t -> 84 - t / 100 },
+            current = { t -> 5 + t % 3 },
+            temperature = { 35.0 })
+
+    @Before
+    fun setUp() {
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported)
+        threadBean.isThreadAllocatedMemoryEnabled = true
+        // the calls of a mock allocate far more than the settings, and not the same every run
+        WheelLog.AppConfig = AppConfig(wheel.context)
+    }
+
+    private fun allocated(): Long = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+
+    private fun measure(frames: List<ByteArray>, decode: (ByteArray) -> Unit): Long {
+        return wheel.bound {
+            frames.forEach(decode)
+            (0 until PASSES).minOf {
+                val before = allocated()
+                frames.forEach(decode)
+                (allocated() - before) / frames.size
+            }
+        }
+    }
+
+    private fun assertWithinBudget(name: String, perFrame: Long) {
+        record(name, perFrame)
+        val budget = budgets.getProperty(name)?.toLong()
+        assertWithMessage("no allocation budget for $name, measured $perFrame bytes per frame")
+                .that(budget).isNotNull()
+        assertWithMessage("bytes allocated per $name frame, budget $budget")
+                .that(perFrame).isAtMost(budget!!)
+    }
+
+    private fun assertAdapterWithinBudget(wheelType: WHEEL_TYPE, frames: List<ByteArray>) {
+        val data = wheel.data
+        data.wheelType = wheelType
+        val adapter = data.adapter.setContext(wheel.context)
+        assertWithinBudget(wheelType.name, measure(frames) { adapter.decode(it) })
+        assertWithinBudget("decodeResponse.${wheelType.name}", measure(frames) {
+            data.decodeResponse(it, wheel.context)
+        })
+    }
+
+    @Test
+    fun `gotway decoding stays within budget`() {
+        assertAdapterWithinBudget(WHEEL_TYPE.GOTWAY, wheel.pushed(GotwaySimulator(ride), FRAMES, RATE))
+    }
+
+    @Test
+    fun `veteran decoding stays within budget`() {
+        assertAdapterWithinBudget(WHEEL_TYPE.VETERAN, wheel.pushed(VeteranSimulator(ride), FRAMES, RATE))
+    }
+
+    @Test
+    fun `kingsong decoding stays within budget`() {
+        assertAdapterWithinBudget(WHEEL_TYPE.KINGSONG, wheel.pushed(KingsongSimulator(ride), FRAMES, RATE))
+    }
+
+    @Test
+    fun `inmotion decoding stays within budget`() {
+        assertAdapterWithinBudget(WHEEL_TYPE.INMOTION, wheel.captured("RAW_inmotion_V8S"))
+    }
+
+    @Test
+    fun `inmotion v2 decoding stays within budget`() {
+        // Arrange.
+        val simulator = InmotionV2Simulator(ride)
+        wheel.data.wheelType = WHEEL_TYPE.INMOTION_V2
+        val adapter = wheel.data.adapter.setContext(wheel.context)
+        wheel.bound { simulator.onWrite(InmotionAdapterV2.Message.getCarType().writeBuffer()).forEach { adapter.decode(it) } }
+
+        // Act & Assert.
+        assertAdapterWithinBudget(WHEEL_TYPE.INMOTION_V2, wheel.answered(simulator, FRAMES, RATE, {
+            InmotionAdapterV2.Message.getRealTimeData().writeBuffer()
+        }))
+    }
+
+    @Test
+    fun `ninebot z decoding stays within budget`() {
+        // Arrange.
+        val simulator = NinebotZSimulator(ride)
+        wheel.data.wheelType = WHEEL_TYPE.NINEBOT_Z
+        val adapter = wheel.data.adapter.setContext(wheel.context)
+        wheel.bound { simulator.onWrite(NinebotZAdapter.CANMessage.getKey().writeBuffer()).forEach { adapter.decode(it) } }
+
+        // Act & Assert.
+        assertAdapterWithinBudget(WHEEL_TYPE.NINEBOT_Z, wheel.answered(simulator, FRAMES, RATE, {
+            NinebotZAdapter.CANMessage.getLiveData().writeBuffer()
+        }))
+    }
+
+    companion object {
+        private const val FRAMES = 500
+        private const val PASSES = 3
+        private const val RATE = 20.0
+        private val MEASURED = File("build/allocationBudgets.properties")
+
+        // the values of the last run, to set the budgets from
+        @Synchronized
+        private fun record(name: String, perFrame: Long) {
+            val measured = Properties()
+            if (MEASURED.exists()) {
+                MEASURED.inputStream().use { measured.load(it) }
+            }
+            measured.setProperty(name, perFrame.toString())
+            MEASURED.parentFile?.mkdirs()
+            MEASURED.outputStream().use { measured.store(it, "Bytes allocated per frame, measured by AllocationBudgetTest") }
+        }
+    }
+}
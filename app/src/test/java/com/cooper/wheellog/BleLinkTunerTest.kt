@@ -0,0 +1,54 @@
+package com.cooper.wheellog
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+
+class BleLinkTunerTest {
+    private lateinit var tuner: BleLinkTuner
+
+    @Before
+    fun setUp() {
+        tuner = BleLinkTuner()
+    }
+
+    @Test
+    fun `high priority while riding, balanced when parked`() {
+        // Act & Assert.
+        assertThat(tuner.onNotification(0, 0)).isNull()
+        assertThat(tuner.onNotification(100, 250)).isEqualTo(BleLinkTuner.Priority.High)
+        assertThat(tuner.onNotification(200, 0)).isNull()
+        assertThat(tuner.onNotification(100 + BleLinkTuner.PARKED_DELAY - 1, 0)).isNull()
+        assertThat(tuner.onNotification(100 + BleLinkTuner.PARKED_DELAY, 0)).isEqualTo(BleLinkTuner.Priority.Balanced)
+        assertThat(tuner.priority).isEqualTo(BleLinkTuner.Priority.Balanced)
+    }
+
+    @Test
+    fun `stats are recorded per model`() {
+        // Arrange.
+        tuner.onMtuChanged(247, true)
+        for (time in 0L..2000L step 50) {
+            tuner.onNotification(time, 100)
+        }
+
+        // Act.
+        tuner.record("V11")
+        tuner.reset()
+
+        // Assert.
+        val stats = tuner.getStats("V11")!!
+        assertThat(stats.mtu).isEqualTo(247)
+        assertThat(stats.priority).isEqualTo(BleLinkTuner.Priority.High)
+        assertThat(stats.notificationsPerSecond).isEqualTo(20)
+        assertThat(tuner.mtu).isEqualTo(BleLinkTuner.DEFAULT_MTU)
+    }
+
+    @Test
+    fun `failed negotiation keeps default MTU`() {
+        // Act.
+        tuner.onMtuChanged(517, false)
+
+        // Assert.
+        assertThat(tuner.mtu).isEqualTo(BleLinkTuner.DEFAULT_MTU)
+    }
+}
@@ -0,0 +1,94 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.cooper.wheellog.utils.InMotionAdapter
+import com.cooper.wheellog.utils.InmotionAdapterV2
+import com.cooper.wheellog.utils.NinebotZAdapter
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.cooper.wheellog.utils.WheelSimulator
+import io.mockk.every
+import io.mockk.mockkClass
+import io.mockk.unmockkAll
+import org.junit.rules.ExternalResource
+import java.io.File
+
+/**
+ * Silent [WheelData] the tests decode frames into, with the frames of the simulators and
+ * the RAW captures of the test resources. The timers of the adapters are stopped after the test.
+ */
+class DecodeRule : ExternalResource() {
+    lateinit var context: Context
+        private set
+    lateinit var data: WheelData
+        private set
+
+    override fun before() {
+        context = ApplicationProvider.getApplicationContext()
+        WheelLog.AppConfig = mockkClass(AppConfig::class, relaxed = true)
+        every { WheelLog.AppConfig.gotwayNegative } returns "1"
+        data = WheelData()
+        data.setSilent(true)
+    }
+
+    override fun after() {
+        InMotionAdapter.stopTimer()
+        InmotionAdapterV2.stopTimer()
+        NinebotZAdapter.stopTimer()
+        unmockkAll()
+    }
+
+    /**
+     * Runs [block] with the wheel bound to the thread, as the decode pool does.
+     */
+    fun <T> bound(block: () -> T): T {
+        val previous = WheelData.bind(data)
+        try {
+            return block()
+        } finally {
+            WheelData.bind(previous)
+        }
+    }
+
+    /**
+     * Frames the wheel pushes in [ticks] ticks at [rate] ticks per second.
+     */
+    fun pushed(simulator: WheelSimulator, ticks: Int, rate: Double): List<ByteArray> {
+        val frames = ArrayList<ByteArray>()
+        for (tick in 0 until ticks) {
+            simulator.advance(tick / rate)
+            frames.addAll(simulator.liveFrames())
+        }
+        return frames
+    }
+
+    /**
+     * Answers of the wheel to [requests] in turn, one per tick. Requests are built by the
+     * adapter of the bound wheel, ninebot z ones with its key.
+     */
+    fun answered(simulator: WheelSimulator, ticks: Int, rate: Double, vararg requests: () -> ByteArray): List<ByteArray> {
+        val frames = ArrayList<ByteArray>()
+        bound {
+            for (tick in 0 until ticks) {
+                simulator.advance(tick / rate)
+                frames.addAll(simulator.onWrite(requests[tick % requests.size]()))
+            }
+        }
+        return frames
+    }
+
+    /**
+     * Notifications of the captures in the test resources whose name starts with [prefix].
+     */
+    fun captured(prefix: String): List<ByteArray> {
+        return RESOURCES.listFiles { file -> file.name.startsWith(prefix) && file.name.endsWith(".csv") }!!
+                .sortedBy { it.name }
+                .flatMap { it.readLines() }
+                .filter { it.length > 13 && it[12] == ',' && (it.length - 13) % 2 == 0 }
+                .map { it.substring(13).hexToByteArray() }
+    }
+
+    companion object {
+        val RESOURCES = File("src/test/resources")
+    }
+}
@@ -0,0 +1,166 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import io.mockk.*
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.net.HttpURLConnection
+import java.net.URL
+import kotlin.concurrent.thread
+
+@RunWith(RobolectricTestRunner::class)
+class GarminConnectIQWebServerTest {
+    private lateinit var server: GarminConnectIQWebServer
+    private lateinit var data: WheelData
+
+    @Before
+    fun setUp() {
+        val context: Context = ApplicationProvider.getApplicationContext()
+        data = spyk(WheelData())
+        every { data.bluetoothLeService.applicationContext } returns context
+        mockkStatic(WheelData::class)
+        every { WheelData.getInstance() } returns data
+        WheelLog.AppConfig = mockkClass(AppConfig::class, relaxed = true)
+        server = GarminConnectIQWebServer(context)
+    }
+
+    @After
+    fun tearDown() {
+        server.stop()
+        unmockkAll()
+    }
+
+    private fun get(path: String, eTag: String? = null): HttpURLConnection {
+        val connection = URL("http://127.0.0.1:${server.listeningPort}$path").openConnection() as HttpURLConnection
+        if (eTag != null) {
+            connection.setRequestProperty("If-None-Match", eTag)
+        }
+        connection.connect()
+        return connection
+    }
+
+    @Test
+    fun `snapshot is sent with ETag`() {
+        // Arrange.
+        every { data.batteryLevel } returns 77
+
+        // Act.
+        val connection = get("/data/main")
+        val body = connection.inputStream.bufferedReader().use { it.readText() }
+
+        // Assert.
+        assertThat(connection.responseCode).isEqualTo(200)
+        assertThat(connection.getHeaderField("ETag")).isNotEmpty()
+        assertThat(body).contains("\"battery\":77")
+    }
+
+    @Test
+    fun `unchanged version returns not modified`() {
+        // Arrange.
+        val eTag = get("/data/details").getHeaderField("ETag")
+
+        // Act.
+        val connection = get("/data/details?wait=50", eTag)
+
+        // Assert.
+        assertThat(connection.responseCode).isEqualTo(304)
+        assertThat(connection.getHeaderField("ETag")).isEqualTo(eTag)
+    }
+
+    @Test
+    fun `held request is released by new data`() {
+        // Arrange.
+        val eTag = get("/data/main").getHeaderField("ETag")
+        every { data.batteryLevel } returns 42
+        val start = System.currentTimeMillis()
+        thread {
+            Thread.sleep(200)
+            server.onDataChanged()
+        }
+
+        // Act.
+        val connection = get("/data/main", eTag)
+        val body = connection.inputStream.bufferedReader().use { it.readText() }
+
+        // Assert.
+        assertThat(connection.responseCode).isEqualTo(200)
+        assertThat(System.currentTimeMillis() - start).isLessThan(GarminConnectIQWebServer.LONG_POLL_TIMEOUT)
+        assertThat(connection.getHeaderField("ETag")).isNotEqualTo(eTag)
+        assertThat(body).contains("\"battery\":42")
+    }
+
+    @Test
+    fun `stale ETag is answered immediately`() {
+        // Arrange.
+        val eTag = get("/data/main").getHeaderField("ETag")
+        every { data.batteryLevel } returns 42
+        server.onDataChanged()
+
+        // Act.
+        val connection = get("/data/main", eTag)
+
+        // Assert.
+        assertThat(connection.responseCode).isEqualTo(200)
+        assertThat(connection.getHeaderField("ETag")).isNotEqualTo(eTag)
+    }
+
+    @Test
+    fun `unchanged body keeps its ETag`() {
+        // Arrange.
+        val eTag = get("/data/main").getHeaderField("ETag")
+        every { data.voltageDouble } returns 84.5
+        server.onDataChanged()
+
+        // Act.
+        val connection = get("/data/main?wait=50", eTag)
+
+        // Assert.
+        assertThat(connection.responseCode).isEqualTo(304)
+        assertThat(connection.getHeaderField("ETag")).isEqualTo(eTag)
+    }
+
+    @Test
+    fun `main body is the JSON the watch reads`() {
+        // Arrange.
+        every { data.speedDouble } returns 12.36
+        every { data.topSpeed } returns 2345
+        every { data.batteryLevel } returns 77
+        every { data.temperature } returns 35
+        every { data.calculatedPwm } returns 5.4
+        every { data.maxPwm } returns 42.6
+        every { data.isConnected } returns true
+        every { data.model } returns "KS-16X \"2\""
+        every { WheelLog.AppConfig.maxSpeed } returns 30
+
+        // Act.
+        val body = get("/data/main").inputStream.bufferedReader().use { it.readText() }
+
+        // Assert.
+        assertThat(body).isEqualTo("{\"speed\":\"12.3\",\"topSpeed\":\"23.4\",\"speedLimit\":30,\"useMph\":false," +
+                "\"battery\":77,\"temp\":35,\"pwm\":\"05\",\"maxPwm\":\"43\",\"connectedToWheel\":true," +
+                "\"wheelModel\":\"KS-16X \\\"2\\\"\"}")
+    }
+
+    @Test
+    fun `details body is the JSON the watch reads`() {
+        // Arrange.
+        every { data.voltageDouble } returns 84.1
+        every { data.ridingTime } returns 3723
+        every { data.powerDouble } returns 1234.5
+        every { data.maxPowerDouble } returns 2000.0
+        every { data.torque } returns 0.0
+
+        // Act.
+        val body = get("/data/details").inputStream.bufferedReader().use { it.readText() }
+
+        // Assert.
+        assertThat(body).contains("\"voltage\":\"84.1\"")
+        assertThat(body).contains("\"ridingTime\":\"01:02:03\"")
+        assertThat(body).contains("\"torque\":0,\"power\":1234.5,\"maxPower\":2000,")
+    }
+}
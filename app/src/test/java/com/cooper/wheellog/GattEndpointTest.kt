@@ -0,0 +1,111 @@
+package com.cooper.wheellog
+
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattService
+import com.cooper.wheellog.utils.Constants
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.junit.Test
+import java.util.*
+
+class GattEndpointTest {
+
+    private fun characteristic(uuid: String): BluetoothGattCharacteristic {
+        val characteristic = mockk<BluetoothGattCharacteristic>(relaxed = true)
+        every { characteristic.uuid } returns UUID.fromString(uuid)
+        return characteristic
+    }
+
+    private fun gatt(serviceUuid: String, vararg characteristics: BluetoothGattCharacteristic): BluetoothGatt {
+        val service = mockk<BluetoothGattService>()
+        every { service.getCharacteristic(any()) } returns null
+        characteristics.forEach {
+            val uuid = it.uuid
+            every { service.getCharacteristic(uuid) } returns it
+        }
+        val gatt = mockk<BluetoothGatt>()
+        every { gatt.getService(any()) } returns null
+        every { gatt.getService(UUID.fromString(serviceUuid)) } returns service
+        every { gatt.writeCharacteristic(any()) } returns true
+        return gatt
+    }
+
+    @Test
+    fun `inmotion characteristics are resolved`() {
+        // Arrange.
+        val write = characteristic(Constants.INMOTION_WRITE_CHARACTER_UUID)
+        val gatt = gatt(Constants.INMOTION_WRITE_SERVICE_UUID, write)
+
+        // Act.
+        val endpoint = GattEndpoint.resolve(gatt, WHEEL_TYPE.INMOTION, "")
+
+        // Assert.
+        assertThat(endpoint.writeCharacteristic).isSameInstanceAs(write)
+        assertThat(endpoint.isReadCharacteristic(characteristic(Constants.INMOTION_READ_CHARACTER_UUID))).isTrue()
+        assertThat(endpoint.isReadCharacteristic(write)).isFalse()
+        assertThat(endpoint.isFor(WHEEL_TYPE.INMOTION, "")).isTrue()
+        assertThat(endpoint.isFor(WHEEL_TYPE.INMOTION_V2, "")).isFalse()
+    }
+
+    @Test
+    fun `ninebot with new protocol uses Z service`() {
+        // Arrange.
+        val write = characteristic(Constants.NINEBOT_Z_WRITE_CHARACTER_UUID)
+        val gatt = gatt(Constants.NINEBOT_Z_SERVICE_UUID, write)
+
+        // Act.
+        val endpoint = GattEndpoint.resolve(gatt, WHEEL_TYPE.NINEBOT, "S2")
+
+        // Assert.
+        assertThat(endpoint.writeCharacteristic).isSameInstanceAs(write)
+        assertThat(endpoint.isReadCharacteristic(characteristic(Constants.NINEBOT_READ_CHARACTER_UUID))).isTrue()
+        assertThat(endpoint.isReadCharacteristic(characteristic(Constants.NINEBOT_Z_READ_CHARACTER_UUID))).isTrue()
+    }
+
+    @Test
+    fun `kingsong writes without response`() {
+        // Arrange.
+        val write = characteristic(Constants.KINGSONG_READ_CHARACTER_UUID)
+        val gatt = gatt(Constants.KINGSONG_SERVICE_UUID, write)
+        val endpoint = GattEndpoint.resolve(gatt, WHEEL_TYPE.KINGSONG, "")
+        val data = byteArrayOf(0xAA.toByte(), 0x55)
+
+        // Act.
+        val result = endpoint.write(gatt, data)
+
+        // Assert.
+        assertThat(result).isTrue()
+        verify { write.setValue(data) }
+        verify { write.writeType = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE }
+        verify { gatt.writeCharacteristic(write) }
+    }
+
+    @Test
+    fun `missing service can't be written`() {
+        // Arrange.
+        val gatt = gatt(Constants.KINGSONG_SERVICE_UUID)
+
+        // Act.
+        val endpoint = GattEndpoint.resolve(gatt, WHEEL_TYPE.INMOTION_V2, "")
+
+        // Assert.
+        assertThat(endpoint.writeCharacteristic).isNull()
+        assertThat(endpoint.write(gatt, byteArrayOf(1))).isFalse()
+    }
+
+    @Test
+    fun `gotway decodes any characteristic`() {
+        // Arrange.
+        val gatt = gatt(Constants.GOTWAY_SERVICE_UUID, characteristic(Constants.GOTWAY_READ_CHARACTER_UUID))
+
+        // Act.
+        val endpoint = GattEndpoint.resolve(gatt, WHEEL_TYPE.VETERAN, "")
+
+        // Assert.
+        assertThat(endpoint.isReadCharacteristic(characteristic(Constants.INMOTION_READ_CHARACTER_UUID))).isTrue()
+    }
+}
@@ -0,0 +1,105 @@
+package com.cooper.wheellog
+
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.*
+
+@RunWith(RobolectricTestRunner::class)
+class GattServiceIndexTest {
+
+    private val json = """
+        [
+          {
+            "adapter": "first",
+            "0000ffe0-0000-1000-8000-00805f9b34fb": ["0000ffe1-0000-1000-8000-00805f9b34fb"]
+          },
+          {
+            "adapter": "second",
+            "0000ffe0-0000-1000-8000-00805f9b34fb": ["0000ffe1-0000-1000-8000-00805f9b34fb"]
+          },
+          {
+            "adapter": "third",
+            "0000ffe0-0000-1000-8000-00805f9b34fb": ["0000ffe4-0000-1000-8000-00805f9b34fb"],
+            "0000ffe5-0000-1000-8000-00805f9b34fb": [
+              "0000ffe9-0000-1000-8000-00805f9b34fb",
+              "0000ffea-0000-1000-8000-00805f9b34fb"
+            ]
+          }
+        ]
+    """
+
+    private fun services(vararg pairs: Pair<String, List<String>>): Map<UUID, Set<UUID>> {
+        return pairs.associate { (service, characteristics) ->
+            UUID.fromString(service) to characteristics.map { UUID.fromString(it) }.toSet()
+        }
+    }
+
+    @Test
+    fun `wheel is found regardless of order`() {
+        // Arrange.
+        val index = GattServiceIndex(json)
+
+        // Act.
+        val adapter = index.find(services(
+                "0000ffe5-0000-1000-8000-00805f9b34fb" to listOf(
+                        "0000ffea-0000-1000-8000-00805f9b34fb",
+                        "0000ffe9-0000-1000-8000-00805f9b34fb"),
+                "0000ffe0-0000-1000-8000-00805f9b34fb" to listOf("0000ffe4-0000-1000-8000-00805f9b34fb")))
+
+        // Assert.
+        assertThat(adapter).isEqualTo("third")
+    }
+
+    @Test
+    fun `first entry wins`() {
+        // Arrange.
+        val index = GattServiceIndex(json)
+
+        // Act.
+        val adapter = index.find(services(
+                "0000ffe0-0000-1000-8000-00805f9b34fb" to listOf("0000ffe1-0000-1000-8000-00805f9b34fb")))
+
+        // Assert.
+        assertThat(adapter).isEqualTo("first")
+    }
+
+    @Test
+    fun `subset of services is unknown`() {
+        // Arrange.
+        val index = GattServiceIndex(json)
+
+        // Act.
+        val adapter = index.find(services(
+                "0000ffe0-0000-1000-8000-00805f9b34fb" to listOf("0000ffe4-0000-1000-8000-00805f9b34fb"),
+                "0000ffe5-0000-1000-8000-00805f9b34fb" to listOf("0000ffe9-0000-1000-8000-00805f9b34fb")))
+
+        // Assert.
+        assertThat(adapter).isNull()
+    }
+
+    @Test
+    fun `bundled services file is indexed`() {
+        // Act.
+        val index = GattServiceIndex.getInstance(ApplicationProvider.getApplicationContext())
+        val adapter = index.find(services(
+                "00001800-0000-1000-8000-00805f9b34fb" to (0x2a00..0x2a04).map { "0000%04x-0000-1000-8000-00805f9b34fb".format(it) },
+                "00001801-0000-1000-8000-00805f9b34fb" to listOf("00002a05-0000-1000-8000-00805f9b34fb"),
+                "0000180a-0000-1000-8000-00805f9b34fb" to ((0x2a23..0x2a2a) + 0x2a50).map { "0000%04x-0000-1000-8000-00805f9b34fb".format(it) },
+                "0000ffe0-0000-1000-8000-00805f9b34fb" to listOf("0000ffe1-0000-1000-8000-00805f9b34fb")))
+
+        // Assert.
+        assertThat(adapter).isEqualTo("gotway")
+        assertThat(index).isSameInstanceAs(GattServiceIndex.getInstance(ApplicationProvider.getApplicationContext()))
+    }
+
+    @Test
+    fun `protocol version by advertisement data`() {
+        assertThat(GattServiceIndex.protoVer("4e421302000000ea")).isEqualTo("S2")
+        assertThat(GattServiceIndex.protoVer("4e4230cf")).isEqualTo("Mini")
+        assertThat(GattServiceIndex.protoVer("5600abcd")).isEqualTo("Mini")
+        assertThat(GattServiceIndex.protoVer("")).isEqualTo("")
+    }
+}
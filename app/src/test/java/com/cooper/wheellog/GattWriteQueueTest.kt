@@ -0,0 +1,185 @@
+package com.cooper.wheellog
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+
+class GattWriteQueueTest {
+    private lateinit var queue: GattWriteQueue
+    private var now = 0L
+    private var scheduledDelay = -1L
+    private val written = ArrayList<String>()
+
+    private inner class FakeWrite(
+        val name: String,
+        lane: GattWriteQueue.Lane = GattWriteQueue.Lane.Command,
+        private var chunks: Int = 1,
+        private var busy: Int = 0
+    ) : GattWriteQueue.Operation(lane) {
+        override fun write(): Boolean {
+            if (busy > 0) {
+                busy--
+                return false
+            }
+            written.add(name)
+            return true
+        }
+
+        override fun next(): Boolean = --chunks > 0
+
+        override fun isSameAs(other: GattWriteQueue.Operation): Boolean {
+            return other is FakeWrite && other.name == name
+        }
+    }
+
+    @Before
+    fun setUp() {
+        queue = GattWriteQueue({ scheduledDelay = it }, { now })
+    }
+
+    @Test
+    fun `next write waits for the callback`() {
+        // Arrange.
+        queue.enqueue(FakeWrite("a", chunks = 2))
+        queue.enqueue(FakeWrite("b"))
+
+        // Act & Assert.
+        assertThat(written).containsExactly("a")
+        assertThat(queue.depth).isEqualTo(2)
+        queue.onWriteComplete(true)
+        assertThat(written).containsExactly("a", "a")
+        queue.onWriteComplete(true)
+        assertThat(written).containsExactly("a", "a", "b")
+        queue.onWriteComplete(true)
+        assertThat(queue.depth).isEqualTo(0)
+        assertThat(queue.writes).isEqualTo(3)
+    }
+
+    @Test
+    fun `commands go before polls`() {
+        // Arrange.
+        queue.enqueue(FakeWrite("poll1", GattWriteQueue.Lane.Poll))
+        queue.enqueue(FakeWrite("poll2", GattWriteQueue.Lane.Poll))
+        queue.enqueue(FakeWrite("command"))
+
+        // Act.
+        queue.onWriteComplete(true)
+        queue.onWriteComplete(true)
+
+        // Assert.
+        assertThat(written).containsExactly("poll1", "command", "poll2").inOrder()
+    }
+
+    @Test
+    fun `duplicate polls are coalesced`() {
+        // Arrange.
+        queue.enqueue(FakeWrite("command"))
+
+        // Act.
+        queue.enqueue(FakeWrite("live", GattWriteQueue.Lane.Poll))
+        queue.enqueue(FakeWrite("live", GattWriteQueue.Lane.Poll))
+        queue.enqueue(FakeWrite("command"))
+
+        // Assert.
+        assertThat(queue.coalesced).isEqualTo(1)
+        assertThat(queue.depth).isEqualTo(3)
+        assertThat(queue.maxDepth).isEqualTo(3)
+    }
+
+    @Test
+    fun `write is retried after timeout and dropped at last`() {
+        // Arrange.
+        queue.enqueue(FakeWrite("lost"))
+        queue.enqueue(FakeWrite("next"))
+
+        // Act.
+        repeat(GattWriteQueue.MAX_ATTEMPTS) {
+            now += GattWriteQueue.WRITE_TIMEOUT
+            queue.onTimer()
+        }
+
+        // Assert.
+        assertThat(written).containsExactly("lost", "lost", "lost", "next").inOrder()
+        assertThat(queue.timeouts).isEqualTo(3)
+        assertThat(queue.retries).isEqualTo(2)
+        assertThat(queue.dropped).isEqualTo(1)
+    }
+
+    @Test
+    fun `busy stack is retried later`() {
+        // Act.
+        queue.enqueue(FakeWrite("a", busy = 1))
+
+        // Assert.
+        assertThat(written).isEmpty()
+        assertThat(scheduledDelay).isEqualTo(GattWriteQueue.BUSY_RETRY_DELAY)
+        queue.onTimer()
+        assertThat(written).containsExactly("a")
+        assertThat(scheduledDelay).isEqualTo(GattWriteQueue.WRITE_TIMEOUT)
+    }
+
+    @Test
+    fun `full lane rejects writes`() {
+        // Arrange.
+        queue.enqueue(FakeWrite("current"))
+        repeat(GattWriteQueue.MAX_LANE_SIZE) { queue.enqueue(FakeWrite("$it")) }
+
+        // Act.
+        val result = queue.enqueue(FakeWrite("overflow"))
+
+        // Assert.
+        assertThat(result).isFalse()
+        assertThat(queue.dropped).isEqualTo(1)
+    }
+
+    @Test
+    fun `round trip time is measured`() {
+        // Arrange.
+        queue.enqueue(FakeWrite("a"))
+        queue.enqueue(FakeWrite("b"))
+
+        // Act.
+        now += 30
+        queue.onWriteComplete(true)
+        now += 10
+        queue.onWriteComplete(true)
+
+        // Assert.
+        assertThat(queue.lastRtt).isEqualTo(10)
+        assertThat(queue.maxRtt).isEqualTo(30)
+        assertThat(queue.averageRtt).isWithin(0.001).of(28.0)
+    }
+
+    @Test
+    fun `clear drops pending writes`() {
+        // Arrange.
+        queue.enqueue(FakeWrite("a"))
+        queue.enqueue(FakeWrite("b"))
+
+        // Act.
+        queue.clear()
+        queue.onWriteComplete(true)
+
+        // Assert.
+        assertThat(written).containsExactly("a")
+        assertThat(queue.depth).isEqualTo(0)
+    }
+
+    @Test
+    fun `completion of another operation is ignored`() {
+        // Arrange.
+        val mtu = FakeWrite("mtu")
+        queue.enqueue(FakeWrite("a"))
+        queue.enqueue(mtu)
+
+        // Act.
+        queue.onWriteComplete(mtu, true)
+
+        // Assert.
+        assertThat(written).containsExactly("a")
+        queue.onWriteComplete(true)
+        assertThat(written).containsExactly("a", "mtu")
+        queue.onWriteComplete(mtu, true)
+        assertThat(queue.depth).isEqualTo(0)
+    }
+}
@@ -0,0 +1,249 @@
+package com.cooper.wheellog
+
+import com.cooper.wheellog.utils.*
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.google.common.truth.Truth.assertWithMessage
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.ParameterizedRobolectricTestRunner
+import org.robolectric.ParameterizedRobolectricTestRunner.Parameters
+import java.io.File
+
+/**
+ * Replays every RAW capture of the test resources and a simulated ride of every protocol, and
+ * compares the telemetry of the wheel after every frame with the golden file of the stream,
+ * field by field. A change of the decoding which is meant to keep the behaviour, like a faster
+ * unpacker, must keep them equal.
+ *
+ * A missing or different golden file fails, the telemetry of the run is written to
+ * `build/golden` to compare. When a change of the values is intended, or a stream is new,
+ * bless the goldens and commit them with the change:
+ * `./gradlew testDebugUnitTest --tests '*GoldenCorpusTest' -PblessGoldens=true`
+ */
+@RunWith(ParameterizedRobolectricTestRunner::class)
+class GoldenCorpusTest(private val stream: String) {
+    @get:Rule
+    val wheel = DecodeRule()
+
+    /**
+     * Frames of the stream, null for the lines of a capture which are no frame.
+     */
+    private fun frames(): List<ByteArray?> {
+        val simulated = SIMULATED[stream]
+        if (simulated != null) {
+            val (wheelType, frames) = simulated(wheel)
+            wheel.data.wheelType = wheelType
+            return frames
+        }
+        val frames = File(DecodeRule.RESOURCES, stream).readLines().map { line ->
+            if (line.length > 13 && line[12] == ',') line.substring(13).hexToByteArray() else null
+        }
+        wheel.data.wheelType = frames.asSequence().filterNotNull().map { RawReplay.wheelTypeOf(it) }
+                .firstOrNull { it != WHEEL_TYPE.Unknown } ?: WHEEL_TYPE.Unknown
+        return frames
+    }
+
+    /**
+     * Rows of the telemetry after every frame of the stream, the first row is the header.
+     */
+    private fun decode(): List<String> {
+        val frames = frames()
+        val data = wheel.data
+        val rows = ArrayList<String>(frames.size + 1)
+        rows.add("line," + FIELDS.joinToString(",") { it.first })
+        wheel.bound {
+            frames.forEachIndexed { i, frame ->
+                if (frame != null) {
+                    data.decodeResponse(frame, wheel.context)
+                    rows.add("${i + 1}," + FIELDS.joinToString(",") { escape(it.second(data)) })
+                }
+            }
+        }
+        return rows
+    }
+
+    @Test
+    fun `telemetry matches the golden file`() {
+        // Arrange.
+        val golden = File(GOLDEN, "$stream.golden")
+
+        // Act.
+        val rows = decode()
+        val text = rows.joinToString("\n", postfix = "\n")
+
+        // Assert.
+        if (BLESS) {
+            GOLDEN.mkdirs()
+            golden.writeText(text)
+            return
+        }
+        val actual = File(ACTUAL, golden.name)
+        ACTUAL.mkdirs()
+        actual.writeText(text)
+        assertWithMessage("no golden file of $stream, bless it with -PblessGoldens=true and commit it")
+                .that(golden.exists()).isTrue()
+        val expected = golden.readLines()
+        val differences = diff(expected, rows)
+        assertWithMessage("$stream differs from ${golden.name} in ${differences.size} values, " +
+                "the telemetry of the run is in $actual:\n" +
+                differences.take(MAX_REPORTED).joinToString("\n"))
+                .that(differences).isEmpty()
+    }
+
+    private fun diff(expected: List<String>, actual: List<String>): List<String> {
+        val differences = ArrayList<String>()
+        if (expected.firstOrNull() != actual.first()) {
+            differences.add("fields: golden ${expected.firstOrNull()}, now ${actual.first()}")
+            return differences
+        }
+        if (expected.size != actual.size) {
+            differences.add("frames: golden ${expected.size - 1}, now ${actual.size - 1}")
+        }
+        val names = actual.first().split(",")
+        for (row in 1 until minOf(expected.size, actual.size)) {
+            val was = split(expected[row])
+            val now = split(actual[row])
+            for (field in names.indices) {
+                if (was.getOrNull(field) != now.getOrNull(field)) {
+                    differences.add("line ${now[0]} ${names[field]}: golden ${was.getOrNull(field)}, now ${now.getOrNull(field)}")
+                }
+            }
+        }
+        return differences
+    }
+
+    companion object {
+        private val GOLDEN = File(DecodeRule.RESOURCES, "golden")
+        private val ACTUAL = File("build/golden")
+        private val BLESS = System.getProperty("golden.bless") == "true"
+        private const val MAX_REPORTED = 30
+        private const val TICKS = 200
+        private const val RATE = 10.0
+        private val RIDE = RideProfile(
+                speed = { t -> 25 * Math.sin(t / 4) },
+                voltage = { t -> 84 - t / 10 },
+                current = { t -> 10 * Math.cos(t / 4) },
+                temperature = { t -> 30 + t / 20 })
+
+        /**
+         * Simulated rides, the wheels which only answer are asked in turn for everything
+         * the adapter requests on a ride. Ninebot z frames are encrypted with the zero key
+         * of a new adapter, there is no key exchange.
+         */
+        private val SIMULATED = mapOf<String, (DecodeRule) -> Pair<WHEEL_TYPE, List<ByteArray>>>(
+                "simulated_kingsong" to { wheel ->
+                    WHEEL_TYPE.KINGSONG to wheel.pushed(KingsongSimulator(RIDE), TICKS, RATE)
+                },
+                "simulated_veteran" to { wheel ->
+                    WHEEL_TYPE.VETERAN to wheel.pushed(VeteranSimulator(RIDE), TICKS, RATE)
+                },
+                "simulated_inmotion_v2" to { wheel ->
+                    WHEEL_TYPE.INMOTION_V2 to wheel.answered(InmotionV2Simulator(RIDE), TICKS, RATE,
+                            { InmotionAdapterV2.Message.getCarType().writeBuffer() },
+                            { InmotionAdapterV2.Message.getSerialNumber().writeBuffer() },
+                            { InmotionAdapterV2.Message.getVersions().writeBuffer() },
+                            { InmotionAdapterV2.Message.getStatistics().writeBuffer() },
+                            { InmotionAdapterV2.Message.getRealTimeData().writeBuffer() })
+                },
+                "simulated_ninebot_z" to { wheel ->
+                    WHEEL_TYPE.NINEBOT_Z to wheel.answered(NinebotZSimulator(RIDE), TICKS, RATE,
+                            { NinebotZAdapter.CANMessage.getSerialNumber().writeBuffer() },
+                            { NinebotZAdapter.CANMessage.getParams1().writeBuffer() },
+                            { NinebotZAdapter.CANMessage.getParams2().writeBuffer() },
+                            { NinebotZAdapter.CANMessage.getBms1Sn().writeBuffer() },
+                            { NinebotZAdapter.CANMessage.getBms1Life().writeBuffer() },
+                            { NinebotZAdapter.CANMessage.getBms1Cells().writeBuffer() },
+                            { NinebotZAdapter.CANMessage.getLiveData().writeBuffer() })
+                })
+
+        /**
+         * Telemetry of the wheel, only values which follow from the frames and not from the clock.
+         */
+        private val FIELDS = listOf<Pair<String, (WheelData) -> Any?>>(
+                "wheel_type" to { it.wheelType },
+                "model" to { it.model },
+                "name" to { it.name },
+                "version" to { it.version },
+                "serial" to { it.serial },
+                "speed" to { it.speed },
+                "top_speed" to { it.topSpeed },
+                "voltage" to { it.voltage },
+                "voltage_sag" to { it.voltageSag },
+                "current" to { it.current },
+                "phase_current" to { it.phaseCurrent },
+                "power" to { it.powerDouble },
+                "torque" to { it.torque },
+                "motor_power" to { it.motorPower },
+                "output" to { it.output },
+                "pwm" to { it.calculatedPwm },
+                "max_pwm" to { it.maxPwm },
+                "battery_level" to { it.batteryLevel },
+                "temperature" to { it.temperature },
+                "temperature2" to { it.temperature2 },
+                "max_temperature" to { it.maxTemp },
+                "cpu_temp" to { it.cpuTemp },
+                "imu_temp" to { it.imuTemp },
+                "cpu_load" to { it.cpuLoad },
+                "angle" to { it.angle },
+                "roll" to { it.roll },
+                "fan" to { it.fanStatus },
+                "charging" to { it.chargingStatus },
+                "speed_limit" to { it.speedLimit },
+                "current_limit" to { it.currentLimit },
+                "distance" to { it.wheelDistance },
+                "total_distance" to { it.totalDistance },
+                "mode" to { it.modeStr },
+                "alert" to { it.alert },
+                "bms1" to { bms(it.bms1) },
+                "bms2" to { bms(it.bms2) })
+
+        private fun bms(bms: SmartBms): String {
+            return "${bms.voltage}/${bms.current}/${bms.remPerc}/${bms.minCell}/${bms.maxCell}/${bms.cellDiff}"
+        }
+
+        private fun escape(value: Any?): String {
+            val s = value.toString()
+            return if (s.contains(',') || s.contains('"') || s.contains('\n')) {
+                "\"" + s.replace("\"", "\"\"").replace("\n", "\\n") + "\""
+            } else {
+                s
+            }
+        }
+
+        private fun split(row: String): List<String> {
+            val values = ArrayList<String>()
+            val value = StringBuilder()
+            var quoted = false
+            var i = 0
+            while (i < row.length) {
+                val c = row[i]
+                when {
+                    quoted && c == '"' && i + 1 < row.length && row[i + 1] == '"' -> {
+                        value.append(c)
+                        i++
+                    }
+                    c == '"' -> quoted = !quoted
+                    c == ',' && !quoted -> {
+                        values.add(value.toString())
+                        value.setLength(0)
+                    }
+                    else -> value.append(c)
+                }
+                i++
+            }
+            values.add(value.toString())
+            return values
+        }
+
+        @JvmStatic
+        @Parameters(name = "{0}")
+        fun streams(): List<Array<Any>> {
+            return (DecodeRule.RESOURCES.listFiles { file -> file.name.endsWith(".csv") }!!
+                    .map { it.name }
+                    .sorted() + SIMULATED.keys)
+                    .map { arrayOf<Any>(it) }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.cooper.wheellog
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+
+class LinkDiagnosticsTest {
+    private lateinit var diagnostics: LinkDiagnostics
+
+    @Before
+    fun setUp() {
+        diagnostics = LinkDiagnostics()
+    }
+
+    @Test
+    fun `frame intervals are sorted into buckets`() {
+        // Arrange.
+        val times = longArrayOf(1000, 1010, 1060, 1300, 4000)
+
+        // Act.
+        times.forEach {
+            diagnostics.onNotification("GOTWAY", it)
+            diagnostics.onFrame()
+        }
+
+        // Assert.
+        val counters = diagnostics.getCounters("GOTWAY")!!
+        assertThat(counters.notifications).isEqualTo(5)
+        assertThat(counters.frames).isEqualTo(5)
+        // 10 ms, 50 ms, 240 ms, 2700 ms
+        assertThat(counters.intervals.toList()).containsExactly(1L, 0L, 1L, 0L, 1L, 0L, 0L, 1L).inOrder()
+    }
+
+    @Test
+    fun `notification without frame is not an interval`() {
+        // Act.
+        diagnostics.onNotification("INMOTION", 1000)
+        diagnostics.onFrame()
+        diagnostics.onNotification("INMOTION", 1010) // first half of a frame
+        diagnostics.onNotification("INMOTION", 1020)
+        diagnostics.onFrame()
+
+        // Assert.
+        val counters = diagnostics.getCounters("INMOTION")!!
+        assertThat(counters.notifications).isEqualTo(3)
+        assertThat(counters.frames).isEqualTo(2)
+        assertThat(counters.intervals[0]).isEqualTo(1)
+    }
+
+    @Test
+    fun `rejects and failures are counted per adapter`() {
+        // Act.
+        diagnostics.onNotification("NINEBOT_Z", 1000)
+        diagnostics.onRejected(LinkDiagnostics.Reject.Checksum)
+        diagnostics.onRejected(LinkDiagnostics.Reject.Checksum)
+        diagnostics.onNotification("KINGSONG", 1100)
+        diagnostics.onRejected(LinkDiagnostics.Reject.Header)
+        diagnostics.onDecodeFailure()
+
+        // Assert.
+        val ninebot = diagnostics.getCounters("NINEBOT_Z")!!
+        val kingsong = diagnostics.getCounters("KINGSONG")!!
+        assertThat(ninebot.rejected(LinkDiagnostics.Reject.Checksum)).isEqualTo(2)
+        assertThat(ninebot.rejected(LinkDiagnostics.Reject.Header)).isEqualTo(0)
+        assertThat(ninebot.decodeFailures).isEqualTo(0)
+        assertThat(kingsong.rejected(LinkDiagnostics.Reject.Header)).isEqualTo(1)
+        assertThat(kingsong.decodeFailures).isEqualTo(1)
+        assertThat(diagnostics.getCounters("GOTWAY")).isNull()
+    }
+
+    @Test
+    fun `rssi statistics`() {
+        // Act.
+        diagnostics.onRssi(-60)
+        diagnostics.onRssi(-80)
+        diagnostics.onRssi(-70)
+
+        // Assert.
+        assertThat(diagnostics.rssi).isEqualTo(-70)
+        assertThat(diagnostics.minRssi).isEqualTo(-80)
+        assertThat(diagnostics.maxRssi).isEqualTo(-60)
+        assertThat(diagnostics.averageRssi).isEqualTo(-70.0)
+        assertThat(diagnostics.rssiSamples).isEqualTo(3)
+    }
+
+    @Test
+    fun `report and reset`() {
+        // Arrange.
+        diagnostics.onNotification("VETERAN", 1000)
+        diagnostics.onFrame()
+        diagnostics.onRssi(-65)
+
+        // Act.
+        val report = diagnostics.report()
+        diagnostics.reset()
+
+        // Assert.
+        assertThat(report).contains("VETERAN")
+        assertThat(report).contains("frames: 1")
+        assertThat(report).contains("RSSI: -65 dBm")
+        assertThat(diagnostics.report()).isEmpty()
+        assertThat(diagnostics.getCounters("VETERAN")).isNull()
+    }
+}
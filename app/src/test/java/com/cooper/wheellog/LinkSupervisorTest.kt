@@ -0,0 +1,77 @@
+package com.cooper.wheellog
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+
+class LinkSupervisorTest {
+    private lateinit var supervisor: LinkSupervisor
+
+    @Before
+    fun setUp() {
+        supervisor = LinkSupervisor(Random(1))
+    }
+
+    @Test
+    fun `stall is detected after missed frames`() {
+        // Arrange.
+        for (time in 0L..5000L step 250) {
+            supervisor.onFrame(time, "wheel")
+        }
+
+        // Act & Assert.
+        assertThat(supervisor.framePeriod).isWithin(0.001).of(250.0)
+        assertThat(supervisor.stallTimeout(10)).isEqualTo(2500)
+        assertThat(supervisor.isStalled(7500, 10)).isFalse()
+        assertThat(supervisor.isStalled(7501, 10)).isTrue()
+        supervisor.onLinkLost()
+        assertThat(supervisor.isStalled(8000, 10)).isFalse()
+    }
+
+    @Test
+    fun `stall timeout is limited`() {
+        // Arrange.
+        supervisor.onFrame(1000, "wheel")
+
+        // Act & Assert.
+        assertThat(supervisor.stallTimeout(10)).isEqualTo(LinkSupervisor.MAX_STALL_TIMEOUT)
+        supervisor.onFrame(1020, "wheel")
+        assertThat(supervisor.stallTimeout(10)).isEqualTo(LinkSupervisor.MIN_STALL_TIMEOUT)
+    }
+
+    @Test
+    fun `reconnect delay grows with jitter`() {
+        // Act.
+        val delays = List(12) { supervisor.nextReconnectDelay() }
+
+        // Assert.
+        for (i in 0 until 7) {
+            val base = LinkSupervisor.BASE_RECONNECT_DELAY shl i
+            assertThat(delays[i]).isAtLeast(base)
+            assertThat(delays[i]).isAtMost(base + base / 2)
+        }
+        assertThat(delays.last()).isAtMost(LinkSupervisor.MAX_RECONNECT_DELAY * 3 / 2)
+        assertThat(supervisor.useDirectConnect()).isFalse()
+    }
+
+    @Test
+    fun `recover time is recorded per wheel`() {
+        // Arrange.
+        supervisor.onFrame(1000, "A")
+        supervisor.onLinkLost()
+        supervisor.nextReconnectDelay()
+        assertThat(supervisor.useDirectConnect()).isTrue()
+
+        // Act.
+        supervisor.onFrame(4000, "A")
+        supervisor.onLinkLost()
+        supervisor.onFrame(4500, "A")
+
+        // Assert.
+        assertThat(supervisor.getHistogram("A")).asList().containsExactly(1, 0, 1, 0, 0, 0, 0).inOrder()
+        assertThat(supervisor.getHistogram("B")).isNull()
+        assertThat(supervisor.attempts).isEqualTo(0)
+        assertThat(supervisor.isLinkLost).isFalse()
+    }
+}
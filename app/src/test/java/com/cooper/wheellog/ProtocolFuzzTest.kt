@@ -0,0 +1,270 @@
+package com.cooper.wheellog
+
+import com.cooper.wheellog.utils.*
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import com.cooper.wheellog.utils.Utils.Companion.toHex
+import com.google.common.truth.Truth.assertWithMessage
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.util.*
+
+/**
+ * Feeds mutated frames of every protocol to its adapter, as corrupt notifications would arrive.
+ * Seeds are the RAW captures of the test resources and the frames of the wheel simulators,
+ * the mutations flip bits, change length fields, cut, splice and split frames. Frames with a
+ * check or encryption are mostly mutated inside their [FrameEnvelope] and sealed again, so the
+ * parsers see them and not only the check. Decoding must not throw, must take bounded time per
+ * byte and allocate bounded memory per input.
+ *
+ * The default run is short, longer runs are made offline:
+ * `./gradlew testDebugUnitTest --tests '*ProtocolFuzzTest' -PfuzzIterations=1000000 -PfuzzSeed=7`
+ * Failing inputs, with the inputs before them as the adapters keep state, are written to
+ * `build/fuzz` to be replayed.
+ */
+@RunWith(RobolectricTestRunner::class)
+class ProtocolFuzzTest {
+    @get:Rule
+    val wheel = DecodeRule()
+    private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    private val iterations = System.getProperty("fuzz.iterations")?.toIntOrNull() ?: 2_000
+    private val seed = System.getProperty("fuzz.seed")?.toLongOrNull() ?: 1L
+    private val ride = RideProfile(
+            speed = { t -> 30 * Math.sin(t) },
+            voltage = { t -> 84 - t },
+            current = { t -> 20 * Math.cos(t) },
+            temperature = { t -> 30 + t })
+
+    private class Failure(val kind: String, val inputs: List<ByteArray>, val detail: String)
+
+    @Before
+    fun setUp() {
+        if (threadBean.isThreadAllocatedMemorySupported) {
+            threadBean.isThreadAllocatedMemoryEnabled = true
+        }
+    }
+
+    private fun fuzz(wheelType: WHEEL_TYPE, seeds: List<ByteArray>, envelope: FrameEnvelope? = null) {
+        assertWithMessage("seeds of $wheelType").that(seeds).isNotEmpty()
+        wheel.data.wheelType = wheelType
+        val adapter = wheel.data.adapter.setContext(wheel.context)
+        val random = Random(seed)
+        val mutator = Mutator(random, seeds, envelope)
+        val recent = java.util.ArrayDeque<ByteArray>()
+        val failures = ArrayList<Failure>()
+        wheel.bound {
+            // warm up so the first decoding does not count as slow
+            seeds.forEach { adapter.decode(it) }
+            for (i in 0 until iterations) {
+                val input = mutator.next()
+                recent.addLast(input)
+                if (recent.size > HISTORY) {
+                    recent.removeFirst()
+                }
+                // one input may arrive in several notifications
+                val chunks = mutator.split(input)
+                val failure = check(adapter, chunks, recent)
+                        // time and memory are checked again, a hiccup of the JVM is no finding
+                        ?.let { if (it.kind == "exception") it else check(adapter, chunks, recent) }
+                if (failure != null) {
+                    failures.add(failure)
+                    if (failures.size >= MAX_FAILURES) {
+                        break
+                    }
+                }
+            }
+        }
+        failures.forEachIndexed { i, failure -> save(wheelType, i, failure) }
+        assertWithMessage("$wheelType, seed $seed, $iterations inputs:\n" +
+                failures.joinToString("\n") { "${it.kind}: ${it.detail}, input ${it.inputs.last().toHex()}" })
+                .that(failures).isEmpty()
+    }
+
+    private fun check(adapter: BaseAdapter, chunks: List<ByteArray>, recent: Collection<ByteArray>): Failure? {
+        val size = chunks.sumOf { it.size }
+        val allocatedBefore = allocated()
+        val begin = System.nanoTime()
+        try {
+            chunks.forEach { adapter.decode(it) }
+        } catch (e: Throwable) {
+            return Failure("exception", recent.toList(), e.toString())
+        }
+        val nanos = System.nanoTime() - begin
+        val allocated = allocated() - allocatedBefore
+        if (nanos > MAX_NANOS + size * MAX_NANOS_PER_BYTE) {
+            return Failure("slow", recent.toList(), "${nanos / 1000} us for $size bytes")
+        }
+        if (allocatedBefore >= 0 && allocated > MAX_BYTES + size * MAX_BYTES_PER_BYTE) {
+            return Failure("memory", recent.toList(), "$allocated bytes allocated for $size bytes")
+        }
+        return null
+    }
+
+    private fun allocated(): Long {
+        return if (threadBean.isThreadAllocatedMemoryEnabled) {
+            threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+        } else {
+            -1
+        }
+    }
+
+    private fun save(wheelType: WHEEL_TYPE, index: Int, failure: Failure) {
+        val dir = File("build/fuzz/${wheelType.name}")
+        dir.mkdirs()
+        File(dir, "${failure.kind}-$seed-$index.txt").writeText(
+                failure.inputs.joinToString("\n", postfix = "\n") { it.toHex() })
+    }
+
+    /**
+     * Mutations of the seed frames, the same [random] gives the same inputs. With an [envelope]
+     * most mutations change the content of a whole frame and seal it again, with the check and
+     * encryption of the protocol, so they get past the check to the parsers.
+     */
+    private class Mutator(
+            private val random: Random,
+            private val seeds: List<ByteArray>,
+            private val envelope: FrameEnvelope?
+    ) {
+        private val contents = envelope?.let { seeds.mapNotNull { seed -> it.open(seed) } } ?: emptyList()
+
+        fun next(): ByteArray {
+            if (envelope != null && contents.isNotEmpty() && random.nextInt(4) != 0) {
+                return envelope.seal(mutated(contents))
+            }
+            return mutated(seeds)
+        }
+
+        private fun mutated(pool: List<ByteArray>): ByteArray {
+            var input = pool[random.nextInt(pool.size)]
+            repeat(1 + random.nextInt(4)) {
+                input = mutate(input, pool)
+            }
+            return input
+        }
+
+        fun split(input: ByteArray): List<ByteArray> {
+            if (input.size < 2 || random.nextInt(4) != 0) {
+                return listOf(input)
+            }
+            val chunks = ArrayList<ByteArray>()
+            var from = 0
+            while (from < input.size) {
+                val to = minOf(input.size, from + 1 + random.nextInt(20))
+                chunks.add(input.copyOfRange(from, to))
+                from = to
+            }
+            return chunks
+        }
+
+        private fun mutate(input: ByteArray, pool: List<ByteArray>): ByteArray {
+            if (input.isEmpty()) {
+                return byteArrayOf(random.nextInt(256).toByte())
+            }
+            val result = input.copyOf()
+            when (random.nextInt(8)) {
+                0 -> {
+                    val i = random.nextInt(result.size)
+                    result[i] = (result[i].toInt() xor (1 shl random.nextInt(8))).toByte()
+                }
+                1 -> result[random.nextInt(result.size)] = INTERESTING[random.nextInt(INTERESTING.size)]
+                // length fields are in the first bytes of the frames and of their content
+                2 -> result[random.nextInt(minOf(result.size, 8))] = random.nextInt(256).toByte()
+                3 -> return result.copyOf(random.nextInt(result.size))
+                4 -> {
+                    val i = random.nextInt(result.size + 1)
+                    val extra = ByteArray(1 + random.nextInt(8)) { random.nextInt(256).toByte() }
+                    return result.copyOfRange(0, i) + extra + result.copyOfRange(i, result.size)
+                }
+                5 -> {
+                    val i = random.nextInt(result.size)
+                    val to = minOf(result.size, i + 1 + random.nextInt(8))
+                    return result.copyOfRange(0, i) + result.copyOfRange(to, result.size)
+                }
+                6 -> {
+                    val other = pool[random.nextInt(pool.size)]
+                    return result.copyOf(random.nextInt(result.size + 1)) +
+                            other.copyOfRange(random.nextInt(other.size + 1), other.size)
+                }
+                else -> {
+                    val i = random.nextInt(result.size)
+                    val to = minOf(result.size, i + 1 + random.nextInt(16))
+                    return result + result.copyOfRange(i, to)
+                }
+            }
+            return result
+        }
+    }
+
+    @Test
+    fun `gotway survives corrupt frames`() {
+        fuzz(WHEEL_TYPE.GOTWAY, wheel.captured("rawDecodeTest") +
+                wheel.pushed(GotwaySimulator(ride), SEED_FRAMES, RATE))
+    }
+
+    @Test
+    fun `gotway detection survives corrupt frames`() {
+        fuzz(WHEEL_TYPE.GOTWAY_VIRTUAL, wheel.pushed(GotwaySimulator(ride), SEED_FRAMES, RATE) +
+                wheel.pushed(VeteranSimulator(ride), SEED_FRAMES, RATE))
+    }
+
+    @Test
+    fun `veteran survives corrupt frames`() {
+        fuzz(WHEEL_TYPE.VETERAN, wheel.pushed(VeteranSimulator(ride), SEED_FRAMES, RATE))
+    }
+
+    @Test
+    fun `kingsong survives corrupt frames`() {
+        fuzz(WHEEL_TYPE.KINGSONG, wheel.pushed(KingsongSimulator(ride), SEED_FRAMES, RATE))
+    }
+
+    @Test
+    fun `inmotion survives corrupt frames`() {
+        fuzz(WHEEL_TYPE.INMOTION, wheel.captured("RAW_inmotion") +
+                wheel.answered(InmotionSimulator(ride), SEED_FRAMES, RATE,
+                        { InMotionAdapter.CANMessage.getFastData().writeBuffer() },
+                        { InMotionAdapter.CANMessage.getSlowData().writeBuffer() }),
+                FrameEnvelope.Inmotion)
+    }
+
+    @Test
+    fun `inmotion v2 survives corrupt frames`() {
+        fuzz(WHEEL_TYPE.INMOTION_V2, wheel.answered(InmotionV2Simulator(ride), SEED_FRAMES, RATE,
+                { InmotionAdapterV2.Message.getCarType().writeBuffer() },
+                { InmotionAdapterV2.Message.getSerialNumber().writeBuffer() },
+                { InmotionAdapterV2.Message.getVersions().writeBuffer() },
+                { InmotionAdapterV2.Message.getStatistics().writeBuffer() },
+                { InmotionAdapterV2.Message.getRealTimeData().writeBuffer() }),
+                FrameEnvelope.InmotionV2)
+    }
+
+    @Test
+    fun `ninebot z survives corrupt frames`() {
+        // no key exchange, frames are encrypted with the zero key of a new adapter
+        fuzz(WHEEL_TYPE.NINEBOT_Z, wheel.answered(NinebotZSimulator(ride), SEED_FRAMES, RATE,
+                { NinebotZAdapter.CANMessage.getSerialNumber().writeBuffer() },
+                { NinebotZAdapter.CANMessage.getParams1().writeBuffer() },
+                { NinebotZAdapter.CANMessage.getParams2().writeBuffer() },
+                { NinebotZAdapter.CANMessage.getBms1Sn().writeBuffer() },
+                { NinebotZAdapter.CANMessage.getBms1Life().writeBuffer() },
+                { NinebotZAdapter.CANMessage.getBms1Cells().writeBuffer() },
+                { NinebotZAdapter.CANMessage.getLiveData().writeBuffer() }),
+                FrameEnvelope.NinebotZ(ByteArray(16)))
+    }
+
+    companion object {
+        private const val SEED_FRAMES = 100
+        private const val RATE = 10.0
+        private const val HISTORY = 8
+        private const val MAX_FAILURES = 10
+        private const val MAX_NANOS = 20_000_000L
+        private const val MAX_NANOS_PER_BYTE = 100_000L
+        private const val MAX_BYTES = 256 * 1024L
+        private const val MAX_BYTES_PER_BYTE = 4 * 1024L
+        private val INTERESTING = byteArrayOf(0x00, 0x01, 0x7F, 0x80.toByte(), 0xFE.toByte(), 0xFF.toByte(),
+                0x55, 0xAA.toByte(), 0x5A, 0xA5.toByte())
+    }
+}
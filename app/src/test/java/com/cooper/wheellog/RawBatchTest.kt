@@ -0,0 +1,134 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import androidx.preference.PreferenceManager
+import androidx.test.core.app.ApplicationProvider
+import com.cooper.wheellog.utils.Constants
+import com.cooper.wheellog.utils.InMotionAdapter
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockkClass
+import io.mockk.unmockkAll
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class RawBatchTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        WheelLog.AppConfig = mockkClass(AppConfig::class, relaxed = true)
+        every { WheelLog.AppConfig.gotwayNegative } returns "1"
+    }
+
+    @After
+    fun tearDown() {
+        unmockkAll()
+    }
+
+    private fun capture(resource: String, name: String): File {
+        val raw = File(folder.root, name)
+        File("src/test/resources/$resource").copyTo(raw)
+        return raw
+    }
+
+    @Test
+    fun `captures are decoded into trips in parallel`() {
+        // Arrange.
+        val raws = listOf(
+                capture("RAW_inmotion_V8S.csv", "RAW_2021_05_01_10_00_00.csv"),
+                capture("rawDecodeTest.csv", "RAW_2021_05_02_11_30_00.csv"))
+        val output = folder.newFolder("trips")
+        val progress = mutableListOf<Int>()
+
+        // Act.
+        val results = RawBatch(context, 2).run(raws, output) { _, done, total ->
+            synchronized(progress) { progress.add(done) }
+            assertThat(total).isEqualTo(2)
+        }
+
+        // Assert.
+        assertThat(progress).containsExactly(1, 2)
+        assertThat(results.map { it.raw }).containsExactlyElementsIn(raws).inOrder()
+        assertThat(results.map { it.error }).containsExactly(null, null)
+        assertThat(results[0].stats.frames).isEqualTo(2816)
+        val trip = File(output, "2021_05_01_10_00_00.csv")
+        assertThat(results[0].trip).isEqualTo(trip)
+        val lines = trip.readLines()
+        assertThat(lines[0]).isEqualTo(TripLog.header(false))
+        assertThat(lines.size.toLong()).isEqualTo(results[0].rows + 1)
+        assertThat(lines[1]).startsWith("2021-05-01,")
+        assertThat(lines.last().split(",")[3]).isEqualTo("81.99")
+        assertThat(File(output, "2021_05_02_11_30_00.csv").readLines()[0]).isEqualTo(TripLog.header(false))
+    }
+
+    @Test
+    fun `batch wheels do not broadcast wheel changes`() {
+        // Arrange.
+        val service = Robolectric.setupService(BluetoothLeService::class.java)
+        val silent = WheelData()
+        silent.setSilent(true)
+        silent.bluetoothLeService = service
+        val connected = WheelData()
+        connected.bluetoothLeService = service
+
+        // Act.
+        silent.model = "V8S"
+        val afterSilent = shadowOf(service.application).broadcastIntents.map { it.action }
+        connected.model = "V8S"
+        val afterConnected = shadowOf(service.application).broadcastIntents.map { it.action }
+
+        // Assert.
+        assertThat(afterSilent).doesNotContain(Constants.ACTION_WHEEL_MODEL_CHANGED)
+        assertThat(afterConnected).contains(Constants.ACTION_WHEEL_MODEL_CHANGED)
+    }
+
+    @Test
+    fun `batch wheels do not store settings`() {
+        // Arrange.
+        WheelLog.AppConfig = AppConfig(context)
+        val preferences = PreferenceManager.getDefaultSharedPreferences(context)
+        val before = preferences.all.toMap()
+        val raws = listOf(
+                capture("RAW_inmotion_V8S.csv", "RAW_2021_05_01_10_00_00.csv"),
+                capture("rawDecodeTest.csv", "RAW_2021_05_02_11_30_00.csv"))
+        val silent = WheelData()
+        silent.setSilent(true)
+        silent.wheelType = Constants.WHEEL_TYPE.INMOTION
+        val frames = File("src/test/resources/RAW_inmotion_V8S.csv").readLines()
+                .map { it.substring(13).hexToByteArray() }
+
+        // Act.
+        val results = RawBatch(context, 2).run(raws, folder.newFolder("trips"))
+        val unbound = WheelData.bind(silent)
+        try {
+            frames.forEach { silent.decodeResponse(it, context) }
+        } finally {
+            WheelData.bind(unbound)
+        }
+
+        // Assert.
+        assertThat(results.map { it.error }).containsExactly(null, null)
+        assertThat(silent.model).isEqualTo(InMotionAdapter.getModelString(InMotionAdapter.Model.V8S))
+        assertThat(preferences.all).isEqualTo(before)
+    }
+
+    @Test
+    fun `trip names follow the logging service`() {
+        assertThat(RawBatch.tripNameOf("RAW_2021_05_01_10_00_00.csv")).isEqualTo("2021_05_01_10_00_00.csv")
+        assertThat(RawBatch.tripNameOf("capture.csv")).isEqualTo("capture_trip.csv")
+    }
+}
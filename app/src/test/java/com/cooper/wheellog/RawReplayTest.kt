@@ -0,0 +1,143 @@
+package com.cooper.wheellog
+
+import android.content.Context
+import androidx.preference.PreferenceManager
+import androidx.test.core.app.ApplicationProvider
+import com.cooper.wheellog.utils.Constants
+import com.cooper.wheellog.utils.InMotionAdapter
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockkClass
+import io.mockk.unmockkAll
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class RawReplayTest {
+    private lateinit var context: Context
+    private lateinit var data: WheelData
+    private var now = 0L
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        WheelLog.AppConfig = mockkClass(AppConfig::class, relaxed = true)
+        every { WheelLog.AppConfig.gotwayNegative } returns "1"
+        data = WheelData()
+        data.bluetoothLeService = Robolectric.setupService(BluetoothLeService::class.java)
+    }
+
+    @After
+    fun tearDown() {
+        unmockkAll()
+    }
+
+    private fun replayOf(fileName: String): RawReplay {
+        return RawReplay(context, data, { File("src/test/resources/$fileName").inputStream() },
+                { now }, { now += it })
+    }
+
+    @Test
+    fun `unthrottled replay decodes the whole capture`() {
+        // Arrange.
+        val replay = replayOf("RAW_inmotion_V8S.csv")
+        replay.speed = 0.0
+
+        // Act.
+        val stats = replay.play()
+
+        // Assert.
+        assertThat(stats.frames).isEqualTo(2816)
+        assertThat(stats.malformed).isEqualTo(0)
+        assertThat(stats.elapsed).isEqualTo(0)
+        assertThat(replay.duration).isEqualTo(82_714)
+        assertThat(replay.wheelType).isEqualTo(Constants.WHEEL_TYPE.INMOTION)
+        assertThat(data.wheelType).isEqualTo(Constants.WHEEL_TYPE.INMOTION)
+        assertThat(data.model).isEqualTo(InMotionAdapter.getModelString(InMotionAdapter.Model.V8S))
+        assertThat(data.voltageDouble).isEqualTo(81.99)
+    }
+
+    @Test
+    fun `replay from a seek position follows the capture times`() {
+        // Arrange.
+        val replay = replayOf("RAW_inmotion_V8S.csv")
+        replay.speed = 2.0
+
+        // Act.
+        replay.seek(60_000)
+        val stats = replay.play()
+
+        // Assert.
+        assertThat(stats.frames).isEqualTo(765)
+        assertThat(stats.elapsed).isEqualTo((82_714L - 60_000) / 2)
+        assertThat(replay.position).isEqualTo(replay.duration)
+    }
+
+    @Test
+    fun `settings in the capture are not stored`() {
+        // Arrange.
+        WheelLog.AppConfig = AppConfig(context)
+        val preferences = PreferenceManager.getDefaultSharedPreferences(context)
+        val before = preferences.all.toMap()
+        val replay = replayOf("RAW_inmotion_V8S.csv")
+        replay.speed = 0.0
+
+        // Act.
+        replay.play()
+
+        // Assert.
+        assertThat(data.model).isEqualTo(InMotionAdapter.getModelString(InMotionAdapter.Model.V8S))
+        assertThat(preferences.all).isEqualTo(before)
+        assertThat(data.isStoringSettings).isTrue()
+    }
+
+    @Test
+    fun `capture over midnight with broken lines`() {
+        // Arrange.
+        val capture = "23:59:59.900,55AA19C1000000000000008CF0000001FFF80018\n" +
+                "23:59:59.950,not a frame\n" +
+                "\n" +
+                "00:00:00.100,5A5A5A5A55AA000060D248001C20006400010007\r\n" +
+                "00:00:00.150,000804185A5A5A5A"
+        val replay = RawReplay(context, data, { capture.byteInputStream() }, { now }, { now += it })
+
+        // Act.
+        val stats = replay.play()
+
+        // Assert.
+        assertThat(replay.duration).isEqualTo(250)
+        assertThat(replay.wheelType).isEqualTo(Constants.WHEEL_TYPE.GOTWAY)
+        assertThat(stats.frames).isEqualTo(3)
+        assertThat(stats.malformed).isEqualTo(2)
+        assertThat(stats.elapsed).isEqualTo(250)
+        assertThat(data.voltageDouble).isEqualTo(65.93)
+    }
+
+    @Test
+    fun `wheel type from frame headers`() {
+        // Arrange.
+        val frames = mapOf(
+                "55AA19C1000000000000008CF0000001FFF80018" to Constants.WHEEL_TYPE.GOTWAY,
+                "55AA19C1" to Constants.WHEEL_TYPE.Unknown, // too short to tell
+                "55AA020A011AD8FF" to Constants.WHEEL_TYPE.NINEBOT,
+                "DC5A5C20" to Constants.WHEEL_TYPE.VETERAN,
+                "AA55A9" to Constants.WHEEL_TYPE.KINGSONG,
+                "5AA502" to Constants.WHEEL_TYPE.NINEBOT_Z,
+                "AAAA1401A5550F" to Constants.WHEEL_TYPE.INMOTION, // 55 of the id escaped
+                "AAAA1301A5AA0F" to Constants.WHEEL_TYPE.INMOTION,
+                "AAAA14438426270900" to Constants.WHEEL_TYPE.INMOTION_V2,
+                "AAAA1406" to Constants.WHEEL_TYPE.Unknown,
+                "0000" to Constants.WHEEL_TYPE.Unknown)
+
+        // Act & Assert.
+        for ((hex, wheelType) in frames) {
+            assertThat(RawReplay.wheelTypeOf(hex.hexToByteArray())).isEqualTo(wheelType)
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.cooper.wheellog
+
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCallback
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattService
+import android.os.Handler
+import android.os.Looper
+import com.cooper.wheellog.utils.Constants
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import com.cooper.wheellog.utils.RequestPoller
+import com.cooper.wheellog.utils.WheelSimulator
+import io.mockk.every
+import io.mockk.mockk
+import org.robolectric.Shadows.shadowOf
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import kotlin.math.ceil
+
+/**
+ * BluetoothGatt of a simulated wheel for [service]. Live frames of a wheel which pushes data
+ * are notified [rate] times per second, late by up to [jitter] ms, writes are answered after
+ * [responseDelay] ms plus up to [jitter] ms. Frames are split into notifications of [mtu] bytes
+ * and arrive in the order they were sent.
+ * The simulation runs on a virtual clock in steps of 1 ms: every step idles the main looper
+ * for 1 ms, which runs the write queue timeouts and the pollers of the adapters (with
+ * [LooperScheduler]) at the time they are due, then handles the writes and delivers the frames
+ * due by then. Nothing waits in real time, and the same run gives the same frames.
+ */
+class SimulatedGatt(
+        private val service: BluetoothLeService,
+        private val simulator: WheelSimulator,
+        private val rate: Double = 20.0,
+        private val jitter: Long = 0,
+        private val responseDelay: Long = 5,
+        private val mtu: Int = 20,
+        seed: Long = 1
+) {
+
+    class Stats {
+        var notifications = 0L
+        var frames = 0L
+        var pushed = 0L
+        var writes = 0L
+        var decoded = 0L
+        var rejected = 0L
+        var decodeFailures = 0L
+        var elapsed = 0L
+        private var latencies = LongArray(1024)
+        private var latencyCount = 0
+
+        /**
+         * Frames sent by the wheel and not decoded by the app.
+         */
+        val drops: Long
+            get() = frames - decoded
+
+        /**
+         * Decoded frames per second of the virtual clock.
+         */
+        val throughput: Double
+            get() = if (elapsed == 0L) 0.0 else decoded * 1000.0 / elapsed
+
+        internal fun addLatency(millis: Double) {
+            if (latencyCount == latencies.size) {
+                latencies = latencies.copyOf(latencyCount * 2)
+            }
+            latencies[latencyCount++] = (millis * 1_000_000).toLong()
+        }
+
+        /**
+         * Time from when the wheel sent a frame to when the app decoded it, ms.
+         */
+        fun latency(percentile: Double): Double {
+            if (latencyCount == 0) {
+                return 0.0
+            }
+            val sorted = latencies.copyOf(latencyCount)
+            sorted.sort()
+            val index = ((latencyCount - 1) * percentile / 100).toInt()
+            return sorted[index] / 1_000_000.0
+        }
+
+        fun report(): String {
+            return String.format(Locale.US,
+                    "%d frames (%d pushed) in %d notifications, %d writes, %d decoded, %d dropped, %d rejected, " +
+                            "%d decode failures, %.1f frames/s, latency p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    frames, pushed, notifications, writes, decoded, drops, rejected, decodeFailures, throughput,
+                    latency(50.0), latency(99.0), latency(100.0))
+        }
+    }
+
+    private class Pending(val sent: Double, val due: Double, val frames: List<ByteArray>)
+
+    /**
+     * Runs the pollers of the adapters on the main looper, so they tick on its clock.
+     */
+    class LooperScheduler : RequestPoller.Scheduler {
+        private val handler = Handler(Looper.getMainLooper())
+        private var tick: Runnable? = null
+
+        override fun schedule(tick: Runnable, delay: Long) {
+            shutdown()
+            this.tick = tick
+            handler.postDelayed(tick, delay)
+        }
+
+        override fun shutdown() {
+            tick?.let { handler.removeCallbacks(it) }
+            tick = null
+        }
+    }
+
+    private val random = Random(seed)
+    private val writes = ConcurrentLinkedQueue<ByteArray>()
+    private val writeCharacteristic: BluetoothGattCharacteristic
+    private val readCharacteristic: BluetoothGattCharacteristic
+    private val callback: BluetoothGattCallback
+    val gatt: BluetoothGatt = mockk(relaxed = true)
+
+    init {
+        val (serviceUuid, writeUuid, readUuid) = when (simulator.wheelType) {
+            WHEEL_TYPE.KINGSONG -> Triple(Constants.KINGSONG_SERVICE_UUID,
+                    Constants.KINGSONG_READ_CHARACTER_UUID, Constants.KINGSONG_READ_CHARACTER_UUID)
+            WHEEL_TYPE.INMOTION -> Triple(Constants.INMOTION_WRITE_SERVICE_UUID,
+                    Constants.INMOTION_WRITE_CHARACTER_UUID, Constants.INMOTION_READ_CHARACTER_UUID)
+            WHEEL_TYPE.INMOTION_V2 -> Triple(Constants.INMOTION_V2_SERVICE_UUID,
+                    Constants.INMOTION_V2_WRITE_CHARACTER_UUID, Constants.INMOTION_V2_READ_CHARACTER_UUID)
+            WHEEL_TYPE.NINEBOT_Z -> Triple(Constants.NINEBOT_Z_SERVICE_UUID,
+                    Constants.NINEBOT_Z_WRITE_CHARACTER_UUID, Constants.NINEBOT_Z_READ_CHARACTER_UUID)
+            else -> Triple(Constants.GOTWAY_SERVICE_UUID,
+                    Constants.GOTWAY_READ_CHARACTER_UUID, Constants.GOTWAY_READ_CHARACTER_UUID)
+        }
+        val gattService = BluetoothGattService(UUID.fromString(serviceUuid), BluetoothGattService.SERVICE_TYPE_PRIMARY)
+        writeCharacteristic = BluetoothGattCharacteristic(UUID.fromString(writeUuid),
+                BluetoothGattCharacteristic.PROPERTY_WRITE or BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                BluetoothGattCharacteristic.PERMISSION_WRITE)
+        gattService.addCharacteristic(writeCharacteristic)
+        // notifications get their own object, as the write characteristic may be the read one
+        readCharacteristic = BluetoothGattCharacteristic(UUID.fromString(readUuid),
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ)
+        every { gatt.getService(any()) } returns null
+        every { gatt.getService(gattService.uuid) } returns gattService
+        every { gatt.writeCharacteristic(any()) } answers {
+            writes.add(firstArg<BluetoothGattCharacteristic>().value.copyOf())
+            true
+        }
+        setField("mBluetoothGatt", gatt)
+        callback = getField("mGattCallback") as BluetoothGattCallback
+    }
+
+    /**
+     * Runs the simulation for [duration] ms of the virtual clock and returns what happened
+     * in that time. Frames sent before the end are delivered even if they arrive after it.
+     */
+    fun run(duration: Long): Stats {
+        val stats = Stats()
+        val before = counters()
+        val looper = shadowOf(Looper.getMainLooper())
+        // frames in flight, in the order they arrive
+        val inFlight = ArrayDeque<Pending>()
+        val period = 1000.0 / rate
+        var ticks = 0L
+        var lastDue = 0.0
+        looper.idle()
+        for (now in 0 until duration) {
+            if (now > 0) {
+                looper.idleFor(1, TimeUnit.MILLISECONDS)
+            }
+            while (true) {
+                val data = writes.poll() ?: break
+                stats.writes++
+                simulator.advance(now / 1000.0)
+                val answers = simulator.onWrite(data)
+                callback.onCharacteristicWrite(gatt, writeCharacteristic, BluetoothGatt.GATT_SUCCESS)
+                if (answers.isNotEmpty()) {
+                    lastDue = maxOf(lastDue, (now + responseDelay + jitter()).toDouble())
+                    inFlight.add(Pending(now.toDouble(), lastDue, answers))
+                }
+            }
+            while (simulator.pushesData && ticks * period <= now) {
+                val sent = ticks * period
+                simulator.advance(sent / 1000)
+                val frames = simulator.liveFrames()
+                stats.pushed += frames.size
+                lastDue = maxOf(lastDue, sent + jitter())
+                inFlight.add(Pending(sent, lastDue, frames))
+                ticks++
+            }
+            while (inFlight.isNotEmpty() && inFlight.first.due <= now) {
+                deliver(inFlight.removeFirst(), now.toDouble(), stats)
+            }
+        }
+        // the frames still in flight arrive after the end
+        var now = duration - 1
+        while (inFlight.isNotEmpty()) {
+            val pending = inFlight.removeFirst()
+            val due = ceil(pending.due).toLong()
+            if (due > now) {
+                looper.idleFor(due - now, TimeUnit.MILLISECONDS)
+                now = due
+            }
+            deliver(pending, now.toDouble(), stats)
+        }
+        stats.elapsed = duration
+        val after = counters()
+        stats.decoded = after.frames - before.frames
+        stats.decodeFailures = after.decodeFailures - before.decodeFailures
+        stats.rejected = after.rejected.sum() - before.rejected.sum()
+        return stats
+    }
+
+    private fun deliver(pending: Pending, now: Double, stats: Stats) {
+        for (frame in pending.frames) {
+            var from = 0
+            while (from < frame.size) {
+                val to = minOf(from + mtu, frame.size)
+                readCharacteristic.setValue(frame.copyOfRange(from, to))
+                callback.onCharacteristicChanged(gatt, readCharacteristic)
+                stats.notifications++
+                from = to
+            }
+            stats.frames++
+            stats.addLatency(now - pending.sent)
+        }
+    }
+
+    private fun jitter(): Long = if (jitter > 0) random.nextInt(jitter.toInt() + 1).toLong() else 0
+
+    private fun counters(): LinkDiagnostics.Counters {
+        return WheelData.getPrimary().diagnostics.getCounters(simulator.wheelType.name)
+                ?: LinkDiagnostics.Counters()
+    }
+
+    private fun getField(name: String): Any? {
+        val field = BluetoothLeService::class.java.getDeclaredField(name)
+        field.isAccessible = true
+        return field.get(service)
+    }
+
+    private fun setField(name: String, value: Any?) {
+        val field = BluetoothLeService::class.java.getDeclaredField(name)
+        field.isAccessible = true
+        field.set(service, value)
+    }
+}
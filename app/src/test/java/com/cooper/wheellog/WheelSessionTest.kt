@@ -0,0 +1,251 @@
+package com.cooper.wheellog
+
+import android.app.Application
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattDescriptor
+import android.bluetooth.BluetoothGattService
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.cooper.wheellog.utils.Constants
+import com.cooper.wheellog.utils.InMotionAdapter
+import com.cooper.wheellog.utils.KingsongSimulator
+import com.cooper.wheellog.utils.RideProfile
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockkClass
+import io.mockk.unmockkAll
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+@RunWith(RobolectricTestRunner::class)
+class WheelSessionTest {
+    private val sdf = SimpleDateFormat("HH:mm:ss.SSS")
+    private val executor = Executors.newFixedThreadPool(4)
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        WheelLog.AppConfig = mockkClass(AppConfig::class, relaxed = true)
+        every { WheelLog.AppConfig.gotwayNegative } returns "1"
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+        unmockkAll()
+    }
+
+    private fun readRaw(fileName: String, start: String): List<ByteArray> {
+        val startTime = sdf.parse(start)
+        val frames = mutableListOf<ByteArray>()
+        File("src/test/resources/$fileName").inputStream().bufferedReader().useLines { lines ->
+            lines.forEach {
+                val row = it.split(',')
+                val time = sdf.parse(row[0])
+                if (time != null && time > startTime) {
+                    frames.add(row[1].hexToByteArray())
+                }
+            }
+        }
+        return frames
+    }
+
+    @Test
+    fun `two wheels are decoded concurrently`() {
+        // Arrange.
+        val gotway = WheelSession("00:00:00:00:00:01", context, executor)
+        val inmotion = WheelSession("00:00:00:00:00:02", context, executor)
+        gotway.data.wheelType = Constants.WHEEL_TYPE.GOTWAY
+        inmotion.data.wheelType = Constants.WHEEL_TYPE.INMOTION
+        val gotwayFrames = readRaw("rawDecodeTest.csv", "11:50:50.123")
+        val inmotionFrames = readRaw("RAW_inmotion_V8S.csv", "13:10:19.699")
+
+        // Act.
+        val feeders = listOf(
+                thread { gotwayFrames.forEach { gotway.submit(it) } },
+                thread { inmotionFrames.forEach { inmotion.submit(it) } })
+        feeders.forEach { it.join() }
+        executor.shutdown()
+        executor.awaitTermination(30, TimeUnit.SECONDS)
+
+        // Assert.
+        assertThat(gotway.data.temperature).isEqualTo(24)
+        assertThat(gotway.data.voltageDouble).isEqualTo(65.93)
+        assertThat(gotway.data.phaseCurrentDouble).isEqualTo(1.4)
+        assertThat(gotway.data.totalDistance).isEqualTo(24786)
+        assertThat(gotway.data.batteryLevel).isEqualTo(100)
+
+        assertThat(inmotion.data.model).isEqualTo(InMotionAdapter.getModelString(InMotionAdapter.Model.V8S))
+        assertThat(inmotion.data.batteryLevel).isEqualTo(96)
+        assertThat(inmotion.data.temperature).isEqualTo(30)
+        assertThat(inmotion.data.voltageDouble).isEqualTo(81.99)
+        assertThat(inmotion.data.modeStr).isEqualTo("Drive")
+
+        gotway.close()
+        inmotion.close()
+    }
+
+    @Test
+    fun `adapters belong to their wheel`() {
+        // Arrange.
+        val first = WheelSession("00:00:00:00:00:01", context, executor)
+        val second = WheelSession("00:00:00:00:00:02", context, executor)
+        first.data.wheelType = Constants.WHEEL_TYPE.INMOTION
+        second.data.wheelType = Constants.WHEEL_TYPE.INMOTION
+
+        // Act.
+        val previous = WheelData.bind(first.data)
+        val bound = InMotionAdapter.getInstance()
+        WheelData.bind(previous)
+
+        // Assert.
+        assertThat(bound).isSameInstanceAs(first.data.adapter)
+        assertThat(first.data.adapter).isNotSameInstanceAs(second.data.adapter)
+
+        first.close()
+        second.close()
+    }
+
+    @Test
+    fun `commands of a wheel go through its own link`() {
+        // Arrange.
+        val session = WheelSession("00:00:00:00:00:01", context, executor)
+        val link = RecordingLink(session.mac)
+        session.data.setLink(link)
+
+        // Act.
+        session.data.bluetoothCmd(byteArrayOf(1))
+        session.data.bluetoothPoll(byteArrayOf(2))
+
+        // Assert.
+        assertThat(link.writes.map { it.first.toList() }).containsExactly(listOf<Byte>(1), listOf<Byte>(2)).inOrder()
+        assertThat(link.writes.map { it.second })
+                .containsExactly(GattWriteQueue.Lane.Command, GattWriteQueue.Lane.Poll).inOrder()
+        assertThat(session.data.mac).isEqualTo(session.mac)
+
+        session.close()
+    }
+
+    @Test
+    fun `data of every wheel reaches the listeners`() {
+        // Arrange.
+        val gotway = WheelSession("00:00:00:00:00:01", context, executor)
+        gotway.data.wheelType = Constants.WHEEL_TYPE.GOTWAY
+        val frames = readRaw("rawDecodeTest.csv", "11:50:50.123")
+        val updates = Collections.synchronizedList(ArrayList<WheelData>())
+        val listener = WheelData.DataListener { updates.add(it) }
+        WheelData.addDataListener(listener)
+
+        // Act.
+        try {
+            frames.forEach { gotway.submit(it) }
+            executor.shutdown()
+            executor.awaitTermination(30, TimeUnit.SECONDS)
+        } finally {
+            WheelData.removeDataListener(listener)
+        }
+
+        // Assert.
+        assertThat(updates).isNotEmpty()
+        assertThat(updates.all { it === gotway.data }).isTrue()
+
+        gotway.close()
+    }
+
+    @Test
+    fun `settings and alarms stay with their wheel`() {
+        // Arrange.
+        WheelLog.AppConfig = AppConfig(context)
+        val first = WheelSession("00:00:00:00:00:01", context, Executor { it.run() })
+        val second = WheelSession("00:00:00:00:00:02", context, Executor { it.run() })
+        listOf(first, second).forEach {
+            it.data.setLink(RecordingLink(it.mac))
+            it.data.wheelType = Constants.WHEEL_TYPE.KINGSONG
+        }
+        val hot = KingsongSimulator(RideProfile(temperature = { 50.0 }))
+        hot.advance(0.0)
+        first.configure {
+            alarmsEnabled = true
+            alarmTemperature = 40
+            disablePhoneBeep = true
+        }
+        second.configure {
+            alarmsEnabled = true
+            alarmTemperature = 60
+            disablePhoneBeep = true
+        }
+
+        // Act.
+        first.submit(kingsongAlarms(alarm1 = 30, maxSpeed = 45))
+        second.submit(kingsongAlarms(alarm1 = 35, maxSpeed = 50))
+        hot.liveFrames().forEach { first.submit(it) }
+        val firstAlarms = alarmsRaised()
+        hot.liveFrames().forEach { second.submit(it) }
+
+        // Assert.
+        first.configure {
+            assertThat(wheelKsAlarm1).isEqualTo(30)
+            assertThat(wheelMaxSpeed).isEqualTo(45)
+        }
+        second.configure {
+            assertThat(wheelKsAlarm1).isEqualTo(35)
+            assertThat(wheelMaxSpeed).isEqualTo(50)
+        }
+        assertThat(WheelLog.AppConfig.wheelKsAlarm1).isEqualTo(0)
+        assertThat(firstAlarms).isEqualTo(1)
+        assertThat(alarmsRaised()).isEqualTo(1)
+
+        first.close()
+        second.close()
+    }
+
+    private fun WheelSession.configure(block: AppConfig.() -> Unit) {
+        val previous = WheelData.bind(data)
+        try {
+            WheelLog.AppConfig.block()
+        } finally {
+            WheelData.bind(previous)
+        }
+    }
+
+    private fun alarmsRaised(): Int {
+        return shadowOf(context as Application).broadcastIntents.count { it.action == Constants.ACTION_ALARM_TRIGGERED }
+    }
+
+    private fun kingsongAlarms(alarm1: Int, maxSpeed: Int): ByteArray {
+        val frame = "aa550000000000000000000000000000b5145a5a".hexToByteArray()
+        frame[4] = alarm1.toByte()
+        frame[10] = maxSpeed.toByte()
+        return frame
+    }
+
+    private class RecordingLink(override val bluetoothDeviceAddress: String) : GattLink {
+        val writes = ArrayList<Pair<ByteArray, GattWriteQueue.Lane>>()
+
+        override val supportedGattServices: List<BluetoothGattService>? = null
+
+        override fun getGattService(serviceId: UUID): BluetoothGattService? = null
+
+        override fun setCharacteristicNotification(characteristic: BluetoothGattCharacteristic?, enabled: Boolean) {}
+
+        override fun writeBluetoothGattDescriptor(descriptor: BluetoothGattDescriptor) {}
+
+        override fun writeBluetoothGattCharacteristic(cmd: ByteArray?, lane: GattWriteQueue.Lane): Boolean {
+            writes.add(Pair(cmd!!, lane))
+            return true
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.cooper.wheellog
+
+import com.cooper.wheellog.utils.*
+import com.google.common.truth.Truth.assertThat
+import com.google.common.truth.Truth.assertWithMessage
+import io.mockk.every
+import io.mockk.mockkClass
+import io.mockk.unmockkAll
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class WheelSimulatorTest {
+    private lateinit var service: BluetoothLeService
+    private lateinit var data: WheelData
+    private var primary: WheelData? = null
+    private val threadSchedulers = RequestPoller.schedulerFactory
+    private val ride = RideProfile(
+            speed = { 25.0 },
+            voltage = { 95.0 },
+            current = { 10.0 },
+            temperature = { 35.0 })
+
+    @Before
+    fun setUp() {
+        WheelLog.AppConfig = mockkClass(AppConfig::class, relaxed = true)
+        every { WheelLog.AppConfig.gotwayNegative } returns "1"
+        // the pollers tick on the clock of the simulation
+        RequestPoller.schedulerFactory = { SimulatedGatt.LooperScheduler() }
+        service = Robolectric.setupService(BluetoothLeService::class.java)
+        data = WheelData()
+        // as a connected wheel, without name and serial
+        data.full_reset()
+        data.bluetoothLeService = service
+        // the service decodes into the primary wheel
+        primary = setPrimary(data)
+    }
+
+    @After
+    fun tearDown() {
+        InMotionAdapter.stopTimer()
+        InmotionAdapterV2.stopTimer()
+        NinebotZAdapter.stopTimer()
+        RequestPoller.schedulerFactory = threadSchedulers
+        setPrimary(primary)
+        unmockkAll()
+    }
+
+    private fun setPrimary(wheelData: WheelData?): WheelData? {
+        val field = WheelData::class.java.getDeclaredField("mInstance")
+        field.isAccessible = true
+        val previous = field.get(null) as WheelData?
+        field.set(null, wheelData)
+        return previous
+    }
+
+    private fun connect(simulator: WheelSimulator, rate: Double = 20.0, jitter: Long = 0): SimulatedGatt {
+        data.wheelType = simulator.wheelType
+        return SimulatedGatt(service, simulator, rate, jitter)
+    }
+
+    @Test
+    fun `gotway pushes live data`() {
+        // Arrange.
+        val gatt = connect(GotwaySimulator(ride))
+
+        // Act.
+        val stats = gatt.run(1_000)
+
+        // Assert.
+        assertWithMessage(stats.report()).that(stats.frames).isEqualTo(20)
+        assertWithMessage(stats.report()).that(stats.drops).isEqualTo(0)
+        assertThat(data.speedDouble).isWithin(0.05).of(25.0)
+        assertThat(data.voltageDouble).isWithin(0.01).of(95.0)
+        assertThat(data.temperature).isEqualTo(35)
+    }
+
+    @Test
+    fun `veteran pushes live data`() {
+        // Arrange.
+        val gatt = connect(VeteranSimulator(ride))
+
+        // Act.
+        val stats = gatt.run(1_000)
+
+        // Assert.
+        assertWithMessage(stats.report()).that(stats.frames).isEqualTo(20)
+        assertWithMessage(stats.report()).that(stats.drops).isEqualTo(0)
+        assertThat(data.speedDouble).isWithin(0.05).of(25.0)
+        assertThat(data.voltageDouble).isWithin(0.01).of(95.0)
+        assertThat(data.temperature).isEqualTo(35)
+    }
+
+    @Test
+    fun `kingsong is asked for name and serial`() {
+        // Arrange.
+        val gatt = connect(KingsongSimulator(ride))
+
+        // Act.
+        val stats = gatt.run(1_000)
+
+        // Assert.
+        assertWithMessage(stats.report()).that(stats.pushed).isEqualTo(24)
+        assertWithMessage(stats.report()).that(stats.writes).isAtLeast(2)
+        assertWithMessage(stats.report()).that(stats.drops).isEqualTo(0)
+        assertThat(data.name).isEqualTo("KS-16X-2005")
+        assertThat(data.model).isEqualTo("KS-16X")
+        assertThat(data.serial).startsWith("KS16X000000000001")
+        assertThat(data.speedDouble).isWithin(0.01).of(25.0)
+        assertThat(data.voltageDouble).isWithin(0.01).of(95.0)
+    }
+
+    @Test
+    fun `inmotion answers the keep-alive requests`() {
+        // Arrange.
+        val gatt = connect(InmotionSimulator(ride))
+        InMotionAdapter.getInstance().startKeepAliveTimer("000000")
+
+        // Act.
+        val stats = gatt.run(2_000)
+
+        // Assert.
+        assertWithMessage(stats.report()).that(stats.drops).isEqualTo(0)
+        assertWithMessage(stats.report()).that(stats.decodeFailures).isEqualTo(0)
+        assertThat(data.serial).isEqualTo("0123456789ABCDEF")
+        assertThat(data.version).isEqualTo("1.2.34")
+        assertThat(data.speedDouble).isWithin(0.05).of(25.0)
+        assertThat(data.voltageDouble).isWithin(0.01).of(95.0)
+    }
+
+    @Test
+    fun `inmotion v2 answers the keep-alive requests`() {
+        // Arrange.
+        val gatt = connect(InmotionV2Simulator(ride))
+        InmotionAdapterV2.getInstance().startKeepAliveTimer()
+
+        // Act.
+        val stats = gatt.run(2_000)
+
+        // Assert.
+        assertWithMessage(stats.report()).that(stats.drops).isEqualTo(0)
+        assertWithMessage(stats.report()).that(stats.decodeFailures).isEqualTo(0)
+        assertThat(data.serial).isEqualTo("1480CA122207002F")
+        assertThat(data.speedDouble).isWithin(0.01).of(25.0)
+        assertThat(data.voltageDouble).isWithin(0.01).of(95.0)
+    }
+
+    @Test
+    fun `ninebot z answers the keep-alive requests`() {
+        // Arrange.
+        val gatt = connect(NinebotZSimulator(ride))
+        NinebotZAdapter.getInstance().startKeepAliveTimer()
+
+        // Act.
+        val stats = gatt.run(2_000)
+
+        // Assert.
+        assertWithMessage(stats.report()).that(stats.drops).isEqualTo(0)
+        assertWithMessage(stats.report()).that(stats.decodeFailures).isEqualTo(0)
+        assertThat(data.serial).isEqualTo("N3OTC2002C0001")
+        assertThat(data.model).isEqualTo("Ninebot Z")
+        assertThat(data.speedDouble).isWithin(0.01).of(25.0)
+        assertThat(data.voltageDouble).isWithin(0.01).of(95.0)
+    }
+
+    @Test
+    fun `kingsong at 400 Hz with jitter loses no frames`() {
+        // Arrange.
+        val accelerating = RideProfile(speed = { t -> t * 10 }, voltage = { t -> 84.0 - t })
+        val gatt = connect(KingsongSimulator(accelerating), 400.0, 3)
+
+        // Act.
+        val stats = gatt.run(2_000)
+
+        // Assert.
+        // 800 live frames and a distance frame with every fifth
+        assertWithMessage(stats.report()).that(stats.pushed).isEqualTo(960)
+        assertWithMessage(stats.report()).that(stats.drops).isEqualTo(0)
+        assertWithMessage(stats.report()).that(stats.rejected).isEqualTo(0)
+        assertWithMessage(stats.report()).that(stats.decodeFailures).isEqualTo(0)
+        assertThat(data.speedDouble).isWithin(0.5).of(20.0)
+    }
+}
@@ -0,0 +1,57 @@
+package com.cooper.wheellog.utils
+
+import java.util.*
+
+/**
+ * Micro benchmark harness for the unit tests, run the way JMH runs a benchmark: warm-up
+ * iterations to get the code compiled, then measured iterations of [BATCH] operations each,
+ * reported as the median time per operation with half the interquartile range as its error.
+ * Results of the operations are consumed, so the JIT cannot drop the work.
+ *
+ * Benchmarks only run with `-Pbenchmark=true`, timings on a shared build machine are noise.
+ */
+object Benchmark {
+    private const val BATCH = 20_000
+    private const val WARMUP_ITERATIONS = 10
+    private const val ITERATIONS = 15
+
+    @JvmStatic
+    val enabled: Boolean = System.getProperty("benchmark")?.toBoolean() ?: false
+
+    @Volatile
+    private var sink = 0
+
+    class Result(val name: String, val nsPerOp: Double, val error: Double) {
+        override fun toString(): String = String.format(Locale.US, "%s %.1f ± %.1f ns/op", name, nsPerOp, error)
+
+        /**
+         * True if this one is slower than [other] by more than the errors of both.
+         */
+        fun isSlowerThan(other: Result): Boolean = nsPerOp - error > other.nsPerOp + other.error
+    }
+
+    fun run(name: String, op: () -> Any?): Result {
+        var consumed = 0
+        repeat(WARMUP_ITERATIONS) {
+            repeat(BATCH) { consumed += op().hashCode() }
+        }
+        val times = DoubleArray(ITERATIONS) {
+            val start = System.nanoTime()
+            repeat(BATCH) { consumed += op().hashCode() }
+            (System.nanoTime() - start).toDouble() / BATCH
+        }
+        sink = consumed
+        times.sort()
+        return Result(name, times[ITERATIONS / 2], (times[ITERATIONS * 3 / 4] - times[ITERATIONS / 4]) / 2)
+    }
+
+    /**
+     * Runs both benchmarks twice, alternating, so neither one profits from running last.
+     * @return the results of the second runs, [current] first
+     */
+    fun compare(current: Pair<String, () -> Any?>, previous: Pair<String, () -> Any?>): Pair<Result, Result> {
+        run(current.first, current.second)
+        run(previous.first, previous.second)
+        return Pair(run(current.first, current.second), run(previous.first, previous.second))
+    }
+}
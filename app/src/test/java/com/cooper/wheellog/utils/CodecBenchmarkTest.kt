@@ -0,0 +1,97 @@
+package com.cooper.wheellog.utils
+
+import com.cooper.wheellog.AppConfig
+import com.cooper.wheellog.DecodeRule
+import com.cooper.wheellog.WheelData
+import com.cooper.wheellog.WheelLog
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.google.common.truth.Truth.assertWithMessage
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.util.*
+
+/**
+ * The current codecs against the ones they replaced, run with `-Pbenchmark=true`.
+ * Each benchmark appends both timings to `build/benchmarks.txt` and fails if the current
+ * codec is slower beyond the error of the timings.
+ */
+@RunWith(RobolectricTestRunner::class)
+class CodecBenchmarkTest {
+    @get:Rule
+    val wheel = DecodeRule()
+    private lateinit var data: WheelData
+    private var unbound: WheelData? = null
+
+    @Before
+    fun setUp() {
+        assumeTrue(Benchmark.enabled)
+        // the settings the adapters read are real ones, not a mock
+        WheelLog.AppConfig = AppConfig(wheel.context)
+        data = wheel.data
+        unbound = WheelData.bind(data)
+    }
+
+    @After
+    fun tearDown() {
+        WheelData.bind(unbound)
+    }
+
+    private fun assertNotSlower(current: Pair<String, () -> Any?>, previous: Pair<String, () -> Any?>) {
+        val (now, before) = Benchmark.compare(current, previous)
+        val report = String.format(Locale.US, "%s, %s, %.2fx", now, before, before.nsPerOp / now.nsPerOp)
+        File("build/benchmarks.txt").appendText(report + "\n")
+        assertWithMessage(report).that(now.isSlowerThan(before)).isFalse()
+    }
+
+    @Test
+    fun `inmotion v2 decoder`() {
+        // Arrange.
+        val simulator = InmotionV2Simulator(RideProfile(speed = { t -> 20 + t % 10 }, temperature = { 35.0 }))
+        val frames = ArrayList<ByteArray>()
+        for (tick in 0 until 100) {
+            simulator.advance(tick / 20.0)
+            frames.addAll(simulator.onWrite(InmotionAdapterV2.Message.getRealTimeData().writeBuffer()))
+        }
+        frames.addAll(simulator.onWrite(InmotionAdapterV2.Message.getStatistics().writeBuffer()))
+        val adapter = InmotionAdapterV2()
+        adapter.setModel(InmotionAdapterV2.Model.V11)
+        adapter.setProto(2)
+        val copies = InmotionV2CopyDecoder()
+        var i = 0
+        var j = 0
+
+        // Act & Assert.
+        assertNotSlower(
+                "in place" to { adapter.decode(frames[i++ % frames.size]) },
+                "copies" to { copies.decode(data, frames[j++ % frames.size]) })
+    }
+
+    @Test
+    fun `kingsong frame layouts`() {
+        // Arrange.
+        val simulator = KingsongSimulator()
+        val frames = ArrayList<ByteArray>()
+        for (tick in 0 until 100) {
+            simulator.advance(tick / 20.0)
+            frames.addAll(simulator.liveFrames())
+        }
+        // cpu load and speed limit
+        frames.add("aa550000000000000000000000002005f5145a5a".hexToByteArray())
+        frames.add("aa55b80b000000000000000000000000f6145a5a".hexToByteArray())
+        val adapter = KingsongAdapter()
+        val branches = KingsongBranchDecoder()
+        var i = 0
+        var j = 0
+
+        // Act & Assert.
+        assertNotSlower(
+                "layouts" to { adapter.decode(frames[i++ % frames.size]) },
+                "if/else" to { branches.decode(data, frames[j++ % frames.size]) })
+    }
+}
@@ -0,0 +1,66 @@
+package com.cooper.wheellog.utils
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.*
+
+class FormatBufferTest {
+    @Test
+    fun `doubles are formatted as String format`() {
+        // Arrange.
+        val buffer = FormatBuffer(2)
+        val values = doubleArrayOf(0.0, 0.05, 1.234, -3.456, 7.0, 12.5, 99.99, 123456.789,
+                1.005, 1.115, 2.675, 0.125, -0.045, 84.125, 1.0049, 0.0005)
+
+        // Act & Assert.
+        for (value in values) {
+            for (decimals in 0..3) {
+                val expected = String.format(Locale.US, "%.${decimals}f", value)
+                assertThat(buffer.clear().append(value, decimals).toString()).isEqualTo(expected)
+            }
+        }
+    }
+
+    @Test
+    fun `integers with leading zeros`() {
+        // Arrange.
+        val buffer = FormatBuffer()
+
+        // Act.
+        buffer.append(5, 2).append("% / ").append(97, 2).append('%')
+
+        // Assert.
+        assertThat(buffer.toString()).isEqualTo("05% / 97%")
+        assertThat(buffer.contentEquals("05% / 97%")).isTrue()
+        assertThat(buffer.clear().append(-7L, 2).toString()).isEqualTo("-07")
+        assertThat(buffer.clear().append(3.0, 0, 2).toString()).isEqualTo("03")
+    }
+
+    @Test
+    fun `time as hours minutes seconds`() {
+        // Arrange.
+        val buffer = FormatBuffer()
+
+        // Act.
+        buffer.appendTime(3725)
+
+        // Assert.
+        assertThat(buffer.toString()).isEqualTo("01:02:05")
+        assertThat(buffer.clear().appendTime(0).toString()).isEqualTo("00:00:00")
+    }
+
+    @Test
+    fun `compare buffers and convert to bytes`() {
+        // Arrange.
+        val buffer1 = FormatBuffer().append("{\"speed\":").append(12.345, 2).append('}')
+        val buffer2 = FormatBuffer().append("{\"speed\":").append(12.35, 2).append('}')
+
+        // Act.
+        val bytes = buffer1.toAsciiBytes()
+
+        // Assert.
+        assertThat(buffer1.contentEquals(buffer2)).isTrue()
+        assertThat(buffer1.contentEquals(buffer2.clear())).isFalse()
+        assertThat(String(bytes, Charsets.US_ASCII)).isEqualTo("{\"speed\":12.35}")
+    }
+}
@@ -0,0 +1,117 @@
+package com.cooper.wheellog.utils
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * Header, escaping, check and encryption of the frames of a protocol, so a test can change
+ * the content of a frame and seal it again into a frame the adapter accepts.
+ */
+interface FrameEnvelope {
+    /**
+     * Content of a whole [frame], without header, escaping, check and encryption, or null
+     * if it is no whole frame.
+     */
+    fun open(frame: ByteArray): ByteArray?
+
+    /**
+     * Frame of [content] with the header, escaping, check and encryption of the adapter.
+     */
+    fun seal(content: ByteArray): ByteArray
+
+    /**
+     * AA AA, escaped id, data, len, ch, format, type and extended data, sum, 55 55.
+     */
+    object Inmotion : FrameEnvelope {
+        override fun open(frame: ByteArray): ByteArray? {
+            if (frame.size < 6 || frame[0] != 0xAA.toByte() || frame[1] != 0xAA.toByte()
+                    || frame[frame.size - 1] != 0x55.toByte() || frame[frame.size - 2] != 0x55.toByte()) {
+                return null
+            }
+            // the check is not escaped
+            return unescape(frame, 2, frame.size - 3)
+        }
+
+        override fun seal(content: ByteArray): ByteArray {
+            val out = ByteArrayOutputStream()
+            out.write(0xAA)
+            out.write(0xAA)
+            escape(out, content, byteArrayOf(0xAA.toByte(), 0x55, 0xA5.toByte()))
+            out.write(content.sum())
+            out.write(0x55)
+            out.write(0x55)
+            return out.toByteArray()
+        }
+    }
+
+    /**
+     * AA AA, escaped flags, len, command and data, xor.
+     */
+    object InmotionV2 : FrameEnvelope {
+        override fun open(frame: ByteArray): ByteArray? {
+            if (frame.size < 4 || frame[0] != 0xAA.toByte() || frame[1] != 0xAA.toByte()) {
+                return null
+            }
+            // the check is not escaped
+            return unescape(frame, 2, frame.size - 1)
+        }
+
+        override fun seal(content: ByteArray): ByteArray {
+            val out = ByteArrayOutputStream()
+            out.write(0xAA)
+            out.write(0xAA)
+            escape(out, content, byteArrayOf(0xAA.toByte(), 0xA5.toByte()))
+            out.write(content.fold(0) { check, c -> check xor c.toInt() })
+            return out.toByteArray()
+        }
+    }
+
+    /**
+     * 5A A5, len, source, destination, command, parameter, data and the inverted sum,
+     * all but len encrypted with [gamma].
+     */
+    class NinebotZ(private val gamma: ByteArray) : FrameEnvelope {
+        override fun open(frame: ByteArray): ByteArray? {
+            if (frame.size < 9 || frame[0] != 0x5A.toByte() || frame[1] != 0xA5.toByte()) {
+                return null
+            }
+            val decrypted = NinebotZAdapter.CANMessage.crypto(frame.copyOfRange(2, frame.size), gamma)
+            return decrypted.copyOf(decrypted.size - 2)
+        }
+
+        override fun seal(content: ByteArray): ByteArray {
+            val check = (content.sumOf { it.toInt() and 0xFF } xor 0xFFFF) and 0xFFFF
+            val plain = content + byteArrayOf(check.toByte(), (check shr 8).toByte())
+            return byteArrayOf(0x5A, 0xA5.toByte()) + NinebotZAdapter.CANMessage.crypto(plain, gamma)
+        }
+    }
+
+    companion object {
+        private fun unescape(frame: ByteArray, from: Int, to: Int): ByteArray? {
+            if (to < from) {
+                return null
+            }
+            val out = ByteArrayOutputStream()
+            var i = from
+            while (i < to) {
+                if (frame[i] == 0xA5.toByte()) {
+                    i++
+                    if (i == to) {
+                        return null
+                    }
+                }
+                out.write(frame[i].toInt())
+                i++
+            }
+            return out.toByteArray()
+        }
+
+        private fun escape(out: ByteArrayOutputStream, content: ByteArray, escaped: ByteArray) {
+            for (c in content) {
+                if (c in escaped) {
+                    out.write(0xA5)
+                }
+                out.write(c.toInt())
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.cooper.wheellog.utils
+
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class FrameEnvelopeTest {
+
+    @Test
+    fun `inmotion frames are sealed as the adapter encodes them`() {
+        // Arrange.
+        val frame = StreamEncoders.encode(InMotionAdapter.CANMessage.getFastData())
+
+        // Act.
+        val content = FrameEnvelope.Inmotion.open(frame)
+
+        // Assert.
+        assertThat(content).isNotNull()
+        assertThat(content!!.size).isEqualTo(16)
+        assertThat(FrameEnvelope.Inmotion.seal(content)).isEqualTo(frame)
+    }
+
+    @Test
+    fun `inmotion v2 frames are sealed as the adapter encodes them`() {
+        // Arrange.
+        val frame = StreamEncoders.encode(InmotionAdapterV2.Message.getCarType())
+
+        // Act.
+        val content = FrameEnvelope.InmotionV2.open(frame)
+
+        // Assert.
+        assertThat(content).isNotNull()
+        assertThat(FrameEnvelope.InmotionV2.seal(content!!)).isEqualTo(frame)
+    }
+
+    @Test
+    fun `ninebot z frames are decrypted and sealed again`() {
+        // Arrange.
+        val key = "3CC76A7B1C7D9123DE0527FB0A1B2C3D".hexToByteArray()
+        val envelope = FrameEnvelope.NinebotZ(key)
+        val content = "02143E041A7710".hexToByteArray()
+
+        // Act.
+        val frame = envelope.seal(content)
+
+        // Assert.
+        assertThat(frame.copyOf(3)).isEqualTo("5AA502".hexToByteArray())
+        assertThat(FrameEnvelope.NinebotZ(ByteArray(16)).seal(content)).isEqualTo("5AA502143E041A771006FF".hexToByteArray())
+        assertThat(envelope.open(frame)).isEqualTo(content)
+    }
+
+    @Test
+    fun `partial frames are not opened`() {
+        assertThat(FrameEnvelope.Inmotion.open("AAAA1234".hexToByteArray())).isNull()
+        assertThat(FrameEnvelope.InmotionV2.open("55AA1234".hexToByteArray())).isNull()
+        assertThat(FrameEnvelope.NinebotZ(ByteArray(16)).open("5AA50214".hexToByteArray())).isNull()
+    }
+}
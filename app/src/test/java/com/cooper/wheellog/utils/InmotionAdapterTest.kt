@@ -585,6 +585,15 @@ class InmotionAdapterTest {
     @Test
     fun `wheel beep command`() {
         // Arrange.
+        // a V8F, older wheels play a sound instead
+        listOf("aaaa1401a5550f8500000000000000fe02010001".hexToByteArray(),
+                "00da7c5e1a611400000000000000000000000000".hexToByteArray(),
+                "0000001500020200000000070003020000000026".hexToByteArray(),
+                "0301010000000000000a000000000000000200d0".hexToByteArray(),
+                "840000ea0f000000100000000000000000000000".hexToByteArray(),
+                "0000000100000000000000000000000000000000".hexToByteArray(),
+                "00000006000008000000005b0a006f6e01003a00".hexToByteArray(),
+                "0000006c3421000001010a00a5555555".hexToByteArray()).forEach { adapter.decode(it) }
         val expected = "aaaa1601a5550fb200000011000000080500004b5555".hexToByteArray()
 
         // Act.
@@ -610,4 +619,94 @@ class InmotionAdapterTest {
         assertThat(actual).isEqualTo(expected)
     }
 
+    @Test
+    fun `encoder matches the stream based encoder`() {
+        // Arrange.
+        val messages = listOf(
+                InMotionAdapter.CANMessage.standardMessage(),
+                InMotionAdapter.CANMessage.getFastData(),
+                InMotionAdapter.CANMessage.getSlowData(),
+                InMotionAdapter.CANMessage.setLight(true),
+                InMotionAdapter.CANMessage.setLight(false),
+                InMotionAdapter.CANMessage.setLed(true),
+                InMotionAdapter.CANMessage.setLed(false),
+                InMotionAdapter.CANMessage.wheelBeep(),
+                InMotionAdapter.CANMessage.wheelCalibration(),
+                InMotionAdapter.CANMessage.powerOff(),
+                InMotionAdapter.CANMessage.setHandleButton(true),
+                InMotionAdapter.CANMessage.setHandleButton(false),
+                InMotionAdapter.CANMessage.setMaxSpeed(25),
+                InMotionAdapter.CANMessage.setMaxSpeed(35),
+                InMotionAdapter.CANMessage.playSound(0x55),
+                InMotionAdapter.CANMessage.setRideMode(true),
+                InMotionAdapter.CANMessage.setRideMode(false),
+                InMotionAdapter.CANMessage.setPedalSensivity(100),
+                InMotionAdapter.CANMessage.setSpeakerVolume(55),
+                InMotionAdapter.CANMessage.setTiltHorizon(-80),
+                InMotionAdapter.CANMessage.getBatteryLevelsdata(),
+                InMotionAdapter.CANMessage.getVersion(),
+                InMotionAdapter.CANMessage.getPassword("000000"),
+                InMotionAdapter.CANMessage.setMode(0xAA))
+
+        // Act & Assert.
+        for (msg in messages) {
+            assertThat(msg.writeBuffer()).isEqualTo(StreamEncoders.encode(msg))
+        }
+        assertThat(InMotionAdapter.CANMessage.FAST_DATA_FRAME).isEqualTo(StreamEncoders.encode(InMotionAdapter.CANMessage.getFastData()))
+        assertThat(InMotionAdapter.CANMessage.SLOW_DATA_FRAME).isEqualTo(StreamEncoders.encode(InMotionAdapter.CANMessage.getSlowData()))
+    }
+
+    @Test
+    fun `extended data is read from the unpacker buffer`() {
+        // Arrange.
+        val byteArrays = listOf("aaaa1401a5550f8500000000000000fe02010001".hexToByteArray(),
+                "00da7c5e1a611400000000000000000000000000".hexToByteArray(),
+                "0000001500020200000000070003020000000026".hexToByteArray(),
+                "0301010000000000000a000000000000000200d0".hexToByteArray(),
+                "840000ea0f000000100000000000000000000000".hexToByteArray(),
+                "0000000100000000000000000000000000000000".hexToByteArray(),
+                "00000006000008000000005b0a006f6e01003a00".hexToByteArray(),
+                "0000006c3421000001010a00a5555555".hexToByteArray())
+        for (bytes in byteArrays) {
+            adapter.decode(bytes)
+        }
+        val msg = InMotionAdapter.CANMessage()
+
+        // Act.
+        val result = InMotionAdapter.CANMessage.verify(adapter.unpacker.buffer, adapter.unpacker.size, msg)
+
+        // Assert.
+        assertThat(result).isSameInstanceAs(msg)
+        assertThat(msg.isValid).isTrue()
+        assertThat(msg.ex_data).isSameInstanceAs(adapter.unpacker.buffer)
+        assertThat(msg.exLength).isEqualTo(0x85)
+    }
+
+    @Test
+    fun `received message is encoded from its extended data only`() {
+        // Arrange.
+        val byteArrays = listOf("aaaa1401a5550f8500000000000000fe02010001".hexToByteArray(),
+                "00da7c5e1a611400000000000000000000000000".hexToByteArray(),
+                "0000001500020200000000070003020000000026".hexToByteArray(),
+                "0301010000000000000a000000000000000200d0".hexToByteArray(),
+                "840000ea0f000000100000000000000000000000".hexToByteArray(),
+                "0000000100000000000000000000000000000000".hexToByteArray(),
+                "00000006000008000000005b0a006f6e01003a00".hexToByteArray(),
+                "0000006c3421000001010a00a5555555".hexToByteArray())
+        for (bytes in byteArrays) {
+            adapter.decode(bytes)
+        }
+        val msg = InMotionAdapter.CANMessage()
+        InMotionAdapter.CANMessage.verify(adapter.unpacker.buffer, adapter.unpacker.size, msg)
+
+        val received = byteArrays.reduce { frame, bytes -> frame + bytes }
+        // the check 0x55 is escaped by the wheel, the app writes it as is
+        val expected = received.copyOf(received.size - 4) + byteArrayOf(0x55, 0x55, 0x55)
+
+        // Act.
+        val encoded = msg.writeBuffer()
+
+        // Assert.
+        assertThat(encoded).isEqualTo(expected)
+    }
 }
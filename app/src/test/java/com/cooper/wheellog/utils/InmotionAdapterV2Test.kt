@@ -376,6 +376,87 @@ class InmotionAdapterV2Test {
         assertThat(data.angle).isEqualTo(0.0)
         assertThat(data.roll).isEqualTo(-5.89)
     }
+
+    @Test
+    fun `encoder matches the stream based encoder`() {
+        // Arrange.
+        val messages = listOf(
+                InmotionAdapterV2.Message.getCarType(),
+                InmotionAdapterV2.Message.getSerialNumber(),
+                InmotionAdapterV2.Message.getVersions(),
+                InmotionAdapterV2.Message.getCurrentSettings(),
+                InmotionAdapterV2.Message.getUselessData(),
+                InmotionAdapterV2.Message.getStatistics(),
+                InmotionAdapterV2.Message.getRealTimeData(),
+                InmotionAdapterV2.Message.wheelOffFirstStage(),
+                InmotionAdapterV2.Message.wheelOffSecondStage(),
+                InmotionAdapterV2.Message.playSound(0x18),
+                InmotionAdapterV2.Message.playSound(0xAA),
+                InmotionAdapterV2.Message.wheelCalibration(),
+                InmotionAdapterV2.Message.setLight(true),
+                InmotionAdapterV2.Message.setLightBrightness(0xA5),
+                InmotionAdapterV2.Message.setVolume(100),
+                InmotionAdapterV2.Message.setHandleButton(false),
+                InmotionAdapterV2.Message.setMaxSpeed(50),
+                InmotionAdapterV2.Message.setPedalSensivity(88),
+                InmotionAdapterV2.Message.setPedalTilt(-5),
+                InmotionAdapterV2.Message.setMute(true))
+
+        // Act & Assert.
+        for (msg in messages) {
+            assertThat(msg.writeBuffer()).isEqualTo(StreamEncoders.encode(msg))
+        }
+    }
+
+    @Test
+    fun `message data is a view over the unpacker buffer`() {
+        // Arrange.
+        adapter.setModel(InmotionAdapterV2.Model.V12)
+        adapter.decode("aaaa1443842627090000000000060000000000000000000000b3fd000010271c255046581b581b000000000000ceca00ced0cfb048282800000000490000000000000000000000ef".hexToByteArray())
+        val msg = InmotionAdapterV2.Message()
+
+        // Act.
+        val result = InmotionAdapterV2.Message.verify(adapter.unpacker.buffer, adapter.unpacker.size, msg)
+
+        // Assert.
+        assertThat(result).isSameInstanceAs(msg)
+        assertThat(msg.data).isSameInstanceAs(adapter.unpacker.buffer)
+        assertThat(msg.command).isEqualTo(0x04)
+        assertThat(msg.offset).isEqualTo(5)
+        assertThat(msg.dataLength).isEqualTo(0x42)
+    }
+
+    @Test
+    fun `received message encodes only its view`() {
+        // Arrange.
+        val frame = InmotionAdapterV2.Message.getCarType().writeBuffer()
+        adapter.decode(frame)
+        val msg = InmotionAdapterV2.Message()
+        InmotionAdapterV2.Message.verify(adapter.unpacker.buffer, adapter.unpacker.size, msg)
+
+        // Act.
+        val result = msg.writeBuffer()
+
+        // Assert.
+        assertThat(msg.data.size).isGreaterThan(msg.dataLength)
+        assertThat(result).isEqualTo(frame)
+    }
+
+    @Test
+    fun `short realtime frame is ignored`() {
+        // Arrange.
+        adapter.setModel(InmotionAdapterV2.Model.V12)
+        val msg = InmotionAdapterV2.Message.getRealTimeData()
+        msg.setData("2627090000000000".hexToByteArray())
+
+        // Act.
+        val result = adapter.decode(msg.writeBuffer())
+
+        // Assert.
+        assertThat(result).isFalse()
+        assertThat(data.voltageDouble).isEqualTo(0.0)
+    }
+
 /*
     @Test
     fun `Inmotion v12 - decode long trip`() {
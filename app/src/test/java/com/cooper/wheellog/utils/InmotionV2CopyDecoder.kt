@@ -0,0 +1,215 @@
+package com.cooper.wheellog.utils
+
+import com.cooper.wheellog.WheelData
+import com.cooper.wheellog.WheelLog
+import timber.log.Timber
+import java.io.ByteArrayOutputStream
+import java.util.*
+
+/**
+ * The decoding of the periodic InmotionAdapterV2 frames (realtime info of a V11 with main
+ * board 1.4 and total stats) as the adapter did it before the frames were read in place:
+ * the unpacker collects into a stream, the check and the message copy the frame and the
+ * command is dispatched by if/else. Kept as the reference the adapter is benchmarked against.
+ */
+class InmotionV2CopyDecoder {
+    private var buffer = ByteArrayOutputStream()
+    private var oldc = 0
+    private var len = 0
+    private var state = State.Unknown
+    private var lightSwitchCounter = 0
+
+    private enum class State { Unknown, FlagSearch, LenSearch, Collecting, Done }
+
+    private class Message(frame: ByteArray) {
+        var flags = 0
+        var command = 0
+        var data = ByteArray(0)
+
+        init {
+            if (frame.size >= 5) {
+                flags = frame[2].toInt()
+                val len = frame[3].toInt()
+                command = frame[4].toInt() and 0x7F
+                if (len > 1) {
+                    data = Arrays.copyOfRange(frame, 5, len + 4)
+                }
+            }
+        }
+    }
+
+    fun decode(wd: WheelData, data: ByteArray): Boolean {
+        for (c in data) {
+            if (!addChar(c.toInt())) {
+                continue
+            }
+            val result = verify(buffer.toByteArray()) ?: continue
+            Timber.i("Get new data, command: %02X", result.command)
+            if (result.flags == InmotionAdapterV2.Message.Flag.Default.value) {
+                if (result.command == InmotionAdapterV2.Message.Command.TotalStats.value) {
+                    return parseTotalStats(wd, result.data)
+                } else if (result.command == InmotionAdapterV2.Message.Command.RealTimeInfo.value) {
+                    return parseRealTimeInfo(wd, result.data)
+                } else {
+                    Timber.i("Get unknown command: %02X", result.command)
+                }
+            }
+        }
+        return false
+    }
+
+    private fun addChar(c: Int): Boolean {
+        if (c != 0xA5.toByte().toInt() || oldc == 0xA5.toByte().toInt()) {
+            when (state) {
+                State.Collecting -> {
+                    buffer.write(c)
+                    if (buffer.size() == len + 5) {
+                        state = State.Done
+                        oldc = 0
+                        Timber.i("Len %d", len)
+                        return true
+                    }
+                }
+                State.LenSearch -> {
+                    buffer.write(c)
+                    len = c and 0xFF
+                    state = State.Collecting
+                    oldc = c
+                }
+                State.FlagSearch -> {
+                    buffer.write(c)
+                    state = State.LenSearch
+                    oldc = c
+                }
+                else -> {
+                    if (c == 0xAA.toByte().toInt() && oldc == 0xAA.toByte().toInt()) {
+                        buffer = ByteArrayOutputStream()
+                        buffer.write(0xAA)
+                        buffer.write(0xAA)
+                        state = State.FlagSearch
+                    }
+                    oldc = c
+                }
+            }
+        } else {
+            oldc = c
+        }
+        return false
+    }
+
+    private fun verify(frame: ByteArray): Message? {
+        Timber.i("Verify: %s", StringUtil.toHexString(frame))
+        val dataBuffer = Arrays.copyOfRange(frame, 0, frame.size - 1)
+        var check = 0
+        for (c in dataBuffer) {
+            check = (check xor c.toInt()) and 0xFF
+        }
+        val bufferCheck = frame[frame.size - 1]
+        if (check.toByte() == bufferCheck) {
+            Timber.i("Check OK")
+        } else {
+            Timber.i("Check FALSE, calc: %02X, packet: %02X", check.toByte(), bufferCheck)
+        }
+        return if (check.toByte() == bufferCheck) Message(dataBuffer) else null
+    }
+
+    private fun parseTotalStats(wd: WheelData, data: ByteArray): Boolean {
+        Timber.i("Parse total stats data")
+        val total = MathsUtil.intFromBytesLE(data, 0)
+        val rideTime = MathsUtil.intFromBytesLE(data, 12)
+        String.format("%d:%02d:%02d", rideTime / 3600, (rideTime / 60) % 60, rideTime % 60)
+        val powerOnTime = MathsUtil.intFromBytesLE(data, 16)
+        String.format("%d:%02d:%02d", powerOnTime / 3600, (powerOnTime / 60) % 60, powerOnTime % 60)
+        wd.setTotalDistance(total * 10L)
+        return false
+    }
+
+    private fun parseRealTimeInfo(wd: WheelData, data: ByteArray): Boolean {
+        Timber.i("Parse V12 realtime stats data")
+        val voltage = MathsUtil.shortFromBytesLE(data, 0)
+        val current = MathsUtil.signedShortFromBytesLE(data, 2)
+        val speed = MathsUtil.signedShortFromBytesLE(data, 4)
+        val torque = MathsUtil.signedShortFromBytesLE(data, 6)
+        val pwm = MathsUtil.signedShortFromBytesLE(data, 8)
+        val batPower = MathsUtil.signedShortFromBytesLE(data, 10)
+        val motPower = MathsUtil.signedShortFromBytesLE(data, 12)
+        val pitchAngle = MathsUtil.signedShortFromBytesLE(data, 16)
+        val rollAngle = MathsUtil.signedShortFromBytesLE(data, 20)
+        val mileage = MathsUtil.shortFromBytesLE(data, 26) * 10
+        val batLevel = MathsUtil.shortFromBytesLE(data, 28)
+        val dynamicSpeedLimit = MathsUtil.shortFromBytesLE(data, 34)
+        val dynamicCurrentLimit = MathsUtil.shortFromBytesLE(data, 36)
+        val mosTemp = (data[42].toInt() and 0xff) + 80 - 256
+        val boardTemp = (data[45].toInt() and 0xff) + 80 - 256
+        val cpuTemp = (data[46].toInt() and 0xff) + 80 - 256
+        val imuTemp = (data[47].toInt() and 0xff) + 80 - 256
+        wd.setVoltage(voltage)
+        wd.setTorque(torque / 100.0)
+        wd.setMotorPower(motPower.toDouble())
+        wd.setCpuTemp(cpuTemp)
+        wd.setImuTemp(imuTemp)
+        wd.setCurrent(current)
+        wd.setSpeed(speed)
+        wd.setCurrentLimit(dynamicCurrentLimit / 100.0)
+        wd.setSpeedLimit(dynamicSpeedLimit / 100.0)
+        wd.setBatteryLevel(Math.round(batLevel / 100.0).toInt())
+        wd.setTemperature(mosTemp * 100)
+        wd.setTemperature2(boardTemp * 100)
+        wd.setOutput(pwm)
+        wd.setAngle(pitchAngle / 100.0)
+        wd.setRoll(rollAngle / 100.0)
+        wd.updateRideTime()
+        wd.setTopSpeed(speed)
+        wd.setVoltageSag(voltage)
+        wd.setPower(batPower * 100)
+        wd.setWheelDistance(mileage.toLong())
+        // state data
+        val motState = (data[56].toInt() shr 6) and 0x01
+        val chrgState = (data[56].toInt() shr 7) and 0x01
+        val lowLightState = data[57].toInt() and 0x01
+        val liftedState = (data[57].toInt() shr 2) and 0x01
+        var mode = ""
+        if (motState == 1) mode += "Active"
+        if (chrgState == 1) mode += " Charging"
+        if (liftedState == 1) mode += " Lifted"
+        wd.setModeStr(mode)
+        if (WheelLog.AppConfig.lightEnabled != (lowLightState == 1)) {
+            if (lightSwitchCounter > 3) {
+                lightSwitchCounter = 0
+            } else lightSwitchCounter += 1
+        } else lightSwitchCounter = 0
+        wd.setAlert(errorOf(data, 61))
+        return true
+    }
+
+    private fun errorOf(data: ByteArray, i: Int): String {
+        var error = ""
+        for ((bit, name) in ERRORS) {
+            if ((data[i + bit / 8].toInt() shr (bit % 8)) and 0x01 == 1) {
+                error += name
+            }
+        }
+        return error
+    }
+
+    companion object {
+        // bits of the error bytes as the adapter checked them one by one, the wider
+        // bus current and low battery states are left out, the simulator never sets them
+        private val ERRORS = listOf(
+                0 to "err_iPhaseSensorState ", 1 to "err_iBusSensorState ", 2 to "err_motorHallState ",
+                3 to "err_batteryState ", 4 to "err_imuSensorState ", 5 to "err_controllerCom1State ",
+                6 to "err_controllerCom2State ", 7 to "err_bleCom1State ", 8 to "err_bleCom2State ",
+                9 to "err_mosTempSensorState ", 10 to "err_motorTempSensorState ",
+                11 to "err_batteryTempSensorState ", 12 to "err_boardTempSensorState ", 13 to "err_fanState ",
+                14 to "err_rtcState ", 15 to "err_externalRomState ", 16 to "err_vBusSensorState ",
+                17 to "err_vBatterySensorState ", 18 to "err_canNotPowerOffState", 19 to "err_notKnown1 ",
+                24 to "err_underVoltageState ", 25 to "err_overVoltageState ", 30 to "err_mosTempState ",
+                31 to "err_motorTempState ", 32 to "err_batteryTempState ", 33 to "err_overBoardTempState ",
+                34 to "err_overSpeedState ", 35 to "err_outputSaturationState ", 36 to "err_motorSpinState ",
+                37 to "err_motorBlockState ", 38 to "err_postureState ", 39 to "err_riskBehaviourState ",
+                40 to "err_motorNoLoadState ", 41 to "err_noSelfTestState ", 42 to "err_compatibilityState ",
+                43 to "err_powerKeyLongPressState ", 44 to "err_forceDfuState ", 45 to "err_deviceLockState ",
+                46 to "err_cpuOverTempState ", 47 to "err_imuOverTempState ", 49 to "err_hwCompatibilityState ",
+                50 to "err_fanLowSpeedState ", 51 to "err_notKnown2 ")
+    }
+}
@@ -203,6 +203,30 @@ class KingsongAdapterTest {
         assertThat(data.speedLimit).isEqualTo(32.05) //limit speed
     }
 
+    @Test
+    fun `decode BMS cells`() {
+        // Arrange.
+        // 7 cells of 4.100, 4.101 ... 4.106 V
+        val cells1 = "AA550410051006100710081009100A10F1025A5A".hexToByteArray()
+        // cells 29 and 30, env temperature 25.0 C
+        val cells5 = "AA55E80FFF0F00000000A40B00000000F2065A5A".hexToByteArray()
+
+        // Act.
+        val result1 = adapter.decode(cells1)
+        val result2 = adapter.decode(cells5)
+
+        // Assert.
+        assertThat(result1).isFalse()
+        assertThat(result2).isFalse()
+        assertThat(data.bms1.cells.copyOfRange(0, 7).toList())
+                .containsExactly(4.1, 4.101, 4.102, 4.103, 4.104, 4.105, 4.106).inOrder()
+        assertThat(data.bms2.cells[28]).isEqualTo(4.072)
+        assertThat(data.bms2.cells[29]).isEqualTo(4.095)
+        assertThat(data.bms2.tempMosEnv).isEqualTo(25.0)
+        assertThat(data.bms2.minCell).isEqualTo(4.072)
+        assertThat(data.bms2.maxCell).isEqualTo(4.095)
+    }
+
     @Test
     fun `update pedals mode`() {
         // Arrange.
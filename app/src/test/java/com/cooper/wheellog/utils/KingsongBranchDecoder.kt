@@ -0,0 +1,117 @@
+package com.cooper.wheellog.utils
+
+import com.cooper.wheellog.WheelData
+import com.cooper.wheellog.WheelLog
+import timber.log.Timber
+import java.util.*
+
+/**
+ * The if/else decoding of the periodic Kingsong frames (live, distance, cpu load and speed
+ * limit) as KingsongAdapter did it before the frame layouts, kept as the reference the
+ * layouts are benchmarked against.
+ */
+class KingsongBranchDecoder {
+    private var mode = 0
+    private val m18Lkm = true
+    private var speedLimit = 0.0
+
+    fun decode(wd: WheelData, data: ByteArray): Boolean {
+        Timber.i("Decode KingSong")
+        wd.resetRideTime()
+        if (data.size < 20 || (data[0].toInt() and 255) != 170 || (data[1].toInt() and 255) != 85) {
+            return false
+        }
+        wd.diagnostics.onFrame()
+        val type = data[16].toInt() and 255
+        if (type == 0xA9) {
+            val voltage = MathsUtil.getInt2R(data, 2)
+            wd.setVoltage(voltage)
+            wd.setSpeed(MathsUtil.getInt2R(data, 4))
+            wd.setTotalDistance(MathsUtil.getInt4R(data, 6).toLong())
+            if (wd.model.compareTo("KS-18L") == 0 && !m18Lkm) {
+                wd.setTotalDistance(Math.round(wd.totalDistance * KS18L_SCALER))
+            }
+            wd.setCurrent((data[10].toInt() and 0xFF) + (data[11].toInt() shl 8))
+            wd.setTemperature(MathsUtil.getInt2R(data, 12))
+            wd.setVoltageSag(voltage)
+            if ((data[15].toInt() and 255) == 224) {
+                mode = data[14].toInt()
+                wd.setModeStr(String.format(Locale.US, "%d", mode))
+            }
+            wd.setBatteryLevel(batteryFromVoltage(wd, voltage))
+            return true
+        } else if (type == 0xB9) {
+            wd.setWheelDistance(MathsUtil.getInt4R(data, 2).toLong())
+            wd.updateRideTime()
+            wd.setTopSpeed(MathsUtil.getInt2R(data, 8))
+            wd.setFanStatus(data[12].toInt())
+            wd.setChargingStatus(data[13].toInt())
+            wd.setTemperature2(MathsUtil.getInt2R(data, 14))
+            return false
+        } else if (type == 0xF5) {
+            wd.setCpuLoad(data[14].toInt())
+            wd.setOutput(data[15] * 100)
+            return false
+        } else if (type == 0xF6) {
+            speedLimit = MathsUtil.getInt2R(data, 2) / 100.0
+            wd.setSpeedLimit(speedLimit)
+            return false
+        }
+        return false
+    }
+
+    private fun batteryFromVoltage(wd: WheelData, voltage: Int): Int {
+        val useBetterPercents = WheelLog.AppConfig.useBetterPercents
+        return if (StringUtil.inArray(wd.model, arrayOf("KS-18L", "KS-16X", "RW", "KS-18LH", "KS-S18"))
+                || wd.name.startsWith("ROCKW") || wd.btName.compareTo("RW") == 0) {
+            if (useBetterPercents) {
+                when {
+                    voltage > 8350 -> 100
+                    voltage > 6800 -> (voltage - 6650) / 17
+                    voltage > 6400 -> (voltage - 6400) / 45
+                    else -> 0
+                }
+            } else {
+                when {
+                    voltage < 6250 -> 0
+                    voltage >= 8250 -> 100
+                    else -> (voltage - 6250) / 20
+                }
+            }
+        } else if (StringUtil.inArray(wd.model, arrayOf("KS-S20", "KS-S22"))) {
+            if (useBetterPercents) {
+                when {
+                    voltage > 12525 -> 100
+                    voltage > 10200 -> Math.round((voltage - 9975) / 25.5).toInt()
+                    voltage > 9600 -> Math.round((voltage - 9600) / 67.5).toInt()
+                    else -> 0
+                }
+            } else {
+                when {
+                    voltage < 9375 -> 0
+                    voltage >= 12375 -> 100
+                    else -> (voltage - 9375) / 30
+                }
+            }
+        } else {
+            if (useBetterPercents) {
+                when {
+                    voltage > 6680 -> 100
+                    voltage > 5440 -> Math.round((voltage - 5320) / 13.6).toInt()
+                    voltage > 5120 -> (voltage - 5120) / 36
+                    else -> 0
+                }
+            } else {
+                when {
+                    voltage < 5000 -> 0
+                    voltage >= 6600 -> 100
+                    else -> (voltage - 5000) / 16
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val KS18L_SCALER = 0.83
+    }
+}
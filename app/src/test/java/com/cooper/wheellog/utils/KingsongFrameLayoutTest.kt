@@ -0,0 +1,73 @@
+package com.cooper.wheellog.utils
+
+import com.cooper.wheellog.WheelData
+import com.cooper.wheellog.utils.KingsongFrameLayout.Format
+import com.cooper.wheellog.utils.Utils.Companion.hexToByteArray
+import com.google.common.truth.Truth.assertThat
+import io.mockk.mockk
+import org.junit.Test
+
+class KingsongFrameLayoutTest {
+    private val wd = mockk<WheelData>()
+
+    @Test
+    fun `formats read as MathsUtil`() {
+        // Arrange.
+        val data = "AA55F0FE3412FF7F0080".hexToByteArray()
+
+        // Act & Assert.
+        for (offset in 0..6) {
+            assertThat(Format.INT16_LE.read(data, offset)).isEqualTo(MathsUtil.getInt2R(data, offset))
+            assertThat(Format.INT16_BE.read(data, offset)).isEqualTo(MathsUtil.getInt2(data, offset))
+            assertThat(Format.INT32_WORDS_LE.read(data, offset)).isEqualTo(MathsUtil.getInt4R(data, offset))
+            assertThat(Format.INT32_BE.read(data, offset).toLong()).isEqualTo(MathsUtil.getInt4(data, offset))
+            assertThat(Format.INT32_LE.read(data, offset)).isEqualTo(MathsUtil.signedIntFromBytesLE(data, offset).toInt())
+        }
+        assertThat(Format.INT8.read(data, 2)).isEqualTo(-16)
+        assertThat(Format.UINT8.read(data, 2)).isEqualTo(0xF0)
+        assertThat(Format.UINT16_LE.read(data, 2)).isEqualTo(0xFEF0)
+    }
+
+    @Test
+    fun `fields are scaled and written in order`() {
+        // Arrange.
+        val values = mutableListOf<Double>()
+        val layout = KingsongFrameLayout<Any>()
+                .field(0, Format.UINT16_LE) { _, _, v -> values.add(v) }
+                .field(0, Format.UINT16_LE, 10.0) { _, _, v -> values.add(v) }
+                .field(0, Format.UINT16_LE, 2730, 1, 10.0) { _, _, v -> values.add(v) }
+                .field(2, Format.INT8, 0, 100, 1.0) { _, _, v -> values.add(v) }
+        val data = byteArrayOf(0xA4.toByte(), 0x0B, 0xFE.toByte())
+
+        // Act.
+        val result = layout.decode(Any(), wd, data)
+
+        // Assert.
+        assertThat(result).isFalse()
+        assertThat(layout.size).isEqualTo(3)
+        // (2980 - 2730) / 10.0
+        assertThat(values).containsExactly(2980.0, 298.0, 25.0, -200.0).inOrder()
+    }
+
+    @Test
+    fun `handler runs after the fields and gives the result`() {
+        // Arrange.
+        var value = 0.0
+        var seen = 0.0
+        val layout = KingsongFrameLayout<Any>()
+                .field(0, Format.INT16_LE) { _, _, v -> value = v }
+                .then { _, _, _ ->
+                    seen = value
+                    true
+                }
+
+        // Act.
+        val result = layout.decode(Any(), wd, byteArrayOf(0x10, 0x00))
+        val short = layout.decode(Any(), wd, byteArrayOf(0x20))
+
+        // Assert.
+        assertThat(result).isTrue()
+        assertThat(seen).isEqualTo(16.0)
+        assertThat(short).isFalse()
+    }
+}
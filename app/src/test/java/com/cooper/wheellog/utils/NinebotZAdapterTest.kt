@@ -99,6 +99,170 @@ class NinebotZAdapterTest {
         assertThat(data.batteryLevel).isEqualTo(78)
     }
 
+    @Test
+    fun `decode z10 encrypted life data`() {
+        // Arrange.
+        val key = "3CC76A7B1C7D9123DE0527FB0A1B2C3D".hexToByteArray()
+        val keyFrame = withCheck("5AA510163E5B00".hexToByteArray() + key)
+        val lifeFrame = ("5aa520143e04b000000000489800004e009c0a7a" +
+                "059b97280023016d0472011a1892119c0a7a052a" +
+                "f8").hexToByteArray()
+
+        // Act.
+        val result1 = adapter.decode(keyFrame)
+        val result2 = adapter.decode(encrypt(lifeFrame, key).copyOfRange(0, 30))
+        val result3 = adapter.decode(encrypt(lifeFrame, key).copyOfRange(30, lifeFrame.size))
+
+        // Assert.
+        assertThat(result1).isFalse()
+        assertThat(result2).isFalse()
+        assertThat(result3).isTrue()
+        assertThat(data.speedDouble).isEqualTo(27.16)
+        assertThat(data.voltageDouble).isEqualTo(61.7)
+        assertThat(data.totalDistance).isEqualTo(2660251)
+        assertThat(data.batteryLevel).isEqualTo(78)
+    }
+
+    @Test
+    fun `decode z10 frame after broken frame`() {
+        // Arrange.
+        val lifeFrame = ("5aa520143e04b000000000489800004e009c0a7a" +
+                "059b97280023016d0472011a1892119c0a7a052a" +
+                "f8").hexToByteArray()
+        val brokenFrame = lifeFrame.copyOf()
+        brokenFrame[12] = 0x11
+
+        // Act.
+        val result1 = adapter.decode(brokenFrame)
+        val result2 = adapter.decode(lifeFrame)
+
+        // Assert.
+        assertThat(result1).isFalse()
+        assertThat(result2).isTrue()
+        assertThat(data.speedDouble).isEqualTo(27.16)
+        assertThat(data.batteryLevel).isEqualTo(78)
+    }
+
+    private fun withCheck(frame: ByteArray): ByteArray {
+        var check = 0
+        for (i in 2 until frame.size) {
+            check += frame[i].toInt() and 0xFF
+        }
+        check = (check xor 0xFFFF) and 0xFFFF
+        return frame + byteArrayOf(check.toByte(), (check shr 8).toByte())
+    }
+
+    private fun encrypt(frame: ByteArray, key: ByteArray): ByteArray {
+        val result = frame.copyOf()
+        for (i in 3 until result.size) {
+            result[i] = (result[i].toInt() xor key[(i - 3) % 16].toInt()).toByte()
+        }
+        return result
+    }
+
+    /**
+     * Answer of [source] to [parameter] with [size] bytes of data and a right check, not encrypted.
+     */
+    private fun shortFrame(source: Int, parameter: Int, size: Int): ByteArray {
+        val header = byteArrayOf(0x5A, 0xA5.toByte(), size.toByte(), source.toByte(), 0x3E, 0x04, parameter.toByte())
+        return withCheck(header + ByteArray(size) { 0x11 })
+    }
+
+    @Test
+    fun `decode z10 short live data is ignored`() {
+        // Arrange.
+        val frame = shortFrame(0x14, 0xB0, 27)
+
+        // Act.
+        val result = adapter.decode(frame)
+
+        // Assert.
+        assertThat(result).isFalse()
+        assertThat(data.speedDouble).isEqualTo(0.0)
+        assertThat(data.voltageDouble).isEqualTo(0.0)
+    }
+
+    @Test
+    fun `decode z10 short params1 data is ignored`() {
+        // Arrange.
+        val frame = shortFrame(0x14, 0x70, 31)
+
+        // Act.
+        val result = adapter.decode(frame)
+
+        // Assert.
+        assertThat(result).isFalse()
+        verify(exactly = 0) { WheelLog.AppConfig.lockMode = any() }
+        verify(exactly = 0) { WheelLog.AppConfig.wheelAlarm1Speed = any() }
+    }
+
+    @Test
+    fun `decode z10 short params2 data is ignored`() {
+        // Arrange.
+        val frame = shortFrame(0x14, 0xC6, 27)
+
+        // Act.
+        val result = adapter.decode(frame)
+
+        // Assert.
+        assertThat(result).isFalse()
+        verify(exactly = 0) { WheelLog.AppConfig.ledMode = any() }
+        verify(exactly = 0) { WheelLog.AppConfig.pedalSensivity = any() }
+    }
+
+    @Test
+    fun `decode z10 short bms sn data is ignored`() {
+        // Arrange.
+        val frame1 = shortFrame(0x11, 0x10, 33)
+        val frame2 = shortFrame(0x12, 0x10, 33)
+
+        // Act.
+        val result1 = adapter.decode(frame1)
+        val result2 = adapter.decode(frame2)
+
+        // Assert.
+        assertThat(result1).isFalse()
+        assertThat(result2).isFalse()
+        assertThat(data.bms1.factoryCap).isEqualTo(0)
+        assertThat(data.bms2.factoryCap).isEqualTo(0)
+    }
+
+    @Test
+    fun `decode z10 short bms life data is ignored`() {
+        // Arrange.
+        val frame1 = shortFrame(0x11, 0x30, 23)
+        val frame2 = shortFrame(0x12, 0x30, 23)
+
+        // Act.
+        val result1 = adapter.decode(frame1)
+        val result2 = adapter.decode(frame2)
+
+        // Assert.
+        assertThat(result1).isFalse()
+        assertThat(result2).isFalse()
+        assertThat(data.bms1.status).isEqualTo(0)
+        assertThat(data.bms1.voltage).isEqualTo(0.0)
+        assertThat(data.bms2.status).isEqualTo(0)
+        assertThat(data.bms2.voltage).isEqualTo(0.0)
+    }
+
+    @Test
+    fun `decode z10 short bms cells data is ignored`() {
+        // Arrange.
+        val frame1 = shortFrame(0x11, 0x40, 31)
+        val frame2 = shortFrame(0x12, 0x40, 31)
+
+        // Act.
+        val result1 = adapter.decode(frame1)
+        val result2 = adapter.decode(frame2)
+
+        // Assert.
+        assertThat(result1).isFalse()
+        assertThat(result2).isFalse()
+        assertThat(data.bms1.cells.toSet()).containsExactly(0.0)
+        assertThat(data.bms2.cells.toSet()).containsExactly(0.0)
+    }
+
     @Test
     fun `decode z10 bms1 sn data`() {
         // Arrange.
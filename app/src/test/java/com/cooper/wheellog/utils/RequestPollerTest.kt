@@ -0,0 +1,195 @@
+package com.cooper.wheellog.utils
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+
+class RequestPollerTest {
+    private lateinit var poller: RequestPoller
+    private var now = 0L
+    private var sendResult = true
+    private val sent = ArrayList<RequestPoller.Request>()
+    private val queries = ArrayList<Boolean>()
+
+    private val live = RequestPoller.Request(byteArrayOf(1), RequestPoller.Kind.Live, LIVE)
+    private val statistics = RequestPoller.Request(byteArrayOf(2), RequestPoller.Kind.Query, STATISTICS)
+
+    @Before
+    fun setUp() {
+        poller = RequestPoller(
+                { queryAllowed ->
+                    queries.add(queryAllowed)
+                    if (queryAllowed) statistics else live
+                },
+                25, 250,
+                { request ->
+                    if (sendResult) sent.add(request)
+                    sendResult
+                },
+                { now })
+    }
+
+    @Test
+    fun `next request waits for the response`() {
+        // Arrange.
+        poller.tick()
+
+        // Act & Assert.
+        now = 100
+        poller.tick()
+        assertThat(sent).hasSize(1)
+        poller.onResponse(LIVE) // not the expected one
+        poller.tick()
+        assertThat(sent).hasSize(1)
+        poller.onResponse(STATISTICS)
+        assertThat(poller.latency).isEqualTo(100.0)
+        poller.tick()
+        assertThat(sent).hasSize(2)
+    }
+
+    @Test
+    fun `live data goes before queries`() {
+        // Act.
+        repeat(11) {
+            poller.tick()
+            now += 30
+            poller.onResponse(if (sent.last() === live) LIVE else STATISTICS)
+            now += 30
+        }
+
+        // Assert.
+        assertThat(sent.map { it.kind }).containsExactly(
+                RequestPoller.Kind.Query,
+                RequestPoller.Kind.Live, RequestPoller.Kind.Live, RequestPoller.Kind.Live, RequestPoller.Kind.Live,
+                RequestPoller.Kind.Query,
+                RequestPoller.Kind.Live, RequestPoller.Kind.Live, RequestPoller.Kind.Live, RequestPoller.Kind.Live,
+                RequestPoller.Kind.Query).inOrder()
+    }
+
+    @Test
+    fun `interval and timeout follow the latency`() {
+        // Arrange.
+        poller.tick()
+        now = 10
+        poller.onResponse(STATISTICS)
+
+        // Act & Assert.
+        assertThat(poller.interval).isEqualTo(25)
+        now = 24
+        poller.tick()
+        assertThat(sent).hasSize(1)
+        now = 25
+        poller.tick()
+        assertThat(sent).hasSize(2)
+        now = 74
+        poller.tick()
+        assertThat(sent).hasSize(2)
+        now = 75 // timeout is 2 * min interval
+        poller.tick()
+        assertThat(poller.timeouts).isEqualTo(1)
+        assertThat(poller.interval).isEqualTo(250)
+    }
+
+    @Test
+    fun `failed write is retried after min interval`() {
+        // Arrange.
+        sendResult = false
+        poller.tick()
+
+        // Act & Assert.
+        sendResult = true
+        now = 24
+        poller.tick()
+        assertThat(sent).isEmpty()
+        now = 25
+        poller.tick()
+        assertThat(sent).hasSize(1)
+    }
+
+    @Test
+    fun `request without response does not block`() {
+        // Arrange.
+        var sentCount = 0
+        poller = RequestPoller(
+                { RequestPoller.Request(byteArrayOf(3), RequestPoller.Kind.Command, RequestPoller.NO_RESPONSE, Runnable { sentCount++ }) },
+                25, 250,
+                { true },
+                { now })
+
+        // Act.
+        poller.tick()
+        now = 250
+        poller.tick()
+
+        // Assert.
+        assertThat(sentCount).isEqualTo(2)
+        assertThat(poller.timeouts).isEqualTo(0)
+    }
+
+    @Test
+    fun `next tick is when the next request is due`() {
+        // Act & Assert.
+        assertThat(poller.tick()).isEqualTo(250) // timeout before the first response
+        now = 10
+        assertThat(poller.tick()).isEqualTo(240)
+        poller.onResponse(STATISTICS)
+        assertThat(poller.tick()).isEqualTo(15) // interval is the min one
+        now = 25
+        assertThat(poller.tick()).isEqualTo(50) // timeout is 2 * min interval
+    }
+
+    @Test
+    fun `source with nothing to send is asked again after the interval`() {
+        // Arrange.
+        var asked = 0
+        poller = RequestPoller({ asked++; null }, 25, 250, { true }, { now })
+
+        // Act & Assert.
+        assertThat(poller.tick()).isEqualTo(250)
+        now = 250
+        poller.tick()
+        assertThat(asked).isEqualTo(2)
+    }
+
+    @Test
+    fun `ticks run on the scheduler of the poller`() {
+        // Arrange.
+        val delays = ArrayList<Long>()
+        var scheduled: Runnable? = null
+        var shutdowns = 0
+        val threads = RequestPoller.schedulerFactory
+        RequestPoller.schedulerFactory = {
+            object : RequestPoller.Scheduler {
+                override fun schedule(tick: Runnable, delay: Long) {
+                    scheduled = tick
+                    delays.add(delay)
+                }
+
+                override fun shutdown() {
+                    shutdowns++
+                }
+            }
+        }
+
+        // Act.
+        try {
+            poller.start(100)
+            scheduled!!.run()
+            now = 10
+            poller.onResponse(STATISTICS)
+            poller.stop()
+        } finally {
+            RequestPoller.schedulerFactory = threads
+        }
+
+        // Assert.
+        assertThat(delays).containsExactly(100L, 250L, 15L).inOrder()
+        assertThat(sent).containsExactly(statistics)
+        assertThat(shutdowns).isEqualTo(1)
+    }
+
+    companion object {
+        private const val LIVE = 0x04
+        private const val STATISTICS = 0x11
+    }
+}
@@ -0,0 +1,110 @@
+package com.cooper.wheellog.utils
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+
+class SmartBmsTest {
+    private lateinit var bms: SmartBms
+
+    @Before
+    fun setUp() {
+        bms = SmartBms()
+        bms.takeDirtyCells()
+    }
+
+    @Test
+    fun `min follows the cells and max keeps the highest`() {
+        // Act.
+        bms.setCell(0, 4.100)
+        bms.setCell(1, 4.050)
+        bms.setCell(2, 4.150)
+        bms.setCell(2, 4.080) // the highest cell drops
+        bms.setCell(1, 0.0) // empty cells are skipped
+
+        // Assert.
+        assertThat(bms.maxCell).isEqualTo(4.150)
+        assertThat(bms.minCell).isEqualTo(4.080)
+        assertThat(bms.cellDiff).isWithin(1e-9).of(0.070)
+    }
+
+    @Test
+    fun `changed cells and balance markers are dirty`() {
+        // Act.
+        bms.setCell(3, 4.1)
+        bms.setCell(5, 4.1)
+        val dirty1 = bms.takeDirtyCells()
+        bms.setCell(3, 4.1) // unchanged
+        bms.balanceMap = 0x04
+        val dirty2 = bms.takeDirtyCells()
+        bms.reset()
+        val dirty3 = bms.takeDirtyCells()
+
+        // Assert.
+        assertThat(dirty1).isEqualTo(0x28)
+        assertThat(dirty2).isEqualTo(0x04)
+        assertThat(dirty3).isEqualTo(-1)
+        assertThat(bms.cells.all { it == 0.0 }).isTrue()
+    }
+
+    @Test
+    fun `history keeps the last values oldest first`() {
+        // Arrange.
+        val out = DoubleArray(SmartBms.HISTORY_SIZE)
+
+        // Act.
+        bms.setCell(7, 4.0)
+        bms.setCell(7, 4.1)
+        val count1 = bms.cellHistory(7, out)
+        val first = out.copyOf(count1)
+        for (i in 1..SmartBms.HISTORY_SIZE + 5) {
+            bms.setCell(7, i.toDouble())
+        }
+        val count2 = bms.cellHistory(7, out)
+
+        // Assert.
+        assertThat(first.toList()).containsExactly(4.0, 4.1).inOrder()
+        assertThat(count2).isEqualTo(SmartBms.HISTORY_SIZE)
+        assertThat(out.first()).isEqualTo(6.0)
+        assertThat(out.last()).isEqualTo((SmartBms.HISTORY_SIZE + 5).toDouble())
+        assertThat(bms.cellHistory(8, out)).isEqualTo(0)
+    }
+
+    @Test
+    fun `drift is the change over the history`() {
+        // Act.
+        val drift1 = bms.cellDrift(2)
+        bms.setCell(2, 4.100)
+        bms.setCell(2, 4.080)
+        val drift2 = bms.cellDrift(2)
+        for (i in 1..SmartBms.HISTORY_SIZE) {
+            bms.setCell(2, 4.050)
+        }
+        val drift3 = bms.cellDrift(2)
+
+        // Assert.
+        assertThat(drift1).isEqualTo(0.0)
+        assertThat(drift2).isWithin(1e-9).of(-0.020)
+        assertThat(drift3).isEqualTo(0.0)
+    }
+
+    @Test
+    fun `unchanged cell is dirty when its drift moves`() {
+        // Arrange.
+        bms.setCell(4, 4.100)
+        for (i in 1 until SmartBms.HISTORY_SIZE) {
+            bms.setCell(4, 4.000)
+        }
+        bms.takeDirtyCells()
+
+        // Act.
+        bms.setCell(4, 4.000) // drops 4.100 from the history
+        val dirty1 = bms.takeDirtyCells()
+        bms.setCell(4, 4.000)
+        val dirty2 = bms.takeDirtyCells()
+
+        // Assert.
+        assertThat(dirty1).isEqualTo(0x10)
+        assertThat(dirty2).isEqualTo(0)
+    }
+}
@@ -0,0 +1,56 @@
+package com.cooper.wheellog.utils
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * The stream based InMotion encoders the adapters used before they encoded in one pass,
+ * kept as the reference the one pass encoders are tested and benchmarked against.
+ */
+object StreamEncoders {
+
+    fun encode(msg: InMotionAdapter.CANMessage): ByteArray {
+        val buff = ByteArrayOutputStream()
+        buff.write(msg.id)
+        buff.write(msg.id shr 8)
+        buff.write(msg.id shr 16)
+        buff.write(msg.id shr 24)
+        buff.write(msg.data)
+        buff.write(msg.len)
+        buff.write(msg.ch)
+        buff.write(msg.format)
+        buff.write(msg.type)
+        val canBuffer = buff.toByteArray()
+        val out = ByteArrayOutputStream()
+        out.write(0xAA)
+        out.write(0xAA)
+        for (c in canBuffer) {
+            if (c == 0xAA.toByte() || c == 0x55.toByte() || c == 0xA5.toByte()) {
+                out.write(0xA5)
+            }
+            out.write(c.toInt())
+        }
+        out.write(canBuffer.sum())
+        out.write(0x55)
+        out.write(0x55)
+        return out.toByteArray()
+    }
+
+    fun encode(msg: InmotionAdapterV2.Message): ByteArray {
+        val buff = ByteArrayOutputStream()
+        buff.write(msg.flags)
+        buff.write(msg.data.size + 1)
+        buff.write(msg.command)
+        buff.write(msg.data)
+        val out = ByteArrayOutputStream()
+        out.write(0xAA)
+        out.write(0xAA)
+        for (c in buff.toByteArray()) {
+            if (c == 0xAA.toByte() || c == 0xA5.toByte()) {
+                out.write(0xA5)
+            }
+            out.write(c.toInt())
+        }
+        out.write(buff.toByteArray().fold(0) { check, c -> check xor c.toInt() })
+        return out.toByteArray()
+    }
+}
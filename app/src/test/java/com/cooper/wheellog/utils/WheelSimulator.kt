@@ -0,0 +1,459 @@
+package com.cooper.wheellog.utils
+
+import com.cooper.wheellog.utils.Constants.WHEEL_TYPE
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * Ride of a simulated wheel, the values are functions of the time since the start, s.
+ */
+class RideProfile(
+        val speed: (Double) -> Double = { 0.0 }, // km/h
+        val voltage: (Double) -> Double = { 84.0 }, // V
+        val current: (Double) -> Double = { 0.0 }, // A
+        val temperature: (Double) -> Double = { 30.0 } // °C
+)
+
+/**
+ * Wheel side of a protocol: frames the wheel sends by itself and answers to the requests of the app.
+ * Frames are whole protocol frames, splitting them into notifications is up to the link.
+ */
+abstract class WheelSimulator(private val profile: RideProfile) {
+    abstract val wheelType: WHEEL_TYPE
+
+    /**
+     * Wheels which send live data by themselves, the others only answer requests.
+     */
+    open val pushesData = false
+
+    var time = 0.0
+        private set
+    protected var speed = 0.0
+    protected var voltage = 0.0
+    protected var current = 0.0
+    protected var temperature = 0.0
+
+    /**
+     * Distance of this ride, m.
+     */
+    var distance = 0.0
+        private set
+    val totalDistance: Double
+        get() = TOTAL_DISTANCE + distance
+
+    /**
+     * Moves the ride to [time], s.
+     */
+    fun advance(time: Double) {
+        if (time > this.time) {
+            distance += abs(speed) / 3.6 * (time - this.time)
+            this.time = time
+        }
+        speed = profile.speed(this.time)
+        voltage = profile.voltage(this.time)
+        current = profile.current(this.time)
+        temperature = profile.temperature(this.time)
+    }
+
+    /**
+     * Frames the wheel sends by itself, one call per notification period.
+     */
+    open fun liveFrames(): List<ByteArray> = emptyList()
+
+    /**
+     * Handles bytes written by the app and returns the answers.
+     */
+    open fun onWrite(data: ByteArray): List<ByteArray> = emptyList()
+
+    companion object {
+        const val TOTAL_DISTANCE = 1_234_567.0
+    }
+}
+
+class GotwaySimulator(profile: RideProfile = RideProfile()) : WheelSimulator(profile) {
+    override val wheelType = WHEEL_TYPE.GOTWAY
+    override val pushesData = true
+    private var frameB = false
+
+    override fun liveFrames(): List<ByteArray> {
+        val frame = ByteArray(24)
+        frame[0] = 0x55
+        frame[1] = 0xAA.toByte()
+        if (frameB) {
+            frame.putIntBE(2, totalDistance.toInt())
+            frame[18] = 0x04
+        } else {
+            frame.putShortBE(2, (voltage * 100).roundToInt())
+            frame.putShortBE(4, (speed * 100 / 3.6).roundToInt())
+            frame.putIntBE(6, distance.toInt())
+            frame.putShortBE(10, (current * 100).roundToInt())
+            frame.putShortBE(12, ((temperature - 36.53) * 340).roundToInt())
+        }
+        frame[19] = 0x18
+        frame.fill(0x5A, 20, 24)
+        frameB = !frameB
+        return listOf(frame)
+    }
+}
+
+class VeteranSimulator(profile: RideProfile = RideProfile()) : WheelSimulator(profile) {
+    override val wheelType = WHEEL_TYPE.VETERAN
+    override val pushesData = true
+
+    override fun liveFrames(): List<ByteArray> {
+        val frame = ByteArray(36)
+        frame[0] = 0xDC.toByte()
+        frame[1] = 0x5A
+        frame[2] = 0x5C
+        frame[3] = 0x20
+        frame.putShortBE(4, (voltage * 100).roundToInt())
+        frame.putShortBE(6, (speed * 10).roundToInt())
+        frame.putIntWordsBE(8, distance.toInt())
+        frame.putIntWordsBE(12, totalDistance.toInt())
+        frame.putShortBE(16, (current * 10).roundToInt())
+        frame.putShortBE(18, (temperature * 100).roundToInt())
+        frame.putShortBE(28, 1034) // version 001.0.34
+        return listOf(frame)
+    }
+}
+
+class KingsongSimulator(profile: RideProfile = RideProfile()) : WheelSimulator(profile) {
+    override val wheelType = WHEEL_TYPE.KINGSONG
+    override val pushesData = true
+    private var frames = 0
+
+    override fun liveFrames(): List<ByteArray> {
+        val live = frame(0xA9)
+        live.putShortLE(2, (voltage * 100).roundToInt())
+        live.putShortLE(4, (speed * 100).roundToInt())
+        live.putIntWordsLE(6, totalDistance.toInt())
+        live.putShortLE(10, (current * 100).roundToInt())
+        live.putShortLE(12, (temperature * 100).roundToInt())
+        if (frames++ % 5 != 0) {
+            return listOf(live)
+        }
+        val trip = frame(0xB9)
+        trip.putIntWordsLE(2, distance.toInt())
+        trip.putShortLE(14, (temperature * 100).roundToInt())
+        return listOf(live, trip)
+    }
+
+    override fun onWrite(data: ByteArray): List<ByteArray> {
+        if (data.size < 20 || data[0] != 0xAA.toByte() || data[1] != 0x55.toByte()) {
+            return emptyList()
+        }
+        return when (data[16].toInt() and 0xFF) {
+            0x9B -> listOf(frame(0xBB).also { NAME.copyInto(it, 2) })
+            0x63 -> listOf(frame(0xB3).also {
+                SERIAL.copyInto(it, 2, 0, 14)
+                SERIAL.copyInto(it, 17, 14, 17)
+            })
+            // the app confirms the alarms with the same frame, which is not answered
+            0x98 -> if (data[4].toInt() == 0) listOf(alarms()) else emptyList()
+            else -> emptyList()
+        }
+    }
+
+    private fun alarms(): ByteArray {
+        val frame = frame(0xA4)
+        frame[4] = 35
+        frame[6] = 40
+        frame[8] = 45
+        frame[10] = 50
+        return frame
+    }
+
+    private fun frame(type: Int): ByteArray {
+        val frame = ByteArray(20)
+        frame[0] = 0xAA.toByte()
+        frame[1] = 0x55
+        frame[16] = type.toByte()
+        frame[17] = 0x14
+        frame[18] = 0x5A
+        frame[19] = 0x5A
+        return frame
+    }
+
+    companion object {
+        val NAME = "KS-16X-2005".toByteArray()
+        val SERIAL = "KS16X000000000001".toByteArray()
+    }
+}
+
+/**
+ * InMotion wheels before V11, they answer the fast and slow info requests after the pin code.
+ */
+class InmotionSimulator(profile: RideProfile = RideProfile()) : WheelSimulator(profile) {
+    override val wheelType = WHEEL_TYPE.INMOTION
+    private val unpacker = InMotionAdapter.InMotionUnpacker()
+    private val received = InMotionAdapter.CANMessage()
+
+    override fun onWrite(data: ByteArray): List<ByteArray> {
+        val answers = mutableListOf<ByteArray>()
+        for (c in data) {
+            if (!unpacker.addChar(c.toInt())) {
+                continue
+            }
+            val request = InMotionAdapter.CANMessage.verify(unpacker.buffer, unpacker.size, received) ?: continue
+            answers.add(when (request.id) {
+                InMotionAdapter.CANMessage.IDValue.GetFastInfo.value -> extended(request.id, fastInfo())
+                InMotionAdapter.CANMessage.IDValue.GetSlowInfo.value -> extended(request.id, slowInfo())
+                else -> accepted(request.id)
+            })
+        }
+        return answers
+    }
+
+    private fun fastInfo(): ByteArray {
+        val info = ByteArray(80)
+        // both wheel sensors, in 1/3812 m/s
+        val wheelSpeed = (speed / 3.6 * SPEED_FACTOR).roundToInt()
+        info.putIntLE(12, wheelSpeed)
+        info.putIntLE(16, wheelSpeed)
+        info.putIntLE(20, (current * 100).roundToInt())
+        info.putIntLE(24, (voltage * 100).roundToInt())
+        info[32] = temperature.roundToInt().toByte()
+        info[34] = temperature.roundToInt().toByte()
+        info.putIntLE(44, totalDistance.toInt())
+        info.putIntLE(48, distance.toInt())
+        info.putIntLE(60, 1) // drive
+        return info
+    }
+
+    private fun slowInfo(): ByteArray {
+        val info = ByteArray(133)
+        SERIAL.copyInto(info)
+        info.putShortLE(24, 34)
+        info[26] = 2
+        info[27] = 1
+        info.putShortLE(60, 30_000)
+        // model id "87", V8S
+        info[104] = 7
+        info[107] = 8
+        return info
+    }
+
+    private fun accepted(id: Int): ByteArray {
+        val message = InMotionAdapter.CANMessage()
+        message.id = id
+        message.len = 8
+        message.ch = 5
+        message.data[0] = 1
+        return message.writeBuffer()
+    }
+
+    private fun extended(id: Int, exData: ByteArray): ByteArray {
+        val message = InMotionAdapter.CANMessage()
+        message.id = id
+        message.len = 0xFE.toByte().toInt()
+        message.ch = 5
+        message.data.putIntLE(0, exData.size)
+        message.ex_data = exData
+        message.exLength = exData.size
+        return message.writeBuffer()
+    }
+
+    companion object {
+        const val SPEED_FACTOR = 3812.0
+        // 0123456789ABCDEF, stored backwards
+        val SERIAL = byteArrayOf(0xEF.toByte(), 0xCD.toByte(), 0xAB.toByte(), 0x89.toByte(), 0x67, 0x45, 0x23, 0x01)
+    }
+}
+
+/**
+ * InMotion V11 with main board 1.4, it answers every request with the same flags and command.
+ */
+class InmotionV2Simulator(profile: RideProfile = RideProfile()) : WheelSimulator(profile) {
+    override val wheelType = WHEEL_TYPE.INMOTION_V2
+    private val unpacker = InmotionAdapterV2.InmotionUnpackerV2()
+    private val received = InmotionAdapterV2.Message()
+
+    override fun onWrite(data: ByteArray): List<ByteArray> {
+        val answers = mutableListOf<ByteArray>()
+        for (c in data) {
+            if (!unpacker.addChar(c.toInt())) {
+                continue
+            }
+            val request = InmotionAdapterV2.Message.verify(unpacker.buffer, unpacker.size, received) ?: continue
+            answers.add(answer(request.flags, request.command, answerData(request)))
+        }
+        return answers
+    }
+
+    private fun answerData(request: InmotionAdapterV2.Message): ByteArray {
+        if (request.flags == InmotionAdapterV2.Message.Flag.Initial.value
+                && request.command == InmotionAdapterV2.Message.Command.MainInfo.value) {
+            return when (if (request.dataLength > 0) request.data[request.offset].toInt() else 0) {
+                0x01 -> byteArrayOf(0x01, 0x02, 0x06, 0x01, 0x02, 0x01, 0x00) // V11
+                0x02 -> byteArrayOf(0x02) + SERIAL
+                0x06 -> ByteArray(25).also {
+                    it[0] = 0x06
+                    it[13] = 4 // main board 1.4
+                    it[14] = 1
+                }
+                else -> byteArrayOf(0x01)
+            }
+        }
+        return when (request.command) {
+            InmotionAdapterV2.Message.Command.RealTimeInfo.value -> realTimeInfo()
+            InmotionAdapterV2.Message.Command.Settings.value -> ByteArray(26).also { it[0] = 0x20 }
+            InmotionAdapterV2.Message.Command.TotalStats.value -> ByteArray(20).also {
+                it.putIntLE(0, (totalDistance / 10).toInt())
+            }
+            else -> byteArrayOf(0x01)
+        }
+    }
+
+    private fun realTimeInfo(): ByteArray {
+        val info = ByteArray(72)
+        info.putShortLE(0, (voltage * 100).roundToInt())
+        info.putShortLE(2, (current * 100).roundToInt())
+        info.putShortLE(4, (speed * 100).roundToInt())
+        info.putShortLE(26, (distance / 10).toInt())
+        info.putShortLE(28, 8000) // 80 %
+        info.putShortLE(34, 5000)
+        info.putShortLE(36, 6000)
+        // temperatures are offset by 176
+        for (i in 42..47) {
+            info[i] = (temperature.roundToInt() + 176).toByte()
+        }
+        return info
+    }
+
+    private fun answer(flags: Int, command: Int, data: ByteArray): ByteArray {
+        val message = InmotionAdapterV2.Message()
+        message.flags = flags
+        message.command = command
+        message.setData(data)
+        return message.writeBuffer()
+    }
+
+    companion object {
+        val SERIAL = "1480CA122207002F".toByteArray()
+    }
+}
+
+/**
+ * Ninebot Z, the answers are encrypted with the key once the app asked for it.
+ */
+class NinebotZSimulator(profile: RideProfile = RideProfile()) : WheelSimulator(profile) {
+    override val wheelType = WHEEL_TYPE.NINEBOT_Z
+    private val unpacker = NinebotZAdapter.NinebotZUnpacker()
+    private var gamma = ByteArray(16)
+
+    override fun onWrite(data: ByteArray): List<ByteArray> {
+        val answers = mutableListOf<ByteArray>()
+        for (c in data) {
+            if (!unpacker.addChar(c.toInt())) {
+                continue
+            }
+            val request = NinebotZAdapter.CANMessage.verify(unpacker.buffer, unpacker.size, gamma) ?: continue
+            val answerData = answerData(request.destination, request.parameter) ?: continue
+            answers.add(frame(request.destination, request.parameter, answerData))
+            if (request.destination == KEY_GENERATOR) {
+                gamma = KEY
+            }
+        }
+        return answers
+    }
+
+    private fun answerData(source: Int, parameter: Int): ByteArray? {
+        if (source == KEY_GENERATOR) {
+            return KEY
+        }
+        if (source == BMS1 || source == BMS2) {
+            return when (parameter) {
+                0x10 -> ByteArray(34).also { SERIAL.copyInto(it) }
+                0x30 -> ByteArray(24).also {
+                    it.putShortLE(4, 80)
+                    it.putShortLE(8, (voltage * 100).roundToInt())
+                }
+                0x40 -> ByteArray(32).also {
+                    for (i in 0 until 14) {
+                        it.putShortLE(i * 2, (voltage * 1000 / 14).roundToInt())
+                    }
+                }
+                else -> null
+            }
+        }
+        return when (parameter) {
+            NinebotZAdapter.CANMessage.Param.SerialNumber.value -> SERIAL
+            NinebotZAdapter.CANMessage.Param.LockMode.value -> ByteArray(32)
+            NinebotZAdapter.CANMessage.Param.LedMode.value -> ByteArray(28)
+            NinebotZAdapter.CANMessage.Param.LiveData.value -> liveData()
+            else -> byteArrayOf(0x23, 0x01) // versions and the rest
+        }
+    }
+
+    private fun liveData(): ByteArray {
+        val live = ByteArray(32)
+        live.putShortLE(8, 80)
+        live.putShortLE(10, (speed * 100).roundToInt())
+        live.putIntLE(14, totalDistance.toInt())
+        live.putShortLE(18, (distance / 10).toInt())
+        live.putShortLE(22, (temperature * 10).roundToInt())
+        live.putShortLE(24, (voltage * 100).roundToInt())
+        live.putShortLE(26, (current * 100).roundToInt())
+        return live
+    }
+
+    private fun frame(source: Int, parameter: Int, data: ByteArray): ByteArray {
+        val frame = ByteArray(data.size + 9)
+        frame[0] = 0x5A
+        frame[1] = 0xA5.toByte()
+        frame[2] = data.size.toByte()
+        frame[3] = source.toByte()
+        frame[4] = APP.toByte()
+        frame[5] = 0x04
+        frame[6] = parameter.toByte()
+        data.copyInto(frame, 7)
+        var check = 0
+        for (i in 2 until frame.size - 2) {
+            check += frame[i].toInt() and 0xFF
+        }
+        frame.putShortLE(frame.size - 2, check xor 0xFFFF)
+        NinebotZAdapter.CANMessage.crypto(frame, 2, frame.size, gamma)
+        return frame
+    }
+
+    companion object {
+        private const val BMS1 = 0x11
+        private const val BMS2 = 0x12
+        private const val KEY_GENERATOR = 0x16
+        private const val APP = 0x3E
+        val SERIAL = "N3OTC2002C0001".toByteArray()
+        val KEY = ByteArray(16) { (it * 17 + 3).toByte() }
+    }
+}
+
+private fun ByteArray.putShortLE(offset: Int, value: Int) {
+    this[offset] = value.toByte()
+    this[offset + 1] = (value shr 8).toByte()
+}
+
+private fun ByteArray.putShortBE(offset: Int, value: Int) {
+    this[offset] = (value shr 8).toByte()
+    this[offset + 1] = value.toByte()
+}
+
+private fun ByteArray.putIntLE(offset: Int, value: Int) {
+    putShortLE(offset, value)
+    putShortLE(offset + 2, value shr 16)
+}
+
+private fun ByteArray.putIntBE(offset: Int, value: Int) {
+    putShortBE(offset, value shr 16)
+    putShortBE(offset + 2, value)
+}
+
+// two little endian 16 bit words, the high word first
+private fun ByteArray.putIntWordsLE(offset: Int, value: Int) {
+    putShortLE(offset, value shr 16)
+    putShortLE(offset + 2, value)
+}
+
+// two big endian 16 bit words, the low word first
+private fun ByteArray.putIntWordsBE(offset: Int, value: Int) {
+    putShortBE(offset, value)
+    putShortBE(offset + 2, value shr 16)
+}
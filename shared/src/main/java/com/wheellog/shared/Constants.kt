@@ -10,6 +10,8 @@ class Constants {
         const val wearOsPagesItemPath = "/page_settings"
         const val wearOsStartPath = "/start/wearos"
         const val wearOsDataMessagePath = "/messages"
+        const val wearOsDeltaMessagePath = "/wheel_delta"
+        const val wearOsAckMessagePath = "/wheel_delta_ack"
         const val wearOsPingMessage = "ping"
         const val wearOsPongMessage = "pong"
         const val wearOsFinishMessage = "finish"
@@ -0,0 +1,90 @@
+package com.wheellog.shared
+
+/**
+ * Reads messages created by [WearDeltaEncoder].
+ */
+class WearDeltaDecoder {
+    fun interface Listener {
+        /**
+         * @param text is set only for text fields.
+         */
+        fun onField(field: WearField, value: Double, text: String?)
+    }
+
+    private var data = ByteArray(0)
+    private var position = 0
+
+    var sequence = 0
+        private set
+    var isKeyFrame = false
+        private set
+    var isAlarm = false
+        private set
+
+    /**
+     * @return false if the message has an unknown version or is truncated.
+     */
+    fun decode(message: ByteArray, listener: Listener): Boolean {
+        data = message
+        position = 0
+        try {
+            if (readByte() != WearDeltaEncoder.VERSION) {
+                return false
+            }
+            val flags = readByte()
+            isKeyFrame = flags and WearDeltaEncoder.FLAG_KEY_FRAME != 0
+            isAlarm = flags and WearDeltaEncoder.FLAG_ALARM != 0
+            sequence = readVarLong().toInt()
+            while (position < data.size) {
+                val index = readByte()
+                if (index >= WearField.all.size) {
+                    // field from a newer version, the rest can't be parsed
+                    return true
+                }
+                val field = WearField.all[index]
+                if (field.isText) {
+                    val size = readVarLong().toInt()
+                    if (size < 0 || position + size > data.size) {
+                        return false
+                    }
+                    val text = String(data, position, size, Charsets.UTF_8)
+                    position += size
+                    listener.onField(field, 0.0, text)
+                } else {
+                    listener.onField(field, field.restore(unZigZag(readVarLong())), null)
+                }
+            }
+            return true
+        } catch (e: IndexOutOfBoundsException) {
+            return false
+        } finally {
+            data = EMPTY
+        }
+    }
+
+    private fun readByte(): Int {
+        return data[position++].toInt() and 0xFF
+    }
+
+    private fun readVarLong(): Long {
+        var result = 0L
+        var shift = 0
+        while (shift < 64) {
+            val b = readByte()
+            result = result or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) {
+                return result
+            }
+            shift += 7
+        }
+        return result
+    }
+
+    companion object {
+        private val EMPTY = ByteArray(0)
+
+        fun unZigZag(value: Long): Long {
+            return (value ushr 1) xor -(value and 1)
+        }
+    }
+}
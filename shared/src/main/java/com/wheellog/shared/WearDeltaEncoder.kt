@@ -0,0 +1,127 @@
+package com.wheellog.shared
+
+/**
+ * Builds binary wear telemetry messages that contain only the fields
+ * changed since the previous message.
+ *
+ * Format: version, flags, sequence (varint), then pairs of field ordinal and
+ * zigzag varint value. Text values are written as varint length and UTF-8 bytes.
+ */
+class WearDeltaEncoder {
+    private val values = LongArray(WearField.all.size)
+    private val sentValues = LongArray(WearField.all.size)
+    private val texts = arrayOfNulls<String>(WearField.all.size)
+    private val sentTexts = arrayOfNulls<String>(WearField.all.size)
+    private var keyFrame = true
+    private var buffer = ByteArray(64)
+    private var length = 0
+
+    var sequence = 0
+        private set
+
+    fun set(field: WearField, value: Double) {
+        values[field.ordinal] = field.quantize(value)
+    }
+
+    fun set(field: WearField, value: Int) {
+        set(field, value.toDouble())
+    }
+
+    fun set(field: WearField, value: Boolean) {
+        values[field.ordinal] = if (value) 1 else 0
+    }
+
+    fun set(field: WearField, value: String) {
+        texts[field.ordinal] = value
+    }
+
+    /**
+     * The next message will contain all fields, e.g. after the watch was (re)connected
+     * or a message was lost.
+     */
+    fun requestKeyFrame() {
+        keyFrame = true
+    }
+
+    fun hasChanges(): Boolean {
+        if (keyFrame) {
+            return true
+        }
+        for (field in WearField.all) {
+            if (isChanged(field)) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * @return message with changed fields or null if nothing has changed.
+     */
+    fun encode(alarm: Boolean = false): ByteArray? {
+        if (!hasChanges()) {
+            return null
+        }
+        sequence = (sequence + 1) and SEQUENCE_MASK
+        length = 0
+        writeByte(VERSION)
+        writeByte((if (keyFrame) FLAG_KEY_FRAME else 0) or (if (alarm) FLAG_ALARM else 0))
+        writeVarLong(sequence.toLong())
+        for (field in WearField.all) {
+            if (!keyFrame && !isChanged(field)) {
+                continue
+            }
+            val i = field.ordinal
+            writeByte(i)
+            if (field.isText) {
+                val bytes = (texts[i] ?: "").toByteArray(Charsets.UTF_8)
+                writeVarLong(bytes.size.toLong())
+                ensureCapacity(length + bytes.size)
+                System.arraycopy(bytes, 0, buffer, length, bytes.size)
+                length += bytes.size
+                sentTexts[i] = texts[i]
+            } else {
+                writeVarLong(zigZag(values[i]))
+                sentValues[i] = values[i]
+            }
+        }
+        keyFrame = false
+        return buffer.copyOf(length)
+    }
+
+    private fun isChanged(field: WearField): Boolean {
+        val i = field.ordinal
+        return if (field.isText) texts[i] != sentTexts[i] else values[i] != sentValues[i]
+    }
+
+    private fun writeByte(value: Int) {
+        ensureCapacity(length + 1)
+        buffer[length++] = value.toByte()
+    }
+
+    private fun writeVarLong(value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            writeByte(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        writeByte(v.toInt())
+    }
+
+    private fun ensureCapacity(size: Int) {
+        if (size > buffer.size) {
+            buffer = buffer.copyOf(maxOf(size, buffer.size * 2))
+        }
+    }
+
+    companion object {
+        const val VERSION = 1
+        const val FLAG_KEY_FRAME = 1
+        const val FLAG_ALARM = 2
+        const val SEQUENCE_MASK = 0xFFFF
+
+        fun zigZag(value: Long): Long {
+            return (value shl 1) xor (value shr 63)
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.wheellog.shared
+
+import kotlin.math.floor
+import kotlin.math.roundToLong
+
+/**
+ * Fields of the binary wear telemetry message.
+ * Values are sent as integers multiplied by [scale], so a field is sent again
+ * only when its displayed value has changed.
+ * The ordinal is written to the message, new fields must be added to the end.
+ */
+enum class WearField(val scale: Double, val isText: Boolean = false) {
+    Speed(10.0),
+    MaxSpeed(10.0),
+    Voltage(100.0),
+    Current(100.0),
+    MaxCurrent(100.0),
+    Power(1.0),
+    MaxPower(1.0),
+    Pwm(100.0),
+    MaxPwm(100.0),
+    Temperature(1.0),
+    MaxTemperature(1.0),
+    Battery(1.0),
+    BatteryLowest(1.0),
+    Distance(1000.0),
+    MainUnit(1.0, true),
+    CurrentOnDial(1.0),
+    Alarm(1.0),
+    // only minutes are shown on the watch
+    Timestamp(1.0 / 60000);
+
+    fun quantize(value: Double): Long {
+        return when {
+            value.isNaN() -> 0
+            // the watch shows hh:mm, minutes are cut as the clock does
+            this == Timestamp -> floor(value * scale).toLong()
+            else -> (value * scale).roundToLong()
+        }
+    }
+
+    fun restore(value: Long): Double {
+        return value / scale
+    }
+
+    companion object {
+        val all = values()
+    }
+}
@@ -0,0 +1,81 @@
+package com.wheellog.shared
+
+/**
+ * Adapts the telemetry send rate to the latency acknowledged by the watch.
+ * Only one message waits for an acknowledgement at a time, so a slow link
+ * is never flooded. A message without an acknowledgement for [maxInterval]
+ * is treated as lost.
+ */
+class WearSendRate(
+    private val minInterval: Long = 100,
+    private val maxInterval: Long = 2000
+) {
+    private var pendingSequence = -1
+    private var pendingTime = 0L
+    private var lastSendTime = Long.MIN_VALUE / 2
+
+    /**
+     * Smoothed round-trip time in ms, -1 until the first acknowledgement.
+     */
+    var latency = -1.0
+        private set
+
+    var interval = minInterval
+        private set
+
+    fun canSend(now: Long): Boolean {
+        return pendingSequence == -1 && now - lastSendTime >= interval
+    }
+
+    fun onSent(sequence: Int, now: Long) {
+        lastSendTime = now
+        if (pendingSequence == -1) {
+            pendingSequence = sequence
+            pendingTime = now
+        }
+    }
+
+    fun onAck(sequence: Int, now: Long) {
+        if (sequence != pendingSequence) {
+            return
+        }
+        val rtt = (now - pendingTime).toDouble()
+        latency = if (latency < 0) rtt else latency * (1 - SMOOTHING) + rtt * SMOOTHING
+        interval = latency.toLong().coerceIn(minInterval, maxInterval)
+        pendingSequence = -1
+    }
+
+    /**
+     * Time in ms until [canSend] can be true, with the pending message
+     * acknowledged at the latest when it is considered lost.
+     */
+    fun delayUntilSend(now: Long): Long {
+        val untilInterval = lastSendTime + interval - now
+        val untilTimeout = if (pendingSequence == -1) 0 else pendingTime + maxInterval - now
+        return maxOf(untilInterval, untilTimeout, 0)
+    }
+
+    /**
+     * @return true if the pending message is considered lost,
+     * the next message should then contain all fields.
+     */
+    fun checkTimeout(now: Long): Boolean {
+        if (pendingSequence == -1 || now - pendingTime < maxInterval) {
+            return false
+        }
+        pendingSequence = -1
+        interval = maxInterval
+        return true
+    }
+
+    fun reset() {
+        pendingSequence = -1
+        latency = -1.0
+        interval = minInterval
+        lastSendTime = Long.MIN_VALUE / 2
+    }
+
+    companion object {
+        private const val SMOOTHING = 0.2
+    }
+}
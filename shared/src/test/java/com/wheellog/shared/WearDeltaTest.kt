@@ -0,0 +1,143 @@
+package com.wheellog.shared
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Before
+import org.junit.Test
+
+internal class WearDeltaTest {
+
+    private lateinit var encoder: WearDeltaEncoder
+    private lateinit var decoder: WearDeltaDecoder
+    private val values = HashMap<WearField, Double>()
+    private val texts = HashMap<WearField, String>()
+    private val listener = WearDeltaDecoder.Listener { field, value, text ->
+        if (text != null) {
+            texts[field] = text
+        } else {
+            values[field] = value
+        }
+    }
+
+    @Before
+    fun setUp() {
+        encoder = WearDeltaEncoder()
+        decoder = WearDeltaDecoder()
+    }
+
+    @Test
+    fun `first message contains all fields`() {
+        // Arrange.
+        encoder.set(WearField.Speed, 25.34)
+        encoder.set(WearField.Battery, 87)
+        encoder.set(WearField.MainUnit, "km/h")
+
+        // Act.
+        val message = encoder.encode()!!
+        val result = decoder.decode(message, listener)
+
+        // Assert.
+        assertThat(result).isTrue()
+        assertThat(decoder.isKeyFrame).isTrue()
+        assertThat(values.size + texts.size).isEqualTo(WearField.all.size)
+        assertThat(values[WearField.Speed]).isEqualTo(25.3)
+        assertThat(values[WearField.Battery]).isEqualTo(87.0)
+        assertThat(texts[WearField.MainUnit]).isEqualTo("km/h")
+    }
+
+    @Test
+    fun `only changed fields are sent`() {
+        // Arrange.
+        encoder.set(WearField.Speed, 10.0)
+        encoder.set(WearField.Voltage, 84.1)
+        encoder.encode()
+
+        // Act.
+        encoder.set(WearField.Speed, 10.01) // same displayed value
+        val nothing = encoder.encode()
+        encoder.set(WearField.Voltage, -1.25)
+        val message = encoder.encode(true)!!
+        decoder.decode(message, listener)
+
+        // Assert.
+        assertThat(nothing).isNull()
+        assertThat(decoder.isKeyFrame).isFalse()
+        assertThat(decoder.isAlarm).isTrue()
+        assertThat(decoder.sequence).isEqualTo(encoder.sequence)
+        assertThat(values.keys).containsExactly(WearField.Voltage)
+        assertThat(values[WearField.Voltage]).isEqualTo(-1.25)
+    }
+
+    @Test
+    fun `key frame after request`() {
+        // Arrange.
+        encoder.encode()
+
+        // Act.
+        encoder.requestKeyFrame()
+        decoder.decode(encoder.encode()!!, listener)
+
+        // Assert.
+        assertThat(decoder.isKeyFrame).isTrue()
+        assertThat(values.size + texts.size).isEqualTo(WearField.all.size)
+    }
+
+    @Test
+    fun `truncated message is rejected`() {
+        // Arrange.
+        encoder.set(WearField.Timestamp, 1_640_000_000_000.0)
+        val message = encoder.encode()!!
+
+        // Act.
+        val result = decoder.decode(message.copyOf(message.size - 1), listener)
+
+        // Assert.
+        assertThat(result).isFalse()
+    }
+
+    @Test
+    fun `send rate follows acknowledged latency`() {
+        // Arrange.
+        val rate = WearSendRate(100, 2000)
+
+        // Act & Assert.
+        assertThat(rate.canSend(0)).isTrue()
+        rate.onSent(1, 0)
+        assertThat(rate.canSend(50)).isFalse()
+        rate.onAck(1, 500)
+        assertThat(rate.latency).isEqualTo(500.0)
+        assertThat(rate.interval).isEqualTo(500)
+        assertThat(rate.canSend(499)).isFalse()
+        assertThat(rate.canSend(500)).isTrue()
+        rate.onSent(2, 500)
+        assertThat(rate.checkTimeout(2000)).isFalse()
+        assertThat(rate.checkTimeout(2500)).isTrue()
+        assertThat(rate.canSend(2500)).isTrue()
+    }
+
+    @Test
+    fun `delay until send waits for the interval or the lost message`() {
+        // Arrange.
+        val rate = WearSendRate(100, 2000)
+
+        // Act & Assert.
+        assertThat(rate.delayUntilSend(0)).isEqualTo(0)
+        rate.onSent(1, 0)
+        assertThat(rate.delayUntilSend(50)).isEqualTo(1950)
+        rate.onAck(1, 300)
+        assertThat(rate.delayUntilSend(300)).isEqualTo(0)
+        assertThat(rate.delayUntilSend(250)).isEqualTo(50)
+    }
+
+    @Test
+    fun `timestamp is cut to the minute`() {
+        // Arrange.
+        val time = 2 * 60_000.0 + 45_000
+
+        // Act.
+        val quantized = WearField.Timestamp.quantize(time)
+
+        // Assert.
+        assertThat(quantized).isEqualTo(2)
+        assertThat(WearField.Timestamp.restore(quantized)).isWithin(0.001).of(2 * 60_000.0)
+    }
+}
@@ -12,7 +12,10 @@ import com.cooper.wheellog.utils.CommonUtils.Companion.sendMessage
 import com.cooper.wheellog.utils.CommonUtils.Companion.vibrate
 import com.google.android.gms.wearable.*
 import com.wheellog.shared.Constants
+import com.wheellog.shared.WearDeltaDecoder
+import com.wheellog.shared.WearField
 import com.wheellog.shared.WearPage
+import java.text.SimpleDateFormat
 import java.util.*
 
 
@@ -24,6 +27,40 @@ class WearActivity : FragmentActivity(),
     private lateinit var mMainRecyclerAdapter: MainRecyclerAdapter
     private var wd = WearData()
     private var toast: Toast? = null
+    private val deltaDecoder = WearDeltaDecoder()
+    private val timeFormat = SimpleDateFormat("HH:mm", Locale.US)
+    private val deltaListener = WearDeltaDecoder.Listener { field, value, text ->
+        wd.apply {
+            when (field) {
+                WearField.Speed -> speed.value = value
+                WearField.MaxSpeed -> speed.max = value
+                WearField.Voltage -> voltage.value = value
+                WearField.Current -> current.value = value
+                WearField.MaxCurrent -> current.max = value
+                WearField.Power -> power.value = value
+                WearField.MaxPower -> power.max = value
+                WearField.Pwm -> pwm.value = value
+                WearField.MaxPwm -> pwm.max = value
+                WearField.Temperature -> temperature.value = value
+                WearField.MaxTemperature -> temperature.max = value
+                WearField.Battery -> battery = value.toInt()
+                WearField.BatteryLowest -> batteryLowest = value.toInt()
+                WearField.Distance -> distance = value
+                WearField.MainUnit -> mainUnit = text ?: mainUnit
+                WearField.CurrentOnDial -> currentOnDial = value != 0.0
+                WearField.Alarm -> {
+                    val alarmInt = value.toInt()
+                    alarmSpeed = alarmInt and 1 != 0
+                    alarmCurrent = alarmInt and 2 != 0
+                    alarmTemp = alarmInt and 4 != 0
+                }
+                WearField.Timestamp -> {
+                    timeStamp = value.toLong()
+                    timeString = timeFormat.format(Date(timeStamp))
+                }
+            }
+        }
+    }
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -80,6 +117,10 @@ class WearActivity : FragmentActivity(),
     }
 
     override fun onMessageReceived(messageEvent: MessageEvent) {
+        if (messageEvent.path == Constants.wearOsDeltaMessagePath) {
+            applyDelta(messageEvent)
+            return
+        }
         if (messageEvent.path == messagePath) {
             when (messageEvent.data.toString(Charsets.UTF_8)) {
                 // TODO: Localization
@@ -148,6 +189,30 @@ class WearActivity : FragmentActivity(),
         }
     }
 
+    private fun applyDelta(messageEvent: MessageEvent) {
+        if (!deltaDecoder.decode(messageEvent.data, deltaListener)) {
+            return
+        }
+        // the phone sends the next message only after this one is acknowledged
+        val sequence = deltaDecoder.sequence
+        Wearable.getMessageClient(this).sendMessage(
+            messageEvent.sourceNodeId,
+            Constants.wearOsAckMessagePath,
+            byteArrayOf((sequence shr 8).toByte(), sequence.toByte()))
+        mMainRecyclerAdapter.updateScreen()
+        if (deltaDecoder.isAlarm && (wd.alarmTemp || wd.alarmSpeed || wd.alarmCurrent)) {
+            vibrate(this, longArrayOf(0, 500, 50, 300))
+            // TODO: localization
+            showAToast(
+                when {
+                    wd.alarmTemp -> "temperature"
+                    wd.alarmCurrent -> "current"
+                    else -> "speed"
+                }
+            )
+        }
+    }
+
     private fun updatePages(map: DataMap) {
         val pagesString = map.getString(Constants.wearOsPagesData, "")
         if (pagesString != "") {